@@ -48,7 +48,7 @@ import timber.log.Timber;
  */
 public class KeychainDatabase {
     private static final String DATABASE_NAME = "openkeychain.db";
-    private static final int DATABASE_VERSION = 33;
+    private static final int DATABASE_VERSION = 34;
     private final SupportSQLiteOpenHelper supportSQLiteOpenHelper;
 
     private static KeychainDatabase sInstance;
@@ -116,10 +116,11 @@ public class KeychainDatabase {
         db.execSQL(OverriddenWarningsModel.CREATE_TABLE);
         db.execSQL(AutocryptPeersModel.CREATE_TABLE);
         db.execSQL(ApiAllowedKeysModel.CREATE_TABLE);
+        db.execSQL(KeyStatusModel.CREATE_TABLE);
+        db.execSQL(EmailStatusModel.CREATE_TABLE);
         db.execSQL(KeysModel.UNIFIEDKEYVIEW);
         db.execSQL(KeysModel.VALIDKEYSVIEW);
         db.execSQL(KeysModel.VALIDMASTERKEYSVIEW);
-        db.execSQL(UserPacketsModel.UIDSTATUS);
 
         db.execSQL("CREATE INDEX keys_by_rank ON keys (" + KeysModel.RANK + ", " + KeysModel.MASTER_KEY_ID + ");");
         db.execSQL("CREATE INDEX uids_by_rank ON user_packets (" + UserPacketsModel.RANK + ", "
@@ -128,6 +129,8 @@ public class KeychainDatabase {
                 + CertsModel.VERIFIED + ", " + CertsModel.MASTER_KEY_ID + ");");
         db.execSQL("CREATE INDEX uids_by_email ON user_packets ("
                 + UserPacketsModel.EMAIL + ");");
+        db.execSQL("CREATE INDEX email_status_by_master_key_id ON email_status ("
+                + EmailStatusModel.MASTER_KEY_ID + ");");
 
         Preferences.getPreferences(context).setKeySignaturesTableInitialized();
     }
@@ -355,6 +358,41 @@ public class KeychainDatabase {
 
             case 32:
                 recreateUnifiedKeyView(db);
+
+            case 33:
+                createRecipientStatusTables(db);
+        }
+    }
+
+    /**
+     * Replaces the uidStatus view, which aggregated over all user ids for every lookup,
+     * with tables that are filled per key ring when it is saved.
+     */
+    private void createRecipientStatusTables(SupportSQLiteDatabase db) {
+        try {
+            db.beginTransaction();
+
+            db.execSQL("DROP VIEW IF EXISTS uidStatus");
+            db.execSQL(KeyStatusModel.CREATE_TABLE);
+            db.execSQL(EmailStatusModel.CREATE_TABLE);
+            db.execSQL("CREATE INDEX IF NOT EXISTS email_status_by_master_key_id ON email_status (master_key_id);");
+
+            db.execSQL("INSERT INTO key_status (master_key_id, is_revoked, is_secure, is_verified, expiry, valid_from) "
+                    + "SELECT master_key_id, is_revoked, is_secure, "
+                    + "EXISTS (SELECT * FROM certs WHERE certs.master_key_id = keys.master_key_id AND certs.verified = 1), "
+                    + "expiry, validFrom "
+                    + "FROM keys WHERE rank = 0");
+            db.execSQL("INSERT INTO email_status (email, master_key_id, rank, user_id, verified) "
+                    + "SELECT user_packets.email, user_packets.master_key_id, user_packets.rank, user_packets.user_id, "
+                    + "MIN(certs.verified) "
+                    + "FROM user_packets LEFT JOIN certs ON (certs.master_key_id = user_packets.master_key_id "
+                    + "AND certs.rank = user_packets.rank AND certs.verified > 0) "
+                    + "WHERE user_packets.email IS NOT NULL "
+                    + "GROUP BY user_packets.master_key_id, user_packets.rank");
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
     }
 
@@ -387,9 +425,6 @@ public class KeychainDatabase {
             // noinspection deprecation
             db.execSQL("DROP VIEW IF EXISTS " + KeysModel.VALIDMASTERKEYS_VIEW_NAME);
             db.execSQL(KeysModel.VALIDMASTERKEYSVIEW);
-            // noinspection deprecation
-            db.execSQL("DROP VIEW IF EXISTS " + UserPacketsModel.UIDSTATUS_VIEW_NAME);
-            db.execSQL(UserPacketsModel.UIDSTATUS);
 
             db.setTransactionSuccessful();
         } finally {
@@ -11,6 +11,7 @@ import android.database.Cursor;
 import com.squareup.sqldelight.RowMapper;
 import org.sufficientlysecure.keychain.KeychainDatabase;
 import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 
 
 class AbstractDao {
@@ -35,6 +36,7 @@ class AbstractDao {
     }
 
     <T> List<T> mapAllRows(SupportSQLiteQuery query, RowMapper<T> mapper) {
+        long startTime = System.nanoTime();
         ArrayList<T> result = new ArrayList<>();
         try (Cursor cursor = getReadableDb().query(query)) {
             while (cursor.moveToNext()) {
@@ -42,6 +44,7 @@ class AbstractDao {
                 result.add(item);
             }
         }
+        recordQuery(query, startTime, result.size());
         return result;
     }
 
@@ -54,11 +57,26 @@ class AbstractDao {
     }
 
     <T> T mapSingleRow(SupportSQLiteQuery query, RowMapper<T> mapper) {
+        long startTime = System.nanoTime();
+        int rows = 0;
         try (Cursor cursor = getReadableDb().query(query)) {
             if (cursor.moveToNext()) {
+                rows = 1;
                 return mapper.map(cursor);
             }
+            return null;
+        } finally {
+            recordQuery(query, startTime, rows);
+        }
+    }
+
+    private void recordQuery(SupportSQLiteQuery query, long startTime, int rows) {
+        long elapsedNanos = System.nanoTime() - startTime;
+        MetricsRegistry.getInstance().recordNanos(MetricsRegistry.DB_QUERY, elapsedNanos);
+
+        QueryInstrumentation queryInstrumentation = QueryInstrumentation.getInstance();
+        if (queryInstrumentation.isEnabled()) {
+            queryInstrumentation.recordQuery(getReadableDb(), query, elapsedNanos, rows);
         }
-        return null;
     }
 }
@@ -22,6 +22,7 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
+import android.arch.persistence.db.SupportSQLiteDatabase;
 import android.content.Context;
 import android.database.Cursor;
 import android.support.annotation.Nullable;
@@ -116,6 +117,18 @@ public class AutocryptPeerDao extends AbstractDao {
         getDatabaseNotifyManager().notifyAutocryptUpdate(autocryptId, masterKeyId);
     }
 
+    /** Runs a number of updates in a single transaction. */
+    public void runInTransaction(Runnable updates) {
+        SupportSQLiteDatabase db = getWritableDb();
+        db.beginTransaction();
+        try {
+            updates.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     public List<AutocryptPeer> getAutocryptPeersForKey(long masterKeyId) {
         ArrayList<AutocryptPeer> result = new ArrayList<>();
         SqlDelightQuery query = AutocryptPeer.FACTORY.selectByMasterKeyId(masterKeyId);
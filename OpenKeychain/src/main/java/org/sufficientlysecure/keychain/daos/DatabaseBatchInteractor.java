@@ -6,8 +6,10 @@ import java.util.List;
 import android.arch.persistence.db.SupportSQLiteDatabase;
 
 import org.sufficientlysecure.keychain.CertsModel.InsertCert;
+import org.sufficientlysecure.keychain.EmailStatusModel.InsertEmailStatus;
 import org.sufficientlysecure.keychain.KeyRingsPublicModel.InsertKeyRingPublic;
 import org.sufficientlysecure.keychain.KeySignaturesModel.InsertKeySignature;
+import org.sufficientlysecure.keychain.KeyStatusModel.InsertKeyStatus;
 import org.sufficientlysecure.keychain.KeysModel.InsertKey;
 import org.sufficientlysecure.keychain.UserPacketsModel.InsertUserPacket;
 import org.sufficientlysecure.keychain.model.Certification;
@@ -25,6 +27,8 @@ public class DatabaseBatchInteractor {
     private final InsertUserPacket insertUserPacketStatement;
     private final InsertCert insertCertificationStatement;
     private final InsertKeySignature insertKeySignerStatement;
+    private final InsertKeyStatus insertKeyStatusStatement;
+    private final InsertEmailStatus insertEmailStatusStatement;
 
     DatabaseBatchInteractor(SupportSQLiteDatabase db) {
         this.db = db;
@@ -34,6 +38,8 @@ public class DatabaseBatchInteractor {
         insertUserPacketStatement = UserPacket.createInsertStatement(db);
         insertCertificationStatement = Certification.createInsertStatement(db);
         insertKeySignerStatement = KeySignature.createInsertStatement(db);
+        insertKeyStatusStatement = new InsertKeyStatus(db);
+        insertEmailStatusStatement = new InsertEmailStatus(db);
     }
 
     public SupportSQLiteDatabase getDb() {
@@ -63,6 +69,18 @@ public class DatabaseBatchInteractor {
         }
     }
 
+    /**
+     * Derives the key_status and email_status rows of a key ring from its keys, user ids and certs.
+     * Must be called after the batch that inserted the key ring was applied, the old rows are
+     * deleted on cascade together with the previous version of the key ring.
+     */
+    void insertRecipientStatus(long masterKeyId) {
+        insertKeyStatusStatement.bind(masterKeyId);
+        insertKeyStatusStatement.executeInsert();
+        insertEmailStatusStatement.bind(masterKeyId);
+        insertEmailStatusStatement.executeInsert();
+    }
+
     public static BatchOp createInsertKeyRingPublic(KeyRingPublic keyRingPublic) {
         return new BatchOp(keyRingPublic, null, null, null, null);
     }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.daos;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedKeyRing.VerificationStatus;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKeyRing;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKey;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKey.SecretKeyType;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKeyRing;
+import org.sufficientlysecure.keychain.pgp.exception.PgpKeyNotFoundException;
+
+
+/**
+ * A KeyRepository over a fixed set of secret key rings held in memory. It answers the lookups
+ * that PgpSignEncryptOperation and PgpDecryptVerifyOperation make, without touching the database.
+ * This lets the benchmark run the real operations on throwaway keys, without adding them to the
+ * user's keyring. Lookups that are not overridden here are not supported.
+ */
+public class InMemoryKeyRepository extends KeyRepository {
+    private final Map<Long, CanonicalizedSecretKeyRing> mSecretKeyRings = new HashMap<>();
+    private final Map<Long, CanonicalizedPublicKeyRing> mPublicKeyRings = new HashMap<>();
+    private final Map<Long, Long> mMasterKeyIdsBySubKeyId = new HashMap<>();
+    private final Map<Long, SecretKeyType> mSecretKeyTypes = new HashMap<>();
+
+    public InMemoryKeyRepository(List<CanonicalizedSecretKeyRing> secretKeyRings) throws IOException {
+        super(null, null, null, null, new OperationLog(), 0);
+
+        for (CanonicalizedSecretKeyRing secretKeyRing : secretKeyRings) {
+            long masterKeyId = secretKeyRing.getMasterKeyId();
+            mSecretKeyRings.put(masterKeyId, secretKeyRing);
+            mPublicKeyRings.put(masterKeyId, new CanonicalizedPublicKeyRing(
+                    secretKeyRing.getUncachedKeyRing().extractPublicKeyRing().getEncoded(),
+                    VerificationStatus.VERIFIED_SECRET));
+
+            // this is expensive, the database caches it as well
+            for (CanonicalizedSecretKey secretKey : secretKeyRing.secretKeyIterator()) {
+                mMasterKeyIdsBySubKeyId.put(secretKey.getKeyId(), masterKeyId);
+                mSecretKeyTypes.put(secretKey.getKeyId(), secretKey.getSecretKeyTypeSuperExpensive());
+            }
+        }
+    }
+
+    @Override
+    public CanonicalizedPublicKeyRing getCanonicalizedPublicKeyRing(long masterKeyId) throws NotFoundException {
+        CanonicalizedPublicKeyRing publicKeyRing = mPublicKeyRings.get(masterKeyId);
+        if (publicKeyRing == null) {
+            throw new NotFoundException();
+        }
+        return publicKeyRing;
+    }
+
+    @Override
+    public Map<Long, CanonicalizedPublicKeyRing> getCanonicalizedPublicKeyRings(long... masterKeyIds) {
+        Map<Long, CanonicalizedPublicKeyRing> result = new HashMap<>(masterKeyIds.length);
+        for (long masterKeyId : masterKeyIds) {
+            CanonicalizedPublicKeyRing publicKeyRing = mPublicKeyRings.get(masterKeyId);
+            if (publicKeyRing != null) {
+                result.put(masterKeyId, publicKeyRing);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CanonicalizedSecretKeyRing getCanonicalizedSecretKeyRing(long masterKeyId) throws NotFoundException {
+        CanonicalizedSecretKeyRing secretKeyRing = mSecretKeyRings.get(masterKeyId);
+        if (secretKeyRing == null) {
+            throw new NotFoundException();
+        }
+        return secretKeyRing;
+    }
+
+    @Override
+    public Long getMasterKeyIdBySubkeyId(long subKeyId) {
+        return mMasterKeyIdsBySubKeyId.get(subKeyId);
+    }
+
+    @Override
+    public SecretKeyType getSecretKeyType(long keyId) throws NotFoundException {
+        SecretKeyType secretKeyType = mSecretKeyTypes.get(keyId);
+        if (secretKeyType == null) {
+            throw new NotFoundException();
+        }
+        return secretKeyType;
+    }
+
+    @Override
+    public long getSecretSignId(long masterKeyId) throws NotFoundException {
+        try {
+            return getCanonicalizedSecretKeyRing(masterKeyId).getSigningId();
+        } catch (PgpKeyNotFoundException e) {
+            throw new NotFoundException();
+        }
+    }
+
+    @Override
+    public List<Long> getPublicEncryptionIds(long masterKeyId) {
+        CanonicalizedPublicKeyRing publicKeyRing = mPublicKeyRings.get(masterKeyId);
+        if (publicKeyRing == null) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(publicKeyRing.getEncryptIds());
+    }
+
+    @Override
+    public Map<Long, List<Long>> getPublicEncryptionIdsByMasterKeyIds(long... masterKeyIds) {
+        Map<Long, List<Long>> result = new HashMap<>(masterKeyIds.length);
+        for (long masterKeyId : masterKeyIds) {
+            List<Long> encryptionIds = getPublicEncryptionIds(masterKeyId);
+            if (!encryptionIds.isEmpty()) {
+                result.put(masterKeyId, encryptionIds);
+            }
+        }
+        return result;
+    }
+
+    /** All user ids of our own keys count as confirmed, as they do in the database. */
+    @Override
+    public List<String> getConfirmedUserIds(long masterKeyId) {
+        CanonicalizedPublicKeyRing publicKeyRing = mPublicKeyRings.get(masterKeyId);
+        if (publicKeyRing == null) {
+            return new ArrayList<>();
+        }
+        return publicKeyRing.getUnorderedUserIds();
+    }
+}
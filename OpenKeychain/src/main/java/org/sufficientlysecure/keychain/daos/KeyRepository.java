@@ -20,9 +20,14 @@ package org.sufficientlysecure.keychain.daos;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.support.annotation.WorkerThread;
 
@@ -33,6 +38,7 @@ import org.sufficientlysecure.keychain.model.Certification;
 import org.sufficientlysecure.keychain.model.KeyRingPublic;
 import org.sufficientlysecure.keychain.model.KeySignature;
 import org.sufficientlysecure.keychain.model.SubKey;
+import org.sufficientlysecure.keychain.model.SubKey.EncryptionKeyId;
 import org.sufficientlysecure.keychain.model.SubKey.UnifiedKeyInfo;
 import org.sufficientlysecure.keychain.model.UserPacket;
 import org.sufficientlysecure.keychain.model.UserPacket.UserId;
@@ -47,6 +53,13 @@ import timber.log.Timber;
 
 @WorkerThread
 public class KeyRepository extends AbstractDao {
+    // stay well below SQLite's limit of 999 host parameters per statement
+    private static final int MAX_QUERY_BATCH_SIZE = 500;
+
+    // bumped by key writes in this process, and by key change notifications from all processes
+    private static final AtomicLong keyChangeGeneration = new AtomicLong();
+    private static KeychainDatabase cachedDatabase;
+
     final LocalPublicKeyStorage mLocalPublicKeyStorage;
     final LocalSecretKeyStorage localSecretKeyStorage;
 
@@ -57,6 +70,7 @@ public class KeyRepository extends AbstractDao {
         LocalPublicKeyStorage localPublicKeyStorage = LocalPublicKeyStorage.getInstance(context);
         LocalSecretKeyStorage localSecretKeyStorage = LocalSecretKeyStorage.getInstance(context);
         KeychainDatabase database = KeychainDatabase.getInstance(context);
+        invalidateCachesIfDatabaseChanged(context, database);
         DatabaseNotifyManager databaseNotifyManager = DatabaseNotifyManager.create(context);
 
         return new KeyRepository(database, databaseNotifyManager, localPublicKeyStorage, localSecretKeyStorage);
@@ -81,6 +95,45 @@ public class KeyRepository extends AbstractDao {
         mLog = log;
     }
 
+    /** The database is a singleton, except in unit tests where every test starts with a fresh one. */
+    static synchronized void invalidateCachesIfDatabaseChanged(Context context, KeychainDatabase keychainDatabase) {
+        if (cachedDatabase != keychainDatabase) {
+            cachedDatabase = keychainDatabase;
+            keyChangeGeneration.incrementAndGet();
+            registerKeyChangeObserver(context);
+        }
+    }
+
+    /**
+     * Keys are also written by other processes, e.g. imports in the main process while the api
+     * services run in their own. Their change notifications are delivered to every process.
+     */
+    private static void registerKeyChangeObserver(Context context) {
+        // a null handler delivers on a binder thread, which doesn't need a looper
+        context.getApplicationContext().getContentResolver().registerContentObserver(
+                DatabaseNotifyManager.getNotifyUriAllKeys(), true, new ContentObserver(null) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        keyChangeGeneration.incrementAndGet();
+                    }
+                });
+    }
+
+    /**
+     * Returns a number that changes whenever any key is saved or deleted, for callers that
+     * cache results derived from this repository. Changes in this process are counted both
+     * before and after they are written, so a result read while the generation stayed the same
+     * is consistent. Changes in other processes are counted once their notification arrives,
+     * which is after they are committed.
+     */
+    public static long getKeyChangeGeneration() {
+        return keyChangeGeneration.get();
+    }
+
+    static void onKeysChanged() {
+        keyChangeGeneration.incrementAndGet();
+    }
+
     public OperationLog getLog() {
         return mLog;
     }
@@ -111,6 +164,41 @@ public class KeyRepository extends AbstractDao {
         return new CanonicalizedPublicKeyRing(publicKeyData, unifiedKeyInfo.verified());
     }
 
+    /**
+     * Loads the public key rings for all given master key ids with a few batched queries, rather
+     * than two queries per key. Key rings that are not found are missing from the returned map.
+     */
+    public Map<Long, CanonicalizedPublicKeyRing> getCanonicalizedPublicKeyRings(long... masterKeyIds) {
+        Map<Long, CanonicalizedPublicKeyRing> result = new HashMap<>(masterKeyIds.length);
+        for (long[] batch : splitIntoBatches(masterKeyIds)) {
+            Map<Long, VerificationStatus> verifiedByMasterKeyId = new HashMap<>(batch.length);
+            for (UnifiedKeyInfo unifiedKeyInfo : getUnifiedKeyInfo(batch)) {
+                verifiedByMasterKeyId.put(unifiedKeyInfo.master_key_id(), unifiedKeyInfo.verified());
+            }
+
+            SqlDelightQuery query = KeyRingPublic.FACTORY.selectByMasterKeyIds(batch);
+            for (KeyRingPublic keyRingPublic : mapAllRows(query, KeyRingPublic.MAPPER)) {
+                long masterKeyId = keyRingPublic.master_key_id();
+                if (!verifiedByMasterKeyId.containsKey(masterKeyId)) {
+                    continue;
+                }
+
+                byte[] keyRingData = keyRingPublic.key_ring_data();
+                if (keyRingData == null) {
+                    try {
+                        keyRingData = mLocalPublicKeyStorage.readPublicKey(masterKeyId);
+                    } catch (IOException e) {
+                        Timber.e(e, "Error reading public key from storage!");
+                        continue;
+                    }
+                }
+                result.put(masterKeyId,
+                        new CanonicalizedPublicKeyRing(keyRingData, verifiedByMasterKeyId.get(masterKeyId)));
+            }
+        }
+        return result;
+    }
+
     public CanonicalizedSecretKeyRing getCanonicalizedSecretKeyRing(long masterKeyId) throws NotFoundException {
         UnifiedKeyInfo unifiedKeyInfo = getUnifiedKeyInfo(masterKeyId);
         if (unifiedKeyInfo == null || !unifiedKeyInfo.has_any_secret()) {
@@ -206,8 +294,8 @@ public class KeyRepository extends AbstractDao {
     }
 
     public String getPublicKeyRingAsArmoredString(long masterKeyId) throws NotFoundException, IOException {
-        byte[] data = loadPublicKeyRingData(masterKeyId);
-        byte[] armoredData = getKeyRingAsArmoredData(data);
+        byte[] armoredData = PublicKeyExportCache.getInstance().getPublicKeyExport(
+                this, masterKeyId, true, false, null);
         return new String(armoredData);
     }
 
@@ -257,6 +345,38 @@ public class KeyRepository extends AbstractDao {
         return mapAllRows(query, SubKey.FACTORY.selectEffectiveEncryptionKeyIdsByMasterKeyIdMapper());
     }
 
+    /**
+     * Returns the effective encryption subkey ids for each of the given master key ids, like
+     * getPublicEncryptionIds, but with batched queries. Master keys without any usable encryption
+     * subkey are missing from the returned map.
+     */
+    public Map<Long, List<Long>> getPublicEncryptionIdsByMasterKeyIds(long... masterKeyIds) {
+        Map<Long, List<Long>> result = new HashMap<>(masterKeyIds.length);
+        for (long[] batch : splitIntoBatches(masterKeyIds)) {
+            SqlDelightQuery query = SubKey.FACTORY.selectEffectiveEncryptionKeyIdsByMasterKeyIds(batch);
+            for (EncryptionKeyId encryptionKeyId : mapAllRows(query, SubKey.ENCRYPTION_KEY_ID_MAPPER)) {
+                List<Long> subKeyIds = result.get(encryptionKeyId.master_key_id());
+                if (subKeyIds == null) {
+                    subKeyIds = new ArrayList<>();
+                    result.put(encryptionKeyId.master_key_id(), subKeyIds);
+                }
+                subKeyIds.add(encryptionKeyId.key_id());
+            }
+        }
+        return result;
+    }
+
+    private static List<long[]> splitIntoBatches(long[] ids) {
+        List<long[]> batches = new ArrayList<>();
+        for (int start = 0; start < ids.length; start += MAX_QUERY_BATCH_SIZE) {
+            int end = Math.min(ids.length, start + MAX_QUERY_BATCH_SIZE);
+            long[] batch = new long[end - start];
+            System.arraycopy(ids, start, batch, 0, batch.length);
+            batches.add(batch);
+        }
+        return batches;
+    }
+
     public static class NotFoundException extends Exception {
         public NotFoundException() {
         }
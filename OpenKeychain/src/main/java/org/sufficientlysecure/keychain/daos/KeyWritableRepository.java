@@ -92,6 +92,7 @@ public class KeyWritableRepository extends KeyRepository {
         DatabaseNotifyManager databaseNotifyManager = DatabaseNotifyManager.create(context);
         AutocryptPeerDao autocryptPeerDao = AutocryptPeerDao.getInstance(context);
         KeychainDatabase database = KeychainDatabase.getInstance(context);
+        invalidateCachesIfDatabaseChanged(context, database);
 
         return new KeyWritableRepository(context, database,
                 localPublicKeyStorage, localSecretKeyStorage, databaseNotifyManager, autocryptPeerDao);
@@ -509,6 +510,7 @@ public class KeyWritableRepository extends KeyRepository {
         }
 
         SupportSQLiteDatabase db = databaseBatchInteractor.getDb();
+        onKeysChanged();
         try {
             db.beginTransaction();
 
@@ -526,22 +528,26 @@ public class KeyWritableRepository extends KeyRepository {
 
             log(LogType.MSG_IP_APPLY_BATCH);
             databaseBatchInteractor.applyBatch(operations);
+            databaseBatchInteractor.insertRecipientStatus(masterKeyId);
             if (encodedKeyRing.length >= MAX_CACHED_KEY_SIZE) {
                 mLocalPublicKeyStorage.writePublicKey(masterKeyId, encodedKeyRing);
             }
-            databaseNotifyManager.notifyKeyChange(masterKeyId);
 
             db.setTransactionSuccessful();
             log(LogType.MSG_IP_SUCCESS);
-            return result;
         } catch (IOException e) {
             log(LogType.MSG_IP_ERROR_OP_EXC);
             Timber.e(e, "OperationApplicationException during import");
             return SaveKeyringResult.RESULT_ERROR;
         } finally {
             db.endTransaction();
+            onKeysChanged();
         }
 
+        // other processes reload the key when notified, so only notify once it is committed
+        databaseNotifyManager.notifyKeyChange(masterKeyId);
+        return result;
+
     }
 
     private void writeSecretKeyRing(CanonicalizedSecretKeyRing keyRing, long masterKeyId) throws IOException {
@@ -550,11 +556,13 @@ public class KeyWritableRepository extends KeyRepository {
     }
 
     public boolean deleteKeyRing(long masterKeyId) {
+        onKeysChanged();
         try {
             mLocalPublicKeyStorage.deletePublicKey(masterKeyId);
             localSecretKeyStorage.deleteSecretKey(masterKeyId);
         } catch (IOException e) {
             Timber.e(e, "Could not delete file!");
+            onKeysChanged();
             return false;
         }
         autocryptPeerDao.deleteByMasterKeyId(masterKeyId);
@@ -562,6 +570,7 @@ public class KeyWritableRepository extends KeyRepository {
         DeleteByMasterKeyId deleteStatement = new DeleteByMasterKeyId(getWritableDb());
         deleteStatement.bind(masterKeyId);
         int deletedRows = deleteStatement.executeUpdateDelete();
+        onKeysChanged();
 
         databaseNotifyManager.notifyKeyChange(masterKeyId);
 
@@ -615,6 +624,7 @@ public class KeyWritableRepository extends KeyRepository {
         long masterKeyId = keyRing.getMasterKeyId();
         log(LogType.MSG_IS, KeyFormattingUtils.convertKeyIdToHex(masterKeyId));
         mIndent += 1;
+        onKeysChanged();
 
         try {
 
@@ -678,6 +688,7 @@ public class KeyWritableRepository extends KeyRepository {
 
         } finally {
             mIndent -= 1;
+            onKeysChanged();
         }
 
     }
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.daos;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKeyRing;
+import org.sufficientlysecure.keychain.util.LruCache;
+
+
+/**
+ * Process-wide cache of exported public keys, in the forms requested by the api and the share
+ * functions. Apps that attach our public key to every outgoing mail request the same export
+ * over and over, which would otherwise be loaded, parsed, minimized and armored every time.
+ *
+ * Entries are dropped whenever any key is saved or deleted, in this or any other process, see
+ * KeyRepository.getKeyChangeGeneration. Since notifications from other processes arrive
+ * asynchronously, entries are also only used for a limited time. Very large exports are not cached.
+ */
+public class PublicKeyExportCache {
+    private static final int MAX_ENTRIES = 32;
+    private static final int MAX_CACHED_EXPORT_SIZE = 64 * 1024;
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final PublicKeyExportCache INSTANCE = new PublicKeyExportCache();
+
+    public static PublicKeyExportCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final LruCache<ExportForm, CachedExport> cachedExports = new LruCache<>(MAX_ENTRIES);
+
+    PublicKeyExportCache() {
+    }
+
+    /**
+     * Returns the exported public key. The returned array is shared and must not be modified.
+     *
+     * @param minimize if set, the key is minimized to the given user id (or the primary one)
+     */
+    public byte[] getPublicKeyExport(KeyRepository keyRepository, long masterKeyId, boolean asciiArmor,
+            boolean minimize, @Nullable String minimizeUserId) throws NotFoundException, IOException {
+        ExportForm exportForm = new ExportForm(masterKeyId, asciiArmor, minimize, minimize ? minimizeUserId : null);
+
+        // read before loading, so a key changed while we export is exported again on the next request
+        long generation = KeyRepository.getKeyChangeGeneration();
+        long now = SystemClock.elapsedRealtime();
+        synchronized (cachedExports) {
+            CachedExport cachedExport = cachedExports.get(exportForm);
+            boolean isHit = cachedExport != null && cachedExport.isUsable(generation, now);
+            MetricsRegistry.getInstance().recordCacheAccess(MetricsRegistry.CACHE_KEY_EXPORT, isHit);
+            if (isHit) {
+                return cachedExport.data;
+            }
+        }
+
+        byte[] data = export(keyRepository, exportForm);
+        if (data.length <= MAX_CACHED_EXPORT_SIZE) {
+            synchronized (cachedExports) {
+                cachedExports.put(exportForm, new CachedExport(data, generation, now));
+            }
+        }
+        return data;
+    }
+
+    public void clear() {
+        synchronized (cachedExports) {
+            cachedExports.clear();
+        }
+    }
+
+    private static byte[] export(KeyRepository keyRepository, ExportForm exportForm)
+            throws NotFoundException, IOException {
+        byte[] keyRingData;
+        if (exportForm.minimize) {
+            CanonicalizedPublicKeyRing keyRing = keyRepository.getCanonicalizedPublicKeyRing(exportForm.masterKeyId);
+            keyRingData = keyRing.minimize(exportForm.minimizeUserId).getEncoded();
+        } else {
+            keyRingData = keyRepository.loadPublicKeyRingData(exportForm.masterKeyId);
+        }
+
+        if (!exportForm.asciiArmor) {
+            return keyRingData;
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(keyRingData.length * 4 / 3 + 256);
+        ArmoredOutputStream aos = new ArmoredOutputStream(bos);
+        aos.write(keyRingData);
+        aos.close();
+        return bos.toByteArray();
+    }
+
+    private static class ExportForm {
+        final long masterKeyId;
+        final boolean asciiArmor;
+        final boolean minimize;
+        final String minimizeUserId;
+
+        ExportForm(long masterKeyId, boolean asciiArmor, boolean minimize, String minimizeUserId) {
+            this.masterKeyId = masterKeyId;
+            this.asciiArmor = asciiArmor;
+            this.minimize = minimize;
+            this.minimizeUserId = minimizeUserId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ExportForm that = (ExportForm) o;
+            return masterKeyId == that.masterKeyId && asciiArmor == that.asciiArmor && minimize == that.minimize
+                    && TextUtils.equals(minimizeUserId, that.minimizeUserId);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (masterKeyId ^ (masterKeyId >>> 32));
+            result = 31 * result + (asciiArmor ? 1 : 0);
+            result = 31 * result + (minimize ? 1 : 0);
+            result = 31 * result + (minimizeUserId != null ? minimizeUserId.hashCode() : 0);
+            return result;
+        }
+    }
+
+    private static class CachedExport {
+        final byte[] data;
+        final long generation;
+        final long exportedAt;
+
+        CachedExport(byte[] data, long generation, long exportedAt) {
+            this.data = data;
+            this.generation = generation;
+            this.exportedAt = exportedAt;
+        }
+
+        boolean isUsable(long currentGeneration, long now) {
+            return generation == currentGeneration && now - exportedAt < MAX_AGE_MILLIS;
+        }
+    }
+}
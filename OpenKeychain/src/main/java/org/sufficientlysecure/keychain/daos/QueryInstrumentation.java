@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.daos;
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.arch.persistence.db.SupportSQLiteDatabase;
+import android.arch.persistence.db.SupportSQLiteProgram;
+import android.arch.persistence.db.SupportSQLiteQuery;
+import android.database.Cursor;
+import android.database.SQLException;
+
+import org.sufficientlysecure.keychain.metrics.LatencyHistogram;
+import timber.log.Timber;
+
+
+/**
+ * Optional per-statement instrumentation of the queries that go through AbstractDao.
+ *
+ * When enabled, execution time and returned rows are recorded per SQL statement.
+ * Executions slower than the threshold are kept as samples, with the bind arguments
+ * reduced to their types. The first time a statement is slow, its EXPLAIN QUERY PLAN
+ * is captured, and full table scans are logged as a warning right away.
+ */
+public class QueryInstrumentation {
+    private static final int MAX_SLOW_QUERY_SAMPLES = 32;
+    private static final long DEFAULT_SLOW_QUERY_THRESHOLD_MS = 20;
+
+    private static final QueryInstrumentation INSTANCE = new QueryInstrumentation();
+
+    public static QueryInstrumentation getInstance() {
+        return INSTANCE;
+    }
+
+    private volatile boolean enabled;
+    private volatile long slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_SLOW_QUERY_THRESHOLD_MS);
+
+    private final ConcurrentHashMap<String, StatementStats> statementStats = new ConcurrentHashMap<>();
+    private final ArrayDeque<SlowQuery> slowQueries = new ArrayDeque<>();
+
+    QueryInstrumentation() {
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setSlowQueryThreshold(long threshold, TimeUnit unit) {
+        slowQueryThresholdNanos = unit.toNanos(threshold);
+    }
+
+    public void reset() {
+        statementStats.clear();
+        synchronized (slowQueries) {
+            slowQueries.clear();
+        }
+    }
+
+    void recordQuery(SupportSQLiteDatabase db, SupportSQLiteQuery query, long elapsedNanos, int rows) {
+        String sql = query.getSql();
+        StatementStats stats = statementStats.get(sql);
+        if (stats == null) {
+            StatementStats newStats = new StatementStats(sql);
+            stats = statementStats.putIfAbsent(sql, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        stats.latency.record(elapsedNanos);
+        stats.rows.addAndGet(rows);
+
+        if (elapsedNanos < slowQueryThresholdNanos) {
+            return;
+        }
+
+        if (stats.queryPlan == null) {
+            stats.queryPlan = explainQueryPlan(db, query);
+            if (stats.isTableScan()) {
+                Timber.w("Slow query uses a full table scan: %s\n%s", sql, stats.queryPlan);
+            }
+        }
+
+        SlowQuery slowQuery = new SlowQuery(sql, getRedactedBindArgs(query), elapsedNanos, rows);
+        synchronized (slowQueries) {
+            if (slowQueries.size() == MAX_SLOW_QUERY_SAMPLES) {
+                slowQueries.removeFirst();
+            }
+            slowQueries.addLast(slowQuery);
+        }
+    }
+
+    public List<StatementStats> getStatementStats() {
+        TreeMap<String, StatementStats> sorted = new TreeMap<>(statementStats);
+        return new ArrayList<>(sorted.values());
+    }
+
+    public List<SlowQuery> getSlowQueries() {
+        synchronized (slowQueries) {
+            return new ArrayList<>(slowQueries);
+        }
+    }
+
+    /** A report of all statements, slowest first by p95, followed by the slow query samples. */
+    public String getReport() {
+        List<StatementStats> stats = getStatementStats();
+        Collections.sort(stats, (a, b) ->
+                Long.compare(b.latency.getPercentileNanos(95), a.latency.getPercentileNanos(95)));
+
+        StringBuilder report = new StringBuilder();
+        for (StatementStats statement : stats) {
+            report.append(String.format(Locale.ENGLISH, "n=%d p50=%.2fms p95=%.2fms max=%.2fms rows=%d%s\n",
+                    statement.getExecutionCount(), toMillis(statement.latency.getPercentileNanos(50)),
+                    toMillis(statement.latency.getPercentileNanos(95)), toMillis(statement.latency.getMaxNanos()),
+                    statement.getTotalRows(), statement.isTableScan() ? " TABLE SCAN" : ""));
+            report.append(statement.sql).append('\n');
+            if (statement.queryPlan != null) {
+                report.append(statement.queryPlan).append('\n');
+            }
+            report.append('\n');
+        }
+
+        List<SlowQuery> slowQueries = getSlowQueries();
+        if (!slowQueries.isEmpty()) {
+            report.append("Slow queries:\n");
+            for (SlowQuery slowQuery : slowQueries) {
+                report.append(String.format(Locale.ENGLISH, "%.2fms rows=%d args=%s\n%s\n",
+                        toMillis(slowQuery.elapsedNanos), slowQuery.rows, slowQuery.bindArgs, slowQuery.sql));
+            }
+        }
+        return report.toString();
+    }
+
+    private static String explainQueryPlan(SupportSQLiteDatabase db, SupportSQLiteQuery query) {
+        SupportSQLiteQuery explainQuery = new SupportSQLiteQuery() {
+            @Override
+            public String getSql() {
+                return "EXPLAIN QUERY PLAN " + query.getSql();
+            }
+
+            @Override
+            public void bindTo(SupportSQLiteProgram statement) {
+                query.bindTo(statement);
+            }
+
+            @Override
+            public int getArgCount() {
+                return query.getArgCount();
+            }
+        };
+
+        StringBuilder plan = new StringBuilder();
+        try (Cursor cursor = db.query(explainQuery)) {
+            int detailIndex = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detailIndex));
+            }
+        } catch (SQLException | IllegalArgumentException e) {
+            Timber.e(e, "error explaining query plan");
+            return "";
+        }
+        return plan.toString();
+    }
+
+    /** Binds the query to a program that only remembers the types of the arguments. */
+    private static String getRedactedBindArgs(SupportSQLiteQuery query) {
+        RedactingProgram program = new RedactingProgram(query.getArgCount());
+        query.bindTo(program);
+        return program.toString();
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    public static class StatementStats {
+        public final String sql;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+        volatile String queryPlan;
+
+        StatementStats(String sql) {
+            this.sql = sql;
+        }
+
+        public long getExecutionCount() {
+            return latency.getCount();
+        }
+
+        public long getTotalRows() {
+            return rows.get();
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /** The query plan, if the statement was ever slower than the threshold. */
+        public String getQueryPlan() {
+            return queryPlan;
+        }
+
+        public boolean isTableScan() {
+            String plan = queryPlan;
+            if (plan == null) {
+                return false;
+            }
+            for (String line : plan.split("\n")) {
+                // sqlite prints "SCAN TABLE x" before 3.36 and "SCAN x" after, index scans name the index
+                if (line.startsWith("SCAN ") && !line.contains(" INDEX ")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    public static class SlowQuery {
+        public final String sql;
+        public final String bindArgs;
+        public final long elapsedNanos;
+        public final int rows;
+
+        SlowQuery(String sql, String bindArgs, long elapsedNanos, int rows) {
+            this.sql = sql;
+            this.bindArgs = bindArgs;
+            this.elapsedNanos = elapsedNanos;
+            this.rows = rows;
+        }
+    }
+
+    private static class RedactingProgram implements SupportSQLiteProgram {
+        private final String[] argTypes;
+
+        RedactingProgram(int argCount) {
+            argTypes = new String[argCount];
+        }
+
+        private void bind(int index, String type) {
+            // bind indexes are 1-based
+            if (index >= 1 && index <= argTypes.length) {
+                argTypes[index - 1] = type;
+            }
+        }
+
+        @Override
+        public void bindNull(int index) {
+            bind(index, "null");
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            bind(index, "long");
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            bind(index, "double");
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            bind(index, "string");
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            bind(index, "blob");
+        }
+
+        @Override
+        public void clearBindings() {
+            Arrays.fill(argTypes, null);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(argTypes);
+        }
+    }
+}
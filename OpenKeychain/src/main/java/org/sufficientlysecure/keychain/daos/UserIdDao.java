@@ -27,7 +27,7 @@ public class UserIdDao extends AbstractDao {
 
     public UidStatus getUidStatusByEmailLike(String emailLike) {
         SqlDelightQuery query = UserPacket.FACTORY.selectUserIdStatusByEmailLike(emailLike);
-        return mapSingleRow(query, UserPacket.UID_STATUS_MAPPER);
+        return mapSingleRow(query, UserPacket.UID_STATUS_LIKE_MAPPER);
     }
 
     public Map<String,UidStatus> getUidStatusByEmail(String... emails) {
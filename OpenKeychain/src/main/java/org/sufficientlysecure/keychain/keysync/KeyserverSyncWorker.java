@@ -1,6 +1,8 @@
 package org.sufficientlysecure.keychain.keysync;
 
 
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.NotificationManager;
@@ -19,6 +21,8 @@ import org.sufficientlysecure.keychain.operations.KeySyncOperation;
 import org.sufficientlysecure.keychain.operations.KeySyncParcel;
 import org.sufficientlysecure.keychain.operations.results.ImportKeyResult;
 import org.sufficientlysecure.keychain.pgp.Progressable;
+import org.sufficientlysecure.keychain.service.OperationScheduler;
+import org.sufficientlysecure.keychain.service.OperationScheduler.Lane;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.ui.OrbotRequiredDialogActivity;
 import org.sufficientlysecure.keychain.util.ResourceUtils;
@@ -36,7 +40,23 @@ public class KeyserverSyncWorker extends Worker {
         Timber.d("Starting key sync…");
         Progressable notificationProgressable = notificationShowForProgress();
         KeySyncOperation keySync = new KeySyncOperation(getApplicationContext(), keyWritableRepository, notificationProgressable, cancellationSignal);
-        ImportKeyResult result = keySync.execute(KeySyncParcel.createRefreshOutdated(), CryptoInputParcel.createCryptoInputParcel());
+
+        // run in the scheduler's background lane, where an interactive write may preempt the sync
+        // through its cancellation signal. it is retried by WorkManager in that case.
+        FutureTask<ImportKeyResult> syncTask = new FutureTask<>(() ->
+                keySync.execute(KeySyncParcel.createRefreshOutdated(), CryptoInputParcel.createCryptoInputParcel()));
+        OperationScheduler.getInstance().getExecutor(Lane.BACKGROUND, true, cancellationSignal).execute(syncTask);
+
+        ImportKeyResult result;
+        try {
+            result = syncTask.get();
+        } catch (InterruptedException e) {
+            cancellationSignal.set(true);
+            Thread.currentThread().interrupt();
+            return WorkerResult.RETRY;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("key sync failed", e.getCause());
+        }
         return handleUpdateResult(result);
     }
 
@@ -66,6 +86,9 @@ public class KeyserverSyncWorker extends Worker {
         } else if (isStopped()) {
             Timber.d("Keyserver sync cancelled");
             return WorkerResult.FAILURE;
+        } else if (cancellationSignal.get()) {
+            Timber.d("Keyserver sync preempted by an interactive operation, retrying later");
+            return WorkerResult.RETRY;
         } else {
             Timber.d("Keyserver sync completed: Updated: %d, Failed: %d", result.mUpdatedKeys, result.mBadKeys);
             return WorkerResult.SUCCESS;
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.metrics;
+
+
+import java.util.Locale;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.pm.PackageManager;
+import android.support.annotation.Nullable;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+
+/**
+ * Process-wide counters and latency histograms. Recording is a map lookup and a
+ * few atomic increments, so it is cheap enough for every API call.
+ *
+ * Metrics recorded per calling app are keyed by uid, which is only resolved to a
+ * package name when a snapshot is taken, to keep PackageManager off the hot path.
+ */
+public class MetricsRegistry {
+    public static final String API_OPENPGP = "api.openpgp.";
+    public static final String API_SSH = "api.ssh.";
+    public static final String PROVIDER_EXTERNAL = "provider.external.";
+    public static final String OPERATION = "operation.";
+    public static final String CACHE_PASSPHRASE = "cache.passphrase";
+    public static final String CACHE_KEY_EXPORT = "cache.key_export";
+    public static final String DB_QUERY = "db.query";
+    public static final String SCHEDULER = "scheduler.";
+    public static final String SECURITY_TOKEN = "security_token.";
+
+    public static final String SUFFIX_ERROR = ".error";
+    public static final String SUFFIX_HIT = ".hit";
+    public static final String SUFFIX_MISS = ".miss";
+
+    private static final char CALLER_SEPARATOR = '@';
+
+    private static final MetricsRegistry INSTANCE = new MetricsRegistry();
+
+    public static MetricsRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    private volatile long since = System.currentTimeMillis();
+
+    MetricsRegistry() {
+    }
+
+    public void increment(String name) {
+        add(name, 1);
+    }
+
+    public void add(String name, long delta) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(delta);
+    }
+
+    public void recordNanos(String name, long nanos) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /** Records the duration both overall and for the calling app. */
+    public void recordCallerNanos(String name, int callingUid, long nanos) {
+        recordNanos(name, nanos);
+        recordNanos(name + CALLER_SEPARATOR + callingUid, nanos);
+    }
+
+    public void recordCacheAccess(String name, boolean hit) {
+        increment(name + (hit ? SUFFIX_HIT : SUFFIX_MISS));
+    }
+
+    public long getCount(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0 : counter.get();
+    }
+
+    @Nullable
+    public LatencyHistogram getHistogram(String name) {
+        return histograms.get(name);
+    }
+
+    public void reset() {
+        counters.clear();
+        histograms.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /** Turns "org.openintents.openpgp.action.DECRYPT_VERIFY" into "DECRYPT_VERIFY". */
+    public static String getActionName(@Nullable String action) {
+        if (action == null) {
+            return "none";
+        }
+        return action.substring(action.lastIndexOf('.') + 1);
+    }
+
+    public JSONObject toJson(@Nullable PackageManager packageManager) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("since", since);
+        json.put("timestamp", System.currentTimeMillis());
+
+        TreeMap<String, Long> sortedCounters = getSortedCounters();
+        JSONObject countersJson = new JSONObject();
+        for (Entry<String, Long> entry : sortedCounters.entrySet()) {
+            countersJson.put(entry.getKey(), entry.getValue());
+        }
+        json.put("counters", countersJson);
+
+        JSONObject hitRatesJson = new JSONObject();
+        for (Entry<String, Double> entry : getCacheHitRates(sortedCounters).entrySet()) {
+            hitRatesJson.put(entry.getKey(), entry.getValue());
+        }
+        json.put("cache_hit_rates", hitRatesJson);
+
+        JSONObject histogramsJson = new JSONObject();
+        for (Entry<String, LatencyHistogram> entry : getSortedHistograms(packageManager).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            JSONObject histogramJson = new JSONObject();
+            histogramJson.put("count", histogram.getCount());
+            histogramJson.put("mean_ns", histogram.getMeanNanos());
+            histogramJson.put("p50_ns", histogram.getPercentileNanos(50));
+            histogramJson.put("p95_ns", histogram.getPercentileNanos(95));
+            histogramJson.put("p99_ns", histogram.getPercentileNanos(99));
+            histogramJson.put("max_ns", histogram.getMaxNanos());
+            histogramsJson.put(entry.getKey(), histogramJson);
+        }
+        json.put("histograms", histogramsJson);
+
+        return json;
+    }
+
+    /** A human readable summary, one metric per line. */
+    public String toText(@Nullable PackageManager packageManager) {
+        StringBuilder text = new StringBuilder();
+        TreeMap<String, Long> sortedCounters = getSortedCounters();
+        for (Entry<String, Long> entry : sortedCounters.entrySet()) {
+            text.append(entry.getKey()).append(": ").append(entry.getValue()).append('\n');
+        }
+        for (Entry<String, Double> entry : getCacheHitRates(sortedCounters).entrySet()) {
+            text.append(String.format(Locale.ENGLISH, "%s hit rate: %.1f%%\n", entry.getKey(),
+                    entry.getValue() * 100));
+        }
+        for (Entry<String, LatencyHistogram> entry : getSortedHistograms(packageManager).entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            text.append(String.format(Locale.ENGLISH, "%s: n=%d p50=%.1fms p95=%.1fms p99=%.1fms max=%.1fms\n",
+                    entry.getKey(), histogram.getCount(), toMillis(histogram.getPercentileNanos(50)),
+                    toMillis(histogram.getPercentileNanos(95)), toMillis(histogram.getPercentileNanos(99)),
+                    toMillis(histogram.getMaxNanos())));
+        }
+        return text.toString();
+    }
+
+    private TreeMap<String, Long> getSortedCounters() {
+        TreeMap<String, Long> result = new TreeMap<>();
+        for (Entry<String, AtomicLong> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    private static TreeMap<String, Double> getCacheHitRates(TreeMap<String, Long> sortedCounters) {
+        TreeMap<String, Double> result = new TreeMap<>();
+        for (Entry<String, Long> entry : sortedCounters.entrySet()) {
+            String name = entry.getKey();
+            if (!name.endsWith(SUFFIX_HIT)) {
+                continue;
+            }
+            String cacheName = name.substring(0, name.length() - SUFFIX_HIT.length());
+            Long misses = sortedCounters.get(cacheName + SUFFIX_MISS);
+            long hits = entry.getValue();
+            long total = hits + (misses != null ? misses : 0);
+            result.put(cacheName, (double) hits / total);
+        }
+        return result;
+    }
+
+    private TreeMap<String, LatencyHistogram> getSortedHistograms(@Nullable PackageManager packageManager) {
+        TreeMap<String, LatencyHistogram> result = new TreeMap<>();
+        for (Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            result.put(resolveCaller(entry.getKey(), packageManager), entry.getValue());
+        }
+        return result;
+    }
+
+    private static String resolveCaller(String name, @Nullable PackageManager packageManager) {
+        int separatorIndex = name.indexOf(CALLER_SEPARATOR);
+        if (separatorIndex < 0 || packageManager == null) {
+            return name;
+        }
+        int uid = Integer.parseInt(name.substring(separatorIndex + 1));
+        String packageName = packageManager.getNameForUid(uid);
+        if (packageName == null) {
+            return name;
+        }
+        return name.substring(0, separatorIndex + 1) + packageName;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -37,7 +37,8 @@ public abstract class AutocryptPeer implements AutocryptPeersModel {
         }
 
         public boolean isGossipKeyVerified() {
-            return gossip_key_is_verified_int() != 0;
+            Boolean gossip_key_is_verified = gossip_key_is_verified_int();
+            return gossip_key_is_verified != null && gossip_key_is_verified;
         }
 
         public boolean isKeyRevoked() {
@@ -50,7 +51,8 @@ public abstract class AutocryptPeer implements AutocryptPeersModel {
         }
 
         public boolean isKeyVerified() {
-            return key_is_verified_int() != 0;
+            Boolean verified = key_is_verified_int();
+            return verified != null && verified;
         }
     }
 
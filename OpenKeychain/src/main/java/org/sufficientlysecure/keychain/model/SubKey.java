@@ -22,6 +22,8 @@ public abstract class SubKey implements KeysModel {
     public static final UnifiedKeyViewMapper<UnifiedKeyInfo, Certification> UNIFIED_KEY_INFO_MAPPER =
             FACTORY.selectAllUnifiedKeyInfoMapper(
                     AutoValue_SubKey_UnifiedKeyInfo::new, Certification.FACTORY);
+    public static final SelectEffectiveEncryptionKeyIdsByMasterKeyIdsMapper<EncryptionKeyId> ENCRYPTION_KEY_ID_MAPPER =
+            FACTORY.selectEffectiveEncryptionKeyIdsByMasterKeyIdsMapper(AutoValue_SubKey_EncryptionKeyId::new);
     public static Mapper<SubKey> SUBKEY_MAPPER = new Mapper<>(FACTORY);
     public static RowMapper<SecretKeyType> SKT_MAPPER = FACTORY.selectSecretKeyTypeMapper();
 
@@ -113,4 +115,8 @@ public abstract class SubKey implements KeysModel {
             return cachedUidSearchString;
         }
     }
+
+    @AutoValue
+    public static abstract class EncryptionKeyId implements SelectEffectiveEncryptionKeyIdsByMasterKeyIdsModel {
+    }
 }
@@ -16,8 +16,10 @@ public abstract class UserPacket implements UserPacketsModel {
             FACTORY.selectUserIdsByMasterKeyIdMapper(AutoValue_UserPacket_UserId::new);
     public static final SelectUserAttributesByTypeAndMasterKeyIdMapper<UserAttribute> USER_ATTRIBUTE_MAPPER =
             FACTORY.selectUserAttributesByTypeAndMasterKeyIdMapper(AutoValue_UserPacket_UserAttribute::new);
-    public static final UidStatusMapper<UidStatus> UID_STATUS_MAPPER =
+    public static final SelectUserIdStatusByEmailMapper<UidStatus> UID_STATUS_MAPPER =
             FACTORY.selectUserIdStatusByEmailMapper(AutoValue_UserPacket_UidStatus::new);
+    public static final SelectUserIdStatusByEmailLikeMapper<UidStatus> UID_STATUS_LIKE_MAPPER =
+            FACTORY.selectUserIdStatusByEmailLikeMapper(AutoValue_UserPacket_UidStatus::new);
 
     public static UserPacket create(long masterKeyId, int rank, Long type, String userId, String name, String email,
             String comment, byte[] attribute_data, boolean isPrimary, boolean isRevoked) {
@@ -59,7 +61,8 @@ public abstract class UserPacket implements UserPacketsModel {
     }
 
     @AutoValue
-    public static abstract class UidStatus implements UidStatusModel {
+    public static abstract class UidStatus
+            implements SelectUserIdStatusByEmailModel, SelectUserIdStatusByEmailLikeModel {
         public VerificationStatus keyStatus() {
             return CustomColumnAdapters.VERIFICATON_STATUS_ADAPTER.decode(key_status_int());
         }
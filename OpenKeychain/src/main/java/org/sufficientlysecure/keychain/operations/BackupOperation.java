@@ -18,20 +18,21 @@
 package org.sufficientlysecure.keychain.operations;
 
 
-import java.io.BufferedOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
 import android.content.Context;
-import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
@@ -42,6 +43,7 @@ import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
 import org.sufficientlysecure.keychain.model.SubKey.UnifiedKeyInfo;
 import org.sufficientlysecure.keychain.operations.results.ExportResult;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.LogEntryParcel;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
 import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
@@ -52,14 +54,15 @@ import org.sufficientlysecure.keychain.pgp.PgpSignEncryptOperation;
 import org.sufficientlysecure.keychain.pgp.Progressable;
 import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
 import org.sufficientlysecure.keychain.pgp.exception.PgpGeneralException;
-import org.sufficientlysecure.keychain.provider.TemporaryFileProvider;
 import org.sufficientlysecure.keychain.service.BackupKeyringParcel;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.ui.util.KeyFormattingUtils;
-import org.sufficientlysecure.keychain.util.CountingOutputStream;
+import org.sufficientlysecure.keychain.util.InMemoryPipe;
 import org.sufficientlysecure.keychain.util.InputData;
+import org.sufficientlysecure.keychain.util.IoBufferPool;
 import org.sufficientlysecure.keychain.util.Numeric9x4PassphraseUtil;
 import org.sufficientlysecure.keychain.util.Passphrase;
+import org.sufficientlysecure.keychain.util.PooledBufferedOutputStream;
 import timber.log.Timber;
 
 
@@ -104,49 +107,34 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
         }
 
         try {
-            Uri plainUri = null;
-            OutputStream plainOut;
             if (backupInput.getIsEncrypted()) {
                 if (cryptoInput == null) {
                     throw new IllegalStateException("Encrypted backup must supply cryptoInput parameter");
                 }
 
-                plainUri = TemporaryFileProvider.createFile(mContext);
-                plainOut = mContext.getContentResolver().openOutputStream(plainUri);
-            } else {
-                if (backupInput.getOutputUri() == null || outputStream != null) {
-                    throw new IllegalArgumentException("Unencrypted export to output stream is not supported!");
-                } else {
-                    plainOut = mContext.getContentResolver().openOutputStream(backupInput.getOutputUri());
-                }
+                return exportEncrypted(log, backupInput, cryptoInput, outputStream);
+            }
+
+            if (backupInput.getOutputUri() == null || outputStream != null) {
+                throw new IllegalArgumentException("Unencrypted export to output stream is not supported!");
             }
+            OutputStream plainOut = mContext.getContentResolver().openOutputStream(backupInput.getOutputUri());
 
-            CountingOutputStream outStream = new CountingOutputStream(new BufferedOutputStream(plainOut));
+            OutputStream outStream = new PooledBufferedOutputStream(plainOut, IoBufferPool.SMALL_BUFFER_SIZE, true);
             boolean backupSuccess = exportKeysToStream(log, backupInput.getMasterKeyIds(),
                     backupInput.getExportSecret(), backupInput.getExportPublic(), outStream, backupInput.getExtraHeaders());
 
-            if (!backupSuccess) {
-                // if there was an error, it will be in the log so we just have to return
-                return new ExportResult(ExportResult.RESULT_ERROR, log);
+            if (checkCancelled()) {
+                log.add(LogType.MSG_OPERATION_CANCELLED, 1);
+                return new ExportResult(ExportResult.RESULT_CANCELLED, log);
             }
 
-            if (!backupInput.getIsEncrypted()) {
-                // log.add(LogType.MSG_EXPORT_NO_ENCRYPT, 1);
-                log.add(LogType.MSG_BACKUP_SUCCESS, 1);
-                return new ExportResult(ExportResult.RESULT_OK, log);
-            }
-
-            long exportedDataSize = outStream.getCount();
-            PgpSignEncryptResult encryptResult =
-                    encryptBackupData(backupInput, cryptoInput, outputStream, plainUri, exportedDataSize);
-
-            if (!encryptResult.success()) {
-                log.addByMerge(encryptResult, 1);
-                // log.add(LogType.MSG_EXPORT_ERROR_ENCRYPT, 1);
+            if (!backupSuccess) {
+                // if there was an error, it will be in the log so we just have to return
                 return new ExportResult(ExportResult.RESULT_ERROR, log);
             }
 
-            log.add(encryptResult, 1);
+            // log.add(LogType.MSG_EXPORT_NO_ENCRYPT, 1);
             log.add(LogType.MSG_BACKUP_SUCCESS, 1);
             return new ExportResult(ExportResult.RESULT_OK, log);
 
@@ -157,11 +145,144 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
 
     }
 
+    /**
+     * Exports the keys on a separate thread, and encrypts the armored key stream as it is
+     * produced, through a bounded in-memory pipe. The plaintext keys never touch the disk, and
+     * the encrypted backup is written in a single pass.
+     */
     @NonNull
-    private PgpSignEncryptResult encryptBackupData(@NonNull BackupKeyringParcel backupInput,
-            @NonNull CryptoInputParcel cryptoInput, @Nullable OutputStream outputStream, Uri plainUri, long exportedDataSize)
+    private ExportResult exportEncrypted(@NonNull OperationLog log, @NonNull BackupKeyringParcel backupInput,
+            @NonNull CryptoInputParcel cryptoInput, @Nullable OutputStream outputStream)
             throws FileNotFoundException {
-        PgpSignEncryptOperation signEncryptOperation = new PgpSignEncryptOperation(mContext, mKeyRepository, mProgressable, mCancelled);
+        OutputStream outStream = openEncryptedOutputStream(backupInput, outputStream);
+
+        InMemoryPipe pipe = new InMemoryPipe(IoBufferPool.LARGE_BUFFER_SIZE);
+        OperationLog exportLog = new OperationLog();
+        FutureTask<Boolean> exportTask = new FutureTask<>(() -> exportKeysToPipe(exportLog, backupInput, pipe));
+        new Thread(exportTask, "BackupOperation export").start();
+
+        PgpSignEncryptResult encryptResult;
+        InputStream plainIn = pipe.getInputStream();
+        try {
+            encryptResult = encryptBackupData(backupInput, cryptoInput, plainIn, outStream);
+        } finally {
+            // fails the export if the encryption stopped reading early, so it won't block on the pipe
+            try {
+                plainIn.close();
+            } catch (IOException e) {
+                Timber.e(e, "error closing stream");
+            }
+        }
+
+        boolean backupSuccess = awaitExport(exportTask);
+
+        if (checkCancelled() || encryptResult.cancelled()) {
+            log.addAll(withoutExportIoErrors(exportLog));
+            log.add(LogType.MSG_OPERATION_CANCELLED, 1);
+            return new ExportResult(ExportResult.RESULT_CANCELLED, log);
+        }
+
+        if (pipe.isAborted()) {
+            // the export failed first, the encryption only failed on the truncated key stream
+            log.addAll(exportLog.toList());
+            return new ExportResult(ExportResult.RESULT_ERROR, log);
+        }
+
+        if (!encryptResult.success()) {
+            // the export only failed because the encryption stopped reading, that's no io error
+            log.addAll(withoutExportIoErrors(exportLog));
+            log.addByMerge(encryptResult, 1);
+            // log.add(LogType.MSG_EXPORT_ERROR_ENCRYPT, 1);
+            return new ExportResult(ExportResult.RESULT_ERROR, log);
+        }
+
+        log.addAll(exportLog.toList());
+        if (!backupSuccess) {
+            // if there was an error, it will be in the log so we just have to return
+            return new ExportResult(ExportResult.RESULT_ERROR, log);
+        }
+
+        log.add(encryptResult, 1);
+        log.add(LogType.MSG_BACKUP_SUCCESS, 1);
+        return new ExportResult(ExportResult.RESULT_OK, log);
+    }
+
+    private boolean exportKeysToPipe(OperationLog log, BackupKeyringParcel backupInput, InMemoryPipe pipe) {
+        OutputStream outStream = new PooledBufferedOutputStream(
+                pipe.getOutputStream(), IoBufferPool.SMALL_BUFFER_SIZE, true);
+        boolean backupSuccess = false;
+        try {
+            backupSuccess = writeKeysToStream(log, backupInput.getMasterKeyIds(), backupInput.getExportSecret(),
+                    backupInput.getExportPublic(), outStream, backupInput.getExtraHeaders());
+            if (backupSuccess) {
+                outStream.close();
+            }
+        } catch (IOException e) {
+            log.add(LogType.MSG_BACKUP_ERROR_IO, 1);
+            backupSuccess = false;
+        } finally {
+            if (!backupSuccess) {
+                // the reader must not take a truncated key stream for a complete one
+                pipe.abort(new IOException("key export failed"));
+                try {
+                    outStream.close();
+                } catch (IOException e) {
+                    Timber.e(e, "error closing stream");
+                }
+            }
+        }
+        return backupSuccess;
+    }
+
+    private static List<LogEntryParcel> withoutExportIoErrors(OperationLog exportLog) {
+        List<LogEntryParcel> entries = new ArrayList<>();
+        for (LogEntryParcel entry : exportLog.toList()) {
+            if (entry.mType != LogType.MSG_BACKUP_ERROR_IO) {
+                entries.add(entry);
+            }
+        }
+        return entries;
+    }
+
+    private boolean awaitExport(FutureTask<Boolean> exportTask) {
+        try {
+            return exportTask.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new AssertionError(cause);
+        }
+    }
+
+    @NonNull
+    private OutputStream openEncryptedOutputStream(@NonNull BackupKeyringParcel backupInput,
+            @Nullable OutputStream outputStream) throws FileNotFoundException {
+        if (backupInput.getOutputUri() == null) {
+            if (outputStream == null) {
+                throw new IllegalArgumentException("If output uri is not set, outputStream must not be null!");
+            }
+            return outputStream;
+        } else {
+            if (outputStream != null) {
+                throw new IllegalArgumentException("If output uri is set, outputStream must null!");
+            }
+            return mContext.getContentResolver().openOutputStream(backupInput.getOutputUri());
+        }
+    }
+
+    @NonNull
+    private PgpSignEncryptResult encryptBackupData(@NonNull BackupKeyringParcel backupInput,
+            @NonNull CryptoInputParcel cryptoInput, @NonNull InputStream plainIn, @NonNull OutputStream outStream) {
+        // the export reports progress for the whole pipeline, encryption keeps pace with it
+        PgpSignEncryptOperation signEncryptOperation = new PgpSignEncryptOperation(mContext, mKeyRepository, null, mCancelled);
 
         PgpSignEncryptData.Builder builder = PgpSignEncryptData.builder();
         Passphrase passphrase = cryptoInput.getPassphrase();
@@ -175,8 +296,6 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
         }
         PgpSignEncryptData pgpSignEncryptData = builder.build();
 
-        InputStream inStream = mContext.getContentResolver().openInputStream(plainUri);
-
         String filename;
         long[] masterKeyIds = backupInput.getMasterKeyIds();
         if (masterKeyIds != null && masterKeyIds.length == 1) {
@@ -188,20 +307,8 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
         }
         filename += backupInput.getExportSecret() ? Constants.FILE_EXTENSION_BACKUP_SECRET : Constants.FILE_EXTENSION_BACKUP_PUBLIC;
 
-        InputData inputData = new InputData(inStream, exportedDataSize, filename);
-
-        OutputStream outStream;
-        if (backupInput.getOutputUri() == null) {
-            if (outputStream == null) {
-                throw new IllegalArgumentException("If output uri is not set, outputStream must not be null!");
-            }
-            outStream = outputStream;
-        } else {
-            if (outputStream != null) {
-                throw new IllegalArgumentException("If output uri is set, outputStream must null!");
-            }
-            outStream = mContext.getContentResolver().openOutputStream(backupInput.getOutputUri());
-        }
+        // the size isn't known up front, the literal data is written in partial length packets
+        InputData inputData = new InputData(plainIn, InputData.UNKNOWN_FILESIZE, filename);
 
         return signEncryptOperation.execute(
                 pgpSignEncryptData, CryptoInputParcel.createCryptoInputParcel(), inputData, outStream);
@@ -209,6 +316,20 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
 
     boolean exportKeysToStream(OperationLog log, long[] masterKeyIds, boolean exportSecret, boolean exportPublic,
             OutputStream outStream, List<String> extraSecretKeyHeaders) {
+        try {
+            return writeKeysToStream(log, masterKeyIds, exportSecret, exportPublic, outStream, extraSecretKeyHeaders);
+        } finally {
+            // Make sure the stream is closed
+            if (outStream != null) try {
+                outStream.close();
+            } catch (Exception e) {
+                Timber.e(e, "error closing stream");
+            }
+        }
+    }
+
+    private boolean writeKeysToStream(OperationLog log, long[] masterKeyIds, boolean exportSecret,
+            boolean exportPublic, OutputStream outStream, List<String> extraSecretKeyHeaders) {
         // noinspection unused TODO use these in a log entry
         int okSecret = 0, okPublic = 0;
         int progress = 0;
@@ -226,6 +347,11 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
 
             // For each public masterKey id
             for (UnifiedKeyInfo keyInfo : unifiedKeyInfos) {
+                if (checkCancelled()) {
+                    // the caller reports the cancel
+                    return false;
+                }
+
                 log.add(LogType.MSG_BACKUP_PUBLIC, 1, KeyFormattingUtils.beautifyKeyId(keyInfo.master_key_id()));
 
                 boolean publicKeyWriteOk = false;
@@ -254,13 +380,6 @@ public class BackupOperation extends BaseOperation<BackupKeyringParcel> {
         } catch (IOException e) {
             log.add(LogType.MSG_BACKUP_ERROR_IO, 1);
             return false; // new ExportResult(ExportResult.RESULT_ERROR, log);
-        } finally {
-            // Make sure the stream is closed
-            if (outStream != null) try {
-                outStream.close();
-            } catch (Exception e) {
-                Timber.e(e, "error closing stream");
-            }
         }
 
         return true;
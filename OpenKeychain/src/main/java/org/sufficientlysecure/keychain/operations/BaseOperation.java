@@ -27,6 +27,7 @@ import android.support.annotation.StringRes;
 
 import org.sufficientlysecure.keychain.Constants.key;
 import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.operations.results.OperationResult;
 import org.sufficientlysecure.keychain.pgp.PassphraseCacheInterface;
 import org.sufficientlysecure.keychain.pgp.Progressable;
@@ -119,8 +120,12 @@ public abstract class BaseOperation<T extends Parcelable> implements PassphraseC
     @Override
     public Passphrase getCachedPassphrase(long masterKeyId, long subKeyId) throws NoSecretKeyException {
         try {
-            return PassphraseCacheService.getCachedPassphrase(
-                    mContext, masterKeyId, subKeyId);
+            long startTime = System.nanoTime();
+            Passphrase passphrase = PassphraseCacheService.getCachedPassphrase(mContext, masterKeyId, subKeyId);
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.recordNanos(MetricsRegistry.CACHE_PASSPHRASE, System.nanoTime() - startTime);
+            metrics.recordCacheAccess(MetricsRegistry.CACHE_PASSPHRASE, passphrase != null);
+            return passphrase;
         } catch (PassphraseCacheService.KeyNotFoundException e) {
             throw new PassphraseCacheInterface.NoSecretKeyException();
         }
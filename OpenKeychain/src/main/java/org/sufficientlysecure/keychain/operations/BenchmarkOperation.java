@@ -18,138 +18,503 @@
 package org.sufficientlysecure.keychain.operations;
 
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
 import android.support.annotation.NonNull;
 
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
 import org.bouncycastle.bcpg.HashAlgorithmTags;
 import org.bouncycastle.bcpg.S2K;
 import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
 import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPublicKey;
 import org.bouncycastle.openpgp.operator.PBEDataDecryptorFactory;
 import org.bouncycastle.openpgp.operator.PGPDigestCalculatorProvider;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
 import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
 import org.bouncycastle.openpgp.operator.jcajce.JcePBEDataDecryptorFactoryBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcePublicKeyKeyEncryptionMethodGenerator;
 import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.R;
+import org.sufficientlysecure.keychain.daos.InMemoryKeyRepository;
+import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkCellResult;
 import org.sufficientlysecure.keychain.operations.results.BenchmarkResult;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkStatistics;
 import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.operations.results.PgpEditKeyResult;
+import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
 import org.sufficientlysecure.keychain.operations.results.SignEncryptResult;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKeyRing;
+import org.sufficientlysecure.keychain.pgp.ParallelKeyEncryptionMethods;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyInputParcel;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyOperation;
+import org.sufficientlysecure.keychain.pgp.PgpKeyOperation;
 import org.sufficientlysecure.keychain.pgp.PgpSignEncryptData;
+import org.sufficientlysecure.keychain.pgp.PgpSignEncryptOperation;
 import org.sufficientlysecure.keychain.pgp.Progressable;
 import org.sufficientlysecure.keychain.pgp.SignEncryptParcel;
-import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
 import org.sufficientlysecure.keychain.service.BenchmarkInputParcel;
+import org.sufficientlysecure.keychain.service.BenchmarkInputParcel.BenchmarkKeyType;
+import org.sufficientlysecure.keychain.service.ChangeUnlockParcel;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.Algorithm;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.Curve;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.SubkeyAdd;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
+import org.sufficientlysecure.keychain.util.InputData;
 import org.sufficientlysecure.keychain.util.Passphrase;
-import org.sufficientlysecure.keychain.util.ProgressScaler;
 import timber.log.Timber;
 
 
 public class BenchmarkOperation extends BaseOperation<BenchmarkInputParcel> {
+    private static final int MAX_S2K_COUNT = 255;
+    private static final int S2K_SAMPLES = 3;
 
     public BenchmarkOperation(Context context, KeyWritableRepository databaseInteractor, Progressable
             progressable) {
         super(context, databaseInteractor, progressable);
     }
 
+    public BenchmarkOperation(Context context, KeyWritableRepository databaseInteractor, Progressable
+            progressable, AtomicBoolean cancelled) {
+        super(context, databaseInteractor, progressable, cancelled);
+    }
+
     @NonNull
     @Override
-    public BenchmarkResult execute(BenchmarkInputParcel consolidateInputParcel,
-                                     CryptoInputParcel cryptoInputParcel) {
+    public BenchmarkResult execute(BenchmarkInputParcel input, CryptoInputParcel cryptoInputParcel) {
         OperationLog log = new OperationLog();
         log.add(LogType.MSG_BENCH, 0);
 
-        // random data
-        byte[] buf = new byte[1024*1024*10];
-        new Random().nextBytes(buf);
-
         Passphrase passphrase = new Passphrase("a");
 
-        int numRepeats = 5;
-        long totalTime = 0;
-
-        // encrypt
-        SignEncryptResult encryptResult;
-        int i = 0;
-        do {
-            SignEncryptOperation op =
-                    new SignEncryptOperation(mContext, mKeyRepository,
-                            new ProgressScaler(mProgressable, i*(50/numRepeats), (i+1)*(50/numRepeats), 100), mCancelled);
-            PgpSignEncryptData.Builder data = PgpSignEncryptData.builder();
-            data.setSymmetricPassphrase(passphrase);
-            data.setSymmetricEncryptionAlgorithm(SymmetricKeyAlgorithmTags.AES_128);
-            SignEncryptParcel input = SignEncryptParcel.createSignEncryptParcel(data.build(), buf);
-            encryptResult = op.execute(input, CryptoInputParcel.createCryptoInputParcel());
-            log.add(encryptResult, 1);
-            log.add(LogType.MSG_BENCH_ENC_TIME, 2,
-                    String.format("%.2f", encryptResult.getResults().get(0).mOperationTime / 1000.0));
-            totalTime += encryptResult.getResults().get(0).mOperationTime;
-        } while (++i < numRepeats);
-
-        long encryptionTime = totalTime / numRepeats;
-        totalTime = 0;
-
-        // decrypt
-        i = 0;
-        do {
-            DecryptVerifyResult decryptResult;
-            PgpDecryptVerifyOperation op =
-                    new PgpDecryptVerifyOperation(mContext, mKeyRepository,
-                            new ProgressScaler(mProgressable, 50 +i*(50/numRepeats), 50 +(i+1)*(50/numRepeats), 100));
-            PgpDecryptVerifyInputParcel.Builder builder = PgpDecryptVerifyInputParcel.builder()
-                    .setInputBytes(encryptResult.getResultBytes())
-                    .setAllowSymmetricDecryption(true);
-            decryptResult = op.execute(builder.build(), CryptoInputParcel.createCryptoInputParcel(passphrase));
-            log.add(decryptResult, 1);
-            log.add(LogType.MSG_BENCH_DEC_TIME, 2, String.format("%.2f", decryptResult.mOperationTime / 1000.0));
-            totalTime += decryptResult.mOperationTime;
-        } while (++i < numRepeats);
-
-        long decryptionTime = totalTime / numRepeats;
-        totalTime = 0;
-
-        int iterationsFor100ms;
+        List<BenchmarkCellResult> cells;
+        long s2kBytesFor100ms;
         try {
-            PGPDigestCalculatorProvider digestCalcProvider = new JcaPGPDigestCalculatorProviderBuilder()
-                    .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build();
-            PBEDataDecryptorFactory decryptorFactory = new JcePBEDataDecryptorFactoryBuilder(
-                    digestCalcProvider).setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build(
-                    "".toCharArray());
-
-            byte[] iv = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
-            int iterations = 0;
-            while (iterations < 255 && totalTime < 100) {
-                iterations += 1;
-
-                S2K s2k = new S2K(HashAlgorithmTags.SHA1, iv, iterations);
-                totalTime = System.currentTimeMillis();
-                decryptorFactory.makeKeyFromPassPhrase(SymmetricKeyAlgorithmTags.AES_128, s2k);
-                totalTime = System.currentTimeMillis() -totalTime;
-
-                if ((iterations % 10) == 0) {
-                    log.add(LogType.MSG_BENCH_S2K_FOR_IT, 1, Integer.toString(iterations), Long.toString(totalTime));
+            cells = benchmarkMatrix(input, passphrase, log);
+            if (cells == null) {
+                return createFailureResult(log);
+            }
+
+            if (input.isBenchmarkCompression()) {
+                // mixed corpus of incompressible and compressible inputs, with and without adaptive compression
+                byte[][] corpus = createMixedCorpus();
+                Long alwaysTime = benchmarkCompression(corpus, passphrase, false, log);
+                Long adaptiveTime = alwaysTime != null ? benchmarkCompression(corpus, passphrase, true, log) : null;
+                if (adaptiveTime == null) {
+                    return createFailureResult(log);
                 }
+                log.add(LogType.MSG_BENCH_COMPRESS_ALWAYS_TIME, 1, String.format("%.2f", alwaysTime/1000.0));
+                log.add(LogType.MSG_BENCH_COMPRESS_ADAPTIVE_TIME, 1, String.format("%.2f", adaptiveTime/1000.0));
+            }
 
+            if (input.isBenchmarkRecipients()) {
+                if (checkCancelled()) {
+                    return createFailureResult(log);
+                }
+                benchmarkRecipients(log);
             }
-            iterationsFor100ms = iterations;
 
-        } catch (PGPException e) {
+            if (checkCancelled()) {
+                return createFailureResult(log);
+            }
+            s2kBytesFor100ms = calibrateS2k(log);
+        } catch (PGPException | IOException | GeneralSecurityException e) {
             Timber.e(e, "internal error during benchmark");
             log.add(LogType.MSG_INTERNAL_ERROR, 0);
             return new BenchmarkResult(BenchmarkResult.RESULT_ERROR, log);
         }
 
-        log.add(LogType.MSG_BENCH_S2K_100MS_ITS, 1, Integer.toString(iterationsFor100ms));
-        log.add(LogType.MSG_BENCH_ENC_TIME_AVG, 1, String.format("%.2f", encryptionTime/1000.0));
-        log.add(LogType.MSG_BENCH_DEC_TIME_AVG, 1, String.format("%.2f", decryptionTime/1000.0));
-
         log.add(LogType.MSG_BENCH_SUCCESS, 0);
-        return new BenchmarkResult(BenchmarkResult.RESULT_OK, log);
+        return new BenchmarkResult(BenchmarkResult.RESULT_OK, log, cells, s2kBytesFor100ms);
+    }
+
+    private BenchmarkResult createFailureResult(OperationLog log) {
+        if (checkCancelled()) {
+            log.add(LogType.MSG_OPERATION_CANCELLED, 0);
+            return new BenchmarkResult(BenchmarkResult.RESULT_CANCELLED, log);
+        }
+        return new BenchmarkResult(BenchmarkResult.RESULT_ERROR, log);
+    }
+
+    /**
+     * Signs and encrypts, then decrypts and verifies, a message for every cell of the matrix, with
+     * PgpSignEncryptOperation and PgpDecryptVerifyOperation. The keys are created once per key
+     * type, which is the slowest part for RSA 4096, and are never saved to the database.
+     *
+     * @return the cells, or null if an operation failed or the benchmark was cancelled
+     */
+    private List<BenchmarkCellResult> benchmarkMatrix(BenchmarkInputParcel input, Passphrase passphrase,
+            OperationLog log) throws IOException {
+        int cellCount = input.getCellCount();
+        int warmupIterations = input.getWarmupIterations();
+        int measuredIterations = input.getMeasuredIterations();
+        log.add(LogType.MSG_BENCH_MATRIX, 1, cellCount, warmupIterations, measuredIterations);
+
+        List<BenchmarkCellResult> cells = new ArrayList<>(cellCount);
+        for (BenchmarkKeyType keyType : input.getKeyTypes()) {
+            if (checkCancelled()) {
+                return null;
+            }
+            CanonicalizedSecretKeyRing secretKeyRing = null;
+            if (keyType != BenchmarkKeyType.SYMMETRIC) {
+                secretKeyRing = createKeyRing(keyType, log);
+                if (secretKeyRing == null) {
+                    return null;
+                }
+            }
+            KeyRepository keyRepository = new InMemoryKeyRepository(secretKeyRing != null
+                    ? Collections.singletonList(secretKeyRing)
+                    : Collections.<CanonicalizedSecretKeyRing>emptyList());
+
+            for (int payloadSize : input.getPayloadSizes()) {
+                byte[] message = createMessage(payloadSize);
+                ByteArrayOutputStream encryptedOut = new ByteArrayOutputStream(payloadSize + 4096);
+                ByteArrayOutputStream decryptedOut = new ByteArrayOutputStream(payloadSize);
+
+                for (int symmetricAlgorithm : input.getSymmetricAlgorithms()) {
+                    for (int hashAlgorithm : input.getHashAlgorithms(keyType)) {
+                        for (int compressionAlgorithm : input.getCompressionAlgorithms()) {
+                            if (checkCancelled()) {
+                                return null;
+                            }
+                            updateProgress(R.string.progress_benchmarking, cells.size(), cellCount);
+
+                            PgpSignEncryptData.Builder data = PgpSignEncryptData.builder()
+                                    .setSymmetricEncryptionAlgorithm(symmetricAlgorithm)
+                                    .setSignatureHashAlgorithm(hashAlgorithm)
+                                    .setCompressionAlgorithm(compressionAlgorithm);
+                            if (secretKeyRing != null) {
+                                data.setSignatureMasterKeyId(secretKeyRing.getMasterKeyId());
+                                data.setEncryptionMasterKeyIds(new long[] { secretKeyRing.getMasterKeyId() });
+                            } else {
+                                data.setSymmetricPassphrase(passphrase);
+                            }
+
+                            long[] signEncryptNanos = new long[measuredIterations];
+                            for (int i = -warmupIterations; i < measuredIterations; i++) {
+                                encryptedOut.reset();
+                                PgpSignEncryptOperation op =
+                                        new PgpSignEncryptOperation(mContext, keyRepository, null);
+                                long startTime = System.nanoTime();
+                                PgpSignEncryptResult result = op.execute(data.build(),
+                                        CryptoInputParcel.createCryptoInputParcel(new Date()),
+                                        new InputData(new ByteArrayInputStream(message), message.length),
+                                        encryptedOut);
+                                long elapsed = System.nanoTime() - startTime;
+                                if (!result.success()) {
+                                    log.add(result, 2);
+                                    return null;
+                                }
+                                if (i >= 0) {
+                                    signEncryptNanos[i] = elapsed;
+                                }
+                            }
+
+                            byte[] encrypted = encryptedOut.toByteArray();
+                            PgpDecryptVerifyInputParcel decryptInput = PgpDecryptVerifyInputParcel.builder()
+                                    .setAllowSymmetricDecryption(secretKeyRing == null)
+                                    .build();
+                            long[] decryptVerifyNanos = new long[measuredIterations];
+                            for (int i = -warmupIterations; i < measuredIterations; i++) {
+                                decryptedOut.reset();
+                                PgpDecryptVerifyOperation op =
+                                        new PgpDecryptVerifyOperation(mContext, keyRepository, null);
+                                long startTime = System.nanoTime();
+                                DecryptVerifyResult result = op.execute(decryptInput,
+                                        CryptoInputParcel.createCryptoInputParcel(passphrase),
+                                        new InputData(new ByteArrayInputStream(encrypted), encrypted.length),
+                                        decryptedOut);
+                                long elapsed = System.nanoTime() - startTime;
+                                if (!result.success()) {
+                                    log.add(result, 2);
+                                    return null;
+                                }
+                                if (i >= 0) {
+                                    decryptVerifyNanos[i] = elapsed;
+                                }
+                            }
+
+                            BenchmarkCellResult cell = BenchmarkCellResult.create(symmetricAlgorithm,
+                                    hashAlgorithm, compressionAlgorithm, keyType, payloadSize,
+                                    BenchmarkStatistics.fromSamples(signEncryptNanos, payloadSize),
+                                    BenchmarkStatistics.fromSamples(decryptVerifyNanos, payloadSize));
+                            cells.add(cell);
+                            logCell(cell, log);
+                        }
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Creates a key ring with a signing and an encryption subkey of the given type. It has no
+     * passphrase, so the operations don't go through the passphrase cache.
+     */
+    private static CanonicalizedSecretKeyRing createKeyRing(BenchmarkKeyType keyType, OperationLog log) {
+        Algorithm signAlgorithm = Algorithm.ECDSA;
+        Algorithm encryptAlgorithm = Algorithm.ECDH;
+        Integer keySize = null;
+        Curve curve = null;
+        switch (keyType) {
+            case RSA_2048:
+            case RSA_4096:
+                signAlgorithm = Algorithm.RSA;
+                encryptAlgorithm = Algorithm.RSA;
+                keySize = keyType == BenchmarkKeyType.RSA_2048 ? 2048 : 4096;
+                break;
+            case NIST_P256:
+                curve = Curve.NIST_P256;
+                break;
+            case NIST_P384:
+                curve = Curve.NIST_P384;
+                break;
+            case NIST_P521:
+                curve = Curve.NIST_P521;
+                break;
+            case ED25519:
+                // there is no Curve25519 ECDH key generation, so this encrypts with NIST P-256
+                signAlgorithm = Algorithm.EDDSA;
+                curve = Curve.NIST_P256;
+                break;
+            default:
+                throw new IllegalArgumentException("no key for " + keyType);
+        }
+        Curve signCurve = signAlgorithm == Algorithm.EDDSA ? null : curve;
+
+        SaveKeyringParcel.Builder builder = SaveKeyringParcel.buildNewKeyringParcel();
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(signAlgorithm, keySize, signCurve, KeyFlags.CERTIFY_OTHER, 0L));
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(signAlgorithm, keySize, signCurve, KeyFlags.SIGN_DATA, 0L));
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(encryptAlgorithm, keySize, curve,
+                KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE, 0L));
+        builder.addUserId("Benchmark <benchmark@example.com>");
+        builder.setNewUnlock(ChangeUnlockParcel.createUnLockParcelForNewKey(new Passphrase()));
+
+        PgpEditKeyResult result = new PgpKeyOperation(null).createSecretKeyRing(builder.build());
+        if (!result.success()) {
+            log.add(result, 2);
+            return null;
+        }
+        return (CanonicalizedSecretKeyRing) result.getRing().canonicalize(log, 2);
+    }
+
+    private static void logCell(BenchmarkCellResult cell, OperationLog log) {
+        BenchmarkStatistics signEncrypt = cell.getSignEncryptStatistics();
+        BenchmarkStatistics decryptVerify = cell.getDecryptVerifyStatistics();
+        log.add(LogType.MSG_BENCH_CELL, 2,
+                BenchmarkResult.getSymmetricAlgorithmName(cell.getSymmetricAlgorithm()),
+                BenchmarkResult.getHashAlgorithmName(cell.getHashAlgorithm()),
+                BenchmarkResult.getCompressionAlgorithmName(cell.getCompressionAlgorithm()),
+                cell.getKeyType().name(), cell.getPayloadSize(),
+                String.format(Locale.US, "%.2f", signEncrypt.getMedianNanos() / 1e6),
+                String.format(Locale.US, "%.2f", signEncrypt.getMegabytesPerSecond()),
+                String.format(Locale.US, "%.2f", decryptVerify.getMedianNanos() / 1e6),
+                String.format(Locale.US, "%.2f", decryptVerify.getMegabytesPerSecond()));
+    }
+
+    /**
+     * Half random, half text. All random data would make compression look worse, all text would
+     * make it look better than for typical mail content with attachments.
+     */
+    private static byte[] createMessage(int size) {
+        byte[] message = new byte[size];
+        new Random(42).nextBytes(message);
+
+        byte[] line = "The quick brown fox jumps over the lazy dog, again and again.\n".getBytes();
+        for (int i = size / 2; i < size; i++) {
+            message[i] = line[i % line.length];
+        }
+        return message;
+    }
+
+    /**
+     * Finds the smallest s2k count for which the SHA1 S2K takes 100ms, and the number of bytes it
+     * can hash in that time. The s2k count byte can express at most 65011712 bytes, which fast
+     * devices hash in less than 100ms. In that case the count is the largest one, and the number
+     * of bytes is extrapolated from the time it takes.
+     */
+    private long calibrateS2k(OperationLog log) throws PGPException {
+        PGPDigestCalculatorProvider digestCalcProvider = new JcaPGPDigestCalculatorProviderBuilder()
+                .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build();
+        PBEDataDecryptorFactory decryptorFactory = new JcePBEDataDecryptorFactoryBuilder(
+                digestCalcProvider).setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build(
+                "".toCharArray());
+
+        long targetNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+        long maxCountNanos = timeS2k(decryptorFactory, MAX_S2K_COUNT, log);
+        if (maxCountNanos < targetNanos) {
+            long bytesFor100ms = getS2kBytes(MAX_S2K_COUNT) * targetNanos / Math.max(1, maxCountNanos);
+            log.add(LogType.MSG_BENCH_S2K_EXTRAPOLATED, 1,
+                    Long.toString(TimeUnit.NANOSECONDS.toMillis(maxCountNanos)));
+            log.add(LogType.MSG_BENCH_S2K_100MS_ITS, 1, Integer.toString(MAX_S2K_COUNT));
+            log.add(LogType.MSG_BENCH_S2K_100MS_BYTES, 1, Long.toString(bytesFor100ms));
+            return bytesFor100ms;
+        }
+
+        // smallest count that takes at least 100ms, time is monotonic in the count
+        int low = 1;
+        int high = MAX_S2K_COUNT;
+        while (low < high) {
+            int count = (low + high) / 2;
+            if (timeS2k(decryptorFactory, count, log) >= targetNanos) {
+                high = count;
+            } else {
+                low = count + 1;
+            }
+        }
+
+        long bytesFor100ms = getS2kBytes(low);
+        log.add(LogType.MSG_BENCH_S2K_100MS_ITS, 1, Integer.toString(low));
+        log.add(LogType.MSG_BENCH_S2K_100MS_BYTES, 1, Long.toString(bytesFor100ms));
+        return bytesFor100ms;
+    }
+
+    private long timeS2k(PBEDataDecryptorFactory decryptorFactory, int count, OperationLog log)
+            throws PGPException {
+        byte[] iv = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+        S2K s2k = new S2K(HashAlgorithmTags.SHA1, iv, count);
+
+        long[] nanos = new long[S2K_SAMPLES];
+        for (int i = 0; i < nanos.length; i++) {
+            long startTime = System.nanoTime();
+            decryptorFactory.makeKeyFromPassPhrase(SymmetricKeyAlgorithmTags.AES_128, s2k);
+            nanos[i] = System.nanoTime() - startTime;
+        }
+
+        long medianNanos = BenchmarkStatistics.fromSamples(nanos, 0).getMedianNanos();
+        log.add(LogType.MSG_BENCH_S2K_FOR_IT, 2, Integer.toString(count),
+                Long.toString(TimeUnit.NANOSECONDS.toMillis(medianNanos)));
+        return medianNanos;
+    }
+
+    /** The number of bytes hashed for an encoded s2k count, as in RFC 4880, section 3.7.1.3. */
+    private static long getS2kBytes(int count) {
+        return (16L + (count & 15)) << ((count >> 4) + 6);
+    }
+
+    /**
+     * A corpus of 8MB, half of it random (standing in for jpeg, mp4, zip, ...),
+     * the other half repetitive text.
+     */
+    private static byte[][] createMixedCorpus() {
+        Random random = new Random();
+
+        byte[] line = "2017-01-01 12:00:00 I/OpenKeychain: some log line of moderate length\n".getBytes();
+        byte[][] corpus = new byte[4][];
+        for (int i = 0; i < corpus.length; i++) {
+            int size = (i < 2 ? 3 : 1) * 1024 * 1024;
+            corpus[i] = new byte[size];
+            if (i % 2 == 0) {
+                random.nextBytes(corpus[i]);
+            } else {
+                for (int j = 0; j < size; j++) {
+                    corpus[i][j] = line[j % line.length];
+                }
+            }
+        }
+        return corpus;
+    }
+
+    /** @return the total encryption time in ms, or null if an encryption failed */
+    private Long benchmarkCompression(byte[][] corpus, Passphrase passphrase, boolean adaptive, OperationLog log) {
+        long totalTime = 0;
+        for (byte[] item : corpus) {
+            SignEncryptOperation op = new SignEncryptOperation(mContext, mKeyRepository, null, mCancelled);
+            PgpSignEncryptData.Builder data = PgpSignEncryptData.builder();
+            data.setSymmetricPassphrase(passphrase);
+            data.setSymmetricEncryptionAlgorithm(SymmetricKeyAlgorithmTags.AES_128);
+            data.setCompressionAlgorithm(CompressionAlgorithmTags.ZIP);
+            data.setAdaptiveCompression(adaptive);
+            SignEncryptParcel input = SignEncryptParcel.createSignEncryptParcel(data.build(), item);
+            SignEncryptResult encryptResult = op.execute(input, CryptoInputParcel.createCryptoInputParcel());
+            log.add(encryptResult, 1);
+            if (!encryptResult.success()) {
+                return null;
+            }
+            totalTime += encryptResult.getResults().get(0).mOperationTime;
+        }
+        return totalTime;
+    }
+
+    /**
+     * Encrypts 1KB to 10, 100 and 500 recipients, once with the session key encrypted to each
+     * recipient in turn and once in parallel. This works directly on PGPEncryptedDataGenerator
+     * with a few in-memory RSA keys, so it does not depend on the keys in the database. The cost
+     * of a PKESK packet does not depend on which key it is for, so the keys are reused.
+     */
+    private void benchmarkRecipients(OperationLog log)
+            throws GeneralSecurityException, PGPException, IOException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA", Constants.BOUNCY_CASTLE_PROVIDER_NAME);
+        keyGen.initialize(2048, new SecureRandom());
+        PGPPublicKey[] publicKeys = new PGPPublicKey[4];
+        for (int i = 0; i < publicKeys.length; i++) {
+            publicKeys[i] = new JcaPGPKeyPair(PGPPublicKey.RSA_GENERAL, keyGen.generateKeyPair(), new Date())
+                    .getPublicKey();
+        }
+
+        byte[] message = new byte[1024];
+        new Random().nextBytes(message);
+
+        for (int recipients : new int[] { 10, 100, 500 }) {
+            long sequentialTime = encryptToRecipients(publicKeys, recipients, message, false);
+            long parallelTime = encryptToRecipients(publicKeys, recipients, message, true);
+            log.add(LogType.MSG_BENCH_RECIPIENTS_TIME, 1, Integer.toString(recipients),
+                    Long.toString(sequentialTime), Long.toString(parallelTime));
+        }
+    }
+
+    private static long encryptToRecipients(PGPPublicKey[] publicKeys, int recipients, byte[] message,
+            boolean parallel) throws PGPException, IOException {
+        long startTime = System.currentTimeMillis();
+
+        PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(
+                new JcePGPDataEncryptorBuilder(SymmetricKeyAlgorithmTags.AES_128)
+                        .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME)
+                        .setWithIntegrityPacket(true));
+        List<PGPKeyEncryptionMethodGenerator> methods = new ArrayList<>(recipients);
+        for (int i = 0; i < recipients; i++) {
+            methods.add(new JcePublicKeyKeyEncryptionMethodGenerator(publicKeys[i % publicKeys.length])
+                    .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME));
+        }
+        if (parallel) {
+            ParallelKeyEncryptionMethods.addMethods(encryptedDataGenerator, methods);
+        } else {
+            for (PGPKeyEncryptionMethodGenerator method : methods) {
+                encryptedDataGenerator.addMethod(method);
+            }
+        }
+
+        OutputStream encryptedOut = encryptedDataGenerator.open(new ByteArrayOutputStream(), new byte[1 << 16]);
+        encryptedOut.write(message);
+        encryptedOut.close();
+
+        return System.currentTimeMillis() - startTime;
     }
 
 }
@@ -47,6 +47,8 @@ import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
 import org.sufficientlysecure.keychain.operations.results.InputDataResult;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings.Phase;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyInputParcel;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyOperation;
 import org.sufficientlysecure.keychain.pgp.Progressable;
@@ -81,6 +83,15 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
     @NonNull
     @Override
     public InputDataResult execute(InputDataParcel input, final CryptoInputParcel cryptoInput) {
+        OperationTimings timings = new OperationTimings();
+        InputDataResult result = executeInternal(input, cryptoInput, timings);
+        result.setTimings(timings);
+        return result;
+    }
+
+    @NonNull
+    private InputDataResult executeInternal(InputDataParcel input, final CryptoInputParcel cryptoInput,
+            final OperationTimings timings) {
 
         final OperationLog log = new OperationLog();
 
@@ -111,6 +122,7 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
                     .build();
 
             decryptResult = op.execute(decryptInput, cryptoInput);
+            timings.addAll(decryptResult.getTimings());
             if (decryptResult.isPending()) {
                 return new InputDataResult(log, decryptResult);
             }
@@ -274,6 +286,7 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
                 PgpDecryptVerifyOperation op =
                         new PgpDecryptVerifyOperation(mContext, mKeyRepository, mProgressable);
                 DecryptVerifyResult verifyResult = op.execute(decryptInput, cryptoInput);
+                timings.addAll(verifyResult.getTimings());
 
                 log.addByMerge(verifyResult, 4);
 
@@ -382,7 +395,7 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
 
                 // open current uri for input
                 InputStream in = mContext.getContentResolver().openInputStream(currentInputUri);
-                parser.parse(in);
+                parseTimed(parser, in, timings);
 
                 if (mSignedDataUri != null) {
 
@@ -397,7 +410,7 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
                     in = mContext.getContentResolver().openInputStream(currentInputUri);
                     // reset signed data result, to indicate to the parser that it is in the inner part
                     mSignedDataResult = null;
-                    parser.parse(in);
+                    parseTimed(parser, in, timings);
 
                 }
             } catch (MimeException e) {
@@ -443,4 +456,17 @@ public class InputDataOperation extends BaseOperation<InputDataParcel> {
 
     }
 
+    /** Parses, counting the time as mime parsing except what nested verification already accounted for. */
+    private static void parseTimed(MimeStreamParser parser, InputStream in, OperationTimings timings)
+            throws MimeException, IOException {
+        long time = System.nanoTime();
+        long nestedNanos = timings.getTotalNanos();
+        try {
+            parser.parse(in);
+        } finally {
+            nestedNanos = timings.getTotalNanos() - nestedNanos;
+            timings.add(Phase.MIME_PARSING, System.nanoTime() - time - nestedNanos);
+        }
+    }
+
 }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.operations.results;
+
+
+import android.os.Parcelable;
+
+import com.google.auto.value.AutoValue;
+import org.sufficientlysecure.keychain.service.BenchmarkInputParcel.BenchmarkKeyType;
+
+
+/** The result of one combination of parameters of the benchmark. */
+@AutoValue
+public abstract class BenchmarkCellResult implements Parcelable {
+    public abstract int getSymmetricAlgorithm();
+    public abstract int getHashAlgorithm();
+    public abstract int getCompressionAlgorithm();
+    public abstract BenchmarkKeyType getKeyType();
+    public abstract int getPayloadSize();
+
+    public abstract BenchmarkStatistics getSignEncryptStatistics();
+    public abstract BenchmarkStatistics getDecryptVerifyStatistics();
+
+    public static BenchmarkCellResult create(int symmetricAlgorithm, int hashAlgorithm, int compressionAlgorithm,
+            BenchmarkKeyType keyType, int payloadSize, BenchmarkStatistics signEncryptStatistics,
+            BenchmarkStatistics decryptVerifyStatistics) {
+        return new AutoValue_BenchmarkCellResult(symmetricAlgorithm, hashAlgorithm, compressionAlgorithm,
+                keyType, payloadSize, signEncryptStatistics, decryptVerifyStatistics);
+    }
+}
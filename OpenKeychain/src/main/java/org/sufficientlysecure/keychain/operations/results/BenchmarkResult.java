@@ -17,23 +17,141 @@
 
 package org.sufficientlysecure.keychain.operations.results;
 
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import android.os.Build;
 import android.os.Parcel;
 
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 
 public class BenchmarkResult extends OperationResult {
 
+    private final ArrayList<BenchmarkCellResult> mCells;
+    // S2K hash input bytes per 100ms, beyond the maximum the s2k count byte can express if the device is fast
+    private final long mS2kBytesFor100ms;
+
     public BenchmarkResult(int result, OperationLog log) {
+        this(result, log, new ArrayList<>(), 0);
+    }
+
+    public BenchmarkResult(int result, OperationLog log, List<BenchmarkCellResult> cells, long s2kBytesFor100ms) {
         super(result, log);
+        mCells = new ArrayList<>(cells);
+        mS2kBytesFor100ms = s2kBytesFor100ms;
     }
 
-    /** Construct from a parcel - trivial because we have no extra data. */
+    @SuppressWarnings("unchecked")
     public BenchmarkResult(Parcel source) {
         super(source);
+        mCells = source.readArrayList(BenchmarkCellResult.class.getClassLoader());
+        mS2kBytesFor100ms = source.readLong();
+    }
+
+    public List<BenchmarkCellResult> getCells() {
+        return mCells;
+    }
+
+    public long getS2kBytesFor100ms() {
+        return mS2kBytesFor100ms;
+    }
+
+    public String toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        json.put("sdk", Build.VERSION.SDK_INT);
+        json.put("s2k_bytes_100ms", mS2kBytesFor100ms);
+
+        JSONArray cells = new JSONArray();
+        for (BenchmarkCellResult cell : mCells) {
+            JSONObject cellJson = new JSONObject();
+            cellJson.put("cipher", getSymmetricAlgorithmName(cell.getSymmetricAlgorithm()));
+            cellJson.put("hash", getHashAlgorithmName(cell.getHashAlgorithm()));
+            cellJson.put("compression", getCompressionAlgorithmName(cell.getCompressionAlgorithm()));
+            cellJson.put("key_type", cell.getKeyType().name());
+            cellJson.put("payload_size", cell.getPayloadSize());
+            cellJson.put("sign_encrypt", statisticsToJson(cell.getSignEncryptStatistics()));
+            cellJson.put("decrypt_verify", statisticsToJson(cell.getDecryptVerifyStatistics()));
+            cells.put(cellJson);
+        }
+        json.put("cells", cells);
+
+        return json.toString(2);
+    }
+
+    private static JSONObject statisticsToJson(BenchmarkStatistics statistics) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("iterations", statistics.getIterations());
+        json.put("min_ns", statistics.getMinNanos());
+        json.put("median_ns", statistics.getMedianNanos());
+        json.put("p95_ns", statistics.getP95Nanos());
+        json.put("mb_per_s", statistics.getMegabytesPerSecond());
+        json.put("ops_per_s", statistics.getOperationsPerSecond());
+        return json;
+    }
+
+    /** One line per cell and operation, with a header line. */
+    public String toCsv() {
+        StringBuilder csv = new StringBuilder(
+                "cipher,hash,compression,key_type,payload_size,operation,iterations,min_ns,median_ns,p95_ns,"
+                        + "mb_per_s,ops_per_s\n");
+        for (BenchmarkCellResult cell : mCells) {
+            appendCsvLine(csv, cell, "sign_encrypt", cell.getSignEncryptStatistics());
+            appendCsvLine(csv, cell, "decrypt_verify", cell.getDecryptVerifyStatistics());
+        }
+        return csv.toString();
+    }
+
+    private static void appendCsvLine(StringBuilder csv, BenchmarkCellResult cell, String operation,
+            BenchmarkStatistics statistics) {
+        csv.append(String.format(Locale.US, "%s,%s,%s,%s,%d,%s,%d,%d,%d,%d,%.3f,%.3f\n",
+                getSymmetricAlgorithmName(cell.getSymmetricAlgorithm()),
+                getHashAlgorithmName(cell.getHashAlgorithm()),
+                getCompressionAlgorithmName(cell.getCompressionAlgorithm()),
+                cell.getKeyType().name(), cell.getPayloadSize(), operation, statistics.getIterations(),
+                statistics.getMinNanos(), statistics.getMedianNanos(), statistics.getP95Nanos(),
+                statistics.getMegabytesPerSecond(), statistics.getOperationsPerSecond()));
+    }
+
+    public static String getSymmetricAlgorithmName(int algorithm) {
+        try {
+            return PGPUtil.getSymmetricCipherName(algorithm);
+        } catch (IllegalArgumentException e) {
+            return Integer.toString(algorithm);
+        }
+    }
+
+    public static String getHashAlgorithmName(int algorithm) {
+        try {
+            return PGPUtil.getDigestName(algorithm);
+        } catch (PGPException e) {
+            return Integer.toString(algorithm);
+        }
+    }
+
+    public static String getCompressionAlgorithmName(int algorithm) {
+        switch (algorithm) {
+            case CompressionAlgorithmTags.UNCOMPRESSED: return "UNCOMPRESSED";
+            case CompressionAlgorithmTags.ZIP: return "ZIP";
+            case CompressionAlgorithmTags.ZLIB: return "ZLIB";
+            case CompressionAlgorithmTags.BZIP2: return "BZIP2";
+            default: return Integer.toString(algorithm);
+        }
     }
 
     @Override
     public void writeToParcel(Parcel dest, int flags) {
         super.writeToParcel(dest, flags);
+        dest.writeList(mCells);
+        dest.writeLong(mS2kBytesFor100ms);
     }
 
     public static Creator<BenchmarkResult> CREATOR = new Creator<BenchmarkResult>() {
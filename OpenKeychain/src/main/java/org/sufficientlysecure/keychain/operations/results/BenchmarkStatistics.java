@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.operations.results;
+
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Parcelable;
+
+import com.google.auto.value.AutoValue;
+
+
+/** Statistics over the measured iterations of one operation, excluding warm-up iterations. */
+@AutoValue
+public abstract class BenchmarkStatistics implements Parcelable {
+    public abstract int getIterations();
+    public abstract long getMinNanos();
+    public abstract long getMedianNanos();
+    public abstract long getP95Nanos();
+    /** Throughput at the median time, in MB (2^20 bytes) of payload per second. */
+    public abstract double getMegabytesPerSecond();
+    /** Operations per second at the median time. */
+    public abstract double getOperationsPerSecond();
+
+    public static BenchmarkStatistics fromSamples(long[] sampleNanos, long payloadSize) {
+        if (sampleNanos.length == 0) {
+            throw new IllegalArgumentException("no samples");
+        }
+        long[] sorted = sampleNanos.clone();
+        Arrays.sort(sorted);
+
+        long min = sorted[0];
+        long median = sorted[sorted.length / 2];
+        // nearest rank
+        long p95 = sorted[Math.max(0, (int) Math.ceil(sorted.length * 0.95) - 1)];
+
+        double medianSeconds = Math.max(1, median) / (double) TimeUnit.SECONDS.toNanos(1);
+        return new AutoValue_BenchmarkStatistics(sorted.length, min, median, p95,
+                payloadSize / (1024.0 * 1024.0) / medianSeconds, 1 / medianSeconds);
+    }
+}
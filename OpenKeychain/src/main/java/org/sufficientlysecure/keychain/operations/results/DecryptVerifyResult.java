@@ -18,6 +18,8 @@
 package org.sufficientlysecure.keychain.operations.results;
 
 
+import java.util.ArrayList;
+
 import android.os.Parcel;
 
 import org.openintents.openpgp.OpenPgpDecryptionResult;
@@ -33,6 +35,9 @@ public class DecryptVerifyResult extends InputPendingResult {
     public static final int RESULT_KEY_DISALLOWED = RESULT_ERROR + 32;
 
     OpenPgpSignatureResult mSignatureResult;
+    // one result and security problem per signature, only set when verifying several detached signatures
+    ArrayList<OpenPgpSignatureResult> mSignatureResults;
+    ArrayList<DecryptVerifySecurityProblem> mSignatureSecurityProblems;
     OpenPgpDecryptionResult mDecryptionResult;
     OpenPgpMetadata mDecryptionMetadata;
     DecryptVerifySecurityProblem mSecurityProblem;
@@ -69,6 +74,9 @@ public class DecryptVerifyResult extends InputPendingResult {
         mSkippedDisallowedKeys = source.createLongArray();
 
         mSecurityProblem = (DecryptVerifySecurityProblem) source.readSerializable();
+        mSignatureResults = source.createTypedArrayList(OpenPgpSignatureResult.CREATOR);
+        //noinspection unchecked
+        mSignatureSecurityProblems = (ArrayList<DecryptVerifySecurityProblem>) source.readSerializable();
     }
 
 
@@ -84,6 +92,21 @@ public class DecryptVerifyResult extends InputPendingResult {
         mSignatureResult = signatureResult;
     }
 
+    public ArrayList<OpenPgpSignatureResult> getSignatureResults() {
+        return mSignatureResults;
+    }
+
+    /** Security problems of the signatures from getSignatureResults(), null where a signature has none. */
+    public ArrayList<DecryptVerifySecurityProblem> getSignatureSecurityProblems() {
+        return mSignatureSecurityProblems;
+    }
+
+    public void setSignatureResults(ArrayList<OpenPgpSignatureResult> signatureResults,
+            ArrayList<DecryptVerifySecurityProblem> securityProblems) {
+        mSignatureResults = signatureResults;
+        mSignatureSecurityProblems = securityProblems;
+    }
+
     public OpenPgpDecryptionResult getDecryptionResult() {
         return mDecryptionResult;
     }
@@ -133,6 +156,8 @@ public class DecryptVerifyResult extends InputPendingResult {
         dest.writeLongArray(mSkippedDisallowedKeys);
 
         dest.writeSerializable(mSecurityProblem);
+        dest.writeTypedList(mSignatureResults);
+        dest.writeSerializable(mSignatureSecurityProblems);
     }
 
     public static final Creator<DecryptVerifyResult> CREATOR = new Creator<DecryptVerifyResult>() {
@@ -23,6 +23,7 @@ import android.content.res.Resources;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import org.sufficientlysecure.keychain.R;
 import org.sufficientlysecure.keychain.ui.LogDisplayActivity;
 import org.sufficientlysecure.keychain.ui.LogDisplayFragment;
@@ -78,6 +79,9 @@ public abstract class OperationResult implements Parcelable {
     /// A list of log entries tied to the operation result.
     protected OperationLog mLog;
 
+    /// Time spent per phase, only recorded by crypto operations.
+    private OperationTimings mTimings;
+
     public OperationResult(int result, OperationLog log) {
         mResult = result;
         mLog = log;
@@ -87,6 +91,7 @@ public abstract class OperationResult implements Parcelable {
         mResult = source.readInt();
         // get log out of cache based on UUID from source
         mLog = logCache.readFromParcelAndGetFromCache(source);
+        mTimings = source.readParcelable(OperationTimings.class.getClassLoader());
     }
 
     public int getResult() {
@@ -101,6 +106,15 @@ public abstract class OperationResult implements Parcelable {
         return (mResult & RESULT_CANCELLED) == RESULT_CANCELLED;
     }
 
+    @Nullable
+    public OperationTimings getTimings() {
+        return mTimings;
+    }
+
+    public void setTimings(OperationTimings timings) {
+        mTimings = timings;
+    }
+
     public OperationLog getLog() {
         SubLogEntryParcel singleSubLog = mLog.getSubResultIfSingle();
         if (singleSubLog != null) {
@@ -633,6 +647,7 @@ public abstract class OperationResult implements Parcelable {
         MSG_DC_CLEAR_META_SIZE_UNKNOWN (LogLevel.DEBUG, R.string.msg_dc_clear_meta_size_unknown),
         MSG_DC_CLEAR_META_TIME (LogLevel.DEBUG, R.string.msg_dc_clear_meta_time),
         MSG_DC_CLEAR (LogLevel.DEBUG, R.string.msg_dc_clear),
+        MSG_DC_DETACHED_SIGNATURES (LogLevel.DEBUG, R.string.msg_dc_detached_signatures),
         MSG_DC_CLEAR_SIGNATURE_BAD (LogLevel.WARN, R.string.msg_dc_clear_signature_bad),
         MSG_DC_CLEAR_SIGNATURE_CHECK (LogLevel.DEBUG, R.string.msg_dc_clear_signature_check),
         MSG_DC_CLEAR_SIGNATURE_OK (LogLevel.OK, R.string.msg_dc_clear_signature_ok),
@@ -693,6 +708,8 @@ public abstract class OperationResult implements Parcelable {
         MSG_PSE_ERROR_OUTPUT_URI_NOT_FOUND (LogLevel.ERROR, R.string.msg_se_error_output_uri_not_found),
         MSG_PSE_ASYMMETRIC (LogLevel.INFO, R.string.msg_pse_asymmetric),
         MSG_PSE_COMPRESSING (LogLevel.DEBUG, R.string.msg_pse_compressing),
+        MSG_PSE_COMPRESSION_SKIP_TYPE (LogLevel.DEBUG, R.string.msg_pse_compression_skip_type),
+        MSG_PSE_COMPRESSION_SKIP_ENTROPY (LogLevel.DEBUG, R.string.msg_pse_compression_skip_entropy),
         MSG_PSE_ENCRYPTING (LogLevel.DEBUG, R.string.msg_pse_encrypting),
         MSG_PSE_ERROR_BAD_PASSPHRASE (LogLevel.ERROR, R.string.msg_pse_error_bad_passphrase),
         MSG_PSE_ERROR_IO (LogLevel.ERROR, R.string.msg_pse_error_io),
@@ -881,14 +898,31 @@ public abstract class OperationResult implements Parcelable {
         MSG_LV_FETCH_ERROR_NOTHING (LogLevel.ERROR, R.string.msg_lv_fetch_error_nothing),
 
         MSG_BENCH (LogLevel.START, R.string.msg_bench),
+        MSG_BENCH_MATRIX (LogLevel.INFO, R.string.msg_bench_matrix),
+        MSG_BENCH_CELL (LogLevel.INFO, R.string.msg_bench_cell),
         MSG_BENCH_ENC_TIME (LogLevel.DEBUG, R.string.msg_bench_enc_time),
         MSG_BENCH_ENC_TIME_AVG (LogLevel.INFO, R.string.msg_bench_enc_time_avg),
         MSG_BENCH_DEC_TIME (LogLevel.DEBUG, R.string.msg_bench_dec_time),
         MSG_BENCH_DEC_TIME_AVG (LogLevel.INFO, R.string.msg_bench_enc_time_avg),
+        MSG_BENCH_COMPRESS_ALWAYS_TIME (LogLevel.INFO, R.string.msg_bench_compress_always_time),
+        MSG_BENCH_COMPRESS_ADAPTIVE_TIME (LogLevel.INFO, R.string.msg_bench_compress_adaptive_time),
+        MSG_BENCH_RECIPIENTS_TIME (LogLevel.INFO, R.string.msg_bench_recipients_time),
         MSG_BENCH_S2K_FOR_IT (LogLevel.DEBUG, R.string.msg_bench_s2k_for_it),
         MSG_BENCH_S2K_100MS_ITS (LogLevel.INFO, R.string.msg_bench_s2k_100ms_its),
+        MSG_BENCH_S2K_100MS_BYTES (LogLevel.INFO, R.string.msg_bench_s2k_100ms_bytes),
+        MSG_BENCH_S2K_EXTRAPOLATED (LogLevel.WARN, R.string.msg_bench_s2k_extrapolated),
         MSG_BENCH_SUCCESS (LogLevel.OK, R.string.msg_bench_success),
 
+        MSG_TIMINGS (LogLevel.DEBUG, R.string.msg_timings),
+        MSG_TIMINGS_KEY_LOOKUP (LogLevel.DEBUG, R.string.msg_timings_key_lookup),
+        MSG_TIMINGS_PASSPHRASE_CACHE (LogLevel.DEBUG, R.string.msg_timings_passphrase_cache),
+        MSG_TIMINGS_KEY_UNLOCK (LogLevel.DEBUG, R.string.msg_timings_key_unlock),
+        MSG_TIMINGS_SESSION_KEY (LogLevel.DEBUG, R.string.msg_timings_session_key),
+        MSG_TIMINGS_BULK_CRYPTO (LogLevel.DEBUG, R.string.msg_timings_bulk_crypto),
+        MSG_TIMINGS_SIGNATURE (LogLevel.DEBUG, R.string.msg_timings_signature),
+        MSG_TIMINGS_MIME_PARSING (LogLevel.DEBUG, R.string.msg_timings_mime_parsing),
+        MSG_TIMINGS_OUTPUT (LogLevel.DEBUG, R.string.msg_timings_output),
+
         MSG_RET_CURI_ERROR_IO (LogLevel.ERROR, R.string.msg_ret_curi_error_io),
         MSG_RET_CURI_ERROR_NO_MATCH (LogLevel.ERROR, R.string.msg_ret_curi_error_no_match),
         MSG_RET_CURI_ERROR_NOT_FOUND (LogLevel.ERROR, R.string.msg_ret_curi_error_not_found),
@@ -963,6 +997,7 @@ public abstract class OperationResult implements Parcelable {
         dest.writeInt(mResult);
         // cache log and write UUID to dest
         logCache.cacheAndWriteToParcel(mLog, dest);
+        dest.writeParcelable(mTimings, flags);
     }
 
     public static class OperationLog implements Iterable<LogEntryParcel> {
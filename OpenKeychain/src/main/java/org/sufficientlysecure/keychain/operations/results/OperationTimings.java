@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.operations.results;
+
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import android.os.Bundle;
+import android.os.Parcel;
+import android.os.Parcelable;
+
+import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+
+
+/**
+ * Time spent in the phases of a crypto operation. Phases can be entered several
+ * times, the time is summed up. Timing is done inline with System.nanoTime:
+ * <pre>
+ * long time = System.nanoTime();
+ * ...
+ * time = timings.addSince(Phase.KEY_LOOKUP, time);
+ * </pre>
+ */
+public class OperationTimings implements Parcelable {
+
+    public enum Phase {
+        KEY_LOOKUP (LogType.MSG_TIMINGS_KEY_LOOKUP),
+        PASSPHRASE_CACHE (LogType.MSG_TIMINGS_PASSPHRASE_CACHE),
+        KEY_UNLOCK (LogType.MSG_TIMINGS_KEY_UNLOCK),
+        SESSION_KEY (LogType.MSG_TIMINGS_SESSION_KEY),
+        BULK_CRYPTO (LogType.MSG_TIMINGS_BULK_CRYPTO),
+        SIGNATURE (LogType.MSG_TIMINGS_SIGNATURE),
+        MIME_PARSING (LogType.MSG_TIMINGS_MIME_PARSING),
+        OUTPUT (LogType.MSG_TIMINGS_OUTPUT);
+
+        final LogType mLogType;
+
+        Phase(LogType logType) {
+            mLogType = logType;
+        }
+    }
+
+    private final long[] mNanos;
+
+    public OperationTimings() {
+        mNanos = new long[Phase.values().length];
+    }
+
+    private OperationTimings(Parcel source) {
+        mNanos = source.createLongArray();
+    }
+
+    public void add(Phase phase, long nanos) {
+        mNanos[phase.ordinal()] += nanos;
+    }
+
+    /** Adds the time since startNanos to phase, and returns the current time to start the next phase. */
+    public long addSince(Phase phase, long startNanos) {
+        long now = System.nanoTime();
+        mNanos[phase.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    public void addAll(OperationTimings other) {
+        if (other == null) {
+            return;
+        }
+        for (int i = 0; i < mNanos.length; i++) {
+            mNanos[i] += other.mNanos[i];
+        }
+    }
+
+    public long getNanos(Phase phase) {
+        return mNanos[phase.ordinal()];
+    }
+
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : mNanos) {
+            total += nanos;
+        }
+        return total;
+    }
+
+    public boolean isEmpty() {
+        return getTotalNanos() == 0;
+    }
+
+    /** Adds a log entry for the total, and one for each phase that took any time. */
+    public void addToLog(OperationLog log, int indent) {
+        log.add(LogType.MSG_TIMINGS, indent, formatMillis(getTotalNanos()));
+        for (Phase phase : Phase.values()) {
+            long nanos = mNanos[phase.ordinal()];
+            if (nanos > 0) {
+                log.add(phase.mLogType, indent + 1, formatMillis(nanos));
+            }
+        }
+    }
+
+    /** Milliseconds per phase, keyed by lower case phase name, for the result Intent of the API. */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Phase phase : Phase.values()) {
+            bundle.putLong(phase.name().toLowerCase(Locale.ENGLISH),
+                    TimeUnit.NANOSECONDS.toMillis(mNanos[phase.ordinal()]));
+        }
+        return bundle;
+    }
+
+    private static String formatMillis(long nanos) {
+        return String.format(Locale.ENGLISH, "%.1f", nanos / 1e6);
+    }
+
+    @Override
+    public int describeContents() {
+        return 0;
+    }
+
+    @Override
+    public void writeToParcel(Parcel dest, int flags) {
+        dest.writeLongArray(mNanos);
+    }
+
+    public static final Creator<OperationTimings> CREATOR = new Creator<OperationTimings>() {
+        public OperationTimings createFromParcel(final Parcel source) {
+            return new OperationTimings(source);
+        }
+
+        public OperationTimings[] newArray(final int size) {
+            return new OperationTimings[size];
+        }
+    };
+
+}
@@ -34,6 +34,8 @@ public class PgpSignEncryptResult extends InputPendingResult {
     // this is the micalg parameter used in PGP/MIME, see RFC3156:
     // https://tools.ietf.org/html/rfc3156#section-5
     private String mMicAlgDigestName;
+    // compression algorithm actually applied, which may differ from the requested one
+    private int mCompressionAlgorithm;
 
     public void setDetachedSignature(byte[] detachedSignature) {
         mDetachedSignature = detachedSignature;
@@ -55,6 +57,7 @@ public class PgpSignEncryptResult extends InputPendingResult {
     public PgpSignEncryptResult(Parcel source) {
         super(source);
         mDetachedSignature = source.readInt() != 0 ? source.createByteArray() : null;
+        mCompressionAlgorithm = source.readInt();
     }
 
     public void setOutputBytes(byte[] outputBytes) {
@@ -77,6 +80,7 @@ public class PgpSignEncryptResult extends InputPendingResult {
         } else {
             dest.writeInt(0);
         }
+        dest.writeInt(mCompressionAlgorithm);
     }
 
     public static final Creator<PgpSignEncryptResult> CREATOR = new Creator<PgpSignEncryptResult>() {
@@ -96,4 +100,12 @@ public class PgpSignEncryptResult extends InputPendingResult {
     public String getMicAlgDigestName() {
         return mMicAlgDigestName;
     }
+
+    public void setCompressionAlgorithm(int compressionAlgorithm) {
+        mCompressionAlgorithm = compressionAlgorithm;
+    }
+
+    public int getCompressionAlgorithm() {
+        return mCompressionAlgorithm;
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.pgp;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.SignatureException;
+
+import org.bouncycastle.openpgp.PGPSignature;
+
+
+/**
+ * Splits the text of cleartext signed messages into lines, as defined in
+ * http://tools.ietf.org/html/rfc4880#section-7.1
+ * <p/>
+ * Lines may end in CR, LF or CRLF. A line ending at the very end of the input
+ * does not start another (empty) line. Lines are returned without their line
+ * ending, from a buffer that is reused for each line.
+ * <p/>
+ * Note that this still reads the underlying stream one byte at a time, so the
+ * per byte cost of ArmoredInputStream remains. An ArmoredInputStream leaves
+ * cleartext mode only once it reads the armor header line, and its bulk read
+ * loops over read() and carries on decoding the signature that follows the
+ * cleartext. Reading in blocks would need a parser for the raw cleartext
+ * framework in front of ArmoredInputStream.
+ */
+class CleartextLineScanner {
+
+    private final InputStream mIn;
+
+    private byte[] mLine = new byte[256];
+    private int mLineLength;
+    private int mLookAhead;
+    private boolean mStarted;
+
+    CleartextLineScanner(InputStream in) {
+        mIn = in;
+    }
+
+    /** Returns true if there is another line to read. */
+    boolean hasNextLine() {
+        return !mStarted || mLookAhead != -1;
+    }
+
+    /**
+     * Reads the next line into the line buffer. Returns false if there are no more lines.
+     */
+    boolean readLine() throws IOException {
+        if (!hasNextLine()) {
+            return false;
+        }
+
+        int ch = mStarted ? mLookAhead : mIn.read();
+        mStarted = true;
+        mLineLength = 0;
+
+        while (ch >= 0) {
+            if (ch == '\r' || ch == '\n') {
+                int next = mIn.read();
+                if (ch == '\r' && next == '\n') {
+                    next = mIn.read();
+                }
+                mLookAhead = next;
+                return true;
+            }
+
+            if (mLineLength == mLine.length) {
+                byte[] grown = new byte[mLine.length * 2];
+                System.arraycopy(mLine, 0, grown, 0, mLineLength);
+                mLine = grown;
+            }
+            mLine[mLineLength++] = (byte) ch;
+            ch = mIn.read();
+        }
+
+        mLookAhead = -1;
+        return true;
+    }
+
+    /** Returns the buffer holding the current line. Only valid until the next call to readLine. */
+    byte[] getLineBuffer() {
+        return mLine;
+    }
+
+    int getLineLength() {
+        return mLineLength;
+    }
+
+    /**
+     * Updates the signature with cleartext that has already been read into memory. Each line is
+     * stripped of trailing whitespace, and lines are joined with CRLF, without a line ending after
+     * the last line. The signature is fed with slices of the given array, no data is copied.
+     */
+    static void updateSignature(PGPSignature signature, byte[] data, int length) throws SignatureException {
+        int lineStart = 0;
+        while (true) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && data[lineEnd] != '\r' && data[lineEnd] != '\n') {
+                lineEnd++;
+            }
+
+            int contentEnd = lineEnd;
+            while (contentEnd > lineStart && isTrailingWhiteSpace(data[contentEnd - 1])) {
+                contentEnd--;
+            }
+            if (contentEnd > lineStart) {
+                signature.update(data, lineStart, contentEnd - lineStart);
+            }
+
+            if (lineEnd == length) {
+                return;
+            }
+
+            int nextLineStart = lineEnd + 1;
+            if (data[lineEnd] == '\r' && nextLineStart < length && data[nextLineStart] == '\n') {
+                nextLineStart++;
+            }
+            // a line ending at the very end of the data does not start another line
+            if (nextLineStart == length) {
+                return;
+            }
+
+            signature.update((byte) '\r');
+            signature.update((byte) '\n');
+            lineStart = nextLineStart;
+        }
+    }
+
+    private static boolean isTrailingWhiteSpace(byte b) {
+        return b == '\t' || b == ' ';
+    }
+
+}
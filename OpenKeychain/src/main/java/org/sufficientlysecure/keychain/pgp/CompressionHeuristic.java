@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.pgp;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+
+/**
+ * Decides whether compressing a given input is worth the CPU time.
+ * <p/>
+ * Data that is already compressed (images, video, archives, ...) does not get
+ * any smaller when deflated again, so for those inputs we skip the
+ * PGPCompressedDataGenerator altogether. The decision is based on the MIME
+ * type or file extension if known, and otherwise on the byte entropy of a
+ * small sample taken from the start of the input.
+ */
+class CompressionHeuristic {
+
+    enum CompressionDecision {
+        COMPRESS, SKIP_MIME_TYPE, SKIP_HIGH_ENTROPY
+    }
+
+    /** Number of bytes sampled from the start of the input. */
+    static final int SAMPLE_SIZE = 1 << 14;
+    /** Samples shorter than this are too small to be judged, they are always compressed. */
+    private static final int MIN_SAMPLE_SIZE = 512;
+    /**
+     * Shannon entropy in bits per byte above which we consider data incompressible. Deflate
+     * output and ciphertext come out at ~7.95+ over 16kb, while even dense text stays below ~6.
+     */
+    private static final double ENTROPY_THRESHOLD = 7.5;
+
+    private static final Set<String> INCOMPRESSIBLE_MIME_TYPES = new HashSet<>(Arrays.asList(
+            "image/jpeg", "image/png", "image/gif", "image/webp", "image/heic", "image/heif",
+            "application/zip", "application/gzip", "application/x-gzip", "application/x-bzip2",
+            "application/x-xz", "application/x-7z-compressed", "application/x-rar-compressed",
+            "application/vnd.android.package-archive", "application/java-archive",
+            "application/pgp-encrypted", "application/epub+zip",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet",
+            "application/vnd.openxmlformats-officedocument.presentationml.presentation",
+            "application/vnd.oasis.opendocument.text",
+            "application/vnd.oasis.opendocument.spreadsheet"
+    ));
+
+    private static final Set<String> INCOMPRESSIBLE_EXTENSIONS = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "webp", "heic", "heif",
+            "mp4", "m4v", "mkv", "webm", "avi", "mov", "3gp",
+            "mp3", "m4a", "aac", "ogg", "opus", "flac",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "apk", "jar", "epub",
+            "docx", "xlsx", "pptx", "odt", "ods", "gpg", "pgp"
+    ));
+
+    static CompressionDecision decideByType(String mimeType, String filename) {
+        if (mimeType != null) {
+            mimeType = mimeType.toLowerCase(Locale.ENGLISH);
+            // uncompressed audio is the exception, everything else in these categories is compressed
+            if (mimeType.startsWith("video/") || (mimeType.startsWith("audio/") && !mimeType.contains("wav"))) {
+                return CompressionDecision.SKIP_MIME_TYPE;
+            }
+            if (INCOMPRESSIBLE_MIME_TYPES.contains(mimeType)) {
+                return CompressionDecision.SKIP_MIME_TYPE;
+            }
+        }
+
+        if (filename != null) {
+            int dot = filename.lastIndexOf('.');
+            if (dot >= 0 && dot < filename.length() - 1) {
+                String extension = filename.substring(dot + 1).toLowerCase(Locale.ENGLISH);
+                if (INCOMPRESSIBLE_EXTENSIONS.contains(extension)) {
+                    return CompressionDecision.SKIP_MIME_TYPE;
+                }
+            }
+        }
+
+        return CompressionDecision.COMPRESS;
+    }
+
+    /**
+     * Samples the start of the stream and resets it afterwards, so the stream must support
+     * marking for at least SAMPLE_SIZE bytes.
+     */
+    static CompressionDecision decideBySample(InputStream in) throws IOException {
+        if (!in.markSupported()) {
+            throw new IllegalArgumentException("stream must support mark/reset for sampling!");
+        }
+
+        byte[] sample = new byte[SAMPLE_SIZE];
+        in.mark(SAMPLE_SIZE);
+        int sampled = 0;
+        try {
+            int length;
+            while (sampled < SAMPLE_SIZE && (length = in.read(sample, sampled, SAMPLE_SIZE - sampled)) > 0) {
+                sampled += length;
+            }
+        } finally {
+            in.reset();
+        }
+
+        if (sampled < MIN_SAMPLE_SIZE) {
+            return CompressionDecision.COMPRESS;
+        }
+        return estimateEntropy(sample, sampled) > ENTROPY_THRESHOLD
+                ? CompressionDecision.SKIP_HIGH_ENTROPY : CompressionDecision.COMPRESS;
+    }
+
+    /** Returns the order-0 Shannon entropy of the given bytes, in bits per byte. */
+    static double estimateEntropy(byte[] data, int length) {
+        int[] histogram = new int[256];
+        for (int i = 0; i < length; i++) {
+            histogram[data[i] & 0xff] += 1;
+        }
+
+        double entropy = 0;
+        for (int count : histogram) {
+            if (count == 0) {
+                continue;
+            }
+            double p = (double) count / length;
+            entropy -= p * Math.log(p);
+        }
+        return entropy / Math.log(2);
+    }
+
+}
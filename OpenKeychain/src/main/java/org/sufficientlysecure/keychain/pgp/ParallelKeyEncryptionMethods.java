@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.pgp;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.bcpg.ContainedPacket;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
+
+
+/**
+ * Encrypts the session key of a message to many recipients in parallel.
+ * <p/>
+ * PGPEncryptedDataGenerator calls generate() on each of its methods in turn
+ * when the encrypted stream is opened, passing the same session info to all
+ * of them. Each public key operation (an RSA encryption or ECDH agreement)
+ * is independent of the others, so with hundreds of recipients most of the
+ * time spent in open() can be spread over all cores.
+ * <p/>
+ * The methods added by addMethods are placeholders: the first call to
+ * generate() submits the real work for all of them to a pool sized to the
+ * number of CPUs, and every call then waits only for its own packet. The
+ * order of the resulting PKESK packets is unchanged.
+ */
+public class ParallelKeyEncryptionMethods {
+    /** Below this number of methods, the thread handoff costs more than it saves. */
+    static final int MIN_PARALLEL_METHODS = 4;
+
+    private static final int THREAD_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        executor = new ThreadPoolExecutor(THREAD_COUNT, THREAD_COUNT, 30L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private final List<PGPKeyEncryptionMethodGenerator> mMethods;
+
+    private List<Future<ContainedPacket>> mPackets;
+    private byte[] mSessionInfo;
+    private int mEncAlgorithm;
+
+    private ParallelKeyEncryptionMethods(List<PGPKeyEncryptionMethodGenerator> methods) {
+        mMethods = methods;
+    }
+
+    /**
+     * Adds the given methods to the generator. If there are enough of them, they are wrapped so
+     * their packets are generated in parallel, otherwise they are added as they are.
+     */
+    public static void addMethods(PGPEncryptedDataGenerator generator, List<PGPKeyEncryptionMethodGenerator> methods) {
+        if (THREAD_COUNT < 2 || methods.size() < MIN_PARALLEL_METHODS) {
+            for (PGPKeyEncryptionMethodGenerator method : methods) {
+                generator.addMethod(method);
+            }
+            return;
+        }
+
+        ParallelKeyEncryptionMethods group = new ParallelKeyEncryptionMethods(new ArrayList<>(methods));
+        for (int i = 0; i < methods.size(); i++) {
+            generator.addMethod(group.new PendingMethod(i));
+        }
+    }
+
+    private synchronized ContainedPacket getPacket(int index, int encAlgorithm, byte[] sessionInfo)
+            throws PGPException {
+        // BouncyCastle passes the very same session info to each method of one open() call
+        if (mPackets == null || sessionInfo != mSessionInfo || encAlgorithm != mEncAlgorithm) {
+            submitAll(encAlgorithm, sessionInfo);
+        }
+
+        try {
+            return mPackets.get(index).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PGPException("interrupted while encrypting session key");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof PGPException) {
+                throw (PGPException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new PGPException("error encrypting session key", (Exception) cause);
+        }
+    }
+
+    private void submitAll(final int encAlgorithm, final byte[] sessionInfo) {
+        if (mPackets != null) {
+            for (Future<ContainedPacket> packet : mPackets) {
+                packet.cancel(false);
+            }
+        }
+
+        mSessionInfo = sessionInfo;
+        mEncAlgorithm = encAlgorithm;
+        mPackets = new ArrayList<>(mMethods.size());
+        for (final PGPKeyEncryptionMethodGenerator method : mMethods) {
+            mPackets.add(executor.submit(new Callable<ContainedPacket>() {
+                @Override
+                public ContainedPacket call() throws PGPException {
+                    return method.generate(encAlgorithm, sessionInfo);
+                }
+            }));
+        }
+    }
+
+    private class PendingMethod extends PGPKeyEncryptionMethodGenerator {
+        private final int mIndex;
+
+        PendingMethod(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public ContainedPacket generate(int encAlgorithm, byte[] sessionInfo) throws PGPException {
+            return getPacket(mIndex, encAlgorithm, sessionInfo);
+        }
+    }
+
+}
@@ -26,6 +26,8 @@ import android.os.Parcelable;
 import android.support.annotation.Nullable;
 
 import com.google.auto.value.AutoValue;
+import com.ryanharter.auto.value.parcel.ParcelAdapter;
+import org.sufficientlysecure.keychain.util.ByteArrayListParcelAdapter;
 
 
 @AutoValue
@@ -48,6 +50,10 @@ public abstract class PgpDecryptVerifyInputParcel implements Parcelable {
     @Nullable
     @SuppressWarnings("mutable")
     abstract byte[] getDetachedSignature();
+    // several detached signatures over the same data, which are all verified in a single pass
+    @Nullable
+    @ParcelAdapter(ByteArrayListParcelAdapter.class)
+    abstract List<byte[]> getDetachedSignatures();
     @Nullable
     abstract String getSenderAddress();
 
@@ -69,11 +75,13 @@ public abstract class PgpDecryptVerifyInputParcel implements Parcelable {
         public abstract Builder setAllowSymmetricDecryption(boolean allowSymmetricDecryption);
         public abstract Builder setDecryptMetadataOnly(boolean decryptMetadataOnly);
         public abstract Builder setDetachedSignature(byte[] detachedSignature);
+        public abstract Builder setDetachedSignatures(List<byte[]> detachedSignatures);
         public abstract Builder setSenderAddress(String senderAddress);
         public abstract Builder setAutocryptSetup(boolean isAutocryptSetup);
 
         public abstract Builder setAllowedKeyIds(List<Long> allowedKeyIds);
         abstract List<Long> getAllowedKeyIds();
+        abstract List<byte[]> getDetachedSignatures();
 
         abstract PgpDecryptVerifyInputParcel autoBuild();
         public PgpDecryptVerifyInputParcel build() {
@@ -81,6 +89,10 @@ public abstract class PgpDecryptVerifyInputParcel implements Parcelable {
             if (allowedKeyIds != null) {
                 setAllowedKeyIds(Collections.unmodifiableList(allowedKeyIds));
             }
+            List<byte[]> detachedSignatures = getDetachedSignatures();
+            if (detachedSignatures != null) {
+                setDetachedSignatures(Collections.unmodifiableList(detachedSignatures));
+            }
             return autoBuild();
         }
     }
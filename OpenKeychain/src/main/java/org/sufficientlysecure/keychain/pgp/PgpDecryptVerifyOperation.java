@@ -26,6 +26,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -47,6 +48,7 @@ import org.bouncycastle.openpgp.PGPKeyValidationException;
 import org.bouncycastle.openpgp.PGPLiteralData;
 import org.bouncycastle.openpgp.PGPPBEEncryptedData;
 import org.bouncycastle.openpgp.PGPPublicKeyEncryptedData;
+import org.bouncycastle.openpgp.PGPSignature;
 import org.bouncycastle.openpgp.PGPSignatureList;
 import org.bouncycastle.openpgp.PGPUtil;
 import org.bouncycastle.openpgp.jcajce.JcaSkipMarkerPGPObjectFactory;
@@ -58,6 +60,7 @@ import org.bouncycastle.openpgp.operator.jcajce.JcePBEDataDecryptorFactoryBuilde
 import org.bouncycastle.util.encoders.DecoderException;
 import org.openintents.openpgp.OpenPgpDecryptionResult;
 import org.openintents.openpgp.OpenPgpMetadata;
+import org.openintents.openpgp.OpenPgpSignatureResult;
 import org.sufficientlysecure.keychain.Constants;
 import org.sufficientlysecure.keychain.Constants.key;
 import org.sufficientlysecure.keychain.R;
@@ -65,6 +68,8 @@ import org.sufficientlysecure.keychain.operations.BaseOperation;
 import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings.Phase;
 import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKey.SecretKeyType;
 import org.sufficientlysecure.keychain.pgp.DecryptVerifySecurityProblem.DecryptVerifySecurityProblemBuilder;
 import org.sufficientlysecure.keychain.pgp.SecurityProblem.EncryptionAlgorithmProblem;
@@ -80,6 +85,7 @@ import org.sufficientlysecure.keychain.ui.util.KeyFormattingUtils;
 import org.sufficientlysecure.keychain.util.CharsetVerifier;
 import org.sufficientlysecure.keychain.util.FileHelper;
 import org.sufficientlysecure.keychain.util.InputData;
+import org.sufficientlysecure.keychain.util.IoBufferPool;
 import org.sufficientlysecure.keychain.util.Passphrase;
 import org.sufficientlysecure.keychain.util.ProgressScaler;
 import timber.log.Timber;
@@ -159,11 +165,24 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
     @NonNull
     private DecryptVerifyResult executeInternal(PgpDecryptVerifyInputParcel input, CryptoInputParcel cryptoInput,
             InputData inputData, OutputStream outputStream) {
+        OperationTimings timings = new OperationTimings();
+        DecryptVerifyResult result = executeInternal(input, cryptoInput, inputData, outputStream, timings);
+        result.setTimings(timings);
+        return result;
+    }
+
+    @NonNull
+    private DecryptVerifyResult executeInternal(PgpDecryptVerifyInputParcel input, CryptoInputParcel cryptoInput,
+            InputData inputData, OutputStream outputStream, OperationTimings timings) {
         try {
-            if (input.getDetachedSignature() != null) {
+            if (input.getDetachedSignatures() != null) {
+                Timber.d("Multiple detached signatures present, verifying all in a single pass");
+
+                return verifyDetachedSignatures(input, inputData, outputStream, 0, timings);
+            } else if (input.getDetachedSignature() != null) {
                 Timber.d("Detached signature present, verifying with this signature only");
 
-                return verifyDetachedSignature(input, inputData, outputStream, 0);
+                return verifyDetachedSignature(input, inputData, outputStream, 0, timings);
             } else {
                 // automatically works with PGP ascii armor and PGP binary
                 InputStream inputStream = PGPUtil.getDecoderStream(inputData.getInputStream());
@@ -175,13 +194,13 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
                     if (aIn.isClearText()) {
                         // a cleartext signature, verify it with the other method
-                        return verifyCleartextSignature(input, aIn, outputStream, 0);
+                        return verifyCleartextSignature(input, aIn, outputStream, 0, timings);
                     } else {
                         // else: ascii armored encryption! go on...
-                        return decryptVerify(input, cryptoInput, inputData, inputStream, outputStream, 0);
+                        return decryptVerify(input, cryptoInput, inputData, inputStream, outputStream, 0, timings);
                     }
                 } else {
-                    return decryptVerify(input, cryptoInput, inputData, inputStream, outputStream, 0);
+                    return decryptVerify(input, cryptoInput, inputData, inputStream, outputStream, 0, timings);
                 }
             }
         } catch (PGPException e) {
@@ -301,7 +320,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
     @NonNull
     private DecryptVerifyResult decryptVerify(
             PgpDecryptVerifyInputParcel input, CryptoInputParcel cryptoInput,
-            InputData inputData, InputStream in, OutputStream out, int indent) throws IOException, PGPException {
+            InputData inputData, InputStream in, OutputStream out, int indent, OperationTimings timings)
+            throws IOException, PGPException {
 
         OperationLog log = new OperationLog();
 
@@ -336,8 +356,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
             Object obj = pgpF.nextObject();
 
             if (obj instanceof PGPEncryptedDataList) {
-                esResult = handleEncryptedPacket(
-                        input, cryptoInput, (PGPEncryptedDataList) obj, log, indent, customRequiredInputParcel);
+                esResult = handleEncryptedPacket(input, cryptoInput, (PGPEncryptedDataList) obj, log, indent,
+                        customRequiredInputParcel, timings);
 
                 // if there is an error, nothing left to do here
                 if (esResult.errorResult != null) {
@@ -393,9 +413,12 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
             dataChunk = plainFact.nextObject();
         }
 
+        long time = System.nanoTime();
         PgpSignatureChecker signatureChecker = new PgpSignatureChecker(
                 mKeyRepository, input.getSenderAddress(), securityProblemBuilder);
-        if (signatureChecker.initializeOnePassSignature(dataChunk, log, indent +1)) {
+        boolean hasOnePassSignature = signatureChecker.initializeOnePassSignature(dataChunk, log, indent +1);
+        timings.addSince(Phase.KEY_LOOKUP, time);
+        if (hasOnePassSignature) {
             dataChunk = plainFact.nextObject();
         }
 
@@ -482,7 +505,7 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
         long wholeSize = inputData.getSize() - inputData.getStreamPosition();
         boolean sizeIsKnown = inputData.getSize() != InputData.UNKNOWN_FILESIZE && wholeSize > 0;
         int length;
-        byte[] buffer = new byte[8192];
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.SMALL_BUFFER_SIZE);
         byte[] firstBytes = new byte[48];
         CharsetVerifier charsetVerifier = new CharsetVerifier(buffer, mimeType, charset);
 
@@ -490,41 +513,53 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
         long nextProgressTime = 0L;
         int lastReportedProgress = 1;
-        while ((length = dataIn.read(buffer)) > 0) {
-            // Log.d(Constants.TAG, "read bytes: " + length);
-            if (out != null) {
-                out.write(buffer, 0, length);
-            }
-
-            // update signature buffer if signature is also present
-            signatureChecker.updateSignatureData(buffer, 0, length);
+        try {
+            time = System.nanoTime();
+            while ((length = dataIn.read(buffer)) > 0) {
+                time = timings.addSince(Phase.BULK_CRYPTO, time);
+                // Log.d(Constants.TAG, "read bytes: " + length);
+                if (out != null) {
+                    out.write(buffer, 0, length);
+                    time = timings.addSince(Phase.OUTPUT, time);
+                }
 
-            charsetVerifier.readBytesFromBuffer(0, length);
+                // update signature buffer if signature is also present
+                signatureChecker.updateSignatureData(buffer, 0, length);
+                time = timings.addSince(Phase.SIGNATURE, time);
 
-            // note down first couple of bytes for "magic bytes" file type detection
-            if (alreadyWritten == 0) {
-                System.arraycopy(buffer, 0, firstBytes, 0, length > firstBytes.length ? firstBytes.length : length);
-            }
+                charsetVerifier.readBytesFromBuffer(0, length);
 
-            alreadyWritten += length;
-            if (sizeIsKnown && nextProgressTime < System.currentTimeMillis()) {
-                long progress = 100 * inputData.getStreamPosition() / wholeSize;
-                // stop at 100% for wrong file sizes...
-                if (progress > 100) {
-                    progress = 100;
+                // note down first couple of bytes for "magic bytes" file type detection
+                if (alreadyWritten == 0) {
+                    System.arraycopy(buffer, 0, firstBytes, 0, length > firstBytes.length ? firstBytes.length : length);
                 }
-                if (progress > lastReportedProgress) {
-                    updateProgress((int) progress, 100);
-                    lastReportedProgress = (int) progress;
-                    nextProgressTime = System.currentTimeMillis() + PROGRESS_STRIDE_MILLISECONDS;
+
+                alreadyWritten += length;
+                if (sizeIsKnown && nextProgressTime < System.currentTimeMillis()) {
+                    long progress = 100 * inputData.getStreamPosition() / wholeSize;
+                    // stop at 100% for wrong file sizes...
+                    if (progress > 100) {
+                        progress = 100;
+                    }
+                    if (progress > lastReportedProgress) {
+                        updateProgress((int) progress, 100);
+                        lastReportedProgress = (int) progress;
+                        nextProgressTime = System.currentTimeMillis() + PROGRESS_STRIDE_MILLISECONDS;
+                    }
                 }
+                time = System.nanoTime();
             }
+            timings.addSince(Phase.BULK_CRYPTO, time);
+        } finally {
+            IoBufferPool.release(buffer, true);
         }
 
         if (signatureChecker.isInitialized()) {
 
+            time = System.nanoTime();
             Object o = plainFact.nextObject();
             boolean signatureCheckOk = signatureChecker.verifySignatureOnePass(o, log, indent + 1);
+            timings.addSince(Phase.SIGNATURE, time);
 
             if (!signatureCheckOk) {
                 return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
@@ -557,7 +592,10 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
         if (esResult != null) {
             if (esResult.encryptedData.isIntegrityProtected()) {
-                if (esResult.encryptedData.verify()) {
+                time = System.nanoTime();
+                boolean integrityCheckOk = esResult.encryptedData.verify();
+                timings.addSince(Phase.BULK_CRYPTO, time);
+                if (integrityCheckOk) {
                     log.add(LogType.MSG_DC_INTEGRITY_CHECK_OK, indent);
                 } else {
                     log.add(LogType.MSG_DC_ERROR_INTEGRITY_CHECK, indent);
@@ -591,8 +629,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
     }
 
     private EncryptStreamResult handleEncryptedPacket(PgpDecryptVerifyInputParcel input, CryptoInputParcel cryptoInput,
-            PGPEncryptedDataList enc, OperationLog log, int indent, RequiredInputParcel customRequiredInputParcel)
-            throws PGPException {
+            PGPEncryptedDataList enc, OperationLog log, int indent, RequiredInputParcel customRequiredInputParcel,
+            OperationTimings timings) throws PGPException {
 
         EncryptStreamResult result = new EncryptStreamResult();
 
@@ -632,9 +670,11 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                     break;
                 }
 
+                long time = System.nanoTime();
                 try {
                     // get actual keyring object based on master key id
                     Long masterKeyId = mKeyRepository.getMasterKeyIdBySubkeyId(subKeyId);
+                    time = timings.addSince(Phase.KEY_LOOKUP, time);
                     if (masterKeyId == null) {
                         log.add(LogType.MSG_DC_ASKIP_NO_KEY, indent + 1);
                         continue;
@@ -655,7 +695,9 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                         }
                     }
 
+                    time = System.nanoTime();
                     SecretKeyType secretKeyType = mKeyRepository.getSecretKeyType(subKeyId);
+                    time = timings.addSince(Phase.KEY_LOOKUP, time);
                     if (!secretKeyType.isUsable()) {
                         decryptionKey = null;
                         log.add(LogType.MSG_DC_ASKIP_UNAVAILABLE, indent + 1);
@@ -666,6 +708,7 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                     CanonicalizedSecretKeyRing canonicalizedSecretKeyRing = mKeyRepository
                             .getCanonicalizedSecretKeyRing(masterKeyId);
                     CanonicalizedSecretKey candidateDecryptionKey = canonicalizedSecretKeyRing.getSecretKey(subKeyId);
+                    time = timings.addSince(Phase.KEY_LOOKUP, time);
 
                     if (!candidateDecryptionKey.canEncrypt()) {
                         log.add(LogType.MSG_DC_ASKIP_BAD_FLAGS, indent + 1);
@@ -687,6 +730,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                         } catch (PassphraseCacheInterface.NoSecretKeyException e) {
                             log.add(LogType.MSG_DC_ERROR_NO_KEY, indent + 1);
                             return result.with(new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log));
+                        } finally {
+                            timings.addSince(Phase.PASSPHRASE_CACHE, time);
                         }
 
                         // if passphrase was not cached, return here indicating that a passphrase is missing!
@@ -741,12 +786,14 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                 // indicating that a passphrase is missing!
                 if (!cryptoInput.hasPassphraseForSymmetric()) {
 
+                    long time = System.nanoTime();
                     try {
                         passphrase = getCachedPassphrase(key.symmetric);
                         log.add(LogType.MSG_DC_PASS_CACHED, indent + 1);
                     } catch (PassphraseCacheInterface.NoSecretKeyException e) {
                         // nvm
                     }
+                    timings.addSince(Phase.PASSPHRASE_CACHE, time);
 
                     if (passphrase == null) {
                         log.add(LogType.MSG_DC_PENDING_PASSPHRASE, indent + 1);
@@ -793,8 +840,11 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
                     digestCalcProvider).setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build(
                     passphrase.getCharArray());
 
+            // this is where the s2k is computed, so it counts as unlocking
+            long time = System.nanoTime();
             try {
                 result.cleartextStream = encryptedDataSymmetric.getDataStream(decryptorFactory);
+                timings.addSince(Phase.KEY_UNLOCK, time);
             } catch (PGPDataValidationException e) {
                 log.add(LogType.MSG_DC_ERROR_SYM_PASSPHRASE, indent + 1);
                 RequiredInputParcel requiredInputParcel = customRequiredInputParcel != null ?
@@ -807,12 +857,15 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
             result.symmetricEncryptionAlgo = encryptedDataSymmetric.getSymmetricAlgorithm(decryptorFactory);
         } else if (asymmetricPacketFound) {
             CachingDataDecryptorFactory decryptorFactory;
+            long time = System.nanoTime();
             if (decryptedSessionKeyAvailable) {
                 decryptorFactory = cachedKeyDecryptorFactory;
             } else {
                 try {
                     log.add(LogType.MSG_DC_UNLOCKING, indent + 1);
-                    if (!decryptionKey.unlock(passphrase)) {
+                    boolean unlocked = decryptionKey.unlock(passphrase);
+                    time = timings.addSince(Phase.KEY_UNLOCK, time);
+                    if (!unlocked) {
                         log.add(LogType.MSG_DC_ERROR_BAD_PASSPHRASE, indent + 1);
                         return result.with(new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log));
                     }
@@ -839,6 +892,7 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
             try {
                 result.cleartextStream = encryptedDataAsymmetric.getDataStream(decryptorFactory);
+                timings.addSince(Phase.SESSION_KEY, time);
             } catch (PGPKeyValidationException | ArrayIndexOutOfBoundsException e) {
                 log.add(LogType.MSG_DC_ERROR_CORRUPT_DATA, indent + 1);
                 return result.with(new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log));
@@ -885,7 +939,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
      */
     @NonNull
     private DecryptVerifyResult verifyCleartextSignature(
-            PgpDecryptVerifyInputParcel input, ArmoredInputStream aIn, OutputStream outputStream, int indent) throws IOException, PGPException {
+            PgpDecryptVerifyInputParcel input, ArmoredInputStream aIn, OutputStream outputStream, int indent,
+            OperationTimings timings) throws IOException, PGPException {
 
         OperationLog log = new OperationLog();
 
@@ -895,18 +950,16 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
             updateProgress(R.string.progress_reading_data, 0, 100);
 
-            ByteArrayOutputStream lineOut = new ByteArrayOutputStream();
-            int lookAhead = readInputLine(lineOut, aIn);
+            CleartextLineScanner lineScanner = new CleartextLineScanner(aIn);
             byte[] lineSep = getLineSeparator();
 
-            byte[] line = lineOut.toByteArray();
-            out.write(line, 0, getLengthWithoutSeparator(line));
+            lineScanner.readLine();
+            out.write(lineScanner.getLineBuffer(), 0, lineScanner.getLineLength());
             out.write(lineSep);
 
-            while (lookAhead != -1 && aIn.isClearText()) {
-                lookAhead = readInputLine(lineOut, lookAhead, aIn);
-                line = lineOut.toByteArray();
-                out.write(line, 0, getLengthWithoutSeparator(line));
+            while (lineScanner.hasNextLine() && aIn.isClearText()) {
+                lineScanner.readLine();
+                out.write(lineScanner.getLineBuffer(), 0, lineScanner.getLineLength());
                 out.write(lineSep);
             }
 
@@ -915,8 +968,10 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
         }
 
         if (outputStream != null) {
+            long time = System.nanoTime();
             outputStream.write(clearText);
             outputStream.close();
+            timings.addSince(Phase.OUTPUT, time);
         }
 
         updateProgress(R.string.progress_processing_signature, 60, 100);
@@ -926,8 +981,11 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
         PgpSignatureChecker signatureChecker = new PgpSignatureChecker(mKeyRepository, input.getSenderAddress(),
                 securityProblemBuilder);
 
+        long time = System.nanoTime();
         Object o = pgpFact.nextObject();
-        if (!signatureChecker.initializeSignature(o, log, indent+1)) {
+        boolean signatureInitialized = signatureChecker.initializeSignature(o, log, indent+1);
+        time = timings.addSince(Phase.KEY_LOOKUP, time);
+        if (!signatureInitialized) {
             log.add(LogType.MSG_DC_ERROR_INVALID_DATA, 0);
             return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
         }
@@ -936,8 +994,10 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
             try {
                 updateProgress(R.string.progress_verifying_signature, 90, 100);
 
+                time = System.nanoTime();
                 signatureChecker.updateSignatureWithCleartext(clearText);
                 signatureChecker.verifySignature(log, indent);
+                timings.addSince(Phase.SIGNATURE, time);
 
             } catch (SignatureException e) {
                 Timber.d(e, "SignatureException");
@@ -962,8 +1022,8 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
 
     @NonNull
     private DecryptVerifyResult verifyDetachedSignature(
-            PgpDecryptVerifyInputParcel input, InputData inputData, OutputStream out, int indent)
-            throws IOException, PGPException {
+            PgpDecryptVerifyInputParcel input, InputData inputData, OutputStream out, int indent,
+            OperationTimings timings) throws IOException, PGPException {
 
         OperationLog log = new OperationLog();
 
@@ -984,7 +1044,10 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
         PgpSignatureChecker signatureChecker = new PgpSignatureChecker(mKeyRepository, input.getSenderAddress(),
                 securityProblemBuilder);
 
-        if ( ! signatureChecker.initializeSignature(o, log, indent+1)) {
+        long time = System.nanoTime();
+        boolean signatureInitialized = signatureChecker.initializeSignature(o, log, indent+1);
+        timings.addSince(Phase.KEY_LOOKUP, time);
+        if (!signatureInitialized) {
             log.add(LogType.MSG_DC_ERROR_INVALID_DATA, 0);
             return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
         }
@@ -997,31 +1060,42 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
             long alreadyWritten = 0;
             long wholeSize = inputData.getSize() - inputData.getStreamPosition();
             int length;
-            byte[] buffer = new byte[1 << 16];
+            byte[] buffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
             InputStream in = inputData.getInputStream();
-            while ((length = in.read(buffer)) > 0) {
-                if (out != null) {
-                    out.write(buffer, 0, length);
-                }
+            try {
+                time = System.nanoTime();
+                while ((length = in.read(buffer)) > 0) {
+                    time = timings.addSince(Phase.BULK_CRYPTO, time);
+                    if (out != null) {
+                        out.write(buffer, 0, length);
+                        time = timings.addSince(Phase.OUTPUT, time);
+                    }
 
-                // update signature buffer if signature is also present
-                signatureChecker.updateSignatureData(buffer, 0, length);
+                    // update signature buffer if signature is also present
+                    signatureChecker.updateSignatureData(buffer, 0, length);
+                    time = timings.addSince(Phase.SIGNATURE, time);
 
-                alreadyWritten += length;
-                if (wholeSize > 0) {
-                    long progress = 100 * alreadyWritten / wholeSize;
-                    // stop at 100% for wrong file sizes...
-                    if (progress > 100) {
-                        progress = 100;
+                    alreadyWritten += length;
+                    if (wholeSize > 0) {
+                        long progress = 100 * alreadyWritten / wholeSize;
+                        // stop at 100% for wrong file sizes...
+                        if (progress > 100) {
+                            progress = 100;
+                        }
+                        progressScaler.setProgress((int) progress, 100);
                     }
-                    progressScaler.setProgress((int) progress, 100);
+                    time = System.nanoTime();
                 }
+            } finally {
+                IoBufferPool.release(buffer, true);
             }
 
             updateProgress(R.string.progress_verifying_signature, 90, 100);
             log.add(LogType.MSG_DC_CLEAR_SIGNATURE_CHECK, indent);
 
+            time = System.nanoTime();
             signatureChecker.verifySignature(log, indent);
+            timings.addSince(Phase.SIGNATURE, time);
 
         }
 
@@ -1039,69 +1113,130 @@ public class PgpDecryptVerifyOperation extends BaseOperation<PgpDecryptVerifyInp
         return result;
     }
 
-    private static int readInputLine(ByteArrayOutputStream bOut, InputStream fIn)
-            throws IOException {
-        bOut.reset();
-
-        int lookAhead = -1;
-        int ch;
-
-        while ((ch = fIn.read()) >= 0) {
-            bOut.write(ch);
-            if (ch == '\r' || ch == '\n') {
-                lookAhead = readPastEOL(bOut, ch, fIn);
-                break;
-            }
-        }
+    /**
+     * Verifies several detached signatures over the same data. The data is read only once, and
+     * every signature packet found in any of the given signatures is updated from that single pass.
+     * The result contains one OpenPgpSignatureResult and one security problem (or null) per
+     * signature packet, in input order.
+     */
+    @NonNull
+    private DecryptVerifyResult verifyDetachedSignatures(
+            PgpDecryptVerifyInputParcel input, InputData inputData, OutputStream out, int indent,
+            OperationTimings timings) throws IOException, PGPException {
 
-        return lookAhead;
-    }
+        OperationLog log = new OperationLog();
 
-    private static int readInputLine(ByteArrayOutputStream bOut, int lookAhead, InputStream fIn)
-            throws IOException {
-        bOut.reset();
+        updateProgress(R.string.progress_processing_signature, 0, 100);
 
-        int ch = lookAhead;
+        long time = System.nanoTime();
+        // security problems are tracked per signature, a weak key on one must not taint the others
+        ArrayList<DecryptVerifySecurityProblemBuilder> securityProblemBuilders = new ArrayList<>();
+        ArrayList<PgpSignatureChecker> signatureCheckers = new ArrayList<>();
+        for (byte[] detachedSignature : input.getDetachedSignatures()) {
+            InputStream detachedSigIn = PGPUtil.getDecoderStream(new ByteArrayInputStream(detachedSignature));
+            JcaSkipMarkerPGPObjectFactory pgpFact = new JcaSkipMarkerPGPObjectFactory(detachedSigIn);
+
+            Object o;
+            while ((o = pgpFact.nextObject()) != null) {
+                if (o instanceof PGPCompressedData) {
+                    pgpFact = new JcaSkipMarkerPGPObjectFactory(((PGPCompressedData) o).getDataStream());
+                    continue;
+                }
+                if (!(o instanceof PGPSignatureList)) {
+                    log.add(LogType.MSG_DC_ERROR_INVALID_DATA, 0);
+                    return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
+                }
 
-        do {
-            bOut.write(ch);
-            if (ch == '\r' || ch == '\n') {
-                lookAhead = readPastEOL(bOut, ch, fIn);
-                break;
+                // each signature packet is checked on its own, even if several come in one list
+                PGPSignatureList signatureList = (PGPSignatureList) o;
+                for (int i = 0; i < signatureList.size(); i++) {
+                    PGPSignature signature = signatureList.get(i);
+                    DecryptVerifySecurityProblemBuilder securityProblemBuilder =
+                            new DecryptVerifySecurityProblemBuilder();
+                    PgpSignatureChecker signatureChecker = new PgpSignatureChecker(mKeyRepository,
+                            input.getSenderAddress(), securityProblemBuilder);
+                    if (!signatureChecker.initializeSignature(new PGPSignatureList(signature), log, indent + 1)) {
+                        log.add(LogType.MSG_DC_ERROR_INVALID_DATA, 0);
+                        return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
+                    }
+                    signatureCheckers.add(signatureChecker);
+                    securityProblemBuilders.add(securityProblemBuilder);
+                }
             }
-        } while ((ch = fIn.read()) >= 0);
+        }
+
+        timings.addSince(Phase.KEY_LOOKUP, time);
 
-        if (ch < 0) {
-            lookAhead = -1;
+        if (signatureCheckers.isEmpty()) {
+            log.add(LogType.MSG_DC_ERROR_INVALID_DATA, 0);
+            return new DecryptVerifyResult(DecryptVerifyResult.RESULT_ERROR, log);
         }
+        log.add(LogType.MSG_DC_DETACHED_SIGNATURES, indent, signatureCheckers.size());
 
-        return lookAhead;
-    }
+        updateProgress(R.string.progress_reading_data, 10, 100);
 
-    private static int readPastEOL(ByteArrayOutputStream bOut, int lastCh, InputStream fIn)
-            throws IOException {
-        int lookAhead = fIn.read();
+        ProgressScaler progressScaler = new ProgressScaler(mProgressable, 10, 90, 100);
+        long alreadyWritten = 0;
+        long wholeSize = inputData.getSize() - inputData.getStreamPosition();
+        int length;
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+        InputStream in = inputData.getInputStream();
+        try {
+            time = System.nanoTime();
+            while ((length = in.read(buffer)) > 0) {
+                time = timings.addSince(Phase.BULK_CRYPTO, time);
+                if (out != null) {
+                    out.write(buffer, 0, length);
+                    time = timings.addSince(Phase.OUTPUT, time);
+                }
 
-        if (lastCh == '\r' && lookAhead == '\n') {
-            bOut.write(lookAhead);
-            lookAhead = fIn.read();
-        }
+                for (PgpSignatureChecker signatureChecker : signatureCheckers) {
+                    signatureChecker.updateSignatureData(buffer, 0, length);
+                }
+                time = timings.addSince(Phase.SIGNATURE, time);
 
-        return lookAhead;
-    }
+                alreadyWritten += length;
+                if (wholeSize > 0) {
+                    long progress = 100 * alreadyWritten / wholeSize;
+                    // stop at 100% for wrong file sizes...
+                    if (progress > 100) {
+                        progress = 100;
+                    }
+                    progressScaler.setProgress((int) progress, 100);
+                }
+                time = System.nanoTime();
+            }
+        } finally {
+            IoBufferPool.release(buffer, true);
+        }
 
-    private static int getLengthWithoutSeparator(byte[] line) {
-        int end = line.length - 1;
+        updateProgress(R.string.progress_verifying_signature, 90, 100);
 
-        while (end >= 0 && isLineEnding(line[end])) {
-            end--;
+        time = System.nanoTime();
+        ArrayList<OpenPgpSignatureResult> signatureResults = new ArrayList<>(signatureCheckers.size());
+        ArrayList<DecryptVerifySecurityProblem> securityProblems = new ArrayList<>(signatureCheckers.size());
+        for (int i = 0; i < signatureCheckers.size(); i++) {
+            PgpSignatureChecker signatureChecker = signatureCheckers.get(i);
+            if (signatureChecker.isInitialized()) {
+                signatureChecker.verifySignature(log, indent);
+            }
+            signatureResults.add(signatureChecker.getSignatureResult());
+            securityProblems.add(securityProblemBuilders.get(i).build());
         }
+        timings.addSince(Phase.SIGNATURE, time);
 
-        return end + 1;
-    }
+        updateProgress(R.string.progress_done, 100, 100);
 
-    private static boolean isLineEnding(byte b) {
-        return b == '\r' || b == '\n';
+        log.add(LogType.MSG_DC_OK, indent);
+
+        DecryptVerifyResult result = new DecryptVerifyResult(DecryptVerifyResult.RESULT_OK, log);
+        result.setSignatureResults(signatureResults, securityProblems);
+        // the first signature stands in for all of them with callers that expect a single result
+        result.setSignatureResult(signatureResults.get(0));
+        result.setSecurityProblemResult(securityProblems.get(0));
+        result.setDecryptionResult(
+                new OpenPgpDecryptionResult(OpenPgpDecryptionResult.RESULT_NOT_ENCRYPTED));
+        return result;
     }
 
     private static byte[] getLineSeparator() {
@@ -59,6 +59,7 @@ public abstract class PgpSignEncryptData implements Parcelable {
     public abstract boolean isCleartextSignature();
     public abstract boolean isDetachedSignature();
     public abstract boolean isHiddenRecipients();
+    public abstract boolean isAdaptiveCompression();
 
     @Nullable
     public abstract String getPassphraseFormat();
@@ -73,6 +74,7 @@ public abstract class PgpSignEncryptData implements Parcelable {
                 .setCleartextSignature(false)
                 .setDetachedSignature(false)
                 .setHiddenRecipients(false)
+                .setAdaptiveCompression(false)
                 .setCompressionAlgorithm(OpenKeychainCompressionAlgorithmTags.USE_DEFAULT)
                 .setSignatureHashAlgorithm(OpenKeychainHashAlgorithmTags.USE_DEFAULT)
                 .setSymmetricEncryptionAlgorithm(OpenKeychainSymmetricKeyAlgorithmTags.USE_DEFAULT);
@@ -98,6 +100,8 @@ public abstract class PgpSignEncryptData implements Parcelable {
         public abstract Builder setCleartextSignature(boolean isCleartextSignature);
         public abstract Builder setDetachedSignature(boolean isDetachedSignature);
         public abstract Builder setHiddenRecipients(boolean isHiddenRecipients);
+        /** Skip compression for inputs that are detected to be incompressible. */
+        public abstract Builder setAdaptiveCompression(boolean isAdaptiveCompression);
 
         abstract Builder setAllowedSigningKeyIds(List<Long> allowedSigningKeyIds);
         public Builder setAllowedSigningKeyIds(Collection<Long> allowedSigningKeyIds) {
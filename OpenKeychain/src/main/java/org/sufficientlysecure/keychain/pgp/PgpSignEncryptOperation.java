@@ -30,9 +30,11 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.security.SignatureException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.Context;
@@ -48,6 +50,7 @@ import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.PGPLiteralData;
 import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
 import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.PGPKeyEncryptionMethodGenerator;
 import org.bouncycastle.openpgp.operator.jcajce.JcePBEKeyEncryptionMethodGenerator;
 import org.bouncycastle.openpgp.operator.jcajce.JcePGPDataEncryptorBuilder;
 import org.bouncycastle.openpgp.operator.jcajce.NfcSyncPGPContentSignerBuilder;
@@ -60,8 +63,12 @@ import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
 import org.sufficientlysecure.keychain.operations.BaseOperation;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings.Phase;
 import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
 import org.sufficientlysecure.keychain.operations.results.SignEncryptResult;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKey.SecretKeyType;
+import org.sufficientlysecure.keychain.pgp.CompressionHeuristic.CompressionDecision;
 import org.sufficientlysecure.keychain.pgp.PgpSecurityConstants.OpenKeychainCompressionAlgorithmTags;
 import org.sufficientlysecure.keychain.pgp.PgpSecurityConstants.OpenKeychainHashAlgorithmTags;
 import org.sufficientlysecure.keychain.pgp.PgpSecurityConstants.OpenKeychainSymmetricKeyAlgorithmTags;
@@ -71,7 +78,9 @@ import org.sufficientlysecure.keychain.service.input.RequiredInputParcel;
 import org.sufficientlysecure.keychain.ui.util.KeyFormattingUtils;
 import org.sufficientlysecure.keychain.util.FileHelper;
 import org.sufficientlysecure.keychain.util.InputData;
+import org.sufficientlysecure.keychain.util.IoBufferPool;
 import org.sufficientlysecure.keychain.util.Passphrase;
+import org.sufficientlysecure.keychain.util.PooledBufferedOutputStream;
 import org.sufficientlysecure.keychain.util.ProgressScaler;
 import timber.log.Timber;
 
@@ -130,7 +139,8 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                     InputStream is = FileHelper.openInputStreamSafe(mContext.getContentResolver(), uri);
                     long fileSize = FileHelper.getFileSize(mContext, uri, 0);
                     String filename = FileHelper.getFilename(mContext, uri);
-                    inputData = new InputData(is, fileSize, filename);
+                    String mimeType = FileHelper.getMimeType(mContext, uri);
+                    inputData = new InputData(is, fileSize, filename, mimeType);
                 } catch (FileNotFoundException e) {
                     log.add(LogType.MSG_PSE_ERROR_INPUT_URI_NOT_FOUND, 1);
                     return new PgpSignEncryptResult(SignEncryptResult.RESULT_ERROR, log);
@@ -173,6 +183,14 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
      */
     private PgpSignEncryptResult executeInternal(PgpSignEncryptData data, CryptoInputParcel cryptoInput,
             InputData inputData, OutputStream outputStream) {
+        OperationTimings timings = new OperationTimings();
+        PgpSignEncryptResult result = executeInternal(data, cryptoInput, inputData, outputStream, timings);
+        result.setTimings(timings);
+        return result;
+    }
+
+    private PgpSignEncryptResult executeInternal(PgpSignEncryptData data, CryptoInputParcel cryptoInput,
+            InputData inputData, OutputStream outputStream, OperationTimings timings) {
         int indent = 0;
         OperationLog log = new OperationLog();
 
@@ -190,36 +208,13 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
 
         Timber.d(data.toString());
 
-        ArmoredOutputStream armorOut = null;
-        OutputStream out;
-        if (data.isEnableAsciiArmorOutput()) {
-            armorOut = new ArmoredOutputStream(new BufferedOutputStream(outputStream, 1 << 16));
-            if (data.getVersionHeader() != null) {
-                armorOut.setHeader("Version", data.getVersionHeader());
-            }
-            // if we have a charset, put it in the header
-            if (data.getCharset() != null) {
-                armorOut.setHeader("Charset", data.getCharset());
-            }
-            String passphraseFormat = data.getPassphraseFormat();
-            if (passphraseFormat != null) {
-                armorOut.setHeader("Passphrase-Format", passphraseFormat);
-            }
-            String passphraseBegin = data.getPassphraseBegin();
-            if (passphraseBegin != null) {
-                armorOut.setHeader("Passphrase-Begin", passphraseBegin);
-            }
-            out = armorOut;
-        } else {
-            out = outputStream;
-        }
-
         /* Get keys for signature generation for later usage */
         CanonicalizedSecretKey signingKey = null;
         if (enableSignature) {
 
             updateProgress(R.string.progress_extracting_signature_key, 0, 100);
 
+            long time = System.nanoTime();
             try {
                 long signingMasterKeyId = data.getSignatureMasterKeyId();
                 Long signingSubKeyId = data.getSignatureSubKeyId();
@@ -256,10 +251,14 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                     return new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_ERROR, log);
                 }
 
-                switch (mKeyRepository.getSecretKeyType(signingSubKeyId)) {
+                SecretKeyType secretKeyType = mKeyRepository.getSecretKeyType(signingSubKeyId);
+                time = timings.addSince(Phase.KEY_LOOKUP, time);
+                switch (secretKeyType) {
                     case DIVERT_TO_CARD:
                     case PASSPHRASE_EMPTY: {
-                        if (!signingKey.unlock(new Passphrase())) {
+                        boolean unlocked = signingKey.unlock(new Passphrase());
+                        timings.addSince(Phase.KEY_UNLOCK, time);
+                        if (!unlocked) {
                             throw new AssertionError(
                                     "PASSPHRASE_EMPTY/DIVERT_TO_CARD keyphrase not unlocked with empty passphrase."
                                             + " This is a programming error!");
@@ -274,6 +273,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                                 localPassphrase = getCachedPassphrase(signingMasterKeyId, signingKey.getKeyId());
                             } catch (PassphraseCacheInterface.NoSecretKeyException ignored) {
                             }
+                            time = timings.addSince(Phase.PASSPHRASE_CACHE, time);
                         }
                         if (localPassphrase == null) {
                             log.add(LogType.MSG_PSE_PENDING_PASSPHRASE, indent + 1);
@@ -281,7 +281,9 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                                     signingMasterKeyId, signingKey.getKeyId(),
                                     cryptoInput.getSignatureTime()), cryptoInput);
                         }
-                        if (!signingKey.unlock(localPassphrase)) {
+                        boolean unlocked = signingKey.unlock(localPassphrase);
+                        timings.addSince(Phase.KEY_UNLOCK, time);
+                        if (!unlocked) {
                             log.add(LogType.MSG_PSE_ERROR_BAD_PASSPHRASE, indent);
                             return new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_ERROR, log);
                         }
@@ -335,23 +337,40 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 log.add(LogType.MSG_PSE_ASYMMETRIC, indent);
 
                 long additionalEncryptId = data.getAdditionalEncryptId();
+                ArrayList<Long> encryptMasterKeyIds = new ArrayList<>();
                 for (long encryptMasterKeyId : data.getEncryptionMasterKeyIds()) {
-                    if (encryptMasterKeyId == additionalEncryptId) {
-                        continue;
-                    }
-
-                    boolean success = processEncryptionMasterKeyId(indent, log, data, cPk, encryptMasterKeyId);
-                    if (!success) {
-                        return new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_ERROR, log);
+                    if (encryptMasterKeyId != additionalEncryptId) {
+                        encryptMasterKeyIds.add(encryptMasterKeyId);
                     }
                 }
-
                 if (additionalEncryptId != Constants.key.none) {
-                    boolean success = processEncryptionMasterKeyId(indent, log, data, cPk, additionalEncryptId);
+                    encryptMasterKeyIds.add(additionalEncryptId);
+                }
+
+                // resolve all recipients at once, this makes a difference for long recipient lists
+                long time = System.nanoTime();
+                long[] masterKeyIdArray = new long[encryptMasterKeyIds.size()];
+                for (int i = 0; i < masterKeyIdArray.length; i++) {
+                    masterKeyIdArray[i] = encryptMasterKeyIds.get(i);
+                }
+                Map<Long, CanonicalizedPublicKeyRing> keyRings =
+                        mKeyRepository.getCanonicalizedPublicKeyRings(masterKeyIdArray);
+                Map<Long, List<Long>> encryptSubKeyIds =
+                        mKeyRepository.getPublicEncryptionIdsByMasterKeyIds(masterKeyIdArray);
+                timings.addSince(Phase.KEY_LOOKUP, time);
+
+                ArrayList<PGPKeyEncryptionMethodGenerator> encryptionMethods = new ArrayList<>();
+                for (long encryptMasterKeyId : encryptMasterKeyIds) {
+                    boolean success = processEncryptionMasterKeyId(indent, log, data, encryptionMethods,
+                            encryptMasterKeyId, keyRings.get(encryptMasterKeyId),
+                            encryptSubKeyIds.get(encryptMasterKeyId));
                     if (!success) {
                         return new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_ERROR, log);
                     }
                 }
+
+                // session key encryption happens when the stream is opened, spread it over all cores
+                ParallelKeyEncryptionMethods.addMethods(cPk, encryptionMethods);
             }
         }
 
@@ -387,6 +406,36 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
         ArmoredOutputStream detachedArmorOut = null;
         BCPGOutputStream detachedBcpgOut = null;
 
+        PooledBufferedOutputStream armorBufferedOut = null;
+        ArmoredOutputStream armorOut = null;
+        OutputStream out;
+        if (data.isEnableAsciiArmorOutput()) {
+            armorBufferedOut = new PooledBufferedOutputStream(outputStream, IoBufferPool.LARGE_BUFFER_SIZE, true);
+            armorOut = new ArmoredOutputStream(armorBufferedOut);
+            if (data.getVersionHeader() != null) {
+                armorOut.setHeader("Version", data.getVersionHeader());
+            }
+            // if we have a charset, put it in the header
+            if (data.getCharset() != null) {
+                armorOut.setHeader("Charset", data.getCharset());
+            }
+            String passphraseFormat = data.getPassphraseFormat();
+            if (passphraseFormat != null) {
+                armorOut.setHeader("Passphrase-Format", passphraseFormat);
+            }
+            String passphraseBegin = data.getPassphraseBegin();
+            if (passphraseBegin != null) {
+                armorOut.setHeader("Passphrase-Begin", passphraseBegin);
+            }
+            out = armorOut;
+        } else {
+            out = outputStream;
+        }
+
+        byte[] encryptionBuffer = null;
+        byte[] literalBuffer = null;
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+
         long opTime, startTime = System.currentTimeMillis();
 
         try {
@@ -401,7 +450,15 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 );
                 indent += 1;
 
-                encryptionOut = cPk.open(out, new byte[1 << 16]);
+                encryptionBuffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+                long time = System.nanoTime();
+                encryptionOut = cPk.open(out, encryptionBuffer);
+                timings.addSince(Phase.SESSION_KEY, time);
+
+                InputStream in = new BufferedInputStream(inputData.getInputStream());
+                if (compressionAlgorithm != CompressionAlgorithmTags.UNCOMPRESSED && data.isAdaptiveCompression()) {
+                    compressionAlgorithm = decideAdaptiveCompression(compressionAlgorithm, inputData, in, log, indent);
+                }
 
                 if (compressionAlgorithm != CompressionAlgorithmTags.UNCOMPRESSED) {
                     log.add(LogType.MSG_PSE_COMPRESSING, indent);
@@ -423,19 +480,21 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 } else {
                     literalDataFormatTag = PGPLiteralData.BINARY;
                 }
+                literalBuffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
                 pOut = literalGen.open(bcpgOut, literalDataFormatTag,
-                        inputData.getOriginalFilename(), new Date(), new byte[1 << 16]);
+                        inputData.getOriginalFilename(), new Date(), literalBuffer);
 
                 long alreadyWritten = 0;
                 int length;
-                byte[] buffer = new byte[1 << 16];
-                InputStream in = new BufferedInputStream(inputData.getInputStream());
+                time = System.nanoTime();
                 while ((length = in.read(buffer)) > 0) {
                     pOut.write(buffer, 0, length);
+                    time = timings.addSince(Phase.BULK_CRYPTO, time);
 
                     // update signature buffer if signature is requested
                     if (enableSignature) {
                         signatureGenerator.update(buffer, 0, length);
+                        time = timings.addSince(Phase.SIGNATURE, time);
                     }
 
                     alreadyWritten += length;
@@ -443,9 +502,11 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                         long progress = 100 * alreadyWritten / inputData.getSize();
                         progressScaler.setProgress((int) progress, 100);
                     }
+                    time = System.nanoTime();
                 }
 
                 literalGen.close();
+                timings.addSince(Phase.BULK_CRYPTO, time);
                 indent -= 1;
 
             } else if (enableSignature && data.isCleartextSignature() && data.isEnableAsciiArmorOutput()) {
@@ -454,6 +515,9 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 updateProgress(R.string.progress_signing, 8, 100);
                 log.add(LogType.MSG_PSE_SIGNING_CLEARTEXT, indent);
 
+                // line processing and signing can't be told apart here, it all counts as signature
+                long time = System.nanoTime();
+
                 // write -----BEGIN PGP SIGNED MESSAGE-----
                 armorOut.beginClearText(signatureHashAlgorithm);
 
@@ -481,6 +545,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 }
 
                 armorOut.endClearText();
+                timings.addSince(Phase.SIGNATURE, time);
 
                 pOut = new BCPGOutputStream(armorOut);
             } else if (enableSignature && data.isDetachedSignature()) {
@@ -495,7 +560,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 detachedByteOut = new ByteArrayOutputStream();
                 OutputStream detachedOut = detachedByteOut;
                 if (data.isEnableAsciiArmorOutput()) {
-                    detachedArmorOut = new ArmoredOutputStream(new BufferedOutputStream(detachedOut, 1 << 16));
+                    detachedArmorOut = new ArmoredOutputStream(new BufferedOutputStream(detachedOut));
                     if (data.getVersionHeader() != null) {
                         detachedArmorOut.setHeader("Version", data.getVersionHeader());
                     }
@@ -506,11 +571,12 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
 
                 long alreadyWritten = 0;
                 int length;
-                byte[] buffer = new byte[1 << 16];
                 while ((length = in.read(buffer)) > 0) {
                     // no output stream is written, no changed to original data!
 
+                    long time = System.nanoTime();
                     signatureGenerator.update(buffer, 0, length);
+                    timings.addSince(Phase.SIGNATURE, time);
 
                     alreadyWritten += length;
                     if (inputData.getSize() > 0) {
@@ -527,6 +593,9 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 log.add(LogType.MSG_PSE_SIGNING, indent);
 
                 InputStream in = new BufferedInputStream(inputData.getInputStream());
+                if (compressionAlgorithm != CompressionAlgorithmTags.UNCOMPRESSED && data.isAdaptiveCompression()) {
+                    compressionAlgorithm = decideAdaptiveCompression(compressionAlgorithm, inputData, in, log, indent);
+                }
 
                 if (compressionAlgorithm != CompressionAlgorithmTags.UNCOMPRESSED) {
                     log.add(LogType.MSG_PSE_COMPRESSING, indent);
@@ -540,38 +609,44 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
                 signatureGenerator.generateOnePassVersion(false).encode(bcpgOut);
 
                 PGPLiteralDataGenerator literalGen = new PGPLiteralDataGenerator();
+                literalBuffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
                 pOut = literalGen.open(bcpgOut, PGPLiteralData.BINARY,
-                        inputData.getOriginalFilename(), new Date(),
-                        new byte[1 << 16]);
+                        inputData.getOriginalFilename(), new Date(), literalBuffer);
 
                 long alreadyWritten = 0;
                 int length;
-                byte[] buffer = new byte[1 << 16];
+                long time = System.nanoTime();
                 while ((length = in.read(buffer)) > 0) {
                     pOut.write(buffer, 0, length);
+                    time = timings.addSince(Phase.OUTPUT, time);
 
                     signatureGenerator.update(buffer, 0, length);
+                    time = timings.addSince(Phase.SIGNATURE, time);
 
                     alreadyWritten += length;
                     if (inputData.getSize() > 0) {
                         long progress = 100 * alreadyWritten / inputData.getSize();
                         progressScaler.setProgress((int) progress, 100);
                     }
+                    time = System.nanoTime();
                 }
 
                 literalGen.close();
+                timings.addSince(Phase.OUTPUT, time);
             } else {
                 throw new AssertionError("cannot clearsign in non-ascii armored text, this is a bug!");
             }
 
             if (enableSignature) {
                 updateProgress(R.string.progress_generating_signature, 95, 100);
+                long time = System.nanoTime();
                 try {
                     if (detachedBcpgOut != null) {
                         signatureGenerator.generate().encode(detachedBcpgOut);
                     } else {
                         signatureGenerator.generate().encode(pOut);
                     }
+                    timings.addSince(Phase.SIGNATURE, time);
                 } catch (NfcSyncPGPContentSignerBuilder.NfcInteractionNeeded e) {
                     // this secret key diverts to a OpenPGP card, throw exception with hash that will be signed
                     log.add(LogType.MSG_PSE_PENDING_NFC, indent);
@@ -586,6 +661,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
 
             // closing outputs
             // NOTE: closing needs to be done in the correct order!
+            long time = System.nanoTime();
             if (compressGen != null) {
                 compressGen.close();
             }
@@ -596,6 +672,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
             // Note: Closing ArmoredOutputStream does not close the underlying stream
             if (armorOut != null) {
                 armorOut.close();
+                armorBufferedOut.close();
             }
             // Note: Closing ArmoredOutputStream does not close the underlying stream
             if (detachedArmorOut != null) {
@@ -611,6 +688,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
             if (outputStream != null) {
                 outputStream.close();
             }
+            timings.addSince(Phase.OUTPUT, time);
 
         } catch (SignatureException e) {
             log.add(LogType.MSG_PSE_ERROR_SIG, indent);
@@ -621,6 +699,15 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
         } catch (IOException e) {
             log.add(LogType.MSG_PSE_ERROR_IO, indent);
             return new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_ERROR, log);
+        } finally {
+            // all of these buffers may have held plaintext
+            IoBufferPool.release(buffer, true);
+            IoBufferPool.release(literalBuffer, true);
+            IoBufferPool.release(encryptionBuffer, true);
+            // already returned if the output was closed, in clearsign mode this holds plaintext
+            if (armorBufferedOut != null) {
+                armorBufferedOut.release();
+            }
         }
 
         updateProgress(R.string.progress_done, 100, 100);
@@ -628,6 +715,7 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
         log.add(LogType.MSG_PSE_OK, indent);
         PgpSignEncryptResult result = new PgpSignEncryptResult(PgpSignEncryptResult.RESULT_OK, log);
         result.mOperationTime = opTime;
+        result.setCompressionAlgorithm(compressGen != null ? compressionAlgorithm : CompressionAlgorithmTags.UNCOMPRESSED);
         if (detachedByteOut != null) {
             try {
                 detachedByteOut.flush();
@@ -647,32 +735,54 @@ public class PgpSignEncryptOperation extends BaseOperation<PgpSignEncryptInputPa
         return result;
     }
 
+    /**
+     * Returns the compression algorithm to use for this input, which is UNCOMPRESSED if the
+     * input is known or sampled to be incompressible. The input stream must support mark/reset.
+     */
+    private int decideAdaptiveCompression(int compressionAlgorithm, InputData inputData, InputStream in,
+            OperationLog log, int indent) throws IOException {
+        CompressionDecision decision = CompressionHeuristic.decideByType(
+                inputData.getMimeType(), inputData.getOriginalFilename());
+        if (decision == CompressionDecision.COMPRESS) {
+            decision = CompressionHeuristic.decideBySample(in);
+        }
+
+        switch (decision) {
+            case SKIP_MIME_TYPE:
+                log.add(LogType.MSG_PSE_COMPRESSION_SKIP_TYPE, indent);
+                return CompressionAlgorithmTags.UNCOMPRESSED;
+            case SKIP_HIGH_ENTROPY:
+                log.add(LogType.MSG_PSE_COMPRESSION_SKIP_ENTROPY, indent);
+                return CompressionAlgorithmTags.UNCOMPRESSED;
+            default:
+                return compressionAlgorithm;
+        }
+    }
+
     private boolean processEncryptionMasterKeyId(int indent, OperationLog log, PgpSignEncryptData data,
-            PGPEncryptedDataGenerator cPk, long encryptMasterKeyId) {
-        try {
-            CanonicalizedPublicKeyRing keyRing = mKeyRepository.getCanonicalizedPublicKeyRing(encryptMasterKeyId);
-            List<Long> encryptSubKeyIds = mKeyRepository.getPublicEncryptionIds(encryptMasterKeyId);
-            for (Long subKeyId : encryptSubKeyIds) {
-                CanonicalizedPublicKey key = keyRing.getPublicKey(subKeyId);
-                cPk.addMethod(key.getPubKeyEncryptionGenerator(data.isHiddenRecipients()));
-                log.add(LogType.MSG_PSE_KEY_OK, indent + 1,
-                        KeyFormattingUtils.convertKeyIdToHex(subKeyId));
-            }
-            if (encryptSubKeyIds.isEmpty()) {
-                log.add(LogType.MSG_PSE_KEY_WARN, indent + 1,
-                        KeyFormattingUtils.convertKeyIdToHex(encryptMasterKeyId));
-                return false;
-            }
-            // Make sure key is not expired or revoked
-            if (keyRing.isExpired() || keyRing.isRevoked()) {
-                log.add(LogType.MSG_PSE_ERROR_REVOKED_OR_EXPIRED, indent);
-                return false;
-            }
-        } catch (KeyWritableRepository.NotFoundException e) {
+            List<PGPKeyEncryptionMethodGenerator> encryptionMethods, long encryptMasterKeyId,
+            CanonicalizedPublicKeyRing keyRing, List<Long> encryptSubKeyIds) {
+        if (keyRing == null) {
             log.add(LogType.MSG_PSE_KEY_UNKNOWN, indent + 1,
                     KeyFormattingUtils.convertKeyIdToHex(encryptMasterKeyId));
             return false;
         }
+        if (encryptSubKeyIds == null || encryptSubKeyIds.isEmpty()) {
+            log.add(LogType.MSG_PSE_KEY_WARN, indent + 1,
+                    KeyFormattingUtils.convertKeyIdToHex(encryptMasterKeyId));
+            return false;
+        }
+        for (Long subKeyId : encryptSubKeyIds) {
+            CanonicalizedPublicKey key = keyRing.getPublicKey(subKeyId);
+            encryptionMethods.add(key.getPubKeyEncryptionGenerator(data.isHiddenRecipients()));
+            log.add(LogType.MSG_PSE_KEY_OK, indent + 1,
+                    KeyFormattingUtils.convertKeyIdToHex(subKeyId));
+        }
+        // Make sure key is not expired or revoked
+        if (keyRing.isExpired() || keyRing.isRevoked()) {
+            log.add(LogType.MSG_PSE_ERROR_REVOKED_OR_EXPIRED, indent);
+            return false;
+        }
         return true;
     }
 
@@ -18,11 +18,6 @@
 package org.sufficientlysecure.keychain.pgp;
 
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
 import java.security.SignatureException;
 
 import org.bouncycastle.openpgp.PGPException;
@@ -203,25 +198,8 @@ class PgpSignatureChecker {
         }
     }
 
-    public void updateSignatureWithCleartext(byte[] clearText) throws IOException, SignatureException {
-
-        InputStream sigIn = new BufferedInputStream(new ByteArrayInputStream(clearText));
-
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
-
-        int lookAhead = readInputLine(outputBuffer, sigIn);
-
-        processLine(signature, outputBuffer.toByteArray());
-
-        while (lookAhead != -1) {
-            lookAhead = readInputLine(outputBuffer, lookAhead, sigIn);
-
-            signature.update((byte) '\r');
-            signature.update((byte) '\n');
-
-            processLine(signature, outputBuffer.toByteArray());
-        }
-
+    public void updateSignatureWithCleartext(byte[] clearText) throws SignatureException {
+        CleartextLineScanner.updateSignature(signature, clearText, clearText.length);
     }
 
     public void updateSignatureData(byte[] buf, int off, int len) {
@@ -306,81 +284,4 @@ class PgpSignatureChecker {
         return signatureResultBuilder.build();
     }
 
-    /**
-     * Mostly taken from ClearSignedFileProcessor in Bouncy Castle
-     */
-
-    private static void processLine(PGPSignature sig, byte[] line)
-            throws SignatureException {
-        int length = getLengthWithoutWhiteSpace(line);
-        if (length > 0) {
-            sig.update(line, 0, length);
-        }
-    }
-
-    private static int readInputLine(ByteArrayOutputStream bOut, InputStream fIn)
-            throws IOException {
-        bOut.reset();
-
-        int lookAhead = -1;
-        int ch;
-
-        while ((ch = fIn.read()) >= 0) {
-            bOut.write(ch);
-            if (ch == '\r' || ch == '\n') {
-                lookAhead = readPastEOL(bOut, ch, fIn);
-                break;
-            }
-        }
-
-        return lookAhead;
-    }
-
-    private static int readInputLine(ByteArrayOutputStream bOut, int lookAhead, InputStream fIn)
-            throws IOException {
-        bOut.reset();
-
-        int ch = lookAhead;
-
-        do {
-            bOut.write(ch);
-            if (ch == '\r' || ch == '\n') {
-                lookAhead = readPastEOL(bOut, ch, fIn);
-                break;
-            }
-        } while ((ch = fIn.read()) >= 0);
-
-        if (ch < 0) {
-            lookAhead = -1;
-        }
-
-        return lookAhead;
-    }
-
-    private static int readPastEOL(ByteArrayOutputStream bOut, int lastCh, InputStream fIn)
-            throws IOException {
-        int lookAhead = fIn.read();
-
-        if (lastCh == '\r' && lookAhead == '\n') {
-            bOut.write(lookAhead);
-            lookAhead = fIn.read();
-        }
-
-        return lookAhead;
-    }
-
-    private static int getLengthWithoutWhiteSpace(byte[] line) {
-        int end = line.length - 1;
-
-        while (end >= 0 && isWhiteSpace(line[end])) {
-            end--;
-        }
-
-        return end + 1;
-    }
-
-    private static boolean isWhiteSpace(byte b) {
-        return b == '\r' || b == '\n' || b == '\t' || b == ' ';
-    }
-
 }
@@ -21,16 +21,22 @@ package org.sufficientlysecure.keychain.remote;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.annotation.SuppressLint;
 import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.Signature;
 import android.os.Binder;
+import android.support.annotation.VisibleForTesting;
 
 import org.openintents.openpgp.OpenPgpError;
 import org.openintents.openpgp.util.OpenPgpApi;
@@ -43,15 +49,57 @@ import timber.log.Timber;
  * Abstract service class for remote APIs that handle app registration and user input.
  */
 public class ApiPermissionHelper {
+    /**
+     * Callers whose package certificate was verified, by uid. This only caches what the
+     * PackageManager said, and is dropped on package broadcasts, which reach every process. The
+     * registered certificate is still read from the database on every call, since api apps are
+     * changed from the main process while the api services run in their own processes.
+     */
+    private static final ConcurrentHashMap<Integer, VerifiedCaller> sVerifiedCallers = new ConcurrentHashMap<>();
+    private static final AtomicLong sPackageGeneration = new AtomicLong();
+    private static final AtomicBoolean sPackageReceiverRegistered = new AtomicBoolean();
 
     private final Context mContext;
     private final ApiAppDao mApiAppDao;
     private PackageManager mPackageManager;
 
     public ApiPermissionHelper(Context context, ApiAppDao apiAppDao) {
+        this(context, apiAppDao, context.getPackageManager());
+    }
+
+    @VisibleForTesting
+    ApiPermissionHelper(Context context, ApiAppDao apiAppDao, PackageManager packageManager) {
         mContext = context;
-        mPackageManager = context.getPackageManager();
+        mPackageManager = packageManager;
         mApiAppDao = apiAppDao;
+
+        registerPackageReceiver(context);
+    }
+
+    /** Registers once per process, so that each api process learns about package changes. */
+    private static void registerPackageReceiver(Context context) {
+        if (!sPackageReceiverRegistered.compareAndSet(false, true)) {
+            return;
+        }
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        context.getApplicationContext().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                // a uid may now belong to a different package, or a package to different certificates
+                invalidateVerifiedCallers();
+            }
+        }, filter);
+    }
+
+    static void invalidateVerifiedCallers() {
+        // checks that are still running must not put their result into the cleared cache
+        sPackageGeneration.incrementAndGet();
+        sVerifiedCallers.clear();
     }
 
     public static class WrongPackageCertificateException extends Exception {
@@ -134,7 +182,7 @@ public class ApiPermissionHelper {
 
     private byte[] getPackageCertificate(String packageName) throws NameNotFoundException {
         @SuppressLint("PackageManagerGetSignatures") // we do check the byte array of *all* signatures
-        PackageInfo pkgInfo = mContext.getPackageManager().getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+        PackageInfo pkgInfo = mPackageManager.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
         // NOTE: Silly Android API naming: Signatures are actually certificates
         Signature[] certificates = pkgInfo.signatures;
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
@@ -159,7 +207,13 @@ public class ApiPermissionHelper {
      * @return package name
      */
     protected String getCurrentCallingPackage() {
-        String[] callingPackages = mPackageManager.getPackagesForUid(Binder.getCallingUid());
+        int callingUid = Binder.getCallingUid();
+        VerifiedCaller verifiedCaller = getVerifiedCaller(callingUid);
+        if (verifiedCaller != null) {
+            return verifiedCaller.packageName;
+        }
+
+        String[] callingPackages = mPackageManager.getPackagesForUid(callingUid);
 
         // NOTE: No support for sharedUserIds
         // callingPackages contains more than one entry when sharedUserId has been used
@@ -182,14 +236,26 @@ public class ApiPermissionHelper {
         return isUidAllowed(Binder.getCallingUid());
     }
 
-    private boolean isUidAllowed(int uid)
+    @VisibleForTesting
+    boolean isUidAllowed(int uid)
             throws WrongPackageCertificateException {
+        VerifiedCaller verifiedCaller = getVerifiedCaller(uid);
+        if (verifiedCaller != null) {
+            byte[] storedPackageCert = mApiAppDao.getApiAppCertificate(verifiedCaller.packageName);
+            if (Arrays.equals(verifiedCaller.packageCertificate, storedPackageCert)) {
+                return true;
+            }
+            sVerifiedCallers.remove(uid, verifiedCaller);
+        }
 
+        long packageGeneration = sPackageGeneration.get();
         String[] callingPackages = mPackageManager.getPackagesForUid(uid);
 
         // is calling package allowed to use this service?
         for (String currentPkg : callingPackages) {
-            if (isPackageAllowed(currentPkg)) {
+            byte[] packageCertificate = getAllowedPackageCertificate(currentPkg);
+            if (packageCertificate != null) {
+                sVerifiedCallers.put(uid, new VerifiedCaller(currentPkg, packageCertificate, packageGeneration));
                 return true;
             }
         }
@@ -204,6 +270,15 @@ public class ApiPermissionHelper {
      * @throws WrongPackageCertificateException
      */
     public boolean isPackageAllowed(String packageName) throws WrongPackageCertificateException {
+        return getAllowedPackageCertificate(packageName) != null;
+    }
+
+    /**
+     * Returns the certificate of packageName if it is a registered app for the API, or null.
+     *
+     * @throws WrongPackageCertificateException
+     */
+    private byte[] getAllowedPackageCertificate(String packageName) throws WrongPackageCertificateException {
         Timber.d("isPackageAllowed packageName: " + packageName);
 
         byte[] storedPackageCert = mApiAppDao.getApiAppCertificate(packageName);
@@ -211,7 +286,7 @@ public class ApiPermissionHelper {
         boolean isKnownPackage = storedPackageCert != null;
         if (!isKnownPackage) {
             Timber.d("Package is NOT allowed! packageName: " + packageName);
-            return false;
+            return null;
         }
         Timber.d("Package is allowed! packageName: " + packageName);
 
@@ -225,10 +300,30 @@ public class ApiPermissionHelper {
         boolean packageCertMatchesStored = Arrays.equals(currentPackageCert, storedPackageCert);
         if (packageCertMatchesStored) {
             Timber.d("Package certificate matches expected.");
-            return true;
+            return currentPackageCert;
         }
 
         throw new WrongPackageCertificateException("PACKAGE NOT ALLOWED DUE TO CERTIFICATE MISMATCH!");
     }
 
+    private static VerifiedCaller getVerifiedCaller(int uid) {
+        VerifiedCaller verifiedCaller = sVerifiedCallers.get(uid);
+        if (verifiedCaller == null || verifiedCaller.packageGeneration != sPackageGeneration.get()) {
+            return null;
+        }
+        return verifiedCaller;
+    }
+
+    private static class VerifiedCaller {
+        final String packageName;
+        final byte[] packageCertificate;
+        final long packageGeneration;
+
+        VerifiedCaller(String packageName, byte[] packageCertificate, long packageGeneration) {
+            this.packageName = packageName;
+            this.packageCertificate = packageCertificate;
+            this.packageGeneration = packageGeneration;
+        }
+    }
+
 }
@@ -2,6 +2,7 @@ package org.sufficientlysecure.keychain.remote;
 
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
@@ -11,6 +12,7 @@ import java.util.Map;
 
 import android.content.Context;
 import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.DateUtils;
 
 import org.openintents.openpgp.AutocryptPeerUpdate;
@@ -42,7 +44,8 @@ public class AutocryptInteractor {
         return new AutocryptInteractor(autocryptPeerDao, keyWritableRepository, packageName);
     }
 
-    private AutocryptInteractor(AutocryptPeerDao autocryptPeerDao,
+    @VisibleForTesting
+    AutocryptInteractor(AutocryptPeerDao autocryptPeerDao,
             KeyWritableRepository keyWritableRepository, String packageName) {
         this.autocryptPeerDao = autocryptPeerDao;
         this.keyWritableRepository = keyWritableRepository;
@@ -50,6 +53,37 @@ public class AutocryptInteractor {
     }
 
     void updateAutocryptPeerState(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate) {
+        updateAutocryptPeerState(autocryptPeerId, autocryptPeerUpdate, null);
+    }
+
+    void updateAutocryptPeerGossipState(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate) {
+        updateAutocryptPeerGossipState(autocryptPeerId, autocryptPeerUpdate, null);
+    }
+
+    /**
+     * Applies a batch of updates, e.g. from the initial sync of a mailbox, with the same result as
+     * applying them one by one in order. Keydata is imported when the first update that takes it
+     * is applied, identical keydata is parsed and imported only once. All peer state changes are
+     * written in a single transaction.
+     */
+    void updateAutocryptPeerStates(List<BatchUpdate> batchUpdates) {
+        HashMap<ByteBuffer, Long> importedMasterKeyIds = new HashMap<>();
+        autocryptPeerDao.runInTransaction(() -> {
+            for (BatchUpdate batchUpdate : batchUpdates) {
+                if (batchUpdate.isGossip) {
+                    updateAutocryptPeerGossipState(
+                            batchUpdate.autocryptPeerId, batchUpdate.autocryptPeerUpdate, importedMasterKeyIds);
+                } else {
+                    updateAutocryptPeerState(
+                            batchUpdate.autocryptPeerId, batchUpdate.autocryptPeerUpdate, importedMasterKeyIds);
+                }
+            }
+        });
+        Timber.d("Imported %d distinct keys for %d autocrypt updates", importedMasterKeyIds.size(), batchUpdates.size());
+    }
+
+    private void updateAutocryptPeerState(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate,
+            @Nullable Map<ByteBuffer, Long> importedMasterKeyIds) {
         AutocryptPeer currentAutocryptPeer = autocryptPeerDao.getAutocryptPeer(packageName, autocryptPeerId);
         Date effectiveDate = autocryptPeerUpdate.getEffectiveDate();
 
@@ -70,21 +104,21 @@ public class AutocryptInteractor {
             return;
         }
 
-        SaveKeyringResult saveKeyringResult = parseAndImportAutocryptKeyData(autocryptPeerUpdate);
-        if (saveKeyringResult == null) {
+        Long newMasterKeyId = getImportedMasterKeyId(autocryptPeerUpdate, importedMasterKeyIds);
+        if (newMasterKeyId == null) {
             return;
         }
 
         // 4. Set peers[from-addr].autocrypt_timestamp to the message’s effective date.
         // 5. Set peers[from-addr].public_key to the corresponding keydata value of the Autocrypt header.
-        Long newMasterKeyId = saveKeyringResult.savedMasterKeyId;
         // 6. Set peers[from-addr].prefer_encrypt to the corresponding prefer-encrypt value of the Autocrypt header.
         boolean isMutual = autocryptPeerUpdate.getPreferEncrypt() == PreferEncrypt.MUTUAL;
 
         autocryptPeerDao.updateKey(packageName, autocryptPeerId, effectiveDate, newMasterKeyId, isMutual);
     }
 
-    void updateAutocryptPeerGossipState(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate) {
+    private void updateAutocryptPeerGossipState(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate,
+            @Nullable Map<ByteBuffer, Long> importedMasterKeyIds) {
         AutocryptPeer currentAutocryptPeer = autocryptPeerDao.getAutocryptPeer(packageName, autocryptPeerId);
         Date effectiveDate = autocryptPeerUpdate.getEffectiveDate();
 
@@ -101,19 +135,39 @@ public class AutocryptInteractor {
             return;
         }
 
-        SaveKeyringResult saveKeyringResult = parseAndImportAutocryptKeyData(autocryptPeerUpdate);
-        if (saveKeyringResult == null) {
+        Long newMasterKeyId = getImportedMasterKeyId(autocryptPeerUpdate, importedMasterKeyIds);
+        if (newMasterKeyId == null) {
             return;
         }
 
         // 3. Set peers[gossip-addr].gossip_timestamp to the message’s effective date.
         // 4. Set peers[gossip-addr].gossip_key to the value of the keydata attribute.
-        Long newMasterKeyId = saveKeyringResult.savedMasterKeyId;
-
         autocryptPeerDao.updateKeyGossip(packageName, autocryptPeerId, effectiveDate, newMasterKeyId,
                 GossipOrigin.GOSSIP_HEADER);
     }
 
+    /**
+     * Imports the update's keydata and returns its master key id. Within a batch, keydata that
+     * was imported for an earlier update is not imported again.
+     */
+    @Nullable
+    private Long getImportedMasterKeyId(AutocryptPeerUpdate autocryptPeerUpdate,
+            @Nullable Map<ByteBuffer, Long> importedMasterKeyIds) {
+        if (importedMasterKeyIds == null) {
+            SaveKeyringResult saveKeyringResult = parseAndImportAutocryptKeyData(autocryptPeerUpdate);
+            return saveKeyringResult != null ? saveKeyringResult.savedMasterKeyId : null;
+        }
+
+        ByteBuffer keyData = ByteBuffer.wrap(autocryptPeerUpdate.getKeyData());
+        if (importedMasterKeyIds.containsKey(keyData)) {
+            return importedMasterKeyIds.get(keyData);
+        }
+        SaveKeyringResult saveKeyringResult = parseAndImportAutocryptKeyData(autocryptPeerUpdate);
+        Long masterKeyId = saveKeyringResult != null ? saveKeyringResult.savedMasterKeyId : null;
+        importedMasterKeyIds.put(keyData, masterKeyId);
+        return masterKeyId;
+    }
+
     @Nullable
     private SaveKeyringResult parseAndImportAutocryptKeyData(AutocryptPeerUpdate autocryptPeerUpdate) {
         UncachedKeyRing uncachedKeyRing = parseAutocryptKeyData(autocryptPeerUpdate);
@@ -241,6 +295,18 @@ public class AutocryptInteractor {
 
     }
 
+    static class BatchUpdate {
+        final String autocryptPeerId;
+        final AutocryptPeerUpdate autocryptPeerUpdate;
+        final boolean isGossip;
+
+        BatchUpdate(String autocryptPeerId, AutocryptPeerUpdate autocryptPeerUpdate, boolean isGossip) {
+            this.autocryptPeerId = autocryptPeerId;
+            this.autocryptPeerUpdate = autocryptPeerUpdate;
+            this.isGossip = isGossip;
+        }
+    }
+
     public enum AutocryptState {
         DISABLE, DISCOURAGED_OLD, DISCOURAGED_GOSSIP, AVAILABLE, MUTUAL
     }
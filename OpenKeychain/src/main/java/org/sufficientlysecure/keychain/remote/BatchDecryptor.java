@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.support.annotation.NonNull;
+
+import org.json.JSONException;
+import org.openintents.openpgp.util.OpenPgpApi;
+import org.sufficientlysecure.keychain.util.InputData;
+
+
+/**
+ * Runs the messages of an ACTION_DECRYPT_VERIFY_BATCH call, streaming from the input pipe to
+ * the output pipe, so that neither messages nor their results are held in memory as a whole.
+ * The framing of both pipes and the fields of the result frame are described in
+ * OpenPgpBatchApi, the result frame is written by BatchResultEncoder.
+ * <p/>
+ * At most MAX_BATCH_MESSAGES messages are processed per call, the rest of the input is not
+ * read.
+ */
+class BatchDecryptor {
+    static final int MAX_BATCH_MESSAGES = OpenPgpBatchApi.MAX_BATCH_MESSAGES;
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    interface MessageDecryptor {
+        /** Returns the result a single ACTION_DECRYPT_VERIFY call would have returned. */
+        Intent decryptAndVerify(int index, InputData inputData, OutputStream outputStream);
+    }
+
+    private final MessageDecryptor messageDecryptor;
+
+    private int messageCount;
+    private PendingIntent firstPendingIntent;
+
+    BatchDecryptor(MessageDecryptor messageDecryptor) {
+        this.messageDecryptor = messageDecryptor;
+    }
+
+    /** Processes messages until the end of the input, or until MAX_BATCH_MESSAGES are done. */
+    void run(InputStream inputStream, OutputStream outputStream) throws IOException {
+        DataInputStream framedInput = new DataInputStream(new BufferedInputStream(inputStream));
+        DataOutputStream framedOutput = new DataOutputStream(new BufferedOutputStream(outputStream, CHUNK_SIZE));
+
+        while (messageCount < MAX_BATCH_MESSAGES) {
+            int length = readFrameLength(framedInput);
+            if (length == -1) {
+                break;
+            }
+
+            FrameInputStream messageInput = new FrameInputStream(framedInput, length);
+            ChunkedOutputStream messageOutput = new ChunkedOutputStream(framedOutput);
+            Intent messageResult = messageDecryptor.decryptAndVerify(
+                    messageCount, new InputData(messageInput, length), messageOutput);
+
+            // the operation may stop reading early, e.g. on an error
+            messageInput.skipRemaining();
+            messageOutput.finish();
+            writeResultFrame(framedOutput, messageResult);
+            framedOutput.flush();
+
+            messageCount++;
+        }
+    }
+
+    /** Returns the number of messages which have a result in the output. */
+    int getMessageCount() {
+        return messageCount;
+    }
+
+    /** Returns the PendingIntent of the first message that needs user interaction, or null. */
+    PendingIntent getFirstPendingIntent() {
+        return firstPendingIntent;
+    }
+
+    /** Returns the length of the next frame, or -1 at the end of the input. */
+    static int readFrameLength(DataInputStream framedInput) throws IOException {
+        int firstByte = framedInput.read();
+        if (firstByte == -1) {
+            return -1;
+        }
+        int length = (firstByte << 24) | (framedInput.readUnsignedByte() << 16)
+                | (framedInput.readUnsignedByte() << 8) | framedInput.readUnsignedByte();
+        if (length < 0) {
+            throw new IOException("invalid batch frame length: " + length);
+        }
+        return length;
+    }
+
+    private void writeResultFrame(DataOutputStream framedOutput, Intent messageResult) throws IOException {
+        if (firstPendingIntent == null) {
+            firstPendingIntent = messageResult.getParcelableExtra(OpenPgpApi.RESULT_INTENT);
+        }
+
+        byte[] encoded;
+        try {
+            encoded = BatchResultEncoder.encode(messageResult);
+        } catch (JSONException e) {
+            throw new IOException("could not encode batch result", e);
+        }
+        framedOutput.writeInt(encoded.length);
+        framedOutput.write(encoded);
+    }
+
+    /** Reads exactly one frame of the underlying stream, without closing it. */
+    private static class FrameInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        FrameInputStream(InputStream in, int length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("batch input ended within a message");
+            }
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) {
+                return -1;
+            }
+            int read = in.read(b, off, Math.min(len, remaining));
+            if (read == -1) {
+                throw new EOFException("batch input ended within a message");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return Math.min(in.available(), remaining);
+        }
+
+        void skipRemaining() throws IOException {
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    if (in.read() == -1) {
+                        throw new EOFException("batch input ended within a message");
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        }
+
+        @Override
+        public void close() {
+            // the underlying stream holds the following messages
+        }
+    }
+
+    /** Writes content as length prefixed chunks, without closing the underlying stream. */
+    private static class ChunkedOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+        private boolean finished;
+
+        ChunkedOutputStream(DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int chunk = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, chunk);
+                count += chunk;
+                off += chunk;
+                len -= chunk;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            // the operation closes its output, but the underlying stream holds the following messages
+            writeChunk();
+        }
+
+        /** Writes the remaining content and the empty chunk which ends it. */
+        void finish() throws IOException {
+            if (finished) {
+                return;
+            }
+            writeChunk();
+            out.writeInt(0);
+            finished = true;
+        }
+
+        private void writeChunk() throws IOException {
+            if (finished) {
+                throw new IOException("message output already finished");
+            }
+            if (count == 0) {
+                return;
+            }
+            out.writeInt(count);
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.bouncycastle.util.encoders.Hex;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openintents.openpgp.OpenPgpDecryptionResult;
+import org.openintents.openpgp.OpenPgpError;
+import org.openintents.openpgp.OpenPgpMetadata;
+import org.openintents.openpgp.OpenPgpSignatureResult;
+import org.openintents.openpgp.util.OpenPgpApi;
+
+
+/**
+ * Encodes the result of a single decrypt/verify call as the JSON result frame of a batch call,
+ * see OpenPgpBatchApi for the fields.
+ */
+class BatchResultEncoder {
+    private BatchResultEncoder() { }
+
+    static byte[] encode(Intent result) throws JSONException, UnsupportedEncodingException {
+        return toJson(result).toString().getBytes("UTF-8");
+    }
+
+    static JSONObject toJson(Intent result) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(OpenPgpBatchApi.RESULT_FIELD_CODE, result.getIntExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_ERROR));
+
+        OpenPgpError error = result.getParcelableExtra(OpenPgpApi.RESULT_ERROR);
+        if (error != null) {
+            JSONObject errorJson = new JSONObject();
+            errorJson.put(OpenPgpBatchApi.FIELD_ERROR_ID, error.getErrorId());
+            errorJson.put(OpenPgpBatchApi.FIELD_ERROR_MESSAGE, error.getMessage());
+            json.put(OpenPgpBatchApi.RESULT_FIELD_ERROR, errorJson);
+        }
+
+        OpenPgpDecryptionResult decryptionResult = result.getParcelableExtra(OpenPgpApi.RESULT_DECRYPTION);
+        if (decryptionResult != null) {
+            json.put(OpenPgpBatchApi.RESULT_FIELD_DECRYPTION, toJson(decryptionResult));
+        }
+
+        OpenPgpMetadata metadata = result.getParcelableExtra(OpenPgpApi.RESULT_METADATA);
+        if (metadata != null) {
+            json.put(OpenPgpBatchApi.RESULT_FIELD_METADATA, toJson(metadata));
+        }
+
+        OpenPgpSignatureResult signatureResult = result.getParcelableExtra(OpenPgpApi.RESULT_SIGNATURE);
+        if (signatureResult != null) {
+            json.put(OpenPgpBatchApi.RESULT_FIELD_SIGNATURE, toJson(signatureResult));
+        }
+
+        ArrayList<OpenPgpSignatureResult> signatureResults =
+                result.getParcelableArrayListExtra(OpenPgpService.RESULT_SIGNATURES);
+        if (signatureResults != null) {
+            JSONArray signaturesJson = new JSONArray();
+            for (OpenPgpSignatureResult signature : signatureResults) {
+                signaturesJson.put(toJson(signature));
+            }
+            json.put(OpenPgpBatchApi.RESULT_FIELD_SIGNATURES, signaturesJson);
+        }
+
+        if (result.hasExtra(OpenPgpApi.RESULT_OVERRIDE_CRYPTO_WARNING)) {
+            json.put(OpenPgpBatchApi.RESULT_FIELD_OVERRIDE_CRYPTO_WARNING,
+                    result.getBooleanExtra(OpenPgpApi.RESULT_OVERRIDE_CRYPTO_WARNING, false));
+        }
+        json.put(OpenPgpBatchApi.RESULT_FIELD_HAS_INSECURE_DETAIL, result.hasExtra(OpenPgpApi.RESULT_INSECURE_DETAIL_INTENT));
+
+        Bundle timings = result.getBundleExtra(OpenPgpService.RESULT_TIMINGS);
+        if (timings != null) {
+            JSONObject timingsJson = new JSONObject();
+            for (String phase : timings.keySet()) {
+                timingsJson.put(phase, timings.getLong(phase));
+            }
+            json.put(OpenPgpBatchApi.RESULT_FIELD_TIMINGS, timingsJson);
+        }
+
+        return json;
+    }
+
+    private static JSONObject toJson(OpenPgpDecryptionResult decryptionResult) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(OpenPgpBatchApi.FIELD_DECRYPTION_RESULT, decryptionResult.getResult());
+        if (decryptionResult.hasDecryptedSessionKey()) {
+            json.put(OpenPgpBatchApi.FIELD_DECRYPTION_SESSION_KEY, Hex.toHexString(decryptionResult.getSessionKey()));
+            json.put(OpenPgpBatchApi.FIELD_DECRYPTION_DECRYPTED_SESSION_KEY,
+                    Hex.toHexString(decryptionResult.getDecryptedSessionKey()));
+        }
+        return json;
+    }
+
+    private static JSONObject toJson(OpenPgpMetadata metadata) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.putOpt(OpenPgpBatchApi.FIELD_METADATA_FILENAME, metadata.getFilename());
+        json.putOpt(OpenPgpBatchApi.FIELD_METADATA_MIME_TYPE, metadata.getMimeType());
+        json.putOpt(OpenPgpBatchApi.FIELD_METADATA_CHARSET, metadata.getCharset());
+        json.put(OpenPgpBatchApi.FIELD_METADATA_MODIFICATION_TIME, metadata.getModificationTime());
+        json.put(OpenPgpBatchApi.FIELD_METADATA_ORIGINAL_SIZE, metadata.getOriginalSize());
+        return json;
+    }
+
+    private static JSONObject toJson(OpenPgpSignatureResult signatureResult) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(OpenPgpBatchApi.FIELD_SIGNATURE_RESULT, signatureResult.getResult());
+        json.put(OpenPgpBatchApi.FIELD_SIGNATURE_KEY_ID, signatureResult.getKeyId());
+        json.putOpt(OpenPgpBatchApi.FIELD_SIGNATURE_PRIMARY_USER_ID, signatureResult.getPrimaryUserId());
+        json.putOpt(OpenPgpBatchApi.FIELD_SIGNATURE_USER_IDS, toJson(signatureResult.getUserIds()));
+        json.putOpt(OpenPgpBatchApi.FIELD_SIGNATURE_CONFIRMED_USER_IDS, toJson(signatureResult.getConfirmedUserIds()));
+        if (signatureResult.getSenderStatusResult() != null) {
+            json.put(OpenPgpBatchApi.FIELD_SIGNATURE_SENDER_STATUS, signatureResult.getSenderStatusResult().name());
+        }
+        if (signatureResult.getSignatureTimestamp() != null) {
+            json.put(OpenPgpBatchApi.FIELD_SIGNATURE_TIMESTAMP, signatureResult.getSignatureTimestamp().getTime());
+        }
+        if (signatureResult.getAutocryptPeerentityResult() != null) {
+            json.put(OpenPgpBatchApi.FIELD_SIGNATURE_AUTOCRYPT_PEER_RESULT, signatureResult.getAutocryptPeerentityResult().name());
+        }
+        return json;
+    }
+
+    private static JSONArray toJson(List<String> strings) {
+        return strings != null ? new JSONArray(strings) : null;
+    }
+}
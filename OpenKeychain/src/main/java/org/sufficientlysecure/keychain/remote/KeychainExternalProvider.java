@@ -31,19 +31,17 @@ import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.Binder;
 import android.support.annotation.NonNull;
 import android.widget.Toast;
 
 import org.sufficientlysecure.keychain.BuildConfig;
 import org.sufficientlysecure.keychain.daos.ApiAppDao;
 import org.sufficientlysecure.keychain.daos.DatabaseNotifyManager;
-import org.sufficientlysecure.keychain.daos.UserIdDao;
-import org.sufficientlysecure.keychain.model.UserPacket.UidStatus;
-import org.sufficientlysecure.keychain.pgp.CanonicalizedKeyRing.VerificationStatus;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.provider.KeychainExternalContract;
 import org.sufficientlysecure.keychain.provider.KeychainExternalContract.AutocryptStatus;
-import org.sufficientlysecure.keychain.remote.AutocryptInteractor.AutocryptRecommendationResult;
-import org.sufficientlysecure.keychain.remote.AutocryptInteractor.AutocryptState;
+import org.sufficientlysecure.keychain.remote.RecipientStatusInteractor.RecipientStatus;
 import timber.log.Timber;
 
 
@@ -53,6 +51,8 @@ public class KeychainExternalProvider extends ContentProvider {
     private static final int AUTOCRYPT_STATUS = 201;
     private static final int AUTOCRYPT_STATUS_INTERNAL = 202;
 
+    private static final String METRIC_AUTOCRYPT_STATUS = MetricsRegistry.PROVIDER_EXTERNAL + "autocrypt_status";
+
 
     private UriMatcher uriMatcher;
     private ApiPermissionHelper apiPermissionHelper;
@@ -87,6 +87,7 @@ public class KeychainExternalProvider extends ContentProvider {
     public Cursor query(@NonNull Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
         Timber.v("query(uri=" + uri + ", proj=" + Arrays.toString(projection) + ")");
+        long startTime = System.nanoTime();
         Context context = getContext();
         if (context == null) {
             throw new IllegalStateException();
@@ -132,17 +133,20 @@ public class KeychainExternalProvider extends ContentProvider {
                     throw new UnsupportedOperationException("Cannot wildcard-query autocrypt results!");
                 }
 
-                Map<String, UidStatus> uidStatuses = queriesUidResult ?
-                        loadUidStatusMap(selectionArgs, isWildcardSelector) : Collections.emptyMap();
-                Map<String, AutocryptRecommendationResult> autocryptStates = queriesAutocryptResult ?
-                        loadAutocryptRecommendationMap(selectionArgs, callingPackageName) : Collections.emptyMap();
+                RecipientStatusInteractor recipientStatusInteractor = RecipientStatusInteractor.getInstance(context);
+                Map<String, RecipientStatus> recipientStatuses = isWildcardSelector ?
+                        Collections.singletonMap(selectionArgs[0],
+                                recipientStatusInteractor.getRecipientStatusLike(selectionArgs[0])) :
+                        recipientStatusInteractor.getRecipientStatus(
+                                callingPackageName, selectionArgs, queriesUidResult, queriesAutocryptResult);
 
-                MatrixCursor cursor =
-                        mapResultsToProjectedMatrixCursor(projection, selectionArgs, uidStatuses, autocryptStates);
+                MatrixCursor cursor = mapResultsToProjectedMatrixCursor(projection, selectionArgs, recipientStatuses);
 
                 uri = DatabaseNotifyManager.getNotifyUriAllKeys();
                 cursor.setNotificationUri(context.getContentResolver(), uri);
 
+                MetricsRegistry.getInstance().recordCallerNanos(METRIC_AUTOCRYPT_STATUS, Binder.getCallingUid(),
+                        System.nanoTime() - startTime);
                 return cursor;
             }
 
@@ -154,18 +158,17 @@ public class KeychainExternalProvider extends ContentProvider {
 
     @NonNull
     private MatrixCursor mapResultsToProjectedMatrixCursor(String[] projection, String[] selectionArgs,
-            Map<String, UidStatus> uidStatuses, Map<String, AutocryptRecommendationResult> autocryptStates) {
+            Map<String, RecipientStatus> recipientStatuses) {
         MatrixCursor cursor = new MatrixCursor(projection);
         for (String selectionArg : selectionArgs) {
-            AutocryptRecommendationResult autocryptResult = autocryptStates.get(selectionArg);
-            UidStatus uidStatus = uidStatuses.get(selectionArg);
+            RecipientStatus recipientStatus = recipientStatuses.get(selectionArg);
 
             Object[] row = new Object[projection.length];
             for (int i = 0; i < projection.length; i++) {
                 if (AutocryptStatus.ADDRESS.equals(projection[i]) || AutocryptStatus._ID.equals(projection[i])) {
                     row[i] = selectionArg;
                 } else {
-                    row[i] = columnNameToRowContent(projection[i], autocryptResult, uidStatus);
+                    row[i] = columnNameToRowContent(projection[i], recipientStatus);
                 }
             }
             cursor.addRow(row);
@@ -173,86 +176,34 @@ public class KeychainExternalProvider extends ContentProvider {
         return cursor;
     }
 
-    private Object columnNameToRowContent(
-            String columnName, AutocryptRecommendationResult autocryptResult, UidStatus uidStatus) {
+    private Object columnNameToRowContent(String columnName, RecipientStatus recipientStatus) {
         switch (columnName) {
-            case AutocryptStatus.UID_KEY_STATUS: {
-                if (uidStatus == null) {
-                    return null;
-                }
-                return uidStatus.keyStatus() == VerificationStatus.VERIFIED_SECRET ?
-                        KeychainExternalContract.KEY_STATUS_VERIFIED :
-                        KeychainExternalContract.KEY_STATUS_UNVERIFIED;
-            }
+            case AutocryptStatus.UID_KEY_STATUS:
+                return recipientStatus.hasUidStatus ? recipientStatus.uidKeyStatus : null;
+
             case AutocryptStatus.UID_ADDRESS:
-                if (uidStatus == null) {
-                    return null;
-                }
-                return uidStatus.user_id();
+                return recipientStatus.hasUidStatus ? recipientStatus.uidUserId : null;
 
             case AutocryptStatus.UID_MASTER_KEY_ID:
-                if (uidStatus == null) {
-                    return null;
-                }
-                return uidStatus.master_key_id();
+                return recipientStatus.hasUidStatus ? recipientStatus.uidMasterKeyId : null;
 
             case AutocryptStatus.UID_CANDIDATES:
-                if (uidStatus == null) {
-                    return null;
-                }
-                return uidStatus.candidates();
+                return recipientStatus.hasUidStatus ? recipientStatus.uidCandidates : null;
 
             case AutocryptStatus.AUTOCRYPT_PEER_STATE:
-                if (autocryptResult == null) {
-                    return null;
-                }
-                return getPeerStateValue(autocryptResult.autocryptState);
+                return recipientStatus.hasAutocryptStatus ? recipientStatus.autocryptPeerState : null;
 
             case AutocryptStatus.AUTOCRYPT_KEY_STATUS:
-                if (autocryptResult == null) {
-                    return null;
-                }
-                return autocryptResult.isVerified ?
-                        KeychainExternalContract.KEY_STATUS_VERIFIED : KeychainExternalContract.KEY_STATUS_UNVERIFIED;
+                return recipientStatus.hasAutocryptStatus ? recipientStatus.autocryptKeyStatus : null;
 
             case AutocryptStatus.AUTOCRYPT_MASTER_KEY_ID:
-                if (autocryptResult == null) {
-                    return null;
-                }
-                return autocryptResult.masterKeyId;
+                return recipientStatus.hasAutocryptStatus ? recipientStatus.autocryptMasterKeyId : null;
 
             default:
                 throw new IllegalArgumentException("Unhandled case " + columnName);
         }
     }
 
-    private Map<String, UidStatus> loadUidStatusMap(String[] selectionArgs, boolean isWildcardSelector) {
-        UserIdDao userIdDao = UserIdDao.getInstance(getContext());
-        if (isWildcardSelector) {
-            UidStatus uidStatus = userIdDao.getUidStatusByEmailLike(selectionArgs[0]);
-            return Collections.singletonMap(selectionArgs[0], uidStatus);
-        } else {
-            return userIdDao.getUidStatusByEmail(selectionArgs);
-        }
-    }
-
-    private Map<String, AutocryptRecommendationResult> loadAutocryptRecommendationMap(
-            String[] selectionArgs, String callingPackageName) {
-        AutocryptInteractor autocryptInteractor = AutocryptInteractor.getInstance(getContext(), callingPackageName);
-        return autocryptInteractor.determineAutocryptRecommendations(selectionArgs);
-    }
-
-    private int getPeerStateValue(AutocryptState autocryptState) {
-        switch (autocryptState) {
-            case DISABLE: return AutocryptStatus.AUTOCRYPT_PEER_DISABLED;
-            case DISCOURAGED_OLD: return AutocryptStatus.AUTOCRYPT_PEER_DISCOURAGED_OLD;
-            case DISCOURAGED_GOSSIP: return AutocryptStatus.AUTOCRYPT_PEER_GOSSIP;
-            case AVAILABLE: return AutocryptStatus.AUTOCRYPT_PEER_AVAILABLE;
-            case MUTUAL: return AutocryptStatus.AUTOCRYPT_PEER_MUTUAL;
-        }
-        throw new IllegalStateException("Unhandled case!");
-    }
-
     @Override
     public String getType(@NonNull Uri uri) {
         throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+/**
+ * The client side of ACTION_DECRYPT_VERIFY_BATCH, as an addition to OpenPgpApi. The openpgp-api
+ * library is a separate repository, this class holds everything a client needs so it can be
+ * moved there as it is.
+ * <p/>
+ * The call takes the same extras as ACTION_DECRYPT_VERIFY, and applies them to every message.
+ * Sender addresses are given per message in EXTRA_BATCH_SENDER_ADDRESSES, in input order.
+ * <p/>
+ * The input pipe holds, for each message, a four byte big endian length followed by the message.
+ * <p/>
+ * The output pipe holds, for each message and in input order, its decrypted content as a sequence
+ * of chunks, each a four byte big endian length followed by that many bytes, ended by an empty
+ * chunk. The content is followed by the result frame: a four byte big endian length, followed by
+ * that many bytes of a UTF-8 encoded JSON object with the RESULT_FIELD_* fields below. If the
+ * result code is not RESULT_CODE_SUCCESS, the content chunks of that message must be discarded.
+ * <p/>
+ * At most MAX_BATCH_MESSAGES messages are processed per call, RESULT_BATCH_COUNT in the result
+ * Intent is the number of messages in the output. The client sends the rest again in another
+ * call. A message which needs user interaction does not hold up the others. PendingIntents can't
+ * be sent through the pipe, so the result Intent carries the RESULT_INTENT of the first message
+ * that needs interaction. After the interaction, only the messages with that result code need to
+ * be sent again.
+ */
+public final class OpenPgpBatchApi {
+    public static final String ACTION_DECRYPT_VERIFY_BATCH = "org.openintents.openpgp.action.DECRYPT_VERIFY_BATCH";
+    /** String[], the sender address of each message, as EXTRA_SENDER_ADDRESS for a single message. */
+    public static final String EXTRA_BATCH_SENDER_ADDRESSES = "batch_sender_addresses";
+    /** int, the number of messages that were processed. */
+    public static final String RESULT_BATCH_COUNT = "batch_count";
+
+    public static final int MAX_BATCH_MESSAGES = 100;
+
+    /** int, one of the OpenPgpApi.RESULT_CODE_* values. */
+    public static final String RESULT_FIELD_CODE = "result_code";
+    /** Object with FIELD_ERROR_*, if the result code is RESULT_CODE_ERROR. */
+    public static final String RESULT_FIELD_ERROR = "error";
+    /** Object with FIELD_DECRYPTION_*, as OpenPgpApi.RESULT_DECRYPTION. */
+    public static final String RESULT_FIELD_DECRYPTION = "decryption";
+    /** Object with FIELD_METADATA_*, as OpenPgpApi.RESULT_METADATA. */
+    public static final String RESULT_FIELD_METADATA = "metadata";
+    /** Object with FIELD_SIGNATURE_*, as OpenPgpApi.RESULT_SIGNATURE. */
+    public static final String RESULT_FIELD_SIGNATURE = "signature";
+    /** Array of objects with FIELD_SIGNATURE_*, if all detached signatures were verified. */
+    public static final String RESULT_FIELD_SIGNATURES = "signatures";
+    /** boolean, as OpenPgpApi.RESULT_OVERRIDE_CRYPTO_WARNING. */
+    public static final String RESULT_FIELD_OVERRIDE_CRYPTO_WARNING = "override_crypto_warning";
+    /** boolean, true if a single ACTION_DECRYPT_VERIFY call would return RESULT_INSECURE_DETAIL_INTENT. */
+    public static final String RESULT_FIELD_HAS_INSECURE_DETAIL = "has_insecure_detail";
+    /** Object with one long per phase, in milliseconds, if timings were requested. */
+    public static final String RESULT_FIELD_TIMINGS = "timings";
+
+    /** int, one of the OpenPgpError error ids. */
+    public static final String FIELD_ERROR_ID = "id";
+    public static final String FIELD_ERROR_MESSAGE = "message";
+
+    /** int, one of the OpenPgpDecryptionResult.RESULT_* values. */
+    public static final String FIELD_DECRYPTION_RESULT = "result";
+    /** Hex string. */
+    public static final String FIELD_DECRYPTION_SESSION_KEY = "session_key";
+    /** Hex string. */
+    public static final String FIELD_DECRYPTION_DECRYPTED_SESSION_KEY = "decrypted_session_key";
+
+    public static final String FIELD_METADATA_FILENAME = "filename";
+    public static final String FIELD_METADATA_MIME_TYPE = "mime_type";
+    public static final String FIELD_METADATA_CHARSET = "charset";
+    /** long, milliseconds since the epoch. */
+    public static final String FIELD_METADATA_MODIFICATION_TIME = "modification_time";
+    /** long. */
+    public static final String FIELD_METADATA_ORIGINAL_SIZE = "original_size";
+
+    /** int, one of the OpenPgpSignatureResult.RESULT_* values. */
+    public static final String FIELD_SIGNATURE_RESULT = "result";
+    /** long, the signed 64 bit key id. */
+    public static final String FIELD_SIGNATURE_KEY_ID = "key_id";
+    public static final String FIELD_SIGNATURE_PRIMARY_USER_ID = "primary_user_id";
+    /** Array of strings. */
+    public static final String FIELD_SIGNATURE_USER_IDS = "user_ids";
+    /** Array of strings. */
+    public static final String FIELD_SIGNATURE_CONFIRMED_USER_IDS = "confirmed_user_ids";
+    /** Name of an OpenPgpSignatureResult.SenderStatusResult value. */
+    public static final String FIELD_SIGNATURE_SENDER_STATUS = "sender_status";
+    /** long, milliseconds since the epoch. */
+    public static final String FIELD_SIGNATURE_TIMESTAMP = "timestamp";
+    /** Name of an OpenPgpSignatureResult.AutocryptPeerResult value. */
+    public static final String FIELD_SIGNATURE_AUTOCRYPT_PEER_RESULT = "autocrypt_peer_result";
+
+    private OpenPgpBatchApi() { }
+}
@@ -27,22 +27,22 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.Messenger;
 import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
-import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 
-import org.bouncycastle.bcpg.ArmoredOutputStream;
 import org.openintents.openpgp.AutocryptPeerUpdate;
 import org.openintents.openpgp.IOpenPgpService;
 import org.openintents.openpgp.OpenPgpDecryptionResult;
@@ -55,12 +55,14 @@ import org.sufficientlysecure.keychain.Constants;
 import org.sufficientlysecure.keychain.model.SubKey.UnifiedKeyInfo;
 import org.sufficientlysecure.keychain.KeychainApplication;
 import org.sufficientlysecure.keychain.analytics.AnalyticsManager;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.operations.BackupOperation;
 import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
 import org.sufficientlysecure.keychain.operations.results.ExportResult;
+import org.sufficientlysecure.keychain.operations.results.OperationResult;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogEntryParcel;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
 import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
-import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKeyRing;
 import org.sufficientlysecure.keychain.pgp.DecryptVerifySecurityProblem;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyInputParcel;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyOperation;
@@ -75,6 +77,8 @@ import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
 import org.sufficientlysecure.keychain.provider.KeychainExternalContract.AutocryptStatus;
 import org.sufficientlysecure.keychain.daos.OverriddenWarningsDao;
+import org.sufficientlysecure.keychain.daos.PublicKeyExportCache;
+import org.sufficientlysecure.keychain.remote.AutocryptInteractor.BatchUpdate;
 import org.sufficientlysecure.keychain.remote.OpenPgpServiceKeyIdExtractor.KeyIdResult;
 import org.sufficientlysecure.keychain.remote.OpenPgpServiceKeyIdExtractor.KeyIdResultStatus;
 import org.sufficientlysecure.keychain.service.BackupKeyringParcel;
@@ -96,6 +100,22 @@ public class OpenPgpService extends Service {
     public static final List<Integer> SUPPORTED_VERSIONS =
             Collections.unmodifiableList(Arrays.asList(7, 8, 9, 10, 11, 12));
 
+    // not part of openpgp-api yet: if set to true, milliseconds per phase are returned as a Bundle
+    public static final String EXTRA_REQUEST_TIMINGS = "request_timings";
+    public static final String RESULT_TIMINGS = "timings";
+
+    // not part of openpgp-api yet: verifies every signature packet in EXTRA_DETACHED_SIGNATURE in a
+    // single pass over the data, and returns one OpenPgpSignatureResult per packet in RESULT_SIGNATURES
+    public static final String EXTRA_VERIFY_ALL_DETACHED_SIGNATURES = "verify_all_detached_signatures";
+    public static final String RESULT_SIGNATURES = "signatures";
+
+    // not part of openpgp-api yet: applies many autocrypt peer updates at once, see updateAutocryptPeersBatchImpl
+    public static final String ACTION_UPDATE_AUTOCRYPT_PEERS_BATCH =
+            "org.openintents.openpgp.action.UPDATE_AUTOCRYPT_PEERS_BATCH";
+    public static final String EXTRA_AUTOCRYPT_PEER_BATCH_IDS = "autocrypt_peer_batch_ids";
+    public static final String EXTRA_AUTOCRYPT_PEER_BATCH_UPDATES = "autocrypt_peer_batch_updates";
+    public static final String EXTRA_AUTOCRYPT_PEER_BATCH_IS_GOSSIP = "autocrypt_peer_batch_is_gossip";
+
     private ApiPermissionHelper mApiPermissionHelper;
     private KeyRepository mKeyRepository;
     private ApiAppDao mApiAppDao;
@@ -110,7 +130,8 @@ public class OpenPgpService extends Service {
         mApiAppDao = ApiAppDao.getInstance(this);
         mApiPermissionHelper = new ApiPermissionHelper(this, mApiAppDao);
         mApiPendingIntentFactory = new ApiPendingIntentFactory(getBaseContext());
-        mKeyIdExtractor = OpenPgpServiceKeyIdExtractor.getInstance(getContentResolver(), mApiPendingIntentFactory);
+        mKeyIdExtractor = OpenPgpServiceKeyIdExtractor.getInstance(
+                RecipientStatusInteractor.getInstance(this), mApiPendingIntentFactory);
 
         analyticsManager = ((KeychainApplication) getApplication()).getAnalyticsManager();
     }
@@ -191,6 +212,7 @@ public class OpenPgpService extends Service {
                     result.putExtra(OpenPgpApi.RESULT_DETACHED_SIGNATURE, pgpResult.getDetachedSignature());
                     result.putExtra(OpenPgpApi.RESULT_SIGNATURE_MICALG, pgpResult.getMicAlgDigestName());
                 }
+                processTimingsForResultIntent(data, result, pgpResult);
                 result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
                 return result;
             } else {
@@ -252,6 +274,7 @@ public class OpenPgpService extends Service {
             boolean enableCompression = data.getBooleanExtra(OpenPgpApi.EXTRA_ENABLE_COMPRESSION, true);
             pgpData.setCompressionAlgorithm(enableCompression ? OpenKeychainCompressionAlgorithmTags.USE_DEFAULT :
                     OpenKeychainCompressionAlgorithmTags.UNCOMPRESSED);
+            pgpData.setAdaptiveCompression(enableCompression);
 
             String originalFilename = data.getStringExtra(OpenPgpApi.EXTRA_ORIGINAL_FILENAME);
             if (originalFilename == null) {
@@ -304,6 +327,7 @@ public class OpenPgpService extends Service {
                 return result;
             } else if (pgpResult.success()) {
                 Intent result = new Intent();
+                processTimingsForResultIntent(data, result, pgpResult);
                 result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
                 return result;
             } else {
@@ -377,27 +401,7 @@ public class OpenPgpService extends Service {
                 outputStream = null;
             }
 
-            int targetApiVersion = data.getIntExtra(OpenPgpApi.EXTRA_API_VERSION, -1);
-
-            CryptoInputParcel cryptoInput = CryptoInputParcelCacheService.getCryptoInputParcel(this, data);
-            if (cryptoInput == null) {
-                cryptoInput = CryptoInputParcel.createCryptoInputParcel();
-            }
-            // override passphrase in input parcel if given by API call
-            if (data.hasExtra(OpenPgpApi.EXTRA_PASSPHRASE)) {
-                cryptoInput = cryptoInput.withPassphrase(
-                        new Passphrase(data.getCharArrayExtra(OpenPgpApi.EXTRA_PASSPHRASE)), null);
-            }
-            if (data.hasExtra(OpenPgpApi.EXTRA_DECRYPTION_RESULT)) {
-                OpenPgpDecryptionResult decryptionResult = data.getParcelableExtra(OpenPgpApi.EXTRA_DECRYPTION_RESULT);
-                if (decryptionResult != null && decryptionResult.hasDecryptedSessionKey()) {
-                    cryptoInput = cryptoInput.withCryptoData(
-                            decryptionResult.getSessionKey(), decryptionResult.getDecryptedSessionKey());
-                }
-            }
-
-            byte[] detachedSignature = data.getByteArrayExtra(OpenPgpApi.EXTRA_DETACHED_SIGNATURE);
-            String senderAddress = data.getStringExtra(OpenPgpApi.EXTRA_SENDER_ADDRESS);
+            CryptoInputParcel cryptoInput = getDecryptCryptoInputParcel(data);
 
             updateAutocryptPeerImpl(data);
 
@@ -406,60 +410,153 @@ public class OpenPgpService extends Service {
             long inputLength = data.getLongExtra(OpenPgpApi.EXTRA_DATA_LENGTH, InputData.UNKNOWN_FILESIZE);
             InputData inputData = new InputData(inputStream, inputLength);
 
-            // allow only private keys associated with accounts of this app
-            // no support for symmetric encryption
-            PgpDecryptVerifyInputParcel input = PgpDecryptVerifyInputParcel.builder()
-                    .setAllowSymmetricDecryption(false)
-                    .setAllowedKeyIds(new ArrayList<>(getAllowedKeyIds()))
-                    .setDecryptMetadataOnly(decryptMetadataOnly)
-                    .setDetachedSignature(detachedSignature)
-                    .setSenderAddress(senderAddress)
-                    .build();
+            return decryptAndVerifyWithOperation(data, op, cryptoInput, new ArrayList<>(getAllowedKeyIds()),
+                    inputData, outputStream, decryptMetadataOnly);
+        } catch (Exception e) {
+            Timber.e(e, "decryptAndVerifyImpl");
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, e.getMessage());
+        }
+    }
 
-            DecryptVerifyResult pgpResult = op.execute(input, cryptoInput, inputData, outputStream);
+    /**
+     * Decrypts and verifies a number of messages in a single call, see OpenPgpBatchApi for the
+     * framing of input and output. Permission checks, allowed key ids and the crypto input are
+     * shared by all messages. RESULT_BATCH_COUNT is the number of messages that were processed,
+     * the client sends the rest again in another call. If any message needs user interaction,
+     * the result carries the PendingIntent of the first such message, and only the messages
+     * with a pending result need to be sent again afterwards.
+     */
+    private Intent decryptAndVerifyBatchImpl(Intent data, InputStream inputStream, OutputStream outputStream) {
+        if (inputStream == null || outputStream == null) {
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, "input and output required for batch decryption");
+        }
 
-            if (pgpResult.isPending()) {
-                // prepare and return PendingIntent to be executed by client
-                RequiredInputParcel requiredInput = pgpResult.getRequiredInputParcel();
-                PendingIntent pIntent = mApiPendingIntentFactory.requiredInputPi(data,
-                        requiredInput, pgpResult.mCryptoInputParcel);
+        try {
+            CryptoInputParcel cryptoInput = getDecryptCryptoInputParcel(data);
+            ArrayList<Long> allowedKeyIds = new ArrayList<>(getAllowedKeyIds());
+            String[] senderAddresses = data.getStringArrayExtra(OpenPgpBatchApi.EXTRA_BATCH_SENDER_ADDRESSES);
 
-                Intent result = new Intent();
-                result.putExtra(OpenPgpApi.RESULT_INTENT, pIntent);
-                result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
-                return result;
+            updateAutocryptPeerImpl(data);
 
-            } else if (pgpResult.success()) {
-                Intent result = new Intent();
+            PgpDecryptVerifyOperation op = new PgpDecryptVerifyOperation(this, mKeyRepository, null);
 
-                processDecryptionResultForResultIntent(targetApiVersion, result, pgpResult.getDecryptionResult());
-                processMetadataForResultIntent(result, pgpResult.getDecryptionMetadata());
-                processSignatureResultForResultIntent(targetApiVersion, data, result, pgpResult);
-                processSecurityProblemsPendingIntent(data, result, pgpResult);
+            BatchDecryptor batchDecryptor = new BatchDecryptor((index, inputData, messageOutput) -> {
+                Intent messageData = new Intent(data);
+                if (senderAddresses != null && index < senderAddresses.length) {
+                    messageData.putExtra(OpenPgpApi.EXTRA_SENDER_ADDRESS, senderAddresses[index]);
+                }
+                try {
+                    return decryptAndVerifyWithOperation(
+                            messageData, op, cryptoInput, allowedKeyIds, inputData, messageOutput, false);
+                } catch (Exception e) {
+                    Timber.e(e, "decryptAndVerifyBatchImpl, message %d", index);
+                    return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, e.getMessage());
+                }
+            });
+            batchDecryptor.run(inputStream, outputStream);
 
-                result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
-                return result;
+            Intent result = new Intent();
+            result.putExtra(OpenPgpBatchApi.RESULT_BATCH_COUNT, batchDecryptor.getMessageCount());
+            PendingIntent pendingIntent = batchDecryptor.getFirstPendingIntent();
+            if (pendingIntent != null) {
+                result.putExtra(OpenPgpApi.RESULT_INTENT, pendingIntent);
+                result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
             } else {
-                long[] skippedDisallowedEncryptionKeys = pgpResult.getSkippedDisallowedKeys();
-                if (pgpResult.isKeysDisallowed() &&
-                        skippedDisallowedEncryptionKeys != null && skippedDisallowedEncryptionKeys.length > 0) {
-                    // allow user to select allowed keys
-                    Intent result = new Intent();
-                    String packageName = mApiPermissionHelper.getCurrentCallingPackage();
-                    result.putExtra(OpenPgpApi.RESULT_INTENT,
-                            mApiPendingIntentFactory.createRequestKeyPermissionPendingIntent(
-                                    data, packageName, skippedDisallowedEncryptionKeys));
-                    result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
-                    return result;
-                }
+                result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+            }
+            return result;
+        } catch (IOException e) {
+            Timber.e(e, "decryptAndVerifyBatchImpl");
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, e.getMessage());
+        }
+    }
 
-                String errorMsg = getString(pgpResult.getLog().getLast().mType.getMsgId());
-                return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, errorMsg);
+    private CryptoInputParcel getDecryptCryptoInputParcel(Intent data) {
+        CryptoInputParcel cryptoInput = CryptoInputParcelCacheService.getCryptoInputParcel(this, data);
+        if (cryptoInput == null) {
+            cryptoInput = CryptoInputParcel.createCryptoInputParcel();
+        }
+        // override passphrase in input parcel if given by API call
+        if (data.hasExtra(OpenPgpApi.EXTRA_PASSPHRASE)) {
+            cryptoInput = cryptoInput.withPassphrase(
+                    new Passphrase(data.getCharArrayExtra(OpenPgpApi.EXTRA_PASSPHRASE)), null);
+        }
+        if (data.hasExtra(OpenPgpApi.EXTRA_DECRYPTION_RESULT)) {
+            OpenPgpDecryptionResult decryptionResult = data.getParcelableExtra(OpenPgpApi.EXTRA_DECRYPTION_RESULT);
+            if (decryptionResult != null && decryptionResult.hasDecryptedSessionKey()) {
+                cryptoInput = cryptoInput.withCryptoData(
+                        decryptionResult.getSessionKey(), decryptionResult.getDecryptedSessionKey());
             }
+        }
+        return cryptoInput;
+    }
 
-        } catch (Exception e) {
-            Timber.e(e, "decryptAndVerifyImpl");
-            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, e.getMessage());
+    private Intent decryptAndVerifyWithOperation(Intent data, PgpDecryptVerifyOperation op,
+            CryptoInputParcel cryptoInput, ArrayList<Long> allowedKeyIds, InputData inputData,
+            OutputStream outputStream, boolean decryptMetadataOnly) {
+        int targetApiVersion = data.getIntExtra(OpenPgpApi.EXTRA_API_VERSION, -1);
+
+        byte[] detachedSignature = data.getByteArrayExtra(OpenPgpApi.EXTRA_DETACHED_SIGNATURE);
+        boolean verifyAllDetachedSignatures = data.getBooleanExtra(EXTRA_VERIFY_ALL_DETACHED_SIGNATURES, false);
+        String senderAddress = data.getStringExtra(OpenPgpApi.EXTRA_SENDER_ADDRESS);
+
+        // allow only private keys associated with accounts of this app
+        // no support for symmetric encryption
+        PgpDecryptVerifyInputParcel.Builder inputBuilder = PgpDecryptVerifyInputParcel.builder()
+                .setAllowSymmetricDecryption(false)
+                .setAllowedKeyIds(allowedKeyIds)
+                .setDecryptMetadataOnly(decryptMetadataOnly)
+                .setSenderAddress(senderAddress);
+        if (detachedSignature != null && verifyAllDetachedSignatures) {
+            inputBuilder.setDetachedSignatures(Collections.singletonList(detachedSignature));
+        } else {
+            inputBuilder.setDetachedSignature(detachedSignature);
+        }
+        PgpDecryptVerifyInputParcel input = inputBuilder.build();
+
+        DecryptVerifyResult pgpResult = op.execute(input, cryptoInput, inputData, outputStream);
+
+        if (pgpResult.isPending()) {
+            // prepare and return PendingIntent to be executed by client
+            RequiredInputParcel requiredInput = pgpResult.getRequiredInputParcel();
+            PendingIntent pIntent = mApiPendingIntentFactory.requiredInputPi(data,
+                    requiredInput, pgpResult.mCryptoInputParcel);
+
+            Intent result = new Intent();
+            result.putExtra(OpenPgpApi.RESULT_INTENT, pIntent);
+            result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
+            return result;
+
+        } else if (pgpResult.success()) {
+            Intent result = new Intent();
+
+            processDecryptionResultForResultIntent(targetApiVersion, result, pgpResult.getDecryptionResult());
+            processMetadataForResultIntent(result, pgpResult.getDecryptionMetadata());
+            processSignatureResultForResultIntent(targetApiVersion, data, result, pgpResult);
+            if (pgpResult.getSignatureResults() != null) {
+                result.putParcelableArrayListExtra(RESULT_SIGNATURES, pgpResult.getSignatureResults());
+            }
+            processSecurityProblemsPendingIntent(data, result, pgpResult);
+            processTimingsForResultIntent(data, result, pgpResult);
+
+            result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+            return result;
+        } else {
+            long[] skippedDisallowedEncryptionKeys = pgpResult.getSkippedDisallowedKeys();
+            if (pgpResult.isKeysDisallowed() &&
+                    skippedDisallowedEncryptionKeys != null && skippedDisallowedEncryptionKeys.length > 0) {
+                // allow user to select allowed keys
+                Intent result = new Intent();
+                String packageName = mApiPermissionHelper.getCurrentCallingPackage();
+                result.putExtra(OpenPgpApi.RESULT_INTENT,
+                        mApiPendingIntentFactory.createRequestKeyPermissionPendingIntent(
+                                data, packageName, skippedDisallowedEncryptionKeys));
+                result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
+                return result;
+            }
+
+            String errorMsg = getString(pgpResult.getLog().getLast().mType.getMsgId());
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, errorMsg);
         }
     }
 
@@ -520,6 +617,13 @@ public class OpenPgpService extends Service {
         return signatureResult;
     }
 
+    private void processTimingsForResultIntent(Intent data, Intent result, OperationResult pgpResult) {
+        OperationTimings timings = pgpResult.getTimings();
+        if (timings != null && data.getBooleanExtra(EXTRA_REQUEST_TIMINGS, false)) {
+            result.putExtra(RESULT_TIMINGS, timings.toBundle());
+        }
+    }
+
     private void processMetadataForResultIntent(Intent result, OpenPgpMetadata metadata) {
         String charset = metadata != null ? metadata.getCharset() : null;
         if (charset != null) {
@@ -631,26 +735,21 @@ public class OpenPgpService extends Service {
             }
 
             try {
-                CanonicalizedPublicKeyRing keyRing =
-                        mKeyRepository.getCanonicalizedPublicKeyRing(masterKeyId);
+                boolean minimize = data.getBooleanExtra(OpenPgpApi.EXTRA_MINIMIZE, false);
+                String userIdToKeep = data.getStringExtra(OpenPgpApi.EXTRA_MINIMIZE_USER_ID);
+                boolean requestAsciiArmor = data.getBooleanExtra(OpenPgpApi.EXTRA_REQUEST_ASCII_ARMOR, false);
+
+                // the export is cached, so it also serves as the check whether the key exists
+                byte[] keyData = PublicKeyExportCache.getInstance().getPublicKeyExport(
+                        mKeyRepository, masterKeyId, requestAsciiArmor, minimize, userIdToKeep);
 
                 Intent result = new Intent();
                 result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
 
-                if (data.getBooleanExtra(OpenPgpApi.EXTRA_MINIMIZE, false)) {
-                    String userIdToKeep = data.getStringExtra(OpenPgpApi.EXTRA_MINIMIZE_USER_ID);
-                    keyRing = keyRing.minimize(userIdToKeep);
-                }
-
                 boolean requestedKeyData = outputStream != null;
                 if (requestedKeyData) {
-                    boolean requestAsciiArmor = data.getBooleanExtra(OpenPgpApi.EXTRA_REQUEST_ASCII_ARMOR, false);
-
                     try {
-                        if (requestAsciiArmor) {
-                            outputStream = new ArmoredOutputStream(outputStream);
-                        }
-                        keyRing.encode(outputStream);
+                        outputStream.write(keyData);
                     } finally {
                         try {
                             outputStream.close();
@@ -897,6 +996,43 @@ public class OpenPgpService extends Service {
         }
     }
 
+    /**
+     * Applies a list of autocrypt peer updates, in order. The peer ids, updates and gossip flags
+     * are passed as arrays of equal length, where a gossip flag of true corresponds to an entry of
+     * EXTRA_AUTOCRYPT_PEER_GOSSIP_UPDATES, and false to EXTRA_AUTOCRYPT_PEER_UPDATE.
+     */
+    private Intent updateAutocryptPeersBatchImpl(Intent data) {
+        String[] autocryptPeerIds = data.getStringArrayExtra(EXTRA_AUTOCRYPT_PEER_BATCH_IDS);
+        ArrayList<AutocryptPeerUpdate> autocryptPeerUpdates =
+                data.getParcelableArrayListExtra(EXTRA_AUTOCRYPT_PEER_BATCH_UPDATES);
+        boolean[] isGossip = data.getBooleanArrayExtra(EXTRA_AUTOCRYPT_PEER_BATCH_IS_GOSSIP);
+        if (autocryptPeerIds == null || autocryptPeerUpdates == null || isGossip == null
+                || autocryptPeerIds.length != autocryptPeerUpdates.size() || autocryptPeerIds.length != isGossip.length) {
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, "peer ids, updates and gossip flags required!");
+        }
+
+        try {
+            ArrayList<BatchUpdate> batchUpdates = new ArrayList<>(autocryptPeerIds.length);
+            for (int i = 0; i < autocryptPeerIds.length; i++) {
+                AutocryptPeerUpdate autocryptPeerUpdate = autocryptPeerUpdates.get(i);
+                if (autocryptPeerIds[i] != null && autocryptPeerUpdate != null) {
+                    batchUpdates.add(new BatchUpdate(autocryptPeerIds[i], autocryptPeerUpdate, isGossip[i]));
+                }
+            }
+
+            AutocryptInteractor autocryptInteractor = AutocryptInteractor.getInstance(
+                    getBaseContext(), mApiPermissionHelper.getCurrentCallingPackage());
+            autocryptInteractor.updateAutocryptPeerStates(batchUpdates);
+
+            Intent result = new Intent();
+            result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+            return result;
+        } catch (Exception e) {
+            Timber.d(e, "exception in updateAutocryptPeersBatchImpl");
+            return createErrorResultIntent(OpenPgpError.GENERIC_ERROR, e.getMessage());
+        }
+    }
+
     private Intent checkPermissionImpl(@NonNull Intent data) {
         Intent permissionIntent = mApiPermissionHelper.isAllowedOrReturnIntent(data);
         if (permissionIntent != null) {
@@ -993,11 +1129,19 @@ public class OpenPgpService extends Service {
                 (input != null) ? new ParcelFileDescriptor.AutoCloseInputStream(input) : null;
 
         try {
-            long startTime = SystemClock.elapsedRealtime();
+            long startTime = System.nanoTime();
             Timber.i("API call: %s", data.getAction());
             Intent result = executeInternalWithStreams(data, inputStream, outputStream);
-            long elapsedTime = SystemClock.elapsedRealtime() - startTime;
-            Timber.i("Elapsed time: %d", elapsedTime);
+            long elapsedTime = System.nanoTime() - startTime;
+            Timber.i("Elapsed time: %d", TimeUnit.NANOSECONDS.toMillis(elapsedTime));
+
+            String metricName = MetricsRegistry.API_OPENPGP + MetricsRegistry.getActionName(data.getAction());
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.recordCallerNanos(metricName, Binder.getCallingUid(), elapsedTime);
+            if (result != null && result.getIntExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_ERROR)
+                    == OpenPgpApi.RESULT_CODE_ERROR) {
+                metrics.increment(metricName + MetricsRegistry.SUFFIX_ERROR);
+            }
             return result;
         } finally {
             // always close input and output file descriptors even in createErrorPendingIntent cases
@@ -1071,6 +1215,9 @@ public class OpenPgpService extends Service {
             case OpenPgpApi.ACTION_DECRYPT_METADATA: {
                 return decryptAndVerifyImpl(data, inputStream, outputStream, true, null);
             }
+            case OpenPgpBatchApi.ACTION_DECRYPT_VERIFY_BATCH: {
+                return decryptAndVerifyBatchImpl(data, inputStream, outputStream);
+            }
             case OpenPgpApi.ACTION_GET_SIGN_KEY_ID: {
                 return getSignKeyIdImpl(data);
             }
@@ -1092,6 +1239,9 @@ public class OpenPgpService extends Service {
             case OpenPgpApi.ACTION_UPDATE_AUTOCRYPT_PEER: {
                 return updateAutocryptPeerImpl(data);
             }
+            case ACTION_UPDATE_AUTOCRYPT_PEERS_BATCH: {
+                return updateAutocryptPeersBatchImpl(data);
+            }
             default: {
                 return null;
             }
@@ -26,16 +26,14 @@ import org.openintents.openpgp.IOpenPgpService2;
 import timber.log.Timber;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 
 public class OpenPgpService2 extends OpenPgpService {
 
-    private Map<Long, ParcelFileDescriptor> mOutputPipeMap = new HashMap<Long, ParcelFileDescriptor>();
+    // createOutputPipe and execute are called concurrently from binder threads
+    private final OutputPipeRegistry<ParcelFileDescriptor> mOutputPipes = new OutputPipeRegistry<>();
 
-    private long createKey(int id) {
-        int callingPid = Binder.getCallingPid();
-        return ((long) callingPid << 32) | ((long) id & 0xFFFFFFFL);
+    static long createKey(int callingPid, int id) {
+        return ((long) callingPid << 32) | ((long) id & 0xFFFFFFFFL);
     }
 
     private final IOpenPgpService2.Stub mBinder = new IOpenPgpService2.Stub() {
@@ -44,7 +42,7 @@ public class OpenPgpService2 extends OpenPgpService {
         public ParcelFileDescriptor createOutputPipe(int outputPipeId) {
             try {
                 ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
-                mOutputPipeMap.put(createKey(outputPipeId), pipe[1]);
+                mOutputPipes.put(createKey(Binder.getCallingPid(), outputPipeId), pipe[1]);
                 return pipe[0];
             } catch (IOException e) {
                 Timber.e(e, "IOException in OpenPgpService2");
@@ -55,9 +53,7 @@ public class OpenPgpService2 extends OpenPgpService {
 
         @Override
         public Intent execute(Intent data, ParcelFileDescriptor input, int outputPipeId) {
-            long key = createKey(outputPipeId);
-            ParcelFileDescriptor output = mOutputPipeMap.get(key);
-            mOutputPipeMap.remove(key);
+            ParcelFileDescriptor output = mOutputPipes.take(createKey(Binder.getCallingPid(), outputPipeId));
             return executeInternal(data, input, output);
         }
 
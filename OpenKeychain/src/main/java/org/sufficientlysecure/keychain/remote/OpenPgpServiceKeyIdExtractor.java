@@ -19,55 +19,33 @@ package org.sufficientlysecure.keychain.remote;
 
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.Cursor;
-import android.net.Uri;
-import android.support.annotation.NonNull;
-import android.support.annotation.VisibleForTesting;
 
 import org.openintents.openpgp.util.OpenPgpApi;
 import org.sufficientlysecure.keychain.provider.KeychainExternalContract;
 import org.sufficientlysecure.keychain.provider.KeychainExternalContract.AutocryptStatus;
+import org.sufficientlysecure.keychain.remote.RecipientStatusInteractor.RecipientStatus;
 import org.sufficientlysecure.keychain.ui.util.KeyFormattingUtils;
 import timber.log.Timber;
 
 
 class OpenPgpServiceKeyIdExtractor {
-    @VisibleForTesting
-    static final String[] PROJECTION_MAIL_STATUS = {
-            AutocryptStatus.ADDRESS,
-            AutocryptStatus.UID_MASTER_KEY_ID,
-            AutocryptStatus.UID_KEY_STATUS,
-            AutocryptStatus.UID_CANDIDATES,
-            AutocryptStatus.AUTOCRYPT_MASTER_KEY_ID,
-            AutocryptStatus.AUTOCRYPT_KEY_STATUS,
-            AutocryptStatus.AUTOCRYPT_PEER_STATE
-    };
-    private static final int INDEX_EMAIL_ADDRESS = 0;
-    private static final int INDEX_MASTER_KEY_ID = 1;
-    private static final int INDEX_USER_ID_STATUS = 2;
-    private static final int INDEX_USER_ID_CANDIDATES = 3;
-    private static final int INDEX_AUTOCRYPT_MASTER_KEY_ID = 4;
-    private static final int INDEX_AUTOCRYPT_KEY_STATUS = 5;
-    private static final int INDEX_AUTOCRYPT_PEER_STATE = 6;
-
-
     private final ApiPendingIntentFactory apiPendingIntentFactory;
-    private final ContentResolver contentResolver;
+    private final RecipientStatusInteractor recipientStatusInteractor;
 
 
-    static OpenPgpServiceKeyIdExtractor getInstance(ContentResolver contentResolver, ApiPendingIntentFactory apiPendingIntentFactory) {
-        return new OpenPgpServiceKeyIdExtractor(contentResolver, apiPendingIntentFactory);
+    static OpenPgpServiceKeyIdExtractor getInstance(RecipientStatusInteractor recipientStatusInteractor,
+            ApiPendingIntentFactory apiPendingIntentFactory) {
+        return new OpenPgpServiceKeyIdExtractor(recipientStatusInteractor, apiPendingIntentFactory);
     }
 
-    private OpenPgpServiceKeyIdExtractor(ContentResolver contentResolver,
+    private OpenPgpServiceKeyIdExtractor(RecipientStatusInteractor recipientStatusInteractor,
             ApiPendingIntentFactory apiPendingIntentFactory) {
-        this.contentResolver = contentResolver;
+        this.recipientStatusInteractor = recipientStatusInteractor;
         this.apiPendingIntentFactory = apiPendingIntentFactory;
     }
 
@@ -111,42 +89,42 @@ class OpenPgpServiceKeyIdExtractor {
         Integer combinedAutocryptState = null;
 
         if (hasAddresses) {
-            HashMap<String, AddressQueryResult> userIdEntries = getStatusMapForQueriedAddresses(
-                    encryptionAddresses, callingPackageName);
+            Map<String, RecipientStatus> recipientStatuses = recipientStatusInteractor.getRecipientStatus(
+                    callingPackageName, encryptionAddresses, true, true);
 
             boolean anyKeyNotVerified = false;
             for (String queriedAddress : encryptionAddresses) {
-                AddressQueryResult addressQueryResult = userIdEntries.get(queriedAddress);
-                if (addressQueryResult == null) {
+                RecipientStatus recipientStatus = recipientStatuses.get(queriedAddress);
+                if (recipientStatus == null) {
                     throw new IllegalStateException("No result for address - shouldn't happen!");
                 }
 
-                if (addressQueryResult.autocryptMasterKeyId != null) {
-                    keyIds.add(addressQueryResult.autocryptMasterKeyId);
+                if (recipientStatus.autocryptMasterKeyId != null) {
+                    keyIds.add(recipientStatus.autocryptMasterKeyId);
 
-                    if (addressQueryResult.autocryptKeyStatus != KeychainExternalContract.KEY_STATUS_VERIFIED) {
+                    if (recipientStatus.autocryptKeyStatus != KeychainExternalContract.KEY_STATUS_VERIFIED) {
                         anyKeyNotVerified = true;
                     }
 
                     if (combinedAutocryptState == null) {
-                        combinedAutocryptState = addressQueryResult.autocryptState;
+                        combinedAutocryptState = recipientStatus.autocryptPeerState;
                     } else {
                         combinedAutocryptState = combineAutocryptState(
-                                combinedAutocryptState, addressQueryResult.autocryptState);
+                                combinedAutocryptState, recipientStatus.autocryptPeerState);
                     }
 
                     continue;
                 }
 
-                if (addressQueryResult.uidMasterKeyId != null) {
-                    keyIds.add(addressQueryResult.uidMasterKeyId);
+                if (recipientStatus.hasUidStatus) {
+                    keyIds.add(recipientStatus.uidMasterKeyId);
                     combinedAutocryptState = AutocryptStatus.AUTOCRYPT_PEER_AVAILABLE_EXTERNAL;
 
-                    if (addressQueryResult.uidHasMultipleCandidates) {
+                    if (recipientStatus.uidCandidates > 1) {
                         duplicateEmails.add(queriedAddress);
                     }
 
-                    if (addressQueryResult.uidKeyStatus != KeychainExternalContract.KEY_STATUS_VERIFIED) {
+                    if (recipientStatus.uidKeyStatus != KeychainExternalContract.KEY_STATUS_VERIFIED) {
                         anyKeyNotVerified = true;
                     }
 
@@ -156,7 +134,7 @@ class OpenPgpServiceKeyIdExtractor {
                 missingEmails.add(queriedAddress);
             }
 
-            if (userIdEntries.size() != encryptionAddresses.length) {
+            if (recipientStatuses.size() != encryptionAddresses.length) {
                 Timber.e("Number of rows doesn't match number of retrieved rows! Probably a bug?");
             }
 
@@ -182,64 +160,6 @@ class OpenPgpServiceKeyIdExtractor {
         return first < second ? first : second;
     }
 
-    /** This method queries the KeychainExternalProvider for all addresses given in encryptionUserIds.
-     * It returns a map with one UserIdStatus per queried address. If multiple key candidates exist,
-     * the one with the highest verification status is selected. If two candidates with the same
-     * verification status exist, the first one is returned and marked as having a duplicate.
-     */
-    @NonNull
-    private HashMap<String, AddressQueryResult> getStatusMapForQueriedAddresses(String[] encryptionUserIds, String callingPackageName) {
-        HashMap<String,AddressQueryResult> keyRows = new HashMap<>();
-        Uri queryUri = AutocryptStatus.CONTENT_URI.buildUpon().appendPath(callingPackageName).build();
-        Cursor cursor = contentResolver.query(queryUri, PROJECTION_MAIL_STATUS, null, encryptionUserIds, null);
-        if (cursor == null) {
-            throw new IllegalStateException("Internal error, received null cursor!");
-        }
-
-        try {
-            while (cursor.moveToNext()) {
-                String queryAddress = cursor.getString(INDEX_EMAIL_ADDRESS);
-                Long uidMasterKeyId =
-                        cursor.isNull(INDEX_MASTER_KEY_ID) ? null : cursor.getLong(INDEX_MASTER_KEY_ID);
-                int uidKeyStatus = cursor.getInt(INDEX_USER_ID_STATUS);
-                boolean uidHasMultipleCandidates = cursor.getInt(INDEX_USER_ID_CANDIDATES) > 1;
-
-                Long autocryptMasterKeyId =
-                        cursor.isNull(INDEX_AUTOCRYPT_MASTER_KEY_ID) ? null : cursor.getLong(INDEX_AUTOCRYPT_MASTER_KEY_ID);
-                int autocryptKeyStatus = cursor.getInt(INDEX_AUTOCRYPT_KEY_STATUS);
-                int autocryptPeerStatus = cursor.getInt(INDEX_AUTOCRYPT_PEER_STATE);
-
-                AddressQueryResult status = new AddressQueryResult(
-                                uidMasterKeyId, uidKeyStatus, uidHasMultipleCandidates, autocryptMasterKeyId,
-                                autocryptKeyStatus, autocryptPeerStatus);
-
-                keyRows.put(queryAddress, status);
-            }
-        } finally {
-            cursor.close();
-        }
-        return keyRows;
-    }
-
-    private static class AddressQueryResult {
-        private final Long uidMasterKeyId;
-        private final int uidKeyStatus;
-        private boolean uidHasMultipleCandidates;
-        private final Long autocryptMasterKeyId;
-        private final int autocryptKeyStatus;
-        private final int autocryptState;
-
-        AddressQueryResult(Long uidMasterKeyId, int uidKeyStatus, boolean uidHasMultipleCandidates, Long autocryptMasterKeyId,
-                int autocryptKeyStatus, int autocryptState) {
-            this.uidMasterKeyId = uidMasterKeyId;
-            this.uidKeyStatus = uidKeyStatus;
-            this.uidHasMultipleCandidates = uidHasMultipleCandidates;
-            this.autocryptMasterKeyId = autocryptMasterKeyId;
-            this.autocryptKeyStatus = autocryptKeyStatus;
-            this.autocryptState = autocryptState;
-        }
-    }
-
     static class KeyIdResult {
         private final PendingIntent mKeySelectionPendingIntent;
         private final HashSet<Long> mUserKeyIds;
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+import timber.log.Timber;
+
+
+/**
+ * Holds the write ends of output pipes between createOutputPipe and execute, which are
+ * separate binder calls that may arrive on any binder thread. Pipes that are never picked
+ * up, e.g. because the client died in between, are closed after a timeout.
+ */
+class OutputPipeRegistry<T extends Closeable> {
+    static final long ORPHAN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long EXPIRY_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    private final ConcurrentHashMap<Long, PendingPipe<T>> pendingPipes = new ConcurrentHashMap<>();
+    private final AtomicLong lastExpiryMillis = new AtomicLong();
+
+    void put(long key, T pipe) {
+        put(key, pipe, SystemClock.elapsedRealtime());
+    }
+
+    void put(long key, T pipe, long nowMillis) {
+        PendingPipe<T> previous = pendingPipes.put(key, new PendingPipe<>(pipe, nowMillis));
+        if (previous != null) {
+            Timber.w("Output pipe id reused before execute, closing previous pipe");
+            closeQuietly(previous.pipe);
+        }
+
+        long lastExpiry = lastExpiryMillis.get();
+        if (nowMillis - lastExpiry >= EXPIRY_INTERVAL_MILLIS && lastExpiryMillis.compareAndSet(lastExpiry, nowMillis)) {
+            expireOrphans(nowMillis);
+        }
+    }
+
+    @Nullable
+    T take(long key) {
+        PendingPipe<T> pendingPipe = pendingPipes.remove(key);
+        return pendingPipe != null ? pendingPipe.pipe : null;
+    }
+
+    int size() {
+        return pendingPipes.size();
+    }
+
+    void expireOrphans(long nowMillis) {
+        Iterator<Entry<Long, PendingPipe<T>>> iterator = pendingPipes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Entry<Long, PendingPipe<T>> entry = iterator.next();
+            PendingPipe<T> pendingPipe = entry.getValue();
+            // only close the pipe if no execute call took it concurrently
+            if (nowMillis - pendingPipe.createdMillis >= ORPHAN_TIMEOUT_MILLIS
+                    && pendingPipes.remove(entry.getKey(), pendingPipe)) {
+                Timber.d("Closing orphaned output pipe");
+                closeQuietly(pendingPipe.pipe);
+            }
+        }
+    }
+
+    private static void closeQuietly(Closeable pipe) {
+        try {
+            pipe.close();
+        } catch (IOException e) {
+            Timber.e(e, "IOException when closing output pipe");
+        }
+    }
+
+    private static class PendingPipe<T> {
+        final T pipe;
+        final long createdMillis;
+
+        PendingPipe(T pipe, long createdMillis) {
+            this.pipe = pipe;
+            this.createdMillis = createdMillis;
+        }
+    }
+}
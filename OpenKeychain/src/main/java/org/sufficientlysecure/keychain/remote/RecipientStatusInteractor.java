@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.content.Context;
+
+import org.sufficientlysecure.keychain.daos.UserIdDao;
+import org.sufficientlysecure.keychain.model.UserPacket.UidStatus;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedKeyRing.VerificationStatus;
+import org.sufficientlysecure.keychain.provider.KeychainExternalContract;
+import org.sufficientlysecure.keychain.provider.KeychainExternalContract.AutocryptStatus;
+import org.sufficientlysecure.keychain.remote.AutocryptInteractor.AutocryptRecommendationResult;
+import org.sufficientlysecure.keychain.remote.AutocryptInteractor.AutocryptState;
+
+
+/**
+ * Looks up which keys are available for a set of recipient addresses, both from user ids
+ * and from autocrypt peers of the calling package.
+ *
+ * This is shared by KeychainExternalProvider, which exposes the results to other apps, and
+ * OpenPgpService, which resolves encryption recipients in process. Callers are responsible
+ * for checking that the package they pass in is allowed to access its autocrypt peers.
+ */
+public class RecipientStatusInteractor {
+    private final Context context;
+
+    public static RecipientStatusInteractor getInstance(Context context) {
+        return new RecipientStatusInteractor(context.getApplicationContext());
+    }
+
+    private RecipientStatusInteractor(Context context) {
+        this.context = context;
+    }
+
+    /** Returns the status of the given addresses, with one entry for each address. */
+    public Map<String, RecipientStatus> getRecipientStatus(String packageName, String[] addresses,
+            boolean includeUidStatus, boolean includeAutocryptStatus) {
+        Map<String, UidStatus> uidStatuses = includeUidStatus ?
+                UserIdDao.getInstance(context).getUidStatusByEmail(addresses) :
+                Collections.emptyMap();
+        Map<String, AutocryptRecommendationResult> autocryptResults = includeAutocryptStatus ?
+                AutocryptInteractor.getInstance(context, packageName).determineAutocryptRecommendations(addresses) :
+                Collections.emptyMap();
+
+        HashMap<String, RecipientStatus> result = new HashMap<>(addresses.length);
+        for (String address : addresses) {
+            result.put(address, new RecipientStatus(address, uidStatuses.get(address), autocryptResults.get(address)));
+        }
+        return result;
+    }
+
+    /** Returns the user id status of one address matching the given LIKE pattern. */
+    public RecipientStatus getRecipientStatusLike(String addressLike) {
+        UidStatus uidStatus = UserIdDao.getInstance(context).getUidStatusByEmailLike(addressLike);
+        return new RecipientStatus(addressLike, uidStatus, null);
+    }
+
+    private static int getPeerStateValue(AutocryptState autocryptState) {
+        switch (autocryptState) {
+            case DISABLE: return AutocryptStatus.AUTOCRYPT_PEER_DISABLED;
+            case DISCOURAGED_OLD: return AutocryptStatus.AUTOCRYPT_PEER_DISCOURAGED_OLD;
+            case DISCOURAGED_GOSSIP: return AutocryptStatus.AUTOCRYPT_PEER_GOSSIP;
+            case AVAILABLE: return AutocryptStatus.AUTOCRYPT_PEER_AVAILABLE;
+            case MUTUAL: return AutocryptStatus.AUTOCRYPT_PEER_MUTUAL;
+        }
+        throw new IllegalStateException("Unhandled case!");
+    }
+
+    /**
+     * The status of a single address. Key and peer states use the values of KeychainExternalContract.
+     * The uid fields are only meaningful if hasUidStatus is set, the autocrypt fields only if
+     * hasAutocryptStatus is set.
+     */
+    public static class RecipientStatus {
+        public final String address;
+
+        public final boolean hasUidStatus;
+        public final long uidMasterKeyId;
+        public final String uidUserId;
+        public final int uidKeyStatus;
+        public final long uidCandidates;
+
+        public final boolean hasAutocryptStatus;
+        public final Long autocryptMasterKeyId;
+        public final int autocryptKeyStatus;
+        public final int autocryptPeerState;
+
+        RecipientStatus(String address, boolean hasUidStatus, long uidMasterKeyId, String uidUserId, int uidKeyStatus,
+                long uidCandidates, boolean hasAutocryptStatus, Long autocryptMasterKeyId, int autocryptKeyStatus,
+                int autocryptPeerState) {
+            this.address = address;
+            this.hasUidStatus = hasUidStatus;
+            this.uidMasterKeyId = uidMasterKeyId;
+            this.uidUserId = uidUserId;
+            this.uidKeyStatus = uidKeyStatus;
+            this.uidCandidates = uidCandidates;
+            this.hasAutocryptStatus = hasAutocryptStatus;
+            this.autocryptMasterKeyId = autocryptMasterKeyId;
+            this.autocryptKeyStatus = autocryptKeyStatus;
+            this.autocryptPeerState = autocryptPeerState;
+        }
+
+        private RecipientStatus(String address, UidStatus uidStatus, AutocryptRecommendationResult autocryptResult) {
+            this.address = address;
+
+            hasUidStatus = uidStatus != null;
+            if (hasUidStatus) {
+                uidMasterKeyId = uidStatus.master_key_id();
+                uidUserId = uidStatus.user_id();
+                uidKeyStatus = uidStatus.keyStatus() == VerificationStatus.VERIFIED_SECRET ?
+                        KeychainExternalContract.KEY_STATUS_VERIFIED : KeychainExternalContract.KEY_STATUS_UNVERIFIED;
+                uidCandidates = uidStatus.candidates();
+            } else {
+                uidMasterKeyId = 0;
+                uidUserId = null;
+                uidKeyStatus = KeychainExternalContract.KEY_STATUS_UNAVAILABLE;
+                uidCandidates = 0;
+            }
+
+            hasAutocryptStatus = autocryptResult != null;
+            if (hasAutocryptStatus) {
+                autocryptMasterKeyId = autocryptResult.masterKeyId;
+                autocryptKeyStatus = autocryptResult.isVerified ?
+                        KeychainExternalContract.KEY_STATUS_VERIFIED : KeychainExternalContract.KEY_STATUS_UNVERIFIED;
+                autocryptPeerState = getPeerStateValue(autocryptResult.autocryptState);
+            } else {
+                autocryptMasterKeyId = null;
+                autocryptKeyStatus = KeychainExternalContract.KEY_STATUS_UNAVAILABLE;
+                autocryptPeerState = AutocryptStatus.AUTOCRYPT_PEER_DISABLED;
+            }
+        }
+    }
+}
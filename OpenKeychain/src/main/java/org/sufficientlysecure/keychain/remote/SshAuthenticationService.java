@@ -19,7 +19,6 @@ package org.sufficientlysecure.keychain.remote;
 
 
 import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashSet;
@@ -28,6 +27,7 @@ import java.util.List;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
+import android.os.Binder;
 import android.os.IBinder;
 
 import org.bouncycastle.bcpg.HashAlgorithmTags;
@@ -40,10 +40,9 @@ import org.openintents.ssh.authentication.response.PublicKeyResponse;
 import org.openintents.ssh.authentication.response.SigningResponse;
 import org.openintents.ssh.authentication.response.SshPublicKeyResponse;
 import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.model.SubKey.UnifiedKeyInfo;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogEntryParcel;
-import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKey;
-import org.sufficientlysecure.keychain.pgp.SshPublicKey;
 import org.sufficientlysecure.keychain.pgp.exception.PgpGeneralException;
 import org.sufficientlysecure.keychain.pgp.exception.PgpKeyNotFoundException;
 import org.sufficientlysecure.keychain.daos.ApiAppDao;
@@ -52,6 +51,8 @@ import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.service.input.RequiredInputParcel;
 import org.sufficientlysecure.keychain.ssh.AuthenticationData;
+import org.sufficientlysecure.keychain.ssh.AuthenticationKeyCache;
+import org.sufficientlysecure.keychain.ssh.AuthenticationKeyCache.PreparedAuthenticationKey;
 import org.sufficientlysecure.keychain.ssh.AuthenticationOperation;
 import org.sufficientlysecure.keychain.ssh.AuthenticationParcel;
 import org.sufficientlysecure.keychain.ssh.AuthenticationResult;
@@ -94,12 +95,22 @@ public class SshAuthenticationService extends Service {
     }
 
     private Intent checkIntent(Intent intent) {
-        Intent errorResult = checkRequirements(intent);
-        if (errorResult == null) {
-            return executeInternal(intent);
-        } else {
-            return errorResult;
+        long startTime = System.nanoTime();
+
+        Intent result = checkRequirements(intent);
+        if (result == null) {
+            result = executeInternal(intent);
+        }
+
+        String metricName = MetricsRegistry.API_SSH + MetricsRegistry.getActionName(intent.getAction());
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        metrics.recordCallerNanos(metricName, Binder.getCallingUid(), System.nanoTime() - startTime);
+        if (result != null && result.getIntExtra(SshAuthenticationApi.EXTRA_RESULT_CODE,
+                SshAuthenticationApi.RESULT_CODE_ERROR)
+                == SshAuthenticationApi.RESULT_CODE_ERROR) {
+            metrics.increment(metricName + MetricsRegistry.SUFFIX_ERROR);
         }
+        return result;
     }
 
     private Intent executeInternal(Intent intent) {
@@ -148,11 +159,12 @@ public class SshAuthenticationService extends Service {
         String authSubKeyCurveOid = null;
         try {
             // get first usable subkey capable of authentication
-            authSubKeyId = mKeyRepository.getEffectiveAuthenticationKeyId(masterKeyId);
+            PreparedAuthenticationKey preparedKey = getPreparedKey(masterKeyId);
+            authSubKeyId = preparedKey.getAuthSubKeyId();
             // needed for encoding the resulting signature
-            authSubKeyAlgorithm = getPublicKey(masterKeyId).getAlgorithm();
+            authSubKeyAlgorithm = preparedKey.getAlgorithm();
             if (authSubKeyAlgorithm == PublicKeyAlgorithmTags.ECDSA) {
-                authSubKeyCurveOid = getPublicKey(masterKeyId).getCurveOid();
+                authSubKeyCurveOid = preparedKey.getCurveOid();
             }
         } catch (NotFoundException e) {
             return createExceptionErrorResult(SshAuthenticationApiError.NO_SUCH_KEY,
@@ -320,17 +332,15 @@ public class SshAuthenticationService extends Service {
         byte[] encodedPublicKey;
         int algorithm;
 
-        PublicKey publicKey;
+        PreparedAuthenticationKey preparedKey = getPreparedKey(masterKeyId);
         try {
-            publicKey = getPublicKey(masterKeyId).getJcaPublicKey();
+            encodedPublicKey = preparedKey.getEncodedJcaPublicKey();
+            algorithm = translateAlgorithm(preparedKey.getJcaPublicKey().getAlgorithm());
         } catch (PgpGeneralException e) { // this should probably never happen
             return createExceptionErrorResult(SshAuthenticationApiError.GENERIC_ERROR,
                     "Error converting public key", e);
         }
 
-        encodedPublicKey = publicKey.getEncoded();
-        algorithm = translateAlgorithm(publicKey.getAlgorithm());
-
         return new PublicKeyResponse(encodedPublicKey, algorithm).toIntent();
     }
 
@@ -351,12 +361,9 @@ public class SshAuthenticationService extends Service {
     }
 
     private Intent getSSHPublicKey(long masterKeyId) throws KeyRepository.NotFoundException {
-        CanonicalizedPublicKey publicKey = getPublicKey(masterKeyId);
-
-        SshPublicKey sshPublicKey = new SshPublicKey(publicKey);
         String sshPublicKeyBlob;
         try {
-            sshPublicKeyBlob = sshPublicKey.getEncodedKey();
+            sshPublicKeyBlob = getPreparedKey(masterKeyId).getSshPublicKeyBlob();
         } catch (PgpGeneralException | NoSuchAlgorithmException e) {
             return createExceptionErrorResult(SshAuthenticationApiError.GENERIC_ERROR,
                     "Error converting public key to SSH format", e);
@@ -365,17 +372,15 @@ public class SshAuthenticationService extends Service {
         return new SshPublicKeyResponse(sshPublicKeyBlob).toIntent();
     }
 
-    private CanonicalizedPublicKey getPublicKey(long masterKeyId) throws NotFoundException {
-        KeyRepository keyRepository = KeyRepository.create(getApplicationContext());
-        long authKeyId = keyRepository.getEffectiveAuthenticationKeyId(masterKeyId);
-        return keyRepository.getCanonicalizedPublicKeyRing(masterKeyId).getPublicKey(authKeyId);
+    private PreparedAuthenticationKey getPreparedKey(long masterKeyId) throws NotFoundException {
+        return AuthenticationKeyCache.getInstance().getPreparedKey(mKeyRepository, masterKeyId);
     }
 
     private String getDescription(long masterKeyId) throws NotFoundException {
         UnifiedKeyInfo unifiedKeyInfo = mKeyRepository.getUnifiedKeyInfo(masterKeyId);
 
         String description = "";
-        long authSubKeyId = mKeyRepository.getEffectiveAuthenticationKeyId(masterKeyId);
+        long authSubKeyId = getPreparedKey(masterKeyId).getAuthSubKeyId();
         description += unifiedKeyInfo.user_id();
         description += " (" + Long.toHexString(authSubKeyId) + ")";
 
@@ -74,6 +74,12 @@ public abstract class OpenPgpCapabilities {
         return new AutoValue_OpenPgpCapabilities.Builder().updateWithTLV(parsedTlvData).build();
     }
 
+    abstract Builder toBuilder();
+
+    OpenPgpCapabilities withPwStatusBytes(byte[] pwStatusBytes) {
+        return toBuilder().pwStatusBytes(pwStatusBytes).build();
+    }
+
     public KeyFormat getFormatForKeyType(@NonNull KeyType keyType) {
         switch (keyType) {
             case SIGN: return getSignKeyFormat();
@@ -52,6 +52,7 @@ import java.security.spec.ECParameterSpec;
 import java.security.spec.EllipticCurve;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.InvalidParameterSpecException;
+import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 
 import android.content.Context;
@@ -73,8 +74,10 @@ import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.bouncycastle.math.ec.ECCurve;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.util.Arrays;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenCapabilityCache.SmCardKey;
 import org.sufficientlysecure.keychain.ui.SettingsSmartPGPAuthoritiesActivity;
 import org.sufficientlysecure.keychain.util.Preferences;
+import timber.log.Timber;
 
 
 class SCP11bSecureMessaging implements SecureMessaging {
@@ -275,7 +278,8 @@ class SCP11bSecureMessaging implements SecureMessaging {
 
     @CheckResult
     static SecureMessaging establish(final SecurityTokenConnection t, final Context ctx,
-            OpenPgpCommandApduFactory commandFactory)
+            OpenPgpCommandApduFactory commandFactory, SecurityTokenCapabilityCache capabilityCache,
+            final byte[] aid)
             throws SecureMessagingException, IOException {
 
         CommandApdu cmd;
@@ -284,6 +288,21 @@ class SCP11bSecureMessaging implements SecureMessaging {
 
         t.clearSecureMessaging();
 
+        final Preferences prefs = Preferences.getPreferences(ctx);
+        final boolean useAuthorities = prefs != null && prefs.getExperimentalSmartPGPAuthoritiesEnable();
+
+        final SmCardKey cachedCardKey = capabilityCache.getSmCardKey(aid, useAuthorities);
+        if (cachedCardKey != null) {
+            try {
+                final ECKeyFormat eckf = parseKeyAttributes(cachedCardKey.keyAttributes);
+                return authenticate(t, commandFactory, eckf, decodeECDHPublicKey(cachedCardKey.encodedPublicKey));
+            } catch (SecureMessagingException e) {
+                // the card got a new key, so retrieve it again
+                Timber.d(e, "failed to establish secure messaging with cached card key");
+                capabilityCache.removeSmCardKey(aid);
+            }
+        }
+
         // retrieving key algorithm
         cmd = commandFactory.createGetDataCommand(0x00, OPENPGP_SECURE_MESSAGING_KEY_ATTRIBUTES_TAG);
         resp = t.communicate(cmd);
@@ -297,24 +316,13 @@ class SCP11bSecureMessaging implements SecureMessaging {
             throw new SecureMessagingException("invalid format of secure messaging key attributes");
         }
 
-        final KeyFormat kf = KeyFormat.fromBytes(tlvs[0].mV);
+        final byte[] keyAttributes = tlvs[0].mV;
+        final ECKeyFormat eckf = parseKeyAttributes(keyAttributes);
 
-        if (kf.keyFormatType() != KeyFormat.KeyFormatType.ECKeyFormatType) {
-            throw new SecureMessagingException("invalid format of secure messaging key");
-        }
-
-        final ECKeyFormat eckf = (ECKeyFormat)kf;
-
-        if (eckf.getCurveOID() == null) {
-            throw new SecureMessagingException("unsupported curve");
-        }
+        ECPublicKey pkcard = null;
 
         try {
-            ECPublicKey pkcard = null;
-
-            final Preferences prefs = Preferences.getPreferences(ctx);
-
-            if (prefs != null && prefs.getExperimentalSmartPGPAuthoritiesEnable()) {
+            if (useAuthorities) {
                 // retrieving certificate
                 cmd = commandFactory.createSelectSecureMessagingCertificateCommand();
                 resp = t.communicate(cmd);
@@ -350,11 +358,77 @@ class SCP11bSecureMessaging implements SecureMessaging {
 
                 pkcard = newECDHPublicKey(eckf, tlvs[0].mV);
             }
+        } catch (InvalidKeySpecException e) {
+            throw new SecureMessagingException("invalid key specification : " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new SecureMessagingException("unknown EC key algorithm : " + e.getMessage());
+        } catch (InvalidParameterSpecException e) {
+            throw new SecureMessagingException("invalid ECDH parameters : " + e.getMessage());
+        } catch (NoSuchProviderException e) {
+            throw  new SecureMessagingException("unknown provider " + PROVIDER);
+        } catch (IllegalArgumentException e) {
+            throw new SecureMessagingException("illegal argument (" + e.getMessage() + ")");
+        }
 
-            if (pkcard == null) {
-                throw new SecureMessagingException("No key in token for secure messaging");
+        if (pkcard == null) {
+            throw new SecureMessagingException("No key in token for secure messaging");
+        }
+
+        final SecureMessaging sm = authenticate(t, commandFactory, eckf, pkcard);
+        capabilityCache.putSmCardKey(aid, new SmCardKey(keyAttributes, pkcard.getEncoded(), useAuthorities));
+        return sm;
+    }
+
+    private static ECKeyFormat parseKeyAttributes(final byte[] keyAttributes) throws SecureMessagingException {
+        final KeyFormat kf;
+        try {
+            kf = KeyFormat.fromBytes(keyAttributes);
+        } catch (IllegalArgumentException e) {
+            throw new SecureMessagingException("invalid format of secure messaging key attributes");
+        }
+
+        if (kf.keyFormatType() != KeyFormat.KeyFormatType.ECKeyFormatType) {
+            throw new SecureMessagingException("invalid format of secure messaging key");
+        }
+
+        final ECKeyFormat eckf = (ECKeyFormat)kf;
+
+        if (eckf.getCurveOID() == null) {
+            throw new SecureMessagingException("unsupported curve");
+        }
+
+        return eckf;
+    }
+
+    private static ECPublicKey decodeECDHPublicKey(final byte[] encodedPublicKey) throws SecureMessagingException {
+        try {
+            if (ecdhFactory == null) {
+                ecdhFactory = KeyFactory.getInstance(SCP11B_KEY_AGREEMENT_KEY_TYPE, PROVIDER);
+            }
+
+            final PublicKey pk = ecdhFactory.generatePublic(new X509EncodedKeySpec(encodedPublicKey));
+            if (!(pk instanceof ECPublicKey)) {
+                throw new SecureMessagingException("invalid card public key");
             }
+            return (ECPublicKey) pk;
+        } catch (InvalidKeySpecException e) {
+            throw new SecureMessagingException("invalid key specification : " + e.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new SecureMessagingException("unknown EC key algorithm : " + e.getMessage());
+        } catch (NoSuchProviderException e) {
+            throw  new SecureMessagingException("unknown provider " + PROVIDER);
+        }
+    }
+
+    private static SecureMessaging authenticate(final SecurityTokenConnection t,
+            OpenPgpCommandApduFactory commandFactory, final ECKeyFormat eckf, final ECPublicKey pkcard)
+            throws SecureMessagingException, IOException {
+
+        CommandApdu cmd;
+        ResponseApdu resp;
+        Iso7816TLV[] tlvs;
 
+        try {
             final EllipticCurve curve = pkcard.getParams().getCurve();
             final int fieldSize = curve.getField().getFieldSize();
             int keySize;
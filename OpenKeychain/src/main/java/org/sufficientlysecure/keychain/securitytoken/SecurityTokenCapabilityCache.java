@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.securitytoken;
+
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import org.bouncycastle.util.encoders.DecoderException;
+import org.bouncycastle.util.encoders.Hex;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo.TokenType;
+import timber.log.Timber;
+
+
+/**
+ * Persistent cache of static data about security tokens we have seen before, keyed by the
+ * AID of their OpenPGP application, which includes the card's serial number.
+ *
+ * This saves the round trips to determine the token type and to retrieve (and verify) the
+ * secure messaging key on every connect. Neither is trusted blindly: the AID is read from the
+ * card on every connect anyway, and a wrong secure messaging key makes establishing the
+ * session fail, after which it is retrieved from the card again.
+ */
+public class SecurityTokenCapabilityCache {
+    public static final String METRIC_TOKEN_TYPE = MetricsRegistry.SECURITY_TOKEN + "token_type";
+    public static final String METRIC_SM_CARD_KEY = MetricsRegistry.SECURITY_TOKEN + "sm_card_key";
+
+    private static final String PREF_FILE_NAME = "security_token_capabilities";
+    private static final String PREF_TOKEN_TYPE_PREFIX = "token_type_";
+    private static final String PREF_SM_CARD_KEY_PREFIX = "sm_card_key_";
+    private static final char SEPARATOR = ':';
+
+    private final SharedPreferences sharedPreferences;
+
+    public static SecurityTokenCapabilityCache create(Context context) {
+        return new SecurityTokenCapabilityCache(
+                context.getSharedPreferences(PREF_FILE_NAME, Context.MODE_PRIVATE));
+    }
+
+    private SecurityTokenCapabilityCache(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    @Nullable
+    TokenType getTokenType(byte[] aid) {
+        String tokenTypeName = sharedPreferences.getString(PREF_TOKEN_TYPE_PREFIX + Hex.toHexString(aid), null);
+        TokenType tokenType = null;
+        if (tokenTypeName != null) {
+            try {
+                tokenType = TokenType.valueOf(tokenTypeName);
+            } catch (IllegalArgumentException e) {
+                Timber.e(e, "Unknown cached token type, ignoring");
+            }
+        }
+        MetricsRegistry.getInstance().recordCacheAccess(METRIC_TOKEN_TYPE, tokenType != null);
+        return tokenType;
+    }
+
+    void putTokenType(byte[] aid, TokenType tokenType) {
+        sharedPreferences.edit()
+                .putString(PREF_TOKEN_TYPE_PREFIX + Hex.toHexString(aid), tokenType.name())
+                .apply();
+    }
+
+    /**
+     * Returns the secure messaging key of the card, if it is known and was obtained the same way
+     * (checked against the SmartPGP authorities or not) as requested.
+     */
+    @Nullable
+    SmCardKey getSmCardKey(byte[] aid, boolean verifiedWithAuthorities) {
+        String serializedKey = sharedPreferences.getString(PREF_SM_CARD_KEY_PREFIX + Hex.toHexString(aid), null);
+        SmCardKey smCardKey = serializedKey != null ? SmCardKey.fromString(serializedKey) : null;
+        boolean isHit = smCardKey != null && smCardKey.verifiedWithAuthorities == verifiedWithAuthorities;
+        MetricsRegistry.getInstance().recordCacheAccess(METRIC_SM_CARD_KEY, isHit);
+        return isHit ? smCardKey : null;
+    }
+
+    void putSmCardKey(byte[] aid, SmCardKey smCardKey) {
+        sharedPreferences.edit()
+                .putString(PREF_SM_CARD_KEY_PREFIX + Hex.toHexString(aid), smCardKey.toString())
+                .apply();
+    }
+
+    void removeSmCardKey(byte[] aid) {
+        sharedPreferences.edit()
+                .remove(PREF_SM_CARD_KEY_PREFIX + Hex.toHexString(aid))
+                .apply();
+    }
+
+    public void clear() {
+        sharedPreferences.edit().clear().apply();
+    }
+
+    /** The SCP11b key attributes and X.509 encoded public key of a card. */
+    static class SmCardKey {
+        final byte[] keyAttributes;
+        final byte[] encodedPublicKey;
+        final boolean verifiedWithAuthorities;
+
+        SmCardKey(byte[] keyAttributes, byte[] encodedPublicKey, boolean verifiedWithAuthorities) {
+            this.keyAttributes = keyAttributes;
+            this.encodedPublicKey = encodedPublicKey;
+            this.verifiedWithAuthorities = verifiedWithAuthorities;
+        }
+
+        @Nullable
+        static SmCardKey fromString(String serializedKey) {
+            String[] parts = serializedKey.split(String.valueOf(SEPARATOR));
+            if (parts.length != 3) {
+                Timber.e("Malformed cached secure messaging key, ignoring");
+                return null;
+            }
+            try {
+                return new SmCardKey(Hex.decode(parts[0]), Hex.decode(parts[1]), Boolean.parseBoolean(parts[2]));
+            } catch (DecoderException e) {
+                Timber.e(e, "Malformed cached secure messaging key, ignoring");
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return Hex.toHexString(keyAttributes) + SEPARATOR + Hex.toHexString(encodedPublicKey) + SEPARATOR
+                    + verifiedWithAuthorities;
+        }
+    }
+}
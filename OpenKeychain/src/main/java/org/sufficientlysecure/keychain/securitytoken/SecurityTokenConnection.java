@@ -28,6 +28,7 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.VisibleForTesting;
 
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo.TokenType;
 import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo.TransportType;
 import org.sufficientlysecure.keychain.util.Passphrase;
@@ -44,6 +45,11 @@ public class SecurityTokenConnection {
 
     private static final String AID_PREFIX_FIDESMO = "A000000617";
 
+    public static final String METRIC_CONNECT = MetricsRegistry.SECURITY_TOKEN + "connect";
+    public static final String METRIC_CONNECT_APDUS = METRIC_CONNECT + ".apdus";
+    public static final String METRIC_OPERATION = MetricsRegistry.SECURITY_TOKEN + "operation";
+    public static final String METRIC_OPERATION_APDUS = METRIC_OPERATION + ".apdus";
+
     private static SecurityTokenConnection sCachedInstance;
 
     @NonNull
@@ -58,10 +64,13 @@ public class SecurityTokenConnection {
 
     private SecureMessaging secureMessaging;
 
+    private boolean isPwStatusStale;
     private boolean isPw1ValidatedForSignature; // Mode 81
     private boolean isPw1ValidatedForOther; // Mode 82
     private boolean isPw3Validated;
 
+    private int transceivedApduCount;
+
 
     public static SecurityTokenConnection getInstanceForTransport(
             @NonNull Transport transport, @Nullable Passphrase pin) {
@@ -91,7 +100,9 @@ public class SecurityTokenConnection {
 
     public void connectIfNecessary(Context context) throws IOException {
         if (isConnected()) {
-            refreshConnectionCapabilities();
+            // static capabilities can't change while we are connected, and operations that change
+            // keys refresh them explicitly. only the pin counters may be outdated by now.
+            isPwStatusStale = true;
             return;
         }
 
@@ -103,6 +114,7 @@ public class SecurityTokenConnection {
      */
     @VisibleForTesting
     void connectToDevice(Context context) throws IOException {
+        int apduCountBefore = transceivedApduCount;
         try {
             // Connect on transport layer
             transport.connect();
@@ -110,26 +122,64 @@ public class SecurityTokenConnection {
             // dummy instance for initial communicate() calls
             cardCapabilities = new CardCapabilities();
 
-            determineTokenType();
-
-            CommandApdu select = commandFactory.createSelectFileOpenPgpCommand();
-            ResponseApdu response = communicate(select);  // activate connection
-
+            ResponseApdu response = selectOpenPgpApplet();
             if (!response.isSuccess()) {
+                // the token type tells us if the applet can be installed
+                determineTokenType();
                 throw new CardException("Initialization failed!", response.getSw());
             }
 
-            refreshConnectionCapabilities();
+            OpenPgpCapabilities openPgpCapabilities = OpenPgpCapabilities.fromBytes(readData(0x00, 0x6E));
+
+            SecurityTokenCapabilityCache capabilityCache = SecurityTokenCapabilityCache.create(context);
+            determineTokenType(capabilityCache, openPgpCapabilities.getAid());
+
+            setConnectionCapabilities(openPgpCapabilities);
 
             isPw1ValidatedForSignature = false;
             isPw1ValidatedForOther = false;
             isPw3Validated = false;
 
-            smEstablishIfAvailable(context);
+            smEstablishIfAvailable(context, capabilityCache);
         } catch (IOException e) {
             transport.release();
             throw e;
+        } finally {
+            MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+            metricsRegistry.increment(METRIC_CONNECT);
+            metricsRegistry.add(METRIC_CONNECT_APDUS, transceivedApduCount - apduCountBefore);
+        }
+    }
+
+    private ResponseApdu selectOpenPgpApplet() throws IOException {
+        CommandApdu select = commandFactory.createSelectFileOpenPgpCommand();
+        return communicate(select);  // activate connection
+    }
+
+    /**
+     * Determines the token type of a card with the given AID, which takes a round trip for
+     * tokens we haven't seen before unless the transport knows it.
+     */
+    private void determineTokenType(SecurityTokenCapabilityCache capabilityCache, byte[] aid) throws IOException {
+        tokenType = transport.getTokenTypeIfAvailable();
+        if (tokenType != null) {
+            return;
+        }
+
+        tokenType = capabilityCache.getTokenType(aid);
+        if (tokenType != null) {
+            return;
         }
+
+        determineTokenType();
+        if (tokenType == TokenType.FIDESMO) {
+            // the fidesmo applet is selected now
+            ResponseApdu response = selectOpenPgpApplet();
+            if (!response.isSuccess()) {
+                throw new CardException("Initialization failed!", response.getSw());
+            }
+        }
+        capabilityCache.putTokenType(aid, tokenType);
     }
 
     @VisibleForTesting
@@ -168,6 +218,21 @@ public class SecurityTokenConnection {
     void setConnectionCapabilities(OpenPgpCapabilities openPgpCapabilities) throws IOException {
         this.openPgpCapabilities = openPgpCapabilities;
         this.cardCapabilities = new CardCapabilities(openPgpCapabilities.getHistoricalBytes(), tokenType);
+        this.isPwStatusStale = false;
+    }
+
+    /**
+     * Re-reads only the PW status bytes, which include the pin retry counters, if they may have
+     * changed since the capabilities were read.
+     */
+    public void refreshPwStatusIfStale() throws IOException {
+        if (!isPwStatusStale) {
+            return;
+        }
+
+        byte[] pwStatusBytes = readData(0x00, 0xC4);
+        openPgpCapabilities = openPgpCapabilities.withPwStatusBytes(pwStatusBytes);
+        isPwStatusStale = false;
     }
 
     // endregion
@@ -195,20 +260,25 @@ public class SecurityTokenConnection {
         return lastResponse;
     }
 
+    private ResponseApdu transceive(CommandApdu commandApdu) throws IOException {
+        transceivedApduCount++;
+        return transport.transceive(commandApdu);
+    }
+
     @NonNull
     private ResponseApdu transceiveWithChaining(CommandApdu commandApdu) throws IOException {
         if (cardCapabilities.hasExtended()) {
-            return transport.transceive(commandApdu);
+            return transceive(commandApdu);
         } else if (commandFactory.isSuitableForShortApdu(commandApdu)) {
             CommandApdu shortApdu = commandFactory.createShortApdu(commandApdu);
-            return transport.transceive(shortApdu);
+            return transceive(shortApdu);
         } else if (cardCapabilities.hasChaining()) {
             ResponseApdu lastResponse = null;
 
             List<CommandApdu> chainedApdus = commandFactory.createChainedApdus(commandApdu);
             for (int i = 0, totalCommands = chainedApdus.size(); i < totalCommands; i++) {
                 CommandApdu chainedApdu = chainedApdus.get(i);
-                lastResponse = transport.transceive(chainedApdu);
+                lastResponse = transceive(chainedApdu);
 
                 boolean isLastCommand = (i == totalCommands - 1);
                 if (!isLastCommand && !lastResponse.isSuccess()) {
@@ -239,7 +309,7 @@ public class SecurityTokenConnection {
         do {
             // GET RESPONSE ISO/IEC 7816-4 par.7.6.1
             CommandApdu getResponse = commandFactory.createGetResponseCommand(lastResponse.getSw2());
-            lastResponse = transport.transceive(getResponse);
+            lastResponse = transceive(getResponse);
             result.write(lastResponse.getData());
         } while (lastResponse.getSw1() == APDU_SW1_RESPONSE_AVAILABLE);
 
@@ -253,14 +323,16 @@ public class SecurityTokenConnection {
 
     // region secure messaging
 
-    private void smEstablishIfAvailable(Context context) throws IOException {
+    private void smEstablishIfAvailable(Context context, SecurityTokenCapabilityCache capabilityCache)
+            throws IOException {
         if (!openPgpCapabilities.isHasScp11bSm()) {
             return;
         }
 
         try {
             long elapsedRealtimeStart = SystemClock.elapsedRealtime();
-            secureMessaging = SCP11bSecureMessaging.establish(this, context, commandFactory);
+            secureMessaging = SCP11bSecureMessaging.establish(
+                    this, context, commandFactory, capabilityCache, openPgpCapabilities.getAid());
             long elapsedTime = SystemClock.elapsedRealtime() - elapsedRealtimeStart;
             Timber.d("Established Secure Messaging in %d ms", elapsedTime);
         } catch (SecureMessagingException e) {
@@ -315,6 +387,7 @@ public class SecurityTokenConnection {
         byte[] pin = cachedPin.toStringUnsafe().getBytes();
 
         CommandApdu verifyPw1ForSignatureCommand = commandFactory.createVerifyPw1ForSignatureCommand(pin);
+        isPwStatusStale = true;
         ResponseApdu response = communicate(verifyPw1ForSignatureCommand);
         if (!response.isSuccess()) {
             throw new CardException("Bad PIN!", response.getSw());
@@ -334,6 +407,7 @@ public class SecurityTokenConnection {
         byte[] pin = cachedPin.toStringUnsafe().getBytes();
 
         CommandApdu verifyPw1ForOtherCommand = commandFactory.createVerifyPw1ForOtherCommand(pin);
+        isPwStatusStale = true;
         ResponseApdu response = communicate(verifyPw1ForOtherCommand);
         if (!response.isSuccess()) {
             throw new CardException("Bad PIN!", response.getSw());
@@ -348,6 +422,7 @@ public class SecurityTokenConnection {
         }
 
         CommandApdu verifyPw3Command = commandFactory.createVerifyPw3Command(adminPin.toStringUnsafe().getBytes());
+        isPwStatusStale = true;
         ResponseApdu response = communicate(verifyPw3Command);
         if (!response.isSuccess()) {
             throw new CardException("Bad PIN!", response.getSw());
@@ -395,6 +470,7 @@ public class SecurityTokenConnection {
         byte[] aid = openPgpCapabilities.getAid();
         String userId = parseHolderName(readUserId());
         String url = readUrl();
+        refreshPwStatusIfStale();
         int pw1TriesLeft = openPgpCapabilities.getPw1TriesLeft();
         int pw3TriesLeft = openPgpCapabilities.getPw3TriesLeft();
         boolean hasLifeCycleManagement = cardCapabilities.hasLifeCycleManagement();
@@ -427,6 +503,11 @@ public class SecurityTokenConnection {
         return commandFactory;
     }
 
+    /** Returns the number of APDUs exchanged with the token over this connection, for metrics. */
+    public int getTransceivedApduCount() {
+        return transceivedApduCount;
+    }
+
 
     private static String parseHolderName(byte[] name) {
         try {
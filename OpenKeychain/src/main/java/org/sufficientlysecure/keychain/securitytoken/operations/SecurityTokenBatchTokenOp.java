@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.securitytoken.operations;
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.support.annotation.NonNull;
+
+import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKey;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenConnection;
+
+
+/**
+ * Runs a queue of PSO:CDS, PSO:DECIPHER and INTERNAL AUTHENTICATE requests back to back in one
+ * session on the token, so they all need only a single tap and PIN entry.
+ *
+ * Before any request runs, PW1 is verified once in mode 82 if the queue holds a decipher or
+ * authenticate request, and once in mode 81 if it holds a signature. A wrong PIN thus fails the
+ * batch before the token did any work. The connection keeps both verifications for the rest of
+ * the session, except that the token may only allow one signature per verification (see PW1
+ * status byte), in which case PW1 is verified again before each further signature.
+ */
+public class SecurityTokenBatchTokenOp {
+    private final SecurityTokenConnection connection;
+    private final PsoDecryptTokenOp psoDecryptTokenOp;
+    private final SecurityTokenPsoSignTokenOp psoSignTokenOp;
+
+    private final ArrayList<QueuedRequest> queuedRequests = new ArrayList<>();
+
+    public static SecurityTokenBatchTokenOp create(SecurityTokenConnection connection) {
+        return new SecurityTokenBatchTokenOp(connection,
+                PsoDecryptTokenOp.create(connection), SecurityTokenPsoSignTokenOp.create(connection));
+    }
+
+    private SecurityTokenBatchTokenOp(SecurityTokenConnection connection, PsoDecryptTokenOp psoDecryptTokenOp,
+            SecurityTokenPsoSignTokenOp psoSignTokenOp) {
+        this.connection = connection;
+        this.psoDecryptTokenOp = psoDecryptTokenOp;
+        this.psoSignTokenOp = psoSignTokenOp;
+    }
+
+    public void addDecryptSessionKey(@NonNull byte[] encryptedSessionKeyMpi, CanonicalizedPublicKey publicKey) {
+        queuedRequests.add(new QueuedRequest(RequestType.DECIPHER, encryptedSessionKeyMpi, 0, publicKey));
+    }
+
+    public void addAuthenticationSignature(@NonNull byte[] hash, int hashAlgo) {
+        queuedRequests.add(new QueuedRequest(RequestType.AUTHENTICATE, hash, hashAlgo, null));
+    }
+
+    public void addSignature(@NonNull byte[] hash, int hashAlgo) {
+        queuedRequests.add(new QueuedRequest(RequestType.SIGN, hash, hashAlgo, null));
+    }
+
+    public boolean isEmpty() {
+        return queuedRequests.isEmpty();
+    }
+
+    /**
+     * Runs all queued requests and clears the queue.
+     *
+     * @return the decrypted session keys and signatures, in the order the requests were queued
+     */
+    public List<byte[]> execute() throws IOException {
+        boolean needsPw1ForOther = false;
+        boolean needsPw1ForSignature = false;
+        for (QueuedRequest request : queuedRequests) {
+            if (request.type == RequestType.SIGN) {
+                needsPw1ForSignature = true;
+            } else {
+                needsPw1ForOther = true;
+            }
+        }
+        if (needsPw1ForOther) {
+            connection.verifyPinForOther();
+        }
+        if (needsPw1ForSignature) {
+            connection.verifyPinForSignature();
+        }
+
+        ArrayList<byte[]> results = new ArrayList<>(queuedRequests.size());
+        for (QueuedRequest request : queuedRequests) {
+            results.add(execute(request));
+        }
+
+        queuedRequests.clear();
+        return results;
+    }
+
+    private byte[] execute(QueuedRequest request) throws IOException {
+        switch (request.type) {
+            case DECIPHER:
+                return psoDecryptTokenOp.verifyAndDecryptSessionKey(request.input, request.publicKey);
+            case AUTHENTICATE:
+                return psoSignTokenOp.calculateAuthenticationSignature(request.input, request.hashAlgo);
+            case SIGN:
+                return psoSignTokenOp.calculateSignature(request.input, request.hashAlgo);
+        }
+        throw new AssertionError("Unhandled request type");
+    }
+
+    private enum RequestType {
+        DECIPHER, AUTHENTICATE, SIGN
+    }
+
+    private static class QueuedRequest {
+        final RequestType type;
+        final byte[] input;
+        final int hashAlgo;
+        final CanonicalizedPublicKey publicKey;
+
+        QueuedRequest(RequestType type, byte[] input, int hashAlgo, CanonicalizedPublicKey publicKey) {
+            this.type = type;
+            this.input = input;
+            this.hashAlgo = hashAlgo;
+            this.publicKey = publicKey;
+        }
+    }
+}
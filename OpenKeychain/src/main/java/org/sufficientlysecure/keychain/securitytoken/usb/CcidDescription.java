@@ -38,6 +38,7 @@ abstract class CcidDescription {
     // dwFeatures Masks
     private static final int FEATURE_AUTOMATIC_VOLTAGE = 0x00008;
     private static final int FEATURE_AUTOMATIC_PPS = 0x00080;
+    private static final int FEATURE_AUTOMATIC_IFSD = 0x00400;
 
     private static final int FEATURE_EXCHANGE_LEVEL_TPDU = 0x10000;
     private static final int FEATURE_EXCHANGE_LEVEL_SHORT_APDU = 0x20000;
@@ -49,23 +50,38 @@ abstract class CcidDescription {
     private static final byte VOLTAGE_1_8V = 4;
 
     private static final int SLOT_OFFSET = 4;
+    private static final int MAX_IFSD_OFFSET = 28;
     private static final int FEATURES_OFFSET = 40;
     private static final short MASK_T0_PROTO = 1;
     private static final short MASK_T1_PROTO = 2;
 
+    // smallest dwMaxCCIDMessageLength allowed by the spec: a short APDU plus the CCID header
+    private static final int MIN_MAX_CCID_MESSAGE_LENGTH = 271;
+
     public abstract byte getMaxSlotIndex();
     public abstract byte getVoltageSupport();
     public abstract int getProtocols();
     public abstract int getFeatures();
+    /** Largest IFSD the reader supports for T=1, or 0 if not reported. */
+    public abstract int getMaxIfsd();
+    public abstract int getMaxCcidMessageLength();
 
     @VisibleForTesting
     static CcidDescription fromValues(byte maxSlotIndex, byte voltageSupport, int protocols, int features) {
-        return new AutoValue_CcidDescription(maxSlotIndex, voltageSupport, protocols, features);
+        return fromValues(maxSlotIndex, voltageSupport, protocols, features,
+                0, MIN_MAX_CCID_MESSAGE_LENGTH);
+    }
+
+    @VisibleForTesting
+    static CcidDescription fromValues(byte maxSlotIndex, byte voltageSupport, int protocols, int features,
+            int maxIfsd, int maxCcidMessageLength) {
+        return new AutoValue_CcidDescription(
+                maxSlotIndex, voltageSupport, protocols, features, maxIfsd, maxCcidMessageLength);
     }
 
     @NonNull
     static CcidDescription fromRawDescriptors(byte[] desc) throws UsbTransportException {
-        int dwProtocols = 0, dwFeatures = 0;
+        int dwProtocols = 0, dwFeatures = 0, dwMaxIFSD = 0, dwMaxCCIDMessageLength = 0;
         byte bMaxSlotIndex = 0, bVoltageSupport = 0;
 
         boolean hasCcidDescriptor = false;
@@ -86,8 +102,14 @@ abstract class CcidDescription {
 
                 byteBuffer.reset();
 
+                byteBuffer.position(byteBuffer.position() + MAX_IFSD_OFFSET);
+                dwMaxIFSD = byteBuffer.getInt();
+
+                byteBuffer.reset();
+
                 byteBuffer.position(byteBuffer.position() + FEATURES_OFFSET);
                 dwFeatures = byteBuffer.getInt();
+                dwMaxCCIDMessageLength = byteBuffer.getInt();
                 hasCcidDescriptor = true;
                 break;
             } else {
@@ -99,7 +121,13 @@ abstract class CcidDescription {
             throw new UsbTransportException("CCID descriptor not found");
         }
 
-        return new AutoValue_CcidDescription(bMaxSlotIndex, bVoltageSupport, dwProtocols, dwFeatures);
+        // some readers report nonsense here, fall back to what the spec guarantees
+        if (dwMaxCCIDMessageLength < MIN_MAX_CCID_MESSAGE_LENGTH) {
+            dwMaxCCIDMessageLength = MIN_MAX_CCID_MESSAGE_LENGTH;
+        }
+
+        return new AutoValue_CcidDescription(
+                bMaxSlotIndex, bVoltageSupport, dwProtocols, dwFeatures, dwMaxIFSD, dwMaxCCIDMessageLength);
     }
 
     Voltage[] getVoltages() {
@@ -149,6 +177,10 @@ abstract class CcidDescription {
         return hasFeature(FEATURE_AUTOMATIC_PPS);
     }
 
+    boolean hasAutomaticIfsd() {
+        return hasFeature(FEATURE_AUTOMATIC_IFSD);
+    }
+
     private boolean hasFeature(int feature) {
         return (getFeatures() & feature) != 0;
     }
@@ -60,6 +60,7 @@ public class CcidTransceiver {
     private final UsbEndpoint usbBulkOut;
     private final CcidDescription usbCcidDescription;
     private final byte[] inputBuffer;
+    private byte[] outputBuffer;
 
     private byte currentSequenceNumber;
 
@@ -72,6 +73,7 @@ public class CcidTransceiver {
         usbCcidDescription = ccidDescription;
 
         inputBuffer = new byte[usbBulkIn.getMaxPacketSize()];
+        outputBuffer = new byte[0];
     }
 
     /**
@@ -152,23 +154,47 @@ public class CcidTransceiver {
      */
     @WorkerThread
     public synchronized CcidDataBlock sendXfrBlock(byte[] payload) throws UsbTransportException {
+        return sendXfrBlock(payload, 0, payload.length);
+    }
+
+    /**
+     * Transmits XfrBlock
+     * 6.1.4 PC_to_RDR_XfrBlock
+     *
+     * The message is assembled in a buffer that is kept for subsequent calls, so callers can pass
+     * a slice of their own reused buffer without any further allocation.
+     *
+     * @param payload buffer containing the payload to transmit
+     * @param offset offset of the payload in the buffer
+     * @param length length of the payload
+     */
+    @WorkerThread
+    public synchronized CcidDataBlock sendXfrBlock(byte[] payload, int offset, int length)
+            throws UsbTransportException {
         long startTime = SystemClock.elapsedRealtime();
 
-        int l = payload.length;
+        int messageLength = CCID_HEADER_LENGTH + length;
+        if (outputBuffer.length < messageLength) {
+            outputBuffer = new byte[messageLength];
+        }
+
         byte sequenceNumber = currentSequenceNumber++;
-        byte[] headerData = {
-                MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK,
-                (byte) l, (byte) (l >> 8), (byte) (l >> 16), (byte) (l >> 24),
-                SLOT_NUMBER,
-                sequenceNumber,
-                0x00, // block waiting time
-                0x00, 0x00 // level parameters
-        };
-        byte[] data = Arrays.concatenate(headerData, payload);
+        byte[] data = outputBuffer;
+        data[0] = MESSAGE_TYPE_PC_TO_RDR_XFR_BLOCK;
+        data[1] = (byte) length;
+        data[2] = (byte) (length >> 8);
+        data[3] = (byte) (length >> 16);
+        data[4] = (byte) (length >> 24);
+        data[5] = SLOT_NUMBER;
+        data[6] = sequenceNumber;
+        data[7] = 0x00; // block waiting time
+        data[8] = 0x00; // level parameters
+        data[9] = 0x00;
+        System.arraycopy(payload, offset, data, CCID_HEADER_LENGTH, length);
 
         int sentBytes = 0;
-        while (sentBytes < data.length) {
-            int bytesToSend = Math.min(usbBulkOut.getMaxPacketSize(), data.length - sentBytes);
+        while (sentBytes < messageLength) {
+            int bytesToSend = Math.min(usbBulkOut.getMaxPacketSize(), messageLength - sentBytes);
             sendRaw(data, sentBytes, bytesToSend);
             sentBytes += bytesToSend;
         }
@@ -262,6 +288,20 @@ public class CcidTransceiver {
         return usbCcidDescription.hasAutomaticPps();
     }
 
+    public boolean hasAutomaticIfsd() {
+        return usbCcidDescription.hasAutomaticIfsd();
+    }
+
+    /** Largest IFSD the reader supports for T=1, or 0 if not reported. */
+    public int getMaxIfsd() {
+        return usbCcidDescription.getMaxIfsd();
+    }
+
+    /** Largest payload that fits into a single XfrBlock, as limited by dwMaxCCIDMessageLength. */
+    public int getMaxXfrBlockPayloadLength() {
+        return usbCcidDescription.getMaxCcidMessageLength() - CCID_HEADER_LENGTH;
+    }
+
     /** Corresponds to 6.2.1 RDR_to_PC_DataBlock. */
     @AutoValue
     public abstract static class CcidDataBlock {
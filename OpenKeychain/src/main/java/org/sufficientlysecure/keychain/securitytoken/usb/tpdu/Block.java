@@ -17,16 +17,19 @@
 
 package org.sufficientlysecure.keychain.securitytoken.usb.tpdu;
 
+import java.io.ByteArrayOutputStream;
+
 import org.bouncycastle.util.Arrays;
 import org.bouncycastle.util.encoders.Hex;
 import org.sufficientlysecure.keychain.securitytoken.usb.UsbTransportException;
 
 class Block {
-    private static final int MAX_PAYLOAD_LEN = 254;
+    static final int MAX_PAYLOAD_LEN = 254;
     private static final int OFFSET_NAD = 0;
     static final int OFFSET_PCB = 1;
     private static final int OFFSET_LEN = 2;
     private static final int OFFSET_DATA = 3;
+    static final int PROLOGUE_LENGTH = OFFSET_DATA;
 
     private final byte[] blockData;
     private final BlockChecksumAlgorithm checksumType;
@@ -36,8 +39,7 @@ class Block {
         this.blockData = data;
 
         int checksumOffset = blockData.length - checksumType.getLength();
-        byte[] checksum = checksumType.computeChecksum(data, 0, checksumOffset);
-        if (!Arrays.areEqual(checksum, getEdc())) {
+        if (!checksumType.isChecksumValid(data, 0, checksumOffset)) {
             throw new UsbTransportException("TPDU CRC doesn't match");
         }
     }
@@ -67,21 +69,33 @@ class Block {
     Block(BlockChecksumAlgorithm checksumType, byte nad, byte pcb, byte[] apdu, int offset, int length)
             throws UsbTransportException {
         this.checksumType = checksumType;
+
+        blockData = new byte[PROLOGUE_LENGTH + length + checksumType.getLength()];
+        writeBlock(checksumType, blockData, nad, pcb, apdu, offset, length);
+    }
+
+    /**
+     * Writes a block into frame, which must have room for at least the prologue, length bytes of
+     * information field and the checksum. This allows a single frame buffer to be reused for all
+     * blocks that are sent.
+     *
+     * @return length of the written block
+     */
+    static int writeBlock(BlockChecksumAlgorithm checksumType, byte[] frame, byte nad, byte pcb,
+            byte[] apdu, int offset, int length) throws UsbTransportException {
         if (length > MAX_PAYLOAD_LEN) {
             throw new IllegalArgumentException("Payload too long! " + length + " > " + MAX_PAYLOAD_LEN);
         }
 
-        int lengthWithoutChecksum = length + 3;
-        int checksumLength = this.checksumType.getLength();
+        int lengthWithoutChecksum = length + PROLOGUE_LENGTH;
 
-        blockData = new byte[lengthWithoutChecksum + checksumLength];
-        blockData[0] = nad;
-        blockData[1] = pcb;
-        blockData[2] = (byte) length;
-        System.arraycopy(apdu, offset, blockData, 3, length);
+        frame[OFFSET_NAD] = nad;
+        frame[OFFSET_PCB] = pcb;
+        frame[OFFSET_LEN] = (byte) length;
+        System.arraycopy(apdu, offset, frame, OFFSET_DATA, length);
 
-        byte[] checksum = this.checksumType.computeChecksum(blockData, 0, lengthWithoutChecksum);
-        System.arraycopy(checksum, 0, blockData, lengthWithoutChecksum, checksumLength);
+        checksumType.computeChecksum(frame, 0, lengthWithoutChecksum, frame, lengthWithoutChecksum);
+        return lengthWithoutChecksum + checksumType.getLength();
     }
 
     public byte getNad() {
@@ -108,6 +122,11 @@ class Block {
         return Arrays.copyOfRange(blockData, OFFSET_DATA, blockData.length - checksumType.getLength());
     }
 
+    /** Appends the information field to out, without copying it first. */
+    public void writeApduTo(ByteArrayOutputStream out) {
+        out.write(blockData, OFFSET_DATA, blockData.length - OFFSET_DATA - checksumType.getLength());
+    }
+
     public byte[] getRawData() {
         return blockData;
     }
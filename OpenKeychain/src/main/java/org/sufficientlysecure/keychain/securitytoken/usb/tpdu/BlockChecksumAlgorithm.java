@@ -28,16 +28,27 @@ enum BlockChecksumAlgorithm {
         mLength = length;
     }
 
-    public byte[] computeChecksum(byte[] data, int offset, int len) throws UsbTransportException {
-        if (this == LRC) {
-            byte res = 0;
-            for (int i = offset; i < len; i++) {
-                res ^= data[i];
-            }
-            return new byte[]{res};
-        } else {
+    /** Writes the checksum of len bytes of data starting at offset to out, at outOffset. */
+    public void computeChecksum(byte[] data, int offset, int len, byte[] out, int outOffset)
+            throws UsbTransportException {
+        out[outOffset] = computeLrc(data, offset, len);
+    }
+
+    /** Checks the checksum which directly follows len bytes of data starting at offset. */
+    public boolean isChecksumValid(byte[] data, int offset, int len) throws UsbTransportException {
+        return data[offset + len] == computeLrc(data, offset, len);
+    }
+
+    private byte computeLrc(byte[] data, int offset, int len) throws UsbTransportException {
+        if (this != LRC) {
             throw new UsbTransportException("CRC checksum is not implemented");
         }
+
+        byte res = 0;
+        for (int i = offset; i < offset + len; i++) {
+            res ^= data[i];
+        }
+        return res;
     }
 
     public int getLength() {
@@ -39,9 +39,11 @@ class IBlock extends Block {
     IBlock(BlockChecksumAlgorithm checksumType, byte nad, byte sequence, boolean chaining, byte[] apdu, int offset,
             int length)
             throws UsbTransportException {
-        super(checksumType, nad,
-                (byte) (((sequence & 1) << BIT_SEQUENCE) | (chaining ? 1 << BIT_CHAINING : 0)),
-                apdu, offset, length);
+        super(checksumType, nad, createPcb(sequence, chaining), apdu, offset, length);
+    }
+
+    static byte createPcb(byte sequence, boolean chaining) {
+        return (byte) (((sequence & 1) << BIT_SEQUENCE) | (chaining ? 1 << BIT_CHAINING : 0));
     }
 
     byte getSequence() {
@@ -41,7 +41,11 @@ class RBlock extends Block {
 
     RBlock(BlockChecksumAlgorithm checksumType, byte nad, byte sequence)
             throws UsbTransportException {
-        super(checksumType, nad, (byte) (MASK_VALUE_RBLOCK | ((sequence & 1) << BIT_SEQUENCE)), new byte[0], 0, 0);
+        super(checksumType, nad, createPcb(sequence), new byte[0], 0, 0);
+    }
+
+    static byte createPcb(byte sequence) {
+        return (byte) (MASK_VALUE_RBLOCK | ((sequence & 1) << BIT_SEQUENCE));
     }
 
     public RError getError() throws UsbTransportException {
@@ -25,6 +25,9 @@ class SBlock extends Block {
     static final byte MASK_SBLOCK = (byte) 0b11000000;
     static final byte MASK_VALUE_SBLOCK = (byte) 0b11000000;
 
+    static final byte PCB_IFS_REQUEST = (byte) 0b11000001;
+    static final byte PCB_IFS_RESPONSE = (byte) 0b11100001;
+
     SBlock(BlockChecksumAlgorithm checksumType, byte[] data) throws UsbTransportException {
         super(checksumType, data);
 
@@ -32,4 +35,8 @@ class SBlock extends Block {
             throw new IllegalArgumentException("Data contained incorrect block type!");
         }
     }
+
+    boolean isIfsResponse(int ifs) {
+        return getPcb() == PCB_IFS_RESPONSE && getLen() == 1 && (getApdu()[0] & 0xff) == ifs;
+    }
 }
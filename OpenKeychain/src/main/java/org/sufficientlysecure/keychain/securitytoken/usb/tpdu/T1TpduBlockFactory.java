@@ -42,12 +42,27 @@ class T1TpduBlockFactory {
         throw new UsbTransportException("TPDU Unknown block type");
     }
 
-    IBlock newIBlock(byte sequence, boolean chaining, byte[] apdu, int offset, int length)
+    int writeIBlock(byte[] frame, byte sequence, boolean chaining, byte[] apdu, int offset, int length)
             throws UsbTransportException {
-        return new IBlock(checksumType, (byte) 0, sequence, chaining, apdu, offset, length);
+        return Block.writeBlock(checksumType, frame, (byte) 0, IBlock.createPcb(sequence, chaining),
+                apdu, offset, length);
     }
 
-    RBlock createAckRBlock(byte receivedSeqNum) throws UsbTransportException {
-        return new RBlock(checksumType, (byte) 0, (byte) (receivedSeqNum + 1));
+    int writeAckRBlock(byte[] frame, byte receivedSeqNum) throws UsbTransportException {
+        return Block.writeBlock(checksumType, frame, (byte) 0, RBlock.createPcb((byte) (receivedSeqNum + 1)),
+                frame, 0, 0);
+    }
+
+    int writeIfsRequestSBlock(byte[] frame, int ifs) throws UsbTransportException {
+        return Block.writeBlock(checksumType, frame, (byte) 0, SBlock.PCB_IFS_REQUEST,
+                new byte[] { (byte) ifs }, 0, 1);
+    }
+
+    int getMaxFrameLength() {
+        return Block.PROLOGUE_LENGTH + Block.MAX_PAYLOAD_LEN + checksumType.getLength();
+    }
+
+    int getMaxPayloadLength(int maxFrameLength) {
+        return maxFrameLength - Block.PROLOGUE_LENGTH - checksumType.getLength();
     }
 }
@@ -18,6 +18,8 @@
 package org.sufficientlysecure.keychain.securitytoken.usb.tpdu;
 
 
+import java.io.ByteArrayOutputStream;
+
 import android.support.annotation.NonNull;
 
 import org.bouncycastle.util.Arrays;
@@ -31,17 +33,30 @@ import timber.log.Timber;
 /* T=1 Protocol, see http://www.icedev.se/proxmark3/docs/ISO-7816.pdf, Part 11 */
 public class T1TpduProtocol implements CcidTransportProtocol {
     private final static int MAX_FRAME_LEN = 254;
+    private final static int DEFAULT_IFSD = 32;
 
     private static final byte PPS_PPPSS = (byte) 0xFF;
     private static final byte PPS_PPS0_T1 = 1;
     @SuppressWarnings("PointlessBitwiseExpression") // constructed per spec
     private static final byte PPS_PCK = (byte) (PPS_PPPSS ^ PPS_PPS0_T1);
 
+    private static final int ATR_MASK_TA = 0x10;
+    private static final int ATR_MASK_TB = 0x20;
+    private static final int ATR_MASK_TC = 0x40;
+    private static final int ATR_MASK_TD = 0x80;
+    private static final int ATR_PROTOCOL_T1 = 1;
+
     private CcidTransceiver ccidTransceiver;
     private T1TpduBlockFactory blockFactory;
 
     private byte sequenceCounter = 0;
 
+    // information field size of the card, i.e. the largest block we may send
+    private int ifsc;
+    // reused for all sent blocks and received responses, to avoid allocations per block
+    private byte[] frameBuffer;
+    private final ByteArrayOutputStream responseBuffer = new ByteArrayOutputStream();
+
 
     public void connect(@NonNull CcidTransceiver ccidTransceiver) throws UsbTransportException {
         if (this.ccidTransceiver != null) {
@@ -49,15 +64,22 @@ public class T1TpduProtocol implements CcidTransportProtocol {
         }
         this.ccidTransceiver = ccidTransceiver;
 
-        this.ccidTransceiver.iccPowerOn();
+        CcidDataBlock atrBlock = this.ccidTransceiver.iccPowerOn();
+        ifsc = getIfscFromAtr(atrBlock.getData());
 
         // TODO: set checksum from atr
         blockFactory = new T1TpduBlockFactory(BlockChecksumAlgorithm.LRC);
+        frameBuffer = new byte[blockFactory.getMaxFrameLength()];
 
         boolean skipPpsExchange = ccidTransceiver.hasAutomaticPps();
         if (!skipPpsExchange) {
             performPpsExchange();
         }
+
+        boolean skipIfsdExchange = ccidTransceiver.hasAutomaticIfsd();
+        if (!skipIfsdExchange) {
+            performIfsdExchange();
+        }
     }
 
     private void performPpsExchange() throws UsbTransportException {
@@ -71,6 +93,73 @@ public class T1TpduProtocol implements CcidTransportProtocol {
         }
     }
 
+    /**
+     * Tells the card the largest block we can receive, so it sends long responses in as few
+     * blocks as the reader allows, instead of blocks of the default IFSD of 32 bytes.
+     * See ISO-7816-3, 11.4.2 and 11.6.2.3
+     */
+    private void performIfsdExchange() throws UsbTransportException {
+        int ifsd = Math.min(MAX_FRAME_LEN,
+                blockFactory.getMaxPayloadLength(ccidTransceiver.getMaxXfrBlockPayloadLength()));
+        int readerMaxIfsd = ccidTransceiver.getMaxIfsd();
+        if (readerMaxIfsd > 0) {
+            ifsd = Math.min(ifsd, readerMaxIfsd);
+        }
+        if (ifsd <= DEFAULT_IFSD) {
+            return;
+        }
+
+        int frameLength = blockFactory.writeIfsRequestSBlock(frameBuffer, ifsd);
+        CcidDataBlock response = ccidTransceiver.sendXfrBlock(frameBuffer, 0, frameLength);
+        Block responseBlock = blockFactory.fromBytes(response.getData());
+
+        if (responseBlock instanceof SBlock && ((SBlock) responseBlock).isIfsResponse(ifsd)) {
+            Timber.d("T=1 IFSD set to " + ifsd);
+        } else {
+            Timber.w("T=1 IFSD negotiation not accepted, response " + responseBlock);
+        }
+    }
+
+    /**
+     * Returns the IFSC from the first TA byte for T=1 in the ATR. See ISO-7816-3, 8.2.3 and 11.4.2
+     *
+     * If the ATR does not specify it, we keep sending blocks of the maximum size, which is what
+     * all supported tokens accept.
+     */
+    private static int getIfscFromAtr(byte[] atr) {
+        if (atr == null || atr.length < 2) {
+            return MAX_FRAME_LEN;
+        }
+
+        int offset = 1;
+        int indicator = atr[offset++] & 0xff;
+        boolean isT1InterfaceByteGroup = false;
+        for (int i = 1; ; i++) {
+            int ta = -1;
+            if ((indicator & ATR_MASK_TA) != 0 && offset < atr.length) {
+                ta = atr[offset++] & 0xff;
+            }
+            if ((indicator & ATR_MASK_TB) != 0) {
+                offset++;
+            }
+            if ((indicator & ATR_MASK_TC) != 0) {
+                offset++;
+            }
+
+            // TA2 is the specific mode byte, only TA3 and later may be IFSC
+            if (i >= 3 && isT1InterfaceByteGroup) {
+                return ta >= 1 && ta <= MAX_FRAME_LEN ? ta : MAX_FRAME_LEN;
+            }
+
+            if ((indicator & ATR_MASK_TD) == 0 || offset >= atr.length) {
+                return MAX_FRAME_LEN;
+            }
+            int td = atr[offset++] & 0xff;
+            indicator = td;
+            isT1InterfaceByteGroup = (td & 0x0f) == ATR_PROTOCOL_T1;
+        }
+    }
+
     public byte[] transceive(@NonNull byte[] apdu) throws UsbTransportException {
         if (this.ccidTransceiver == null) {
             throw new IllegalStateException("Protocol not connected!");
@@ -87,11 +176,11 @@ public class T1TpduProtocol implements CcidTransportProtocol {
     private IBlock sendChainedData(@NonNull byte[] apdu) throws UsbTransportException {
         int sentLength = 0;
         while (sentLength < apdu.length) {
-            boolean hasMore = sentLength + MAX_FRAME_LEN < apdu.length;
-            int len = Math.min(MAX_FRAME_LEN, apdu.length - sentLength);
+            boolean hasMore = sentLength + ifsc < apdu.length;
+            int len = Math.min(ifsc, apdu.length - sentLength);
 
-            Block sendBlock = blockFactory.newIBlock(sequenceCounter++, hasMore, apdu, sentLength, len);
-            CcidDataBlock response = ccidTransceiver.sendXfrBlock(sendBlock.getRawData());
+            int frameLength = blockFactory.writeIBlock(frameBuffer, sequenceCounter++, hasMore, apdu, sentLength, len);
+            CcidDataBlock response = ccidTransceiver.sendXfrBlock(frameBuffer, 0, frameLength);
             Block responseBlock = blockFactory.fromBytes(response.getData());
 
             sentLength += len;
@@ -116,13 +205,14 @@ public class T1TpduProtocol implements CcidTransportProtocol {
     }
 
     private byte[] receiveChainedResponse(IBlock responseIBlock) throws UsbTransportException {
-        byte[] responseApdu = responseIBlock.getApdu();
+        responseBuffer.reset();
+        responseIBlock.writeApduTo(responseBuffer);
 
         while (responseIBlock.getChaining()) {
             byte receivedSeqNum = responseIBlock.getSequence();
 
-            Block ackBlock = blockFactory.createAckRBlock(receivedSeqNum);
-            CcidDataBlock response = ccidTransceiver.sendXfrBlock(ackBlock.getRawData());
+            int frameLength = blockFactory.writeAckRBlock(frameBuffer, receivedSeqNum);
+            CcidDataBlock response = ccidTransceiver.sendXfrBlock(frameBuffer, 0, frameLength);
             Block responseBlock = blockFactory.fromBytes(response.getData());
 
             if (!(responseBlock instanceof IBlock)) {
@@ -131,9 +221,9 @@ public class T1TpduProtocol implements CcidTransportProtocol {
             }
 
             responseIBlock = (IBlock) responseBlock;
-            responseApdu = Arrays.concatenate(responseApdu, responseBlock.getApdu());
+            responseIBlock.writeApduTo(responseBuffer);
         }
 
-        return responseApdu;
+        return responseBuffer.toByteArray();
     }
 }
@@ -18,15 +18,107 @@
 package org.sufficientlysecure.keychain.service;
 
 
+import java.util.Collections;
+import java.util.List;
+
 import android.os.Parcelable;
 
 import com.google.auto.value.AutoValue;
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
 
 
+/**
+ * The benchmark runs every combination of the listed ciphers, hashes, compression
+ * algorithms, key types and payload sizes. Each of these cells is run a number of
+ * warm-up iterations, which are discarded, before the measured iterations. The
+ * compression and recipient benchmarks take a while, and only run if asked for.
+ */
 @AutoValue
 public abstract class BenchmarkInputParcel implements Parcelable {
+    /**
+     * The key a cell signs and encrypts with. Each key has a signing and an encryption subkey of
+     * the same kind, the way OpenKeychain creates them. ED25519 encrypts with a NIST P-256 ECDH
+     * subkey, there is no Curve25519 ECDH key generation. SYMMETRIC encrypts with a passphrase and
+     * does not sign, so it is run with the first hash algorithm only.
+     */
+    public enum BenchmarkKeyType {
+        SYMMETRIC, RSA_2048, RSA_4096, NIST_P256, NIST_P384, NIST_P521, ED25519
+    }
+
+    public abstract List<Integer> getSymmetricAlgorithms();
+    public abstract List<Integer> getHashAlgorithms();
+    public abstract List<Integer> getCompressionAlgorithms();
+    public abstract List<BenchmarkKeyType> getKeyTypes();
+    public abstract List<Integer> getPayloadSizes();
+
+    public abstract int getWarmupIterations();
+    public abstract int getMeasuredIterations();
+
+    /** Encrypts a mixed corpus of 8MB with and without adaptive compression. */
+    public abstract boolean isBenchmarkCompression();
+    /** Encrypts a message to 10, 100 and 500 recipients, sequentially and in parallel. */
+    public abstract boolean isBenchmarkRecipients();
+
+    public int getCellCount() {
+        int cellsPerHash = getSymmetricAlgorithms().size() * getCompressionAlgorithms().size()
+                * getPayloadSizes().size();
+        int cellCount = 0;
+        for (BenchmarkKeyType keyType : getKeyTypes()) {
+            cellCount += cellsPerHash * getHashAlgorithms(keyType).size();
+        }
+        return cellCount;
+    }
 
+    /** The hash algorithms a cell with this key type is run with. */
+    public List<Integer> getHashAlgorithms(BenchmarkKeyType keyType) {
+        if (keyType == BenchmarkKeyType.SYMMETRIC) {
+            return getHashAlgorithms().subList(0, Math.min(1, getHashAlgorithms().size()));
+        }
+        return getHashAlgorithms();
+    }
+
+    /**
+     * The default benchmark, a single cell which encrypts 10MB with a passphrase and AES-128
+     * five times, as the benchmark always did. It needs no key generation.
+     */
     public static BenchmarkInputParcel newInstance() {
-        return new AutoValue_BenchmarkInputParcel();
+        return builder().build();
+    }
+
+    public static Builder builder() {
+        return new AutoValue_BenchmarkInputParcel.Builder()
+                .setSymmetricAlgorithms(Collections.singletonList(SymmetricKeyAlgorithmTags.AES_128))
+                .setHashAlgorithms(Collections.singletonList(HashAlgorithmTags.SHA512))
+                .setCompressionAlgorithms(Collections.singletonList(CompressionAlgorithmTags.ZIP))
+                .setKeyTypes(Collections.singletonList(BenchmarkKeyType.SYMMETRIC))
+                .setPayloadSizes(Collections.singletonList(10 * 1024 * 1024))
+                .setWarmupIterations(0)
+                .setMeasuredIterations(5)
+                .setBenchmarkCompression(false)
+                .setBenchmarkRecipients(false);
+    }
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder setSymmetricAlgorithms(List<Integer> symmetricAlgorithms);
+        public abstract Builder setHashAlgorithms(List<Integer> hashAlgorithms);
+        public abstract Builder setCompressionAlgorithms(List<Integer> compressionAlgorithms);
+        public abstract Builder setKeyTypes(List<BenchmarkKeyType> keyTypes);
+        public abstract Builder setPayloadSizes(List<Integer> payloadSizes);
+        public abstract Builder setWarmupIterations(int warmupIterations);
+        public abstract Builder setMeasuredIterations(int measuredIterations);
+        public abstract Builder setBenchmarkCompression(boolean benchmarkCompression);
+        public abstract Builder setBenchmarkRecipients(boolean benchmarkRecipients);
+
+        abstract BenchmarkInputParcel autoBuild();
+        public BenchmarkInputParcel build() {
+            BenchmarkInputParcel parcel = autoBuild();
+            if (parcel.getMeasuredIterations() < 1 || parcel.getWarmupIterations() < 0) {
+                throw new IllegalArgumentException("need at least one measured iteration");
+            }
+            return parcel;
+        }
     }
-}
\ No newline at end of file
+}
@@ -30,8 +30,10 @@ import android.support.v4.os.CancellationSignal;
 import org.sufficientlysecure.keychain.KeychainApplication;
 import org.sufficientlysecure.keychain.analytics.AnalyticsManager;
 import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.operations.BackupOperation;
 import org.sufficientlysecure.keychain.operations.BaseOperation;
+import org.sufficientlysecure.keychain.operations.BaseReadWriteOperation;
 import org.sufficientlysecure.keychain.operations.BenchmarkOperation;
 import org.sufficientlysecure.keychain.operations.CertifyOperation;
 import org.sufficientlysecure.keychain.operations.ChangeUnlockOperation;
@@ -51,6 +53,7 @@ import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyInputParcel;
 import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyOperation;
 import org.sufficientlysecure.keychain.pgp.Progressable;
 import org.sufficientlysecure.keychain.pgp.SignEncryptParcel;
+import org.sufficientlysecure.keychain.service.OperationScheduler.Lane;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 
 
@@ -74,98 +77,18 @@ public class KeychainServiceTask {
     private final Context context;
     private final KeyWritableRepository keyRepository;
 
-    @SuppressLint("StaticFieldLeak")
     public CancellationSignal startOperationInBackground(
             Parcelable inputParcel, CryptoInputParcel cryptoInput, OperationCallback operationCallback) {
         AtomicBoolean operationCancelledBoolean = new AtomicBoolean(false);
 
-        AsyncTask<Void, ProgressUpdate, OperationResult> asyncTask =
-                new AsyncTask<Void, ProgressUpdate, OperationResult>() {
-                    @Override
-                    protected OperationResult doInBackground(Void... voids) {
-                        BaseOperation op;
-
-                        if (inputParcel instanceof SignEncryptParcel) {
-                            op = new SignEncryptOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof PgpDecryptVerifyInputParcel) {
-                            op = new PgpDecryptVerifyOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof SaveKeyringParcel) {
-                            op = new EditKeyOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof ChangeUnlockParcel) {
-                            op = new ChangeUnlockOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof RevokeKeyringParcel) {
-                            op = new RevokeOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof CertifyActionsParcel) {
-                            op = new CertifyOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof DeleteKeyringParcel) {
-                            op = new DeleteOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof PromoteKeyringParcel) {
-                            op = new PromoteKeyOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof ImportKeyringParcel) {
-                            op = new ImportOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof BackupKeyringParcel) {
-                            op = new BackupOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof UploadKeyringParcel) {
-                            op = new UploadOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else if (inputParcel instanceof KeybaseVerificationParcel) {
-                            op = new KeybaseVerificationOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof InputDataParcel) {
-                            op = new InputDataOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof BenchmarkInputParcel) {
-                            op = new BenchmarkOperation(context, keyRepository, asyncProgressable);
-                        } else if (inputParcel instanceof KeySyncParcel) {
-                            op = new KeySyncOperation(context, keyRepository, asyncProgressable,
-                                    operationCancelledBoolean);
-                        } else {
-                            throw new AssertionError("Unrecognized input parcel in KeychainService!");
-                        }
-
-                        if (isCancelled()) {
-                            return null;
-                        }
-
-                        analyticsManager.trackInternalServiceCall(op.getClass().getSimpleName());
-
-                        // noinspection unchecked, we make sure it's the correct op above
-                        return op.execute(inputParcel, cryptoInput);
-                    }
-
-                    Progressable asyncProgressable = new Progressable() {
-                        @Override
-                        public void setPreventCancel() {
-                            publishProgress((ProgressUpdate) null);
-                        }
-
-                        @Override
-                        public void setProgress(Integer resourceId, int current, int total) {
-                            publishProgress(new ProgressUpdate(resourceId, current, total));
-                        }
-                    };
-
-                    @Override
-                    protected void onProgressUpdate(ProgressUpdate... values) {
-                        ProgressUpdate progressUpdate = values[0];
-                        if (progressUpdate == null) {
-                            operationCallback.setPreventCancel();
-                        } else {
-                            operationCallback.setProgress(progressUpdate.resourceId, progressUpdate.current,
-                                    progressUpdate.total);
-                        }
-                    }
-
-                    @Override
-                    protected void onPostExecute(OperationResult result) {
-                        operationCallback.operationFinished(result);
-                    }
-                };
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        OperationAsyncTask asyncTask = new OperationAsyncTask(inputParcel, cryptoInput, operationCallback);
+        BaseOperation op = createOperation(inputParcel, asyncTask.asyncProgressable, operationCancelledBoolean);
+        asyncTask.op = op;
+
+        Lane lane = getLane(inputParcel);
+        boolean exclusiveWriter = op instanceof BaseReadWriteOperation;
+        // nothing started from here is retried when cancelled, so it must not be preempted
+        asyncTask.executeOnExecutor(OperationScheduler.getInstance().getExecutor(lane, exclusiveWriter, null));
 
         CancellationSignal cancellationSignal = new CancellationSignal();
         cancellationSignal.setOnCancelListener(() -> {
@@ -174,6 +97,116 @@ public class KeychainServiceTask {
         return cancellationSignal;
     }
 
+    private BaseOperation createOperation(
+            Parcelable inputParcel, Progressable asyncProgressable, AtomicBoolean operationCancelledBoolean) {
+        if (inputParcel instanceof SignEncryptParcel) {
+            return new SignEncryptOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof PgpDecryptVerifyInputParcel) {
+            return new PgpDecryptVerifyOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof SaveKeyringParcel) {
+            return new EditKeyOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof ChangeUnlockParcel) {
+            return new ChangeUnlockOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof RevokeKeyringParcel) {
+            return new RevokeOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof CertifyActionsParcel) {
+            return new CertifyOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof DeleteKeyringParcel) {
+            return new DeleteOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof PromoteKeyringParcel) {
+            return new PromoteKeyOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof ImportKeyringParcel) {
+            return new ImportOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof BackupKeyringParcel) {
+            return new BackupOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof UploadKeyringParcel) {
+            return new UploadOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof KeybaseVerificationParcel) {
+            return new KeybaseVerificationOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof InputDataParcel) {
+            return new InputDataOperation(context, keyRepository, asyncProgressable);
+        } else if (inputParcel instanceof BenchmarkInputParcel) {
+            return new BenchmarkOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else if (inputParcel instanceof KeySyncParcel) {
+            return new KeySyncOperation(context, keyRepository, asyncProgressable, operationCancelledBoolean);
+        } else {
+            throw new AssertionError("Unrecognized input parcel in KeychainService!");
+        }
+    }
+
+    /**
+     * Bulk operations that nobody is actively waiting on must not hold up interactive ones. A
+     * KeySyncParcel from here is a refresh the user asked for, the scheduled sync runs in
+     * KeyserverSyncWorker.
+     */
+    private static Lane getLane(Parcelable inputParcel) {
+        if (inputParcel instanceof ImportKeyringParcel || inputParcel instanceof BackupKeyringParcel || inputParcel instanceof UploadKeyringParcel
+                || inputParcel instanceof BenchmarkInputParcel) {
+            return Lane.BACKGROUND;
+        }
+        return Lane.INTERACTIVE;
+    }
+
+    @SuppressLint("StaticFieldLeak")
+    private class OperationAsyncTask extends AsyncTask<Void, ProgressUpdate, OperationResult> {
+        private final Parcelable inputParcel;
+        private final CryptoInputParcel cryptoInput;
+        private final OperationCallback operationCallback;
+        private BaseOperation op;
+
+        OperationAsyncTask(Parcelable inputParcel, CryptoInputParcel cryptoInput,
+                OperationCallback operationCallback) {
+            this.inputParcel = inputParcel;
+            this.cryptoInput = cryptoInput;
+            this.operationCallback = operationCallback;
+        }
+
+        @Override
+        protected OperationResult doInBackground(Void... voids) {
+            if (isCancelled()) {
+                return null;
+            }
+
+            analyticsManager.trackInternalServiceCall(op.getClass().getSimpleName());
+
+            long startTime = System.nanoTime();
+            // noinspection unchecked, we make sure it's the correct op in createOperation
+            OperationResult result = op.execute(inputParcel, cryptoInput);
+            MetricsRegistry.getInstance().recordNanos(
+                    MetricsRegistry.OPERATION + op.getClass().getSimpleName(),
+                    System.nanoTime() - startTime);
+            return result;
+        }
+
+        final Progressable asyncProgressable = new Progressable() {
+            @Override
+            public void setPreventCancel() {
+                publishProgress((ProgressUpdate) null);
+            }
+
+            @Override
+            public void setProgress(Integer resourceId, int current, int total) {
+                publishProgress(new ProgressUpdate(resourceId, current, total));
+            }
+        };
+
+        @Override
+        protected void onProgressUpdate(ProgressUpdate... values) {
+            ProgressUpdate progressUpdate = values[0];
+            if (progressUpdate == null) {
+                operationCallback.setPreventCancel();
+            } else {
+                operationCallback.setProgress(progressUpdate.resourceId, progressUpdate.current,
+                        progressUpdate.total);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(OperationResult result) {
+            operationCallback.operationFinished(result);
+        }
+    }
+
     public interface OperationCallback {
         void setProgress(Integer message, int current, int total);
         void setPreventCancel();
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.service;
+
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.support.annotation.Nullable;
+
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
+import timber.log.Timber;
+
+
+/**
+ * Schedules operations on a bounded set of worker threads, in two lanes.
+ *
+ * Interactive operations are preferred, but after a burst of them a waiting background
+ * operation gets its turn, so neither lane starves. Background operations can never take
+ * the last worker, so an interactive operation only waits for other interactive ones.
+ * Operations that write to the database run one at a time. If an interactive writer waits
+ * for a background writer that is marked as preemptible, the background writer is asked
+ * to stop through its cancellation flag.
+ */
+public class OperationScheduler {
+    public enum Lane {
+        INTERACTIVE, BACKGROUND
+    }
+
+    public static final String METRIC_WAIT = MetricsRegistry.SCHEDULER + "wait.";
+    public static final String METRIC_PREEMPTED = MetricsRegistry.SCHEDULER + "preempted";
+
+    private static final int INTERACTIVE_BURST = 4;
+
+    private static OperationScheduler instance;
+
+    public static synchronized OperationScheduler getInstance() {
+        if (instance == null) {
+            int maxConcurrent = Math.max(2, Runtime.getRuntime().availableProcessors());
+            instance = new OperationScheduler(maxConcurrent, createWorkerPool());
+        }
+        return instance;
+    }
+
+    private final int maxConcurrent;
+    private final Executor workerExecutor;
+
+    private final ArrayDeque<ScheduledTask> interactiveQueue = new ArrayDeque<>();
+    private final ArrayDeque<ScheduledTask> backgroundQueue = new ArrayDeque<>();
+    private int runningCount;
+    private int runningBackgroundCount;
+    private ScheduledTask runningWriter;
+    private int interactiveBurstCount;
+
+    OperationScheduler(int maxConcurrent, Executor workerExecutor) {
+        if (maxConcurrent < 2) {
+            throw new IllegalArgumentException("at least two workers are required to reserve one for interactive use");
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.workerExecutor = workerExecutor;
+    }
+
+    /**
+     * Returns an executor that runs its tasks in the given lane.
+     *
+     * @param exclusiveWriter whether the task must not run concurrently with other writers
+     * @param preemptionFlag if not null, this flag is set when an interactive writer waits for this task
+     */
+    public Executor getExecutor(Lane lane, boolean exclusiveWriter, @Nullable AtomicBoolean preemptionFlag) {
+        return runnable -> enqueue(new ScheduledTask(runnable, lane, exclusiveWriter, preemptionFlag));
+    }
+
+    public synchronized int getQueueDepth(Lane lane) {
+        return getQueue(lane).size();
+    }
+
+    public synchronized int getRunningCount() {
+        return runningCount;
+    }
+
+    private synchronized void enqueue(ScheduledTask task) {
+        getQueue(task.lane).addLast(task);
+        scheduleNext();
+    }
+
+    private synchronized void onTaskFinished(ScheduledTask task) {
+        runningCount--;
+        if (task.lane == Lane.BACKGROUND) {
+            runningBackgroundCount--;
+        }
+        if (runningWriter == task) {
+            runningWriter = null;
+        }
+        scheduleNext();
+    }
+
+    private void scheduleNext() {
+        while (runningCount < maxConcurrent) {
+            ScheduledTask interactiveTask = findRunnableTask(interactiveQueue);
+            ScheduledTask backgroundTask = runningBackgroundCount < maxConcurrent - 1 ?
+                    findRunnableTask(backgroundQueue) : null;
+
+            ScheduledTask task;
+            if (interactiveTask != null && (backgroundTask == null || interactiveBurstCount < INTERACTIVE_BURST)) {
+                task = interactiveTask;
+                interactiveBurstCount++;
+            } else if (backgroundTask != null) {
+                task = backgroundTask;
+                interactiveBurstCount = 0;
+            } else {
+                break;
+            }
+            startTask(task);
+        }
+
+        preemptBackgroundWriterIfNecessary();
+    }
+
+    /** Returns the first task in the queue that may start now, in FIFO order. */
+    private ScheduledTask findRunnableTask(ArrayDeque<ScheduledTask> queue) {
+        for (ScheduledTask task : queue) {
+            if (!task.exclusiveWriter || runningWriter == null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    private void startTask(ScheduledTask task) {
+        getQueue(task.lane).remove(task);
+        runningCount++;
+        if (task.lane == Lane.BACKGROUND) {
+            runningBackgroundCount++;
+        }
+        if (task.exclusiveWriter) {
+            runningWriter = task;
+        }
+
+        long waitNanos = System.nanoTime() - task.enqueueTime;
+        MetricsRegistry.getInstance().recordNanos(METRIC_WAIT + task.lane.name().toLowerCase(Locale.ENGLISH), waitNanos);
+
+        workerExecutor.execute(() -> {
+            try {
+                task.runnable.run();
+            } finally {
+                onTaskFinished(task);
+            }
+        });
+    }
+
+    private void preemptBackgroundWriterIfNecessary() {
+        if (runningWriter == null || runningWriter.lane != Lane.BACKGROUND || runningWriter.preemptionFlag == null) {
+            return;
+        }
+        for (ScheduledTask task : interactiveQueue) {
+            if (task.exclusiveWriter) {
+                if (!runningWriter.preemptionFlag.getAndSet(true)) {
+                    Timber.d("Preempting background writer for interactive operation");
+                    MetricsRegistry.getInstance().increment(METRIC_PREEMPTED);
+                }
+                return;
+            }
+        }
+    }
+
+    private ArrayDeque<ScheduledTask> getQueue(Lane lane) {
+        return lane == Lane.INTERACTIVE ? interactiveQueue : backgroundQueue;
+    }
+
+    private static ExecutorService createWorkerPool() {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "OperationScheduler #" + threadCount.incrementAndGet());
+            }
+        };
+        // concurrency is bounded by the scheduler, threads are only kept around while in use
+        return Executors.newCachedThreadPool(threadFactory);
+    }
+
+    private static class ScheduledTask {
+        final Runnable runnable;
+        final Lane lane;
+        final boolean exclusiveWriter;
+        final AtomicBoolean preemptionFlag;
+        final long enqueueTime = System.nanoTime();
+
+        ScheduledTask(Runnable runnable, Lane lane, boolean exclusiveWriter, AtomicBoolean preemptionFlag) {
+            this.runnable = runnable;
+            this.lane = lane;
+            this.exclusiveWriter = exclusiveWriter;
+            this.preemptionFlag = preemptionFlag;
+        }
+    }
+}
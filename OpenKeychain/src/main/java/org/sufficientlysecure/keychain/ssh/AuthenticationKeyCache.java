@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.ssh;
+
+
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import android.os.SystemClock;
+
+import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKey;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKey;
+import org.sufficientlysecure.keychain.pgp.SshPublicKey;
+import org.sufficientlysecure.keychain.pgp.exception.PgpGeneralException;
+
+
+/**
+ * Process-wide cache of prepared authentication keys, so that repeated ssh requests for the
+ * same key don't query the database and parse the public keyring again. Passphrases stay in
+ * the PassphraseCacheService. An unlocked authentication key is kept only while that cache
+ * holds its passphrase: AuthenticationOperation asks it on every request, and drops the key
+ * as soon as it doesn't return one.
+ *
+ * Entries are dropped whenever any key is saved or deleted, in this or any other process, see
+ * KeyRepository.getKeyChangeGeneration. Since which subkey is effective for authentication also
+ * depends on the current time, entries are only used for a limited time and while their
+ * authentication subkey is still valid.
+ */
+public class AuthenticationKeyCache {
+    public static final String METRIC_PREPARED_KEY = MetricsRegistry.API_SSH + "prepared_key";
+    public static final String METRIC_UNLOCKED_KEY = MetricsRegistry.API_SSH + "unlocked_key";
+
+    private static final long MAX_AGE_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final AuthenticationKeyCache INSTANCE = new AuthenticationKeyCache();
+
+    public static AuthenticationKeyCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentHashMap<Long, PreparedAuthenticationKey> preparedKeys = new ConcurrentHashMap<>();
+
+    AuthenticationKeyCache() {
+    }
+
+    public PreparedAuthenticationKey getPreparedKey(KeyRepository keyRepository, long masterKeyId)
+            throws NotFoundException {
+        // read before loading, so a key changed while we load is reloaded on the next request
+        long generation = KeyRepository.getKeyChangeGeneration();
+        long now = SystemClock.elapsedRealtime();
+
+        PreparedAuthenticationKey preparedKey = preparedKeys.get(masterKeyId);
+        boolean isHit = preparedKey != null && preparedKey.isUsable(generation, now);
+        MetricsRegistry.getInstance().recordCacheAccess(METRIC_PREPARED_KEY, isHit);
+        if (isHit) {
+            return preparedKey;
+        }
+
+        try {
+            preparedKey = PreparedAuthenticationKey.load(keyRepository, masterKeyId, generation, now);
+        } catch (NotFoundException e) {
+            preparedKeys.remove(masterKeyId);
+            throw e;
+        }
+        preparedKeys.put(masterKeyId, preparedKey);
+        return preparedKey;
+    }
+
+    public void clear() {
+        preparedKeys.clear();
+    }
+
+    /** The effective authentication subkey of a master key, with its encodings for the ssh api. */
+    public static class PreparedAuthenticationKey {
+        private final long masterKeyId;
+        private final long authSubKeyId;
+        private final CanonicalizedPublicKey authPublicKey;
+        private final long generation;
+        private final long preparedAt;
+
+        private String sshPublicKeyBlob;
+        private PublicKey jcaPublicKey;
+        private byte[] encodedJcaPublicKey;
+        private CanonicalizedSecretKey unlockedAuthKey;
+
+        private PreparedAuthenticationKey(long masterKeyId, long authSubKeyId, CanonicalizedPublicKey authPublicKey,
+                long generation, long preparedAt) {
+            this.masterKeyId = masterKeyId;
+            this.authSubKeyId = authSubKeyId;
+            this.authPublicKey = authPublicKey;
+            this.generation = generation;
+            this.preparedAt = preparedAt;
+        }
+
+        static PreparedAuthenticationKey load(KeyRepository keyRepository, long masterKeyId, long generation,
+                long now) throws NotFoundException {
+            long authSubKeyId = keyRepository.getEffectiveAuthenticationKeyId(masterKeyId);
+            CanonicalizedPublicKey authPublicKey =
+                    keyRepository.getCanonicalizedPublicKeyRing(masterKeyId).getPublicKey(authSubKeyId);
+            return new PreparedAuthenticationKey(masterKeyId, authSubKeyId, authPublicKey, generation, now);
+        }
+
+        boolean isUsable(long currentGeneration, long now) {
+            return generation == currentGeneration && now - preparedAt < MAX_AGE_MILLIS && authPublicKey.isValid();
+        }
+
+        public long getMasterKeyId() {
+            return masterKeyId;
+        }
+
+        public long getAuthSubKeyId() {
+            return authSubKeyId;
+        }
+
+        public CanonicalizedPublicKey getAuthPublicKey() {
+            return authPublicKey;
+        }
+
+        public int getAlgorithm() {
+            return authPublicKey.getAlgorithm();
+        }
+
+        public String getCurveOid() {
+            return authPublicKey.getCurveOid();
+        }
+
+        public synchronized String getSshPublicKeyBlob() throws PgpGeneralException, NoSuchAlgorithmException {
+            if (sshPublicKeyBlob == null) {
+                sshPublicKeyBlob = new SshPublicKey(authPublicKey).getEncodedKey();
+            }
+            return sshPublicKeyBlob;
+        }
+
+        public synchronized PublicKey getJcaPublicKey() throws PgpGeneralException {
+            if (jcaPublicKey == null) {
+                jcaPublicKey = authPublicKey.getJcaPublicKey();
+            }
+            return jcaPublicKey;
+        }
+
+        /**
+         * Returns the authentication key as unlocked by an earlier request, or null. It must only
+         * be used after the passphrase cache returned its passphrase for this request.
+         */
+        public synchronized CanonicalizedSecretKey getUnlockedAuthKey() {
+            return unlockedAuthKey;
+        }
+
+        public synchronized void setUnlockedAuthKey(CanonicalizedSecretKey unlockedAuthKey) {
+            this.unlockedAuthKey = unlockedAuthKey;
+        }
+
+        public synchronized void dropUnlockedAuthKey() {
+            unlockedAuthKey = null;
+        }
+
+        /** Returns the X.509 encoding of the public key. The returned array must not be modified. */
+        public synchronized byte[] getEncodedJcaPublicKey() throws PgpGeneralException {
+            if (encodedJcaPublicKey == null) {
+                encodedJcaPublicKey = getJcaPublicKey().getEncoded();
+            }
+            return encodedJcaPublicKey;
+        }
+    }
+}
@@ -26,6 +26,8 @@ import android.support.annotation.NonNull;
 import org.bouncycastle.openpgp.AuthenticationSignatureGenerator;
 import org.bouncycastle.openpgp.PGPException;
 import org.bouncycastle.openpgp.operator.jcajce.NfcSyncPGPContentSignerBuilder;
+import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.operations.BaseOperation;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
@@ -37,6 +39,7 @@ import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.service.input.RequiredInputParcel;
+import org.sufficientlysecure.keychain.ssh.AuthenticationKeyCache.PreparedAuthenticationKey;
 import org.sufficientlysecure.keychain.util.Passphrase;
 import timber.log.Timber;
 
@@ -58,6 +61,10 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
 
     private static final String TAG = "AuthenticationOperation";
 
+    public static final String METRIC_PHASE_PREPARE = MetricsRegistry.API_SSH + "phase.prepare";
+    public static final String METRIC_PHASE_UNLOCK = MetricsRegistry.API_SSH + "phase.unlock";
+    public static final String METRIC_PHASE_SIGN = MetricsRegistry.API_SSH + "phase.sign";
+
     public AuthenticationOperation(Context context, KeyRepository keyRepository) {
         super(context, keyRepository, null);
     }
@@ -101,25 +108,20 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
 
         long authMasterKeyId = data.getAuthenticationMasterKeyId();
         Long authSubKeyId = data.getAuthenticationSubKeyId();
-        if (authSubKeyId == null) {
-            try { // Get the key id of the authentication key belonging to the master key id
-                authSubKeyId = mKeyRepository.getEffectiveAuthenticationKeyId(authMasterKeyId);
-            } catch (NotFoundException e) {
-                log.add(LogType.MSG_AUTH_ERROR_KEY_AUTH, indent);
-                return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
-            }
-        }
 
-        // Get keyring with the authentication key
-        CanonicalizedSecretKeyRing authKeyRing;
-        try {
-            authKeyRing = mKeyRepository.getCanonicalizedSecretKeyRing(authMasterKeyId);
-        } catch (KeyRepository.NotFoundException e) {
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        long phaseStartTime = System.nanoTime();
+
+        PreparedAuthenticationKey preparedKey;
+        try { // Get the key id of the authentication key belonging to the master key id
+            preparedKey = AuthenticationKeyCache.getInstance().getPreparedKey(mKeyRepository, authMasterKeyId);
+        } catch (NotFoundException e) {
             log.add(LogType.MSG_AUTH_ERROR_KEY_AUTH, indent);
             return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
         }
-
-        CanonicalizedSecretKey authKey = authKeyRing.getSecretKey(authSubKeyId);
+        if (authSubKeyId == null || authSubKeyId == Constants.key.none) {
+            authSubKeyId = preparedKey.getAuthSubKeyId();
+        }
 
         // Make sure the client is allowed to access this key
         Collection<Long> allowedAuthenticationKeyIds = data.getAllowedAuthenticationKeyIds();
@@ -129,6 +131,24 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
             return new AuthenticationResult(AuthenticationResult.RESULT_KEY_DISALLOWED, log);
         }
 
+        // A passphrase given with the request is always checked by unlocking
+        CanonicalizedSecretKey authKey = null;
+        if (cryptoInput.getPassphrase() == null && authSubKeyId == preparedKey.getAuthSubKeyId()) {
+            authKey = getStillUnlockedAuthKey(preparedKey, authMasterKeyId, authSubKeyId);
+        }
+        boolean isStillUnlocked = authKey != null;
+
+        if (!isStillUnlocked) {
+            // Get keyring with the authentication key
+            try {
+                authKey = mKeyRepository.getCanonicalizedSecretKeyRing(authMasterKeyId).getSecretKey(authSubKeyId);
+            } catch (KeyRepository.NotFoundException e) {
+                log.add(LogType.MSG_AUTH_ERROR_KEY_AUTH, indent);
+                return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
+            }
+        }
+        CanonicalizedSecretKeyRing authKeyRing = authKey.getRing();
+
         // Make sure key is not expired or revoked
         if (authKeyRing.isExpired() || authKeyRing.isRevoked()
                 || authKey.isExpired() || authKey.isRevoked()) {
@@ -142,71 +162,80 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
             return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
         }
 
-        CanonicalizedSecretKey.SecretKeyType secretKeyType;
-        try {
-            secretKeyType = mKeyRepository.getSecretKeyType(authSubKeyId);
-        } catch (KeyRepository.NotFoundException e) {
-            log.add(LogType.MSG_AUTH_ERROR_KEY_AUTH, indent);
-            return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
-        }
+        metrics.recordNanos(METRIC_PHASE_PREPARE, System.nanoTime() - phaseStartTime);
+        phaseStartTime = System.nanoTime();
 
-        switch (secretKeyType) {
-            case DIVERT_TO_CARD:
-            case PASSPHRASE_EMPTY: {
-                boolean isUnlocked;
-                try {
-                    isUnlocked = authKey.unlock(new Passphrase());
-                } catch (PgpGeneralException e) {
-                    log.add(LogType.MSG_AUTH_ERROR_UNLOCK, indent);
-                    return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
-                }
+        if (!isStillUnlocked) {
+            CanonicalizedSecretKey.SecretKeyType secretKeyType;
+            try {
+                secretKeyType = mKeyRepository.getSecretKeyType(authSubKeyId);
+            } catch (KeyRepository.NotFoundException e) {
+                log.add(LogType.MSG_AUTH_ERROR_KEY_AUTH, indent);
+                return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
+            }
 
-                if (!isUnlocked) {
-                    throw new AssertionError(
-                            "PASSPHRASE_EMPTY/DIVERT_TO_CARD keyphrase not unlocked with empty passphrase."
-                                    + " This is a programming error!");
+            Passphrase unlockPassphrase;
+            switch (secretKeyType) {
+                case DIVERT_TO_CARD:
+                case PASSPHRASE_EMPTY: {
+                    unlockPassphrase = new Passphrase();
+                    break;
                 }
-                break;
-            }
 
-            case PASSPHRASE: {
-                Passphrase localPassphrase = cryptoInput.getPassphrase();
-                if (localPassphrase == null) {
-                    try {
-                        localPassphrase = getCachedPassphrase(authMasterKeyId, authKey.getKeyId());
-                    } catch (PassphraseCacheInterface.NoSecretKeyException ignored) {
+                case PASSPHRASE: {
+                    unlockPassphrase = cryptoInput.getPassphrase();
+                    if (unlockPassphrase == null) {
+                        try {
+                            unlockPassphrase = getCachedPassphrase(authMasterKeyId, authKey.getKeyId());
+                        } catch (PassphraseCacheInterface.NoSecretKeyException ignored) {
+                        }
                     }
-                }
-                if (localPassphrase == null) {
-                    log.add(LogType.MSG_AUTH_PENDING_PASSPHRASE, indent + 1);
-                    return new AuthenticationResult(log,
-                            RequiredInputParcel.createRequiredAuthenticationPassphrase(
-                                    authMasterKeyId, authKey.getKeyId()),
-                            cryptoInput);
+                    if (unlockPassphrase == null) {
+                        log.add(LogType.MSG_AUTH_PENDING_PASSPHRASE, indent + 1);
+                        return new AuthenticationResult(log,
+                                RequiredInputParcel.createRequiredAuthenticationPassphrase(
+                                        authMasterKeyId, authKey.getKeyId()),
+                                cryptoInput);
+                    }
+                    break;
                 }
 
-                boolean isUnlocked;
-                try {
-                    isUnlocked = authKey.unlock(localPassphrase);
-                } catch (PgpGeneralException e) {
+                case GNU_DUMMY: {
                     log.add(LogType.MSG_AUTH_ERROR_UNLOCK, indent);
                     return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
                 }
-                if (!isUnlocked) {
-                    log.add(LogType.MSG_AUTH_ERROR_BAD_PASSPHRASE, indent);
-                    return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
+                default: {
+                    throw new AssertionError("Unhandled SecretKeyType! (should not happen)");
                 }
-                break;
+
             }
 
-            case GNU_DUMMY: {
+            boolean isUnlocked;
+            try {
+                isUnlocked = authKey.unlock(unlockPassphrase);
+            } catch (PgpGeneralException e) {
                 log.add(LogType.MSG_AUTH_ERROR_UNLOCK, indent);
                 return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
             }
-            default: {
-                throw new AssertionError("Unhandled SecretKeyType! (should not happen)");
+
+            if (!isUnlocked) {
+                if (secretKeyType != CanonicalizedSecretKey.SecretKeyType.PASSPHRASE) {
+                    throw new AssertionError(
+                            "PASSPHRASE_EMPTY/DIVERT_TO_CARD keyphrase not unlocked with empty passphrase."
+                                    + " This is a programming error!");
+                }
+                log.add(LogType.MSG_AUTH_ERROR_BAD_PASSPHRASE, indent);
+                return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
+            }
+
+            // kept only as long as the passphrase cache holds the passphrase, see getStillUnlockedAuthKey
+            if (secretKeyType == CanonicalizedSecretKey.SecretKeyType.PASSPHRASE
+                    && authSubKeyId == preparedKey.getAuthSubKeyId()) {
+                preparedKey.setUnlockedAuthKey(authKey);
             }
 
+            metrics.recordNanos(METRIC_PHASE_UNLOCK, System.nanoTime() - phaseStartTime);
+            phaseStartTime = System.nanoTime();
         }
 
         AuthenticationSignatureGenerator signatureGenerator;
@@ -233,6 +262,8 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
             return new AuthenticationResult(AuthenticationResult.RESULT_ERROR, log);
         }
 
+        metrics.recordNanos(METRIC_PHASE_SIGN, System.nanoTime() - phaseStartTime);
+
         opTime = System.currentTimeMillis() - startTime;
         Timber.d("Authentication operation duration : " + format("%.2f", opTime / 1000.0) + "s");
 
@@ -245,5 +276,31 @@ public class AuthenticationOperation extends BaseOperation<AuthenticationParcel>
         return result;
     }
 
+    /**
+     * Returns the authentication key as unlocked by an earlier request, if the passphrase cache
+     * still holds its passphrase. Otherwise the unlocked key is dropped, and null is returned. The
+     * passphrase cache is asked on every request, which saves loading the secret keyring and
+     * running the S2K while the passphrase is cached.
+     */
+    private CanonicalizedSecretKey getStillUnlockedAuthKey(PreparedAuthenticationKey preparedKey,
+            long masterKeyId, long subKeyId) {
+        CanonicalizedSecretKey unlockedAuthKey = preparedKey.getUnlockedAuthKey();
+        if (unlockedAuthKey == null) {
+            return null;
+        }
+
+        Passphrase cachedPassphrase = null;
+        try {
+            cachedPassphrase = getCachedPassphrase(masterKeyId, subKeyId);
+        } catch (PassphraseCacheInterface.NoSecretKeyException ignored) {
+        }
+        boolean isStillUnlocked = cachedPassphrase != null;
+        MetricsRegistry.getInstance().recordCacheAccess(AuthenticationKeyCache.METRIC_UNLOCKED_KEY, isStillUnlocked);
+        if (!isStillUnlocked) {
+            preparedKey.dropUnlockedAuthKey();
+            return null;
+        }
+        return unlockedAuthKey;
+    }
 
 }
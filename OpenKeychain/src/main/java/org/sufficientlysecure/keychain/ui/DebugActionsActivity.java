@@ -18,11 +18,17 @@
 package org.sufficientlysecure.keychain.ui;
 
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.app.Activity;
+import android.app.AlertDialog;
 import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
@@ -33,6 +39,7 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.os.Build.VERSION_CODES;
 import android.os.Bundle;
 import android.support.annotation.Nullable;
+import android.support.v4.os.CancellationSignal;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.view.ViewGroup;
@@ -42,12 +49,24 @@ import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.json.JSONException;
 import org.sufficientlysecure.keychain.BuildConfig;
 import org.sufficientlysecure.keychain.Constants;
 import org.sufficientlysecure.keychain.R;
 import org.sufficientlysecure.keychain.daos.ApiAppDao;
 import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.daos.QueryInstrumentation;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkResult;
+import org.sufficientlysecure.keychain.operations.results.OperationResult;
 import org.sufficientlysecure.keychain.remote.ApiPendingIntentFactory;
+import org.sufficientlysecure.keychain.service.BenchmarkInputParcel;
+import org.sufficientlysecure.keychain.service.BenchmarkInputParcel.BenchmarkKeyType;
+import org.sufficientlysecure.keychain.service.KeychainServiceTask;
+import org.sufficientlysecure.keychain.service.KeychainServiceTask.OperationCallback;
+import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.ui.util.Notify;
 import org.sufficientlysecure.keychain.ui.util.Notify.Style;
 import timber.log.Timber;
@@ -59,6 +78,7 @@ public class DebugActionsActivity extends Activity {
     private ApiPendingIntentFactory pendingIntentFactory;
     private ApiAppDao apiAppDao;
     private KeyRepository keyRepository;
+    private CancellationSignal benchmarkCancellationSignal;
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -133,12 +153,110 @@ public class DebugActionsActivity extends Activity {
                     BuildConfig.APPLICATION_ID, new Intent(), duplicateEmails);
             startPendingIntent(pendingIntent);
         });
+        addButtonToLayout(context, verticalLayout, "Benchmark (export json and csv)").setOnClickListener((v) -> {
+            if (benchmarkCancellationSignal != null) {
+                Notify.create(DebugActionsActivity.this, "Benchmark already running", Style.WARN).show();
+                return;
+            }
+            Notify.create(DebugActionsActivity.this, "Benchmark started, this takes a while", Style.OK).show();
+            startBenchmark();
+        });
+        addButtonToLayout(context, verticalLayout, "Metrics").setOnClickListener((v) ->
+                startActivity(new Intent(DebugActionsActivity.this, DebugMetricsActivity.class)));
+        addButtonToLayout(context, verticalLayout, "Toggle Query Instrumentation").setOnClickListener((v) -> {
+            QueryInstrumentation queryInstrumentation = QueryInstrumentation.getInstance();
+            queryInstrumentation.setEnabled(!queryInstrumentation.isEnabled());
+            Notify.create(DebugActionsActivity.this, queryInstrumentation.isEnabled() ?
+                    "Query instrumentation enabled" : "Query instrumentation disabled", Style.OK).show();
+        });
+        addButtonToLayout(context, verticalLayout, "Query Report").setOnClickListener((v) -> {
+            String report = QueryInstrumentation.getInstance().getReport();
+            new AlertDialog.Builder(DebugActionsActivity.this)
+                    .setTitle("Query Report")
+                    .setMessage(report.isEmpty() ? "No queries recorded" : report)
+                    .setPositiveButton(android.R.string.ok, null)
+                    .setNeutralButton("Reset", (dialog, which) -> QueryInstrumentation.getInstance().reset())
+                    .show();
+        });
 
         ScrollView view = new ScrollView(context);
         view.addView(verticalLayout, new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
         return view;
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (benchmarkCancellationSignal != null) {
+            benchmarkCancellationSignal.cancel();
+        }
+    }
+
+    /**
+     * Runs the full benchmark matrix in the KeychainService. It is cancelled when the activity
+     * is destroyed, otherwise the results are written to the app's external files directory.
+     */
+    private void startBenchmark() {
+        BenchmarkInputParcel input = BenchmarkInputParcel.builder()
+                .setSymmetricAlgorithms(
+                        Arrays.asList(SymmetricKeyAlgorithmTags.AES_128, SymmetricKeyAlgorithmTags.AES_256))
+                .setHashAlgorithms(Arrays.asList(HashAlgorithmTags.SHA256, HashAlgorithmTags.SHA512))
+                .setCompressionAlgorithms(
+                        Arrays.asList(CompressionAlgorithmTags.UNCOMPRESSED, CompressionAlgorithmTags.ZLIB))
+                .setKeyTypes(Arrays.asList(BenchmarkKeyType.SYMMETRIC, BenchmarkKeyType.RSA_2048,
+                        BenchmarkKeyType.RSA_4096, BenchmarkKeyType.NIST_P256, BenchmarkKeyType.NIST_P384,
+                        BenchmarkKeyType.NIST_P521, BenchmarkKeyType.ED25519))
+                .setPayloadSizes(Arrays.asList(1024, 1024 * 1024))
+                .setWarmupIterations(2)
+                .build();
+
+        benchmarkCancellationSignal = KeychainServiceTask.create(this).startOperationInBackground(
+                input, CryptoInputParcel.createCryptoInputParcel(), new OperationCallback() {
+                    @Override
+                    public void setProgress(Integer message, int current, int total) {
+                    }
+
+                    @Override
+                    public void setPreventCancel() {
+                    }
+
+                    @Override
+                    public void operationFinished(OperationResult result) {
+                        benchmarkCancellationSignal = null;
+                        if (!isDestroyed()) {
+                            exportBenchmarkResult((BenchmarkResult) result);
+                        }
+                    }
+                });
+    }
+
+    private void exportBenchmarkResult(BenchmarkResult result) {
+        if (result == null || result.cancelled()) {
+            return;
+        }
+        if (!result.success()) {
+            Notify.create(DebugActionsActivity.this, "Benchmark failed", Style.ERROR).show();
+            return;
+        }
+
+        try {
+            File outputDir = getExternalFilesDir(null);
+            String baseName = "benchmark-" + System.currentTimeMillis();
+            writeFile(new File(outputDir, baseName + ".json"), result.toJson());
+            writeFile(new File(outputDir, baseName + ".csv"), result.toCsv());
+            Notify.create(DebugActionsActivity.this, "Written to " + outputDir + "/" + baseName, Style.OK).show();
+        } catch (IOException | JSONException e) {
+            Timber.e(e, "error writing benchmark results");
+            Notify.create(DebugActionsActivity.this, "Error writing benchmark results", Style.ERROR).show();
+        }
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes("UTF-8"));
+        }
+    }
+
     private TextView addButtonToLayout(Context context, ViewGroup buttonContainer, String buttonLabel) {
         TextView button = new TextView(context, null, 0, R.style.DebugButton);
         button.setText(buttonLabel);
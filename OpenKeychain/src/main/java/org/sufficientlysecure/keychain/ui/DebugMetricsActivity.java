@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.ui;
+
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+import android.annotation.TargetApi;
+import android.app.Activity;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build.VERSION_CODES;
+import android.os.Bundle;
+import android.support.annotation.Nullable;
+import android.support.v7.widget.Toolbar;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.ViewGroup.LayoutParams;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import org.json.JSONException;
+import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.R;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
+import org.sufficientlysecure.keychain.service.OperationScheduler;
+import org.sufficientlysecure.keychain.service.OperationScheduler.Lane;
+import timber.log.Timber;
+
+
+/**
+ * Shows the process-wide metrics. Started with ACTION_EXPORT_METRICS, it writes a
+ * JSON snapshot to the app's external files directory, returns it in EXTRA_METRICS_JSON
+ * and finishes right away, for collection by monitoring tools.
+ */
+@TargetApi(VERSION_CODES.LOLLIPOP)
+public class DebugMetricsActivity extends Activity {
+    public static final String ACTION_EXPORT_METRICS = Constants.INTENT_PREFIX + "EXPORT_METRICS";
+    public static final String EXTRA_METRICS_JSON = "metrics_json";
+
+    private TextView metricsText;
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        if (!Constants.DEBUG) {
+            throw new UnsupportedOperationException();
+        }
+
+        if (ACTION_EXPORT_METRICS.equals(getIntent().getAction())) {
+            exportAndFinish();
+            return;
+        }
+
+        setContentView(createView());
+        refresh();
+    }
+
+    private View createView() {
+        Context context = getBaseContext();
+
+        LinearLayout verticalLayout = new LinearLayout(context);
+        verticalLayout.setOrientation(LinearLayout.VERTICAL);
+        verticalLayout.setPadding(0, 40, 0, 0);
+
+        Toolbar toolbar = new Toolbar(this);
+        toolbar.setTitle("Metrics");
+        verticalLayout.addView(toolbar, new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+
+        addButtonToLayout(context, verticalLayout, "Refresh").setOnClickListener((v) -> refresh());
+        addButtonToLayout(context, verticalLayout, "Reset").setOnClickListener((v) -> {
+            MetricsRegistry.getInstance().reset();
+            refresh();
+        });
+        addButtonToLayout(context, verticalLayout, "Share as JSON").setOnClickListener((v) -> shareJson());
+
+        metricsText = new TextView(context);
+        metricsText.setTextIsSelectable(true);
+        metricsText.setPadding(16, 16, 16, 16);
+        verticalLayout.addView(metricsText,
+                new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+
+        ScrollView view = new ScrollView(context);
+        view.addView(verticalLayout, new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+        return view;
+    }
+
+    private void refresh() {
+        OperationScheduler scheduler = OperationScheduler.getInstance();
+        String text = String.format(Locale.ENGLISH, "scheduler: running=%d interactive queued=%d background queued=%d\n",
+                scheduler.getRunningCount(), scheduler.getQueueDepth(Lane.INTERACTIVE),
+                scheduler.getQueueDepth(Lane.BACKGROUND));
+        text += MetricsRegistry.getInstance().toText(getPackageManager());
+        metricsText.setText(text);
+    }
+
+    private void shareJson() {
+        try {
+            Intent sendIntent = new Intent(Intent.ACTION_SEND);
+            sendIntent.setType("application/json");
+            sendIntent.putExtra(Intent.EXTRA_TEXT, getMetricsJson());
+            startActivity(Intent.createChooser(sendIntent, "Share metrics"));
+        } catch (JSONException e) {
+            Timber.e(e, "error creating metrics json");
+        }
+    }
+
+    private void exportAndFinish() {
+        try {
+            String json = getMetricsJson();
+            File file = new File(getExternalFilesDir(null), "metrics-" + System.currentTimeMillis() + ".json");
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes("UTF-8"));
+            }
+            Timber.d("metrics written to %s", file);
+
+            Intent result = new Intent();
+            result.putExtra(EXTRA_METRICS_JSON, json);
+            setResult(RESULT_OK, result);
+        } catch (IOException | JSONException e) {
+            Timber.e(e, "error exporting metrics");
+            setResult(RESULT_CANCELED);
+        }
+        finish();
+    }
+
+    private String getMetricsJson() throws JSONException {
+        return MetricsRegistry.getInstance().toJson(getPackageManager()).toString(2);
+    }
+
+    private TextView addButtonToLayout(Context context, ViewGroup buttonContainer, String buttonLabel) {
+        TextView button = new TextView(context, null, 0, R.style.DebugButton);
+        button.setText(buttonLabel);
+        buttonContainer.addView(button, new FrameLayout.LayoutParams(LayoutParams.MATCH_PARENT, LayoutParams.WRAP_CONTENT));
+        return button;
+    }
+}
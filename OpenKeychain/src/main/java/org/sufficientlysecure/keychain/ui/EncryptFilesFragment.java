@@ -660,6 +660,8 @@ public class EncryptFilesFragment
 
         if (!mUseCompression) {
             data.setCompressionAlgorithm(PgpSecurityConstants.OpenKeychainCompressionAlgorithmTags.UNCOMPRESSED);
+        } else {
+            data.setAdaptiveCompression(true);
         }
         data.setHiddenRecipients(mHiddenRecipients);
         data.setEnableAsciiArmorOutput(mAfterEncryptAction == AfterEncryptAction.COPY || mUseArmor);
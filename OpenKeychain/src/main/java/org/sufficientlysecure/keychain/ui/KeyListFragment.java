@@ -618,7 +618,10 @@ public class KeyListFragment extends RecyclerFragment<FlexibleAdapter<FlexibleKe
 
             @Override
             public BenchmarkInputParcel createOperationInput() {
-                return BenchmarkInputParcel.newInstance(); // we want to perform a full consolidate
+                return BenchmarkInputParcel.builder()
+                        .setBenchmarkCompression(true)
+                        .setBenchmarkRecipients(true)
+                        .build();
             }
 
             @Override
@@ -32,7 +32,9 @@ import android.view.MenuItem;
 
 import org.sufficientlysecure.keychain.R;
 import org.sufficientlysecure.keychain.operations.results.OperationResult;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.SubLogEntryParcel;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
 import org.sufficientlysecure.keychain.provider.TemporaryFileProvider;
 import org.sufficientlysecure.keychain.ui.adapter.NestedLogAdapter;
 import org.sufficientlysecure.keychain.ui.base.RecyclerFragment;
@@ -75,13 +77,25 @@ public class LogDisplayFragment extends RecyclerFragment<NestedLogAdapter>
             return;
         }
 
-        NestedLogAdapter adapter = new NestedLogAdapter(getContext(), mResult.getLog());
+        NestedLogAdapter adapter = new NestedLogAdapter(getContext(), getLogWithTimings());
         adapter.setListener(this);
         setAdapter(adapter);
 
         setLayoutManager(new LinearLayoutManager(getContext()));
     }
 
+    /** The log of the result, with the phase timings of crypto operations appended. */
+    private OperationLog getLogWithTimings() {
+        OperationTimings timings = mResult.getTimings();
+        if (timings == null || timings.isEmpty()) {
+            return mResult.getLog();
+        }
+        OperationLog log = new OperationLog();
+        log.addAll(mResult.getLog().toList());
+        timings.addToLog(log, 0);
+        return log;
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -114,7 +128,7 @@ public class LogDisplayFragment extends RecyclerFragment<NestedLogAdapter>
             return;
         }
 
-        String log = mResult.getLog().getPrintableOperationLog(getResources(), 0);
+        String log = getLogWithTimings().getPrintableOperationLog(getResources(), 0);
 
         // if there is no log temp file yet, create one
         if (mLogTempFile == null) {
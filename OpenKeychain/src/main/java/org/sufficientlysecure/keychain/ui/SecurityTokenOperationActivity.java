@@ -21,6 +21,7 @@ package org.sufficientlysecure.keychain.ui;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
 
 import android.content.Intent;
 import android.os.AsyncTask;
@@ -40,8 +41,7 @@ import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.securitytoken.operations.ModifyPinTokenOp;
 import org.sufficientlysecure.keychain.securitytoken.SecurityTokenConnection;
 import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo;
-import org.sufficientlysecure.keychain.securitytoken.operations.PsoDecryptTokenOp;
-import org.sufficientlysecure.keychain.securitytoken.operations.SecurityTokenPsoSignTokenOp;
+import org.sufficientlysecure.keychain.securitytoken.operations.SecurityTokenBatchTokenOp;
 import org.sufficientlysecure.keychain.securitytoken.operations.SecurityTokenChangeKeyTokenOp;
 import org.sufficientlysecure.keychain.securitytoken.operations.ResetAndWipeTokenOp;
 import org.sufficientlysecure.keychain.service.PassphraseCacheService;
@@ -207,13 +207,11 @@ public class SecurityTokenOperationActivity extends BaseSecurityTokenActivity {
                     throw new IOException("Couldn't find subkey for key to token operation.");
                 }
 
-                PsoDecryptTokenOp psoDecryptTokenOp = PsoDecryptTokenOp.create(stConnection);
-                for (int i = 0; i < mRequiredInput.mInputData.length; i++) {
-                    byte[] encryptedSessionKey = mRequiredInput.mInputData[i];
-                    byte[] decryptedSessionKey = psoDecryptTokenOp
-                            .verifyAndDecryptSessionKey(encryptedSessionKey, publicKeyRing.getPublicKey(tokenKeyId));
-                    mInputParcel = mInputParcel.withCryptoData(encryptedSessionKey, decryptedSessionKey);
+                SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(stConnection);
+                for (byte[] encryptedSessionKey : mRequiredInput.mInputData) {
+                    batchTokenOp.addDecryptSessionKey(encryptedSessionKey, publicKeyRing.getPublicKey(tokenKeyId));
                 }
+                addCryptoData(batchTokenOp.execute());
                 break;
             }
             case SECURITY_TOKEN_SIGN: {
@@ -226,13 +224,11 @@ public class SecurityTokenOperationActivity extends BaseSecurityTokenActivity {
 
                 mInputParcel = mInputParcel.withSignatureTime(mRequiredInput.mSignatureTime);
 
-                SecurityTokenPsoSignTokenOp psoSignUseCase = SecurityTokenPsoSignTokenOp.create(stConnection);
+                SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(stConnection);
                 for (int i = 0; i < mRequiredInput.mInputData.length; i++) {
-                    byte[] hash = mRequiredInput.mInputData[i];
-                    int algo = mRequiredInput.mSignAlgos[i];
-                    byte[] signedHash = psoSignUseCase.calculateSignature(hash, algo);
-                    mInputParcel = mInputParcel.withCryptoData(hash, signedHash);
+                    batchTokenOp.addSignature(mRequiredInput.mInputData[i], mRequiredInput.mSignAlgos[i]);
                 }
+                addCryptoData(batchTokenOp.execute());
                 break;
             }
             case SECURITY_TOKEN_AUTH: {
@@ -243,15 +239,11 @@ public class SecurityTokenOperationActivity extends BaseSecurityTokenActivity {
                     throw new IOException(getString(R.string.error_wrong_security_token));
                 }
 
-                SecurityTokenPsoSignTokenOp psoSignUseCase = SecurityTokenPsoSignTokenOp.create(stConnection);
+                SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(stConnection);
                 for (int i = 0; i < mRequiredInput.mInputData.length; i++) {
-                    byte[] hash = mRequiredInput.mInputData[i];
-                    int algo = mRequiredInput.mSignAlgos[i];
-                    byte[] signedHash = psoSignUseCase.calculateAuthenticationSignature(hash, algo);
-                    mInputParcel = mInputParcel.withCryptoData(hash, signedHash);
-
+                    batchTokenOp.addAuthenticationSignature(mRequiredInput.mInputData[i], mRequiredInput.mSignAlgos[i]);
                 }
-
+                addCryptoData(batchTokenOp.execute());
                 break;
             }
             case SECURITY_TOKEN_MOVE_KEY_TO_CARD: {
@@ -312,6 +304,13 @@ public class SecurityTokenOperationActivity extends BaseSecurityTokenActivity {
 
     }
 
+    /** Adds the results of a batch to the crypto input, each for the input data it was queued with. */
+    private void addCryptoData(List<byte[]> results) {
+        for (int i = 0; i < mRequiredInput.mInputData.length; i++) {
+            mInputParcel = mInputParcel.withCryptoData(mRequiredInput.mInputData[i], results.get(i));
+        }
+    }
+
     @Override
     protected final void onSecurityTokenPostExecute(final SecurityTokenConnection stConnection) {
         handleResult(mInputParcel);
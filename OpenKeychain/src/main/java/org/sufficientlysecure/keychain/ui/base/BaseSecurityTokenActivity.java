@@ -32,6 +32,7 @@ import android.os.Bundle;
 import nordpol.android.TagDispatcher;
 import nordpol.android.TagDispatcherBuilder;
 import org.sufficientlysecure.keychain.R;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.securitytoken.CardException;
 import org.sufficientlysecure.keychain.securitytoken.NfcTransport;
 import org.sufficientlysecure.keychain.securitytoken.SecurityTokenConnection;
@@ -146,7 +147,9 @@ public abstract class BaseSecurityTokenActivity extends BaseActivity {
                 try {
                     stConnection.connectIfNecessary(getBaseContext());
 
+                    int apduCountBefore = stConnection.getTransceivedApduCount();
                     handleSecurityToken(stConnection);
+                    recordOperationApduCount(stConnection.getTransceivedApduCount() - apduCountBefore);
                 } catch (IOException e) {
                     return e;
                 }
@@ -168,6 +171,12 @@ public abstract class BaseSecurityTokenActivity extends BaseActivity {
         }.execute();
     }
 
+    private static void recordOperationApduCount(int apduCount) {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getInstance();
+        metricsRegistry.increment(SecurityTokenConnection.METRIC_OPERATION);
+        metricsRegistry.add(SecurityTokenConnection.METRIC_OPERATION_APDUS, apduCount);
+    }
+
     protected void pauseTagHandling() {
         mTagHandlingEnabled = false;
     }
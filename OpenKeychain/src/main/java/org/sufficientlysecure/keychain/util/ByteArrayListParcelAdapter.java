@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import android.os.Parcel;
+
+import com.ryanharter.auto.value.parcel.TypeAdapter;
+
+
+public class ByteArrayListParcelAdapter implements TypeAdapter<List<byte[]>> {
+    @Override
+    public List<byte[]> fromParcel(Parcel source) {
+        int count = source.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<byte[]> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(source.createByteArray());
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public void toParcel(List<byte[]> value, Parcel dest) {
+        if (value == null) {
+            dest.writeInt(-1);
+            return;
+        }
+        dest.writeInt(value.size());
+        for (byte[] item : value) {
+            dest.writeByteArray(item);
+        }
+    }
+}
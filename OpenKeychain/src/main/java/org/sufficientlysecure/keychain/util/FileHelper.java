@@ -18,8 +18,6 @@
 package org.sufficientlysecure.keychain.util;
 
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -32,6 +30,7 @@ import java.io.UnsupportedEncodingException;
 import java.security.SecureRandom;
 import java.text.DecimalFormat;
 import java.util.List;
+import java.util.Locale;
 
 import android.annotation.TargetApi;
 import android.content.ActivityNotFoundException;
@@ -50,6 +49,7 @@ import android.os.Environment;
 import android.provider.DocumentsContract;
 import android.provider.OpenableColumns;
 import android.support.v4.app.Fragment;
+import android.webkit.MimeTypeMap;
 import android.widget.Toast;
 
 import org.sufficientlysecure.keychain.Constants;
@@ -184,6 +184,26 @@ public class FileHelper {
         return filename;
     }
 
+    /**
+     * Returns the MIME type of the given uri as reported by its content provider, or guessed
+     * from the file extension. Returns null if neither is available.
+     */
+    public static String getMimeType(Context context, Uri uri) {
+        String mimeType = null;
+        try {
+            mimeType = context.getContentResolver().getType(uri);
+        } catch (Exception ignored) {
+            // This happens in rare cases (eg: document deleted since selection) and should not cause a failure
+        }
+        if (mimeType == null) {
+            String extension = MimeTypeMap.getFileExtensionFromUrl(uri.toString());
+            if (extension != null && !extension.isEmpty()) {
+                mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension.toLowerCase(Locale.ENGLISH));
+            }
+        }
+        return mimeType;
+    }
+
     public static long getFileSize(Context context, Uri uri) {
         return getFileSize(context, uri, -1);
     }
@@ -294,19 +314,21 @@ public class FileHelper {
     }
 
     public static void copyUriData(Context context, Uri fromUri, Uri toUri) throws IOException {
-        BufferedInputStream bis = null;
-        BufferedOutputStream bos = null;
+        InputStream bis = null;
+        OutputStream bos = null;
+        byte[] buf = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
 
         try {
+            // reads and writes are as large as the buffer, so no need for buffered streams here
             ContentResolver resolver = context.getContentResolver();
-            bis = new BufferedInputStream(resolver.openInputStream(fromUri));
-            bos = new BufferedOutputStream(resolver.openOutputStream(toUri));
-            byte[] buf = new byte[1024];
+            bis = resolver.openInputStream(fromUri);
+            bos = resolver.openOutputStream(toUri);
             int len;
             while ( (len = bis.read(buf)) > 0) {
                 bos.write(buf, 0, len);
             }
         } finally {
+            IoBufferPool.release(buf, true);
             try {
                 if (bis != null) {
                     bis.close();
@@ -335,20 +357,23 @@ public class FileHelper {
             throw new IOException("Error opening file!");
         }
 
-        SecureRandom random = new SecureRandom();
-        byte[] randomData = new byte[1024];
-
         OutputStream out = resolver.openOutputStream(uri, "w");
         if (out == null) {
             throw new IOException("Error opening file!");
         }
-        out = new BufferedOutputStream(out);
-        while (lengthLeft > 0) {
-            random.nextBytes(randomData);
-            out.write(randomData, 0, lengthLeft > randomData.length ? randomData.length : (int) lengthLeft);
-            lengthLeft -= randomData.length;
+
+        SecureRandom random = new SecureRandom();
+        byte[] randomData = IoBufferPool.acquire(IoBufferPool.SMALL_BUFFER_SIZE);
+        try {
+            while (lengthLeft > 0) {
+                random.nextBytes(randomData);
+                out.write(randomData, 0, lengthLeft > randomData.length ? randomData.length : (int) lengthLeft);
+                lengthLeft -= randomData.length;
+            }
+        } finally {
+            IoBufferPool.release(randomData, false);
+            out.close();
         }
-        out.close();
 
         if (ContentResolver.SCHEME_FILE.equals(uri.getScheme())) {
             return new File(uri.getPath()).delete() ? 1 : 0;
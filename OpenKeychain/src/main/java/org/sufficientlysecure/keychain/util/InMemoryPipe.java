@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A bounded in-memory pipe from a writer thread to a reader thread, like PipedOutputStream
+ * and PipedInputStream, with its buffer taken from the IoBufferPool.
+ * <p/>
+ * Unlike the java.io pipes, the writer can abort the pipe, so the reader gets an IOException
+ * instead of a regular end of stream and can tell a truncated stream from a complete one.
+ * Closing the read end makes pending and further writes fail, so the writer can't block
+ * forever on a reader that gave up. The buffer is wiped when the read end is closed.
+ */
+public class InMemoryPipe {
+    private final InputStream mInputStream = new PipeInputStream();
+    private final OutputStream mOutputStream = new PipeOutputStream();
+
+    private byte[] mBuffer;
+    private int mReadPos;
+    private int mCount;
+    private boolean mIsWriteClosed;
+    private boolean mIsReadClosed;
+    private IOException mWriteError;
+
+    /** Creates a pipe which buffers at least the given number of bytes. */
+    public InMemoryPipe(int minCapacity) {
+        mBuffer = IoBufferPool.acquire(minCapacity);
+    }
+
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /**
+     * Closes the write end with an error. The reader gets an IOException with the given cause
+     * on its next read, even if there is still data in the pipe. Does nothing once the reader
+     * closed the pipe.
+     */
+    public synchronized void abort(IOException cause) {
+        if (mIsWriteClosed || mIsReadClosed) {
+            return;
+        }
+        mWriteError = cause;
+        mIsWriteClosed = true;
+        notifyAll();
+    }
+
+    /** Returns true if the writer aborted the pipe while the reader was still reading from it. */
+    public synchronized boolean isAborted() {
+        return mWriteError != null;
+    }
+
+    private synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            while (mBuffer != null && mCount == mBuffer.length && !mIsReadClosed) {
+                waitForOtherEnd();
+            }
+            if (mIsReadClosed) {
+                throw new IOException("pipe closed by reader");
+            }
+            if (mIsWriteClosed) {
+                throw new IOException("pipe closed");
+            }
+
+            int writePos = (mReadPos + mCount) % mBuffer.length;
+            int chunk = Math.min(len, Math.min(mBuffer.length - mCount, mBuffer.length - writePos));
+            System.arraycopy(b, off, mBuffer, writePos, chunk);
+            mCount += chunk;
+            off += chunk;
+            len -= chunk;
+            notifyAll();
+        }
+    }
+
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (mIsReadClosed) {
+            throw new IOException("pipe closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+
+        while (mCount == 0 && !mIsWriteClosed) {
+            waitForOtherEnd();
+        }
+        if (mWriteError != null) {
+            throw new IOException("pipe aborted by writer", mWriteError);
+        }
+        if (mCount == 0) {
+            return -1;
+        }
+
+        int chunk = Math.min(len, Math.min(mCount, mBuffer.length - mReadPos));
+        System.arraycopy(mBuffer, mReadPos, b, off, chunk);
+        mReadPos = (mReadPos + chunk) % mBuffer.length;
+        mCount -= chunk;
+        notifyAll();
+        return chunk;
+    }
+
+    private synchronized int available() {
+        return mIsReadClosed ? 0 : mCount;
+    }
+
+    private synchronized void closeWrite() {
+        mIsWriteClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void closeRead() {
+        if (mIsReadClosed) {
+            return;
+        }
+        mIsReadClosed = true;
+        mCount = 0;
+        IoBufferPool.release(mBuffer, true);
+        mBuffer = null;
+        notifyAll();
+    }
+
+    private void waitForOtherEnd() throws InterruptedIOException {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting on pipe");
+        }
+    }
+
+    private class PipeInputStream extends InputStream {
+        private final byte[] mSingleByte = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int result = read(mSingleByte, 0, 1);
+            return result < 0 ? -1 : mSingleByte[0] & 0xff;
+        }
+
+        @Override
+        public int read(@NonNull byte[] b, int off, int len) throws IOException {
+            return InMemoryPipe.this.read(b, off, len);
+        }
+
+        @Override
+        public int available() {
+            return InMemoryPipe.this.available();
+        }
+
+        @Override
+        public void close() {
+            closeRead();
+        }
+    }
+
+    private class PipeOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(@NonNull byte[] b, int off, int len) throws IOException {
+            InMemoryPipe.this.write(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closeWrite();
+        }
+    }
+
+}
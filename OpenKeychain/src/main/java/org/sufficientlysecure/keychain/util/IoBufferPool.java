@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * A bounded, thread-safe pool of byte buffers for stream I/O.
+ * <p/>
+ * Crypto operations, backups and file copies all shovel data through large
+ * temporary buffers. Allocating those fresh for each operation causes a
+ * steady stream of garbage when the API is under load, so buffers are taken
+ * from this pool instead and returned once the operation is done.
+ * <p/>
+ * Buffers come in two size classes. A buffer must be released exactly once,
+ * and must not be used after it was released. Buffers that held plaintext
+ * must be released with wipe set, so they are zeroed before they are handed
+ * out again.
+ */
+public class IoBufferPool {
+    public static final int SMALL_BUFFER_SIZE = 1 << 13;
+    public static final int LARGE_BUFFER_SIZE = 1 << 16;
+
+    private static final int MAX_POOLED_SMALL_BUFFERS = 16;
+    private static final int MAX_POOLED_LARGE_BUFFERS = 8;
+
+    private static final ArrayBlockingQueue<byte[]> smallBuffers =
+            new ArrayBlockingQueue<>(MAX_POOLED_SMALL_BUFFERS);
+    private static final ArrayBlockingQueue<byte[]> largeBuffers =
+            new ArrayBlockingQueue<>(MAX_POOLED_LARGE_BUFFERS);
+
+    private static final AtomicLong acquireCount = new AtomicLong();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+
+    private IoBufferPool() { }
+
+    /**
+     * Returns a buffer of at least minSize bytes. Requests larger than
+     * LARGE_BUFFER_SIZE are allocated directly and never pooled.
+     */
+    public static byte[] acquire(int minSize) {
+        acquireCount.incrementAndGet();
+
+        ArrayBlockingQueue<byte[]> pool = getPoolForSize(minSize);
+        if (pool == null) {
+            allocatedBytes.addAndGet(minSize);
+            return new byte[minSize];
+        }
+
+        byte[] buffer = pool.poll();
+        if (buffer == null) {
+            int size = pool == smallBuffers ? SMALL_BUFFER_SIZE : LARGE_BUFFER_SIZE;
+            allocatedBytes.addAndGet(size);
+            buffer = new byte[size];
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. If the pool is already full, the buffer is left to the
+     * garbage collector. A null buffer is ignored, for convenient use in finally blocks.
+     */
+    public static void release(byte[] buffer, boolean wipe) {
+        if (buffer == null) {
+            return;
+        }
+        if (wipe) {
+            Arrays.fill(buffer, (byte) 0);
+        }
+
+        if (buffer.length == SMALL_BUFFER_SIZE) {
+            smallBuffers.offer(buffer);
+        } else if (buffer.length == LARGE_BUFFER_SIZE) {
+            largeBuffers.offer(buffer);
+        }
+    }
+
+    private static ArrayBlockingQueue<byte[]> getPoolForSize(int minSize) {
+        if (minSize <= SMALL_BUFFER_SIZE) {
+            return smallBuffers;
+        }
+        if (minSize <= LARGE_BUFFER_SIZE) {
+            return largeBuffers;
+        }
+        return null;
+    }
+
+    /** Returns the number of buffers handed out since process start. */
+    public static long getAcquireCount() {
+        return acquireCount.get();
+    }
+
+    /** Returns the number of bytes allocated for buffers since process start. */
+    public static long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+}
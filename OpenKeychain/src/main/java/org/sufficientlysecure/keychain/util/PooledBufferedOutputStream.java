@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import android.support.annotation.NonNull;
+
+
+/**
+ * A buffered output stream like BufferedOutputStream, which takes its buffer
+ * from the IoBufferPool and returns it when the stream is closed or released.
+ */
+public class PooledBufferedOutputStream extends FilterOutputStream {
+
+    private final boolean mWipeOnRelease;
+    private byte[] mBuffer;
+    private int mCount;
+
+    public PooledBufferedOutputStream(@NonNull OutputStream out, int size, boolean wipeOnRelease) {
+        super(out);
+        mBuffer = IoBufferPool.acquire(size);
+        mWipeOnRelease = wipeOnRelease;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkNotClosed();
+        if (mCount >= mBuffer.length) {
+            flushBuffer();
+        }
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    @Override
+    public void write(@NonNull byte[] b, int off, int len) throws IOException {
+        checkNotClosed();
+        if (len >= mBuffer.length) {
+            // no point in copying large writes, pass them through directly
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > mBuffer.length - mCount) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, mBuffer, mCount, len);
+        mCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        // some wrapping streams, like ArmoredOutputStream, flush again when closed twice
+        if (mBuffer == null) {
+            return;
+        }
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            IoBufferPool.release(mBuffer, mWipeOnRelease);
+            mBuffer = null;
+            out.close();
+        }
+    }
+
+    /**
+     * Returns the buffer to the pool without writing out what is left in it, and without
+     * closing the underlying stream. For error paths, after a close this does nothing.
+     */
+    public void release() {
+        if (mBuffer == null) {
+            return;
+        }
+        IoBufferPool.release(mBuffer, mWipeOnRelease);
+        mBuffer = null;
+        mCount = 0;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (mCount > 0) {
+            out.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+    }
+
+    private void checkNotClosed() throws IOException {
+        if (mBuffer == null) {
+            throw new IOException("stream is closed");
+        }
+    }
+
+}
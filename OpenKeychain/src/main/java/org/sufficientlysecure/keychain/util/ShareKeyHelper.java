@@ -18,10 +18,9 @@
 package org.sufficientlysecure.keychain.util;
 
 
-import java.io.BufferedWriter;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
 
 import android.app.Activity;
@@ -37,6 +36,7 @@ import org.sufficientlysecure.keychain.Constants;
 import org.sufficientlysecure.keychain.R;
 import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
+import org.sufficientlysecure.keychain.daos.PublicKeyExportCache;
 import org.sufficientlysecure.keychain.model.SubKey.UnifiedKeyInfo;
 import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKey;
 import org.sufficientlysecure.keychain.pgp.SshPublicKey;
@@ -49,9 +49,9 @@ import timber.log.Timber;
 public class ShareKeyHelper {
 
     @Nullable
-    private static String getKeyContent(long masterKeyId, KeyRepository keyRepository) throws IOException {
+    private static byte[] getKeyContent(long masterKeyId, KeyRepository keyRepository) throws IOException {
         try {
-            return keyRepository.getPublicKeyRingAsArmoredString(masterKeyId);
+            return PublicKeyExportCache.getInstance().getPublicKeyExport(keyRepository, masterKeyId, true, false, null);
         } catch (NotFoundException e) {
             return null;
         }
@@ -72,7 +72,7 @@ public class ShareKeyHelper {
         }
     }
 
-    private static void shareKeyIntent(Activity activity, long masterKeyId, String content) throws IOException {
+    private static void shareKeyIntent(Activity activity, long masterKeyId, byte[] content) throws IOException {
         // let user choose application
         Intent sendIntent = new Intent(Intent.ACTION_SEND);
         sendIntent.setType(Constants.MIME_TYPE_KEYS);
@@ -93,11 +93,13 @@ public class ShareKeyHelper {
             }
             Uri contentUri = TemporaryFileProvider.createFile(activity, filename + Constants.FILE_EXTENSION_ASC);
 
-            BufferedWriter contentWriter = new BufferedWriter(new OutputStreamWriter(
-                    new ParcelFileDescriptor.AutoCloseOutputStream(
-                            shareFileProv.openFile(contentUri, "w"))));
-            contentWriter.write(content);
-            contentWriter.close();
+            OutputStream contentStream = new ParcelFileDescriptor.AutoCloseOutputStream(
+                    shareFileProv.openFile(contentUri, "w"));
+            try {
+                contentStream.write(content);
+            } finally {
+                contentStream.close();
+            }
 
             sendIntent.putExtra(Intent.EXTRA_STREAM, contentUri);
         } catch (FileNotFoundException e) {
@@ -131,14 +133,14 @@ public class ShareKeyHelper {
         }
 
         try {
-            String content = getKeyContent(masterKeyId, KeyRepository.create(activity));
+            byte[] content = getKeyContent(masterKeyId, KeyRepository.create(activity));
             if (content == null) {
                 Notify.create(activity, R.string.error_key_not_found, Notify.Style.ERROR).show();
                 return;
             }
 
             if (toClipboard) {
-                shareKeyToClipBoard(activity, content);
+                shareKeyToClipBoard(activity, new String(content));
             } else {
                 shareKeyIntent(activity, masterKeyId, content);
             }
@@ -163,7 +165,7 @@ public class ShareKeyHelper {
             if (toClipboard) {
                 shareKeyToClipBoard(activity, content);
             } else {
-                shareKeyIntent(activity, masterKeyId, content);
+                shareKeyIntent(activity, masterKeyId, content.getBytes());
             }
         } catch (PgpGeneralException | IOException | NoSuchAlgorithmException e) {
             Timber.e(e, "error processing key!");
@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.daos;
+
+
+import java.security.Security;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+import org.sufficientlysecure.keychain.support.KeyringTestingHelper;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class PublicKeyExportCacheTest {
+    private static UncachedKeyRing staticRing;
+
+    private KeyWritableRepository keyWritableRepository;
+    private PublicKeyExportCache publicKeyExportCache;
+    private long masterKeyId;
+
+    @BeforeClass
+    public static void setUpOnce() throws Exception {
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        staticRing = KeyringTestingHelper.readRingFromResource("/test-keys/authenticate_rsa.sec");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        keyWritableRepository = KeyWritableRepository.create(RuntimeEnvironment.application);
+        keyWritableRepository.saveSecretKeyRing(staticRing);
+        masterKeyId = staticRing.getMasterKeyId();
+
+        publicKeyExportCache = PublicKeyExportCache.getInstance();
+        publicKeyExportCache.clear();
+    }
+
+    @Test
+    public void getPublicKeyExport_shouldMatchStoredKeyRing() throws Exception {
+        byte[] binaryExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, false, false, null);
+        byte[] armoredExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null);
+
+        assertArrayEquals(keyWritableRepository.loadPublicKeyRingData(masterKeyId), binaryExport);
+        assertTrue(new String(armoredExport).startsWith("-----BEGIN PGP PUBLIC KEY BLOCK-----"));
+        assertEquals(new String(armoredExport), keyWritableRepository.getPublicKeyRingAsArmoredString(masterKeyId));
+    }
+
+    @Test
+    public void getPublicKeyExport_shouldBeCachedPerForm() throws Exception {
+        byte[] armoredExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null);
+        byte[] minimizedExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, true, null);
+
+        assertSame(armoredExport, publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null));
+        assertSame(minimizedExport, publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, true, null));
+        assertNotSame(armoredExport, minimizedExport);
+    }
+
+    @Test
+    public void getPublicKeyExport_shouldBeDroppedOnKeyChange() throws Exception {
+        byte[] armoredExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null);
+
+        keyWritableRepository.saveSecretKeyRing(staticRing);
+
+        byte[] reexportedArmoredExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null);
+        assertNotSame(armoredExport, reexportedArmoredExport);
+        assertArrayEquals(armoredExport, reexportedArmoredExport);
+    }
+
+    @Test
+    public void getPublicKeyExport_shouldBeDroppedOnKeyChangeInOtherProcess() throws Exception {
+        byte[] armoredExport = publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null);
+
+        // another process only reaches this one through the change notification
+        DatabaseNotifyManager.create(RuntimeEnvironment.application).notifyKeyChange(masterKeyId);
+
+        assertNotSame(armoredExport, publicKeyExportCache.getPublicKeyExport(
+                keyWritableRepository, masterKeyId, true, false, null));
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void getPublicKeyExport_afterDelete_shouldThrow() throws Exception {
+        publicKeyExportCache.getPublicKeyExport(keyWritableRepository, masterKeyId, true, false, null);
+
+        keyWritableRepository.deleteKeyRing(masterKeyId);
+
+        publicKeyExportCache.getPublicKeyExport(keyWritableRepository, masterKeyId, true, false, null);
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.daos;
+
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.QueryInstrumentation.SlowQuery;
+import org.sufficientlysecure.keychain.daos.QueryInstrumentation.StatementStats;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class QueryInstrumentationTest {
+    private static final long MASTER_KEY_ID = 0x1234567890abcdefL;
+
+    private QueryInstrumentation queryInstrumentation;
+
+    @Before
+    public void setUp() throws Exception {
+        queryInstrumentation = QueryInstrumentation.getInstance();
+        queryInstrumentation.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queryInstrumentation.setEnabled(false);
+        queryInstrumentation.setSlowQueryThreshold(20, TimeUnit.MILLISECONDS);
+        queryInstrumentation.reset();
+    }
+
+    @Test
+    public void disabled_shouldRecordNothing() throws Exception {
+        KeyRepository.create(RuntimeEnvironment.application).getPublicEncryptionIds(MASTER_KEY_ID);
+
+        assertTrue(queryInstrumentation.getStatementStats().isEmpty());
+    }
+
+    @Test
+    public void slowQuery_shouldRecordPlanAndRedactArgs() throws Exception {
+        queryInstrumentation.setEnabled(true);
+        queryInstrumentation.setSlowQueryThreshold(0, TimeUnit.NANOSECONDS);
+
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+        keyRepository.getPublicEncryptionIds(MASTER_KEY_ID);
+        keyRepository.getPublicEncryptionIds(MASTER_KEY_ID);
+
+        List<StatementStats> statementStats = queryInstrumentation.getStatementStats();
+        assertEquals(1, statementStats.size());
+        StatementStats stats = statementStats.get(0);
+        assertEquals(2, stats.getExecutionCount());
+        assertEquals(0, stats.getTotalRows());
+        assertNotNull(stats.getQueryPlan());
+        assertFalse(stats.getQueryPlan().isEmpty());
+
+        List<SlowQuery> slowQueries = queryInstrumentation.getSlowQueries();
+        assertEquals(2, slowQueries.size());
+        assertEquals("[long]", slowQueries.get(0).bindArgs);
+        assertFalse(queryInstrumentation.getReport().contains(Long.toString(MASTER_KEY_ID)));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.metrics;
+
+
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogram_bucketsShouldBeContiguous() throws Exception {
+        for (int i = 0; i < LatencyHistogram.BUCKET_COUNT - 1; i++) {
+            assertEquals(LatencyHistogram.getBucketUpperBound(i) + 1, LatencyHistogram.getBucketLowerBound(i + 1));
+            assertEquals(i, LatencyHistogram.getBucketIndex(LatencyHistogram.getBucketLowerBound(i)));
+            assertEquals(i, LatencyHistogram.getBucketIndex(LatencyHistogram.getBucketUpperBound(i)));
+        }
+        assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.getBucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void histogram_percentilesShouldBeWithinPrecision() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000 * 1000, histogram.getMaxNanos());
+        assertEquals(500500, histogram.getMeanNanos());
+        assertWithin(500 * 1000, histogram.getPercentileNanos(50));
+        assertWithin(950 * 1000, histogram.getPercentileNanos(95));
+        assertEquals(1000 * 1000, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void histogram_emptyShouldReportZero() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos());
+    }
+
+    @Test
+    public void registry_shouldCountAndComputeHitRates() throws Exception {
+        MetricsRegistry registry = new MetricsRegistry();
+        registry.increment("api.openpgp.SIGN.error");
+        registry.recordCacheAccess(MetricsRegistry.CACHE_PASSPHRASE, true);
+        registry.recordCacheAccess(MetricsRegistry.CACHE_PASSPHRASE, true);
+        registry.recordCacheAccess(MetricsRegistry.CACHE_PASSPHRASE, true);
+        registry.recordCacheAccess(MetricsRegistry.CACHE_PASSPHRASE, false);
+        registry.recordCallerNanos("api.openpgp.SIGN", 10123, 2000);
+
+        assertEquals(1, registry.getCount("api.openpgp.SIGN.error"));
+        assertEquals(1, registry.getHistogram("api.openpgp.SIGN").getCount());
+        assertEquals(1, registry.getHistogram("api.openpgp.SIGN@10123").getCount());
+
+        JSONObject json = registry.toJson(null);
+        assertEquals(0.75, json.getJSONObject("cache_hit_rates").getDouble(MetricsRegistry.CACHE_PASSPHRASE), 0.001);
+        assertTrue(json.getJSONObject("histograms").has("api.openpgp.SIGN@10123"));
+
+        registry.reset();
+        assertEquals(0, registry.getCount("api.openpgp.SIGN.error"));
+        assertNull(registry.getHistogram("api.openpgp.SIGN"));
+    }
+
+    @Test
+    public void getActionName_shouldStripPrefix() throws Exception {
+        assertEquals("DECRYPT_VERIFY", MetricsRegistry.getActionName("org.openintents.openpgp.action.DECRYPT_VERIFY"));
+        assertEquals("none", MetricsRegistry.getActionName(null));
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + ", got " + actual, Math.abs(expected - actual) <= expected / 8);
+    }
+}
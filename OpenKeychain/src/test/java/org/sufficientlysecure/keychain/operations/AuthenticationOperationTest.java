@@ -39,12 +39,17 @@ import org.junit.runner.RunWith;
 import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowLog;
 import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.DatabaseNotifyManager;
 import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.daos.KeyRepository.NotFoundException;
 import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.metrics.MetricsRegistry;
 import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKey;
 import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
 import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
 import org.sufficientlysecure.keychain.ssh.AuthenticationData;
+import org.sufficientlysecure.keychain.ssh.AuthenticationKeyCache;
+import org.sufficientlysecure.keychain.ssh.AuthenticationKeyCache.PreparedAuthenticationKey;
 import org.sufficientlysecure.keychain.ssh.AuthenticationOperation;
 import org.sufficientlysecure.keychain.ssh.AuthenticationParcel;
 import org.sufficientlysecure.keychain.ssh.AuthenticationResult;
@@ -394,4 +399,170 @@ public class AuthenticationOperationTest {
             Assert.assertFalse("authentication must fail with selected key disallowed", result.success());
         }
     }
+
+    @Test
+    public void testAuthenticateWithPreparedKey() throws Exception {
+
+        byte[] challenge = "dies ist ein challenge ☭".getBytes();
+
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+
+        long masterKeyId = mStaticRingEcDsa.getMasterKeyId();
+        Long authSubKeyId = keyRepository.getEffectiveAuthenticationKeyId(masterKeyId);
+
+        PreparedAuthenticationKey preparedKey =
+                AuthenticationKeyCache.getInstance().getPreparedKey(keyRepository, masterKeyId);
+        Assert.assertEquals("prepared key must use the effective authentication key",
+                (long) authSubKeyId, preparedKey.getAuthSubKeyId());
+
+        { // sign challenge
+            AuthenticationResult result = authenticateWithoutSubKeyId(keyRepository, masterKeyId, challenge,
+                    mKeyPhrase);
+            Assert.assertTrue("authentication must succeed", result.success());
+        }
+
+        Assert.assertSame("prepared key must be reused",
+                preparedKey, AuthenticationKeyCache.getInstance().getPreparedKey(keyRepository, masterKeyId));
+
+        { // sign challenge again - uses the prepared key
+            AuthenticationResult result = authenticateWithoutSubKeyId(keyRepository, masterKeyId, challenge,
+                    mKeyPhrase);
+            Assert.assertTrue("authentication must succeed with prepared key", result.success());
+
+            CanonicalizedPublicKey canonicalizedPublicKey = keyRepository.getCanonicalizedPublicKeyRing(masterKeyId)
+                    .getPublicKey(authSubKeyId);
+            Signature signatureVerifier = Signature.getInstance("SHA512withECDSA");
+            signatureVerifier.initVerify(canonicalizedPublicKey.getJcaPublicKey());
+            signatureVerifier.update(challenge);
+            Assert.assertTrue("signature must be valid", signatureVerifier.verify(result.getSignature()));
+        }
+
+        { // sign challenge with wrong passphrase - the key must be unlocked for every request
+            AuthenticationResult result = authenticateWithoutSubKeyId(keyRepository, masterKeyId, challenge,
+                    new Passphrase("y"));
+            Assert.assertFalse("authentication must fail with wrong passphrase", result.success());
+        }
+    }
+
+    @Test
+    public void testPreparedKeyIsDroppedOnKeyChange() throws Exception {
+        KeyWritableRepository keyWritableRepository = KeyWritableRepository.create(RuntimeEnvironment.application);
+
+        long masterKeyId = mStaticRingEdDsa.getMasterKeyId();
+        PreparedAuthenticationKey preparedKey =
+                AuthenticationKeyCache.getInstance().getPreparedKey(keyWritableRepository, masterKeyId);
+        Assert.assertSame(preparedKey,
+                AuthenticationKeyCache.getInstance().getPreparedKey(keyWritableRepository, masterKeyId));
+
+        keyWritableRepository.saveSecretKeyRing(mStaticRingEdDsa);
+
+        Assert.assertNotSame("prepared key must be reloaded after the key was saved",
+                preparedKey, AuthenticationKeyCache.getInstance().getPreparedKey(keyWritableRepository, masterKeyId));
+
+        keyWritableRepository.deleteKeyRing(masterKeyId);
+
+        try {
+            AuthenticationKeyCache.getInstance().getPreparedKey(keyWritableRepository, masterKeyId);
+            Assert.fail("prepared key must not be available after the key was deleted");
+        } catch (NotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPreparedKeyIsDroppedOnKeyChangeInOtherProcess() throws Exception {
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+
+        long masterKeyId = mStaticRingEdDsa.getMasterKeyId();
+        PreparedAuthenticationKey preparedKey =
+                AuthenticationKeyCache.getInstance().getPreparedKey(keyRepository, masterKeyId);
+
+        // another process only reaches this one through the change notification
+        DatabaseNotifyManager.create(RuntimeEnvironment.application).notifyKeyChange(masterKeyId);
+
+        Assert.assertNotSame("prepared key must be reloaded after a key change notification",
+                preparedKey, AuthenticationKeyCache.getInstance().getPreparedKey(keyRepository, masterKeyId));
+    }
+
+    @Test
+    public void testUnlockedKeyIsKeptOnlyWhilePassphraseIsCached() throws Exception {
+
+        byte[] challenge = "dies ist ein challenge ☭".getBytes();
+
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        String unlockedKeyHits = AuthenticationKeyCache.METRIC_UNLOCKED_KEY + MetricsRegistry.SUFFIX_HIT;
+        String unlockedKeyMisses = AuthenticationKeyCache.METRIC_UNLOCKED_KEY + MetricsRegistry.SUFFIX_MISS;
+
+        long masterKeyId = mStaticRingEcDsa.getMasterKeyId();
+        PreparedAuthenticationKey preparedKey =
+                AuthenticationKeyCache.getInstance().getPreparedKey(keyRepository, masterKeyId);
+
+        { // first request unlocks the key with the cached passphrase
+            AuthenticationResult result =
+                    authenticateWithCachedPassphrase(keyRepository, masterKeyId, challenge, mKeyPhrase);
+            Assert.assertTrue("authentication must succeed", result.success());
+            Assert.assertNotNull("unlocked key must be kept", preparedKey.getUnlockedAuthKey());
+        }
+
+        long hitsBefore = metrics.getCount(unlockedKeyHits);
+        { // passphrase still cached - signs with the unlocked key
+            AuthenticationResult result =
+                    authenticateWithCachedPassphrase(keyRepository, masterKeyId, challenge, mKeyPhrase);
+            Assert.assertTrue("authentication must succeed with the unlocked key", result.success());
+            Assert.assertEquals(hitsBefore + 1, metrics.getCount(unlockedKeyHits));
+
+            CanonicalizedPublicKey canonicalizedPublicKey = keyRepository.getCanonicalizedPublicKeyRing(masterKeyId)
+                    .getPublicKey(preparedKey.getAuthSubKeyId());
+            Signature signatureVerifier = Signature.getInstance("SHA512withECDSA");
+            signatureVerifier.initVerify(canonicalizedPublicKey.getJcaPublicKey());
+            signatureVerifier.update(challenge);
+            Assert.assertTrue("signature must be valid", signatureVerifier.verify(result.getSignature()));
+        }
+
+        long missesBefore = metrics.getCount(unlockedKeyMisses);
+        { // passphrase no longer cached - the unlocked key is dropped, and the passphrase is asked for
+            AuthenticationResult result =
+                    authenticateWithCachedPassphrase(keyRepository, masterKeyId, challenge, null);
+            Assert.assertTrue("authentication must ask for the passphrase", result.isPending());
+            Assert.assertEquals(missesBefore + 1, metrics.getCount(unlockedKeyMisses));
+            Assert.assertNull("unlocked key must be dropped", preparedKey.getUnlockedAuthKey());
+        }
+    }
+
+    private AuthenticationResult authenticateWithCachedPassphrase(KeyRepository keyRepository, long masterKeyId,
+            byte[] challenge, Passphrase cachedPassphrase) {
+        AuthenticationOperation op = new AuthenticationOperation(RuntimeEnvironment.application, keyRepository) {
+            @Override
+            public Passphrase getCachedPassphrase(long masterKeyId, long subKeyId) {
+                return cachedPassphrase;
+            }
+        };
+
+        AuthenticationData.Builder authData = AuthenticationData.builder();
+        authData.setAuthenticationMasterKeyId(masterKeyId);
+        authData.setHashAlgorithm(HashAlgorithmTags.SHA512);
+
+        AuthenticationParcel authenticationParcel = AuthenticationParcel
+                .createAuthenticationParcel(authData.build(), challenge);
+
+        return op.execute(authData.build(), CryptoInputParcel.createCryptoInputParcel(), authenticationParcel);
+    }
+
+    private AuthenticationResult authenticateWithoutSubKeyId(KeyRepository keyRepository, long masterKeyId,
+            byte[] challenge, Passphrase passphrase) {
+        AuthenticationOperation op = new AuthenticationOperation(RuntimeEnvironment.application, keyRepository);
+
+        AuthenticationData.Builder authData = AuthenticationData.builder();
+        authData.setAuthenticationMasterKeyId(masterKeyId);
+        authData.setHashAlgorithm(HashAlgorithmTags.SHA512);
+
+        AuthenticationParcel authenticationParcel = AuthenticationParcel
+                .createAuthenticationParcel(authData.build(), challenge);
+
+        CryptoInputParcel inputParcel = CryptoInputParcel.createCryptoInputParcel();
+        inputParcel = inputParcel.withPassphrase(passphrase, null);
+
+        return op.execute(authData.build(), inputParcel, authenticationParcel);
+    }
 }
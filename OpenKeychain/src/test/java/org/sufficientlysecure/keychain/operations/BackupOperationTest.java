@@ -20,12 +20,13 @@ package org.sufficientlysecure.keychain.operations;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.security.Security;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.Application;
 import android.content.ContentResolver;
@@ -71,6 +72,7 @@ import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -290,17 +292,9 @@ public class BackupOperationTest {
         Application spyApplication;
         ContentResolver mockResolver = mock(ContentResolver.class);
 
-        Uri fakePipedUri, fakeOutputUri;
+        Uri fakeOutputUri;
         ByteArrayOutputStream outStream; {
 
-            fakePipedUri = Uri.parse("content://fake/pipe/1");
-            PipedInputStream pipedInStream = new PipedInputStream(8192);
-            PipedOutputStream pipedOutStream = new PipedOutputStream(pipedInStream);
-            when(mockResolver.openOutputStream(fakePipedUri)).thenReturn(pipedOutStream);
-            when(mockResolver.openInputStream(fakePipedUri)).thenReturn(pipedInStream);
-            when(mockResolver.insert(eq(TemporaryFileProvider.CONTENT_URI), any(ContentValues.class)))
-                    .thenReturn(fakePipedUri);
-
             fakeOutputUri = Uri.parse("content://fake/out/1");
             outStream = new ByteArrayOutputStream();
             when(mockResolver.openOutputStream(fakeOutputUri)).thenReturn(outStream);
@@ -320,8 +314,8 @@ public class BackupOperationTest {
             CryptoInputParcel inputParcel = CryptoInputParcel.createCryptoInputParcel(passphrase);
             ExportResult result = op.execute(parcel, inputParcel);
 
-            verify(mockResolver).openOutputStream(fakePipedUri);
-            verify(mockResolver).openInputStream(fakePipedUri);
+            // the keys are encrypted as they are exported, without a temporary plaintext file
+            verify(mockResolver, never()).insert(eq(TemporaryFileProvider.CONTENT_URI), any(ContentValues.class));
             verify(mockResolver).openOutputStream(fakeOutputUri);
 
             assertTrue("export must succeed", result.success());
@@ -382,6 +376,48 @@ public class BackupOperationTest {
 
     }
 
+    @Test
+    public void testExportEncryptedWithFailingOutput() throws Exception {
+        OutputStream failingOutStream = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("output gone");
+            }
+        };
+
+        BackupOperation op = new BackupOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null);
+
+        BackupKeyringParcel parcel = BackupKeyringParcel.create(null, true, true, true, null);
+        ExportResult result = op.execute(parcel,
+                CryptoInputParcel.createCryptoInputParcel(new Passphrase("abcde")), failingOutStream);
+
+        assertFalse("export must fail", result.success());
+        assertFalse("export must not be cancelled", result.cancelled());
+        assertTrue("log must contain the encryption error",
+                result.getLog().containsType(LogType.MSG_PSE_ERROR_IO));
+        assertFalse("the export stopped by the encryption must not be reported as io error",
+                result.getLog().containsType(LogType.MSG_BACKUP_ERROR_IO));
+    }
+
+    @Test
+    public void testExportEncryptedCancelled() throws Exception {
+        BackupOperation op = new BackupOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null, new AtomicBoolean(true));
+
+        BackupKeyringParcel parcel = BackupKeyringParcel.create(null, true, true, true, null);
+        ExportResult result = op.execute(parcel,
+                CryptoInputParcel.createCryptoInputParcel(new Passphrase("abcde")), new ByteArrayOutputStream());
+
+        assertTrue("export must be cancelled", result.cancelled());
+        assertTrue("log must contain the cancel",
+                result.getLog().containsType(LogType.MSG_OPERATION_CANCELLED));
+        assertFalse("a cancel must not be reported as io error",
+                result.getLog().containsType(LogType.MSG_BACKUP_ERROR_IO));
+        assertFalse("a cancel must not be reported as encryption error",
+                result.getLog().containsType(LogType.MSG_PSE_ERROR_IO));
+    }
+
 
     /** This function checks whether or not there are any local signatures in a keyring. */
     private boolean checkForLocal(UncachedKeyRing ring) {
@@ -18,7 +18,11 @@
 package org.sufficientlysecure.keychain.operations;
 
 
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.json.JSONObject;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,10 +30,22 @@ import org.robolectric.RuntimeEnvironment;
 import org.robolectric.shadows.ShadowLog;
 import org.sufficientlysecure.keychain.KeychainTestRunner;
 import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkCellResult;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkResult;
+import org.sufficientlysecure.keychain.operations.results.BenchmarkStatistics;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
 import org.sufficientlysecure.keychain.service.BenchmarkInputParcel;
+import org.sufficientlysecure.keychain.service.BenchmarkInputParcel.BenchmarkKeyType;
 
 import java.io.PrintStream;
 import java.security.Security;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 
 @RunWith(KeychainTestRunner.class)
@@ -49,7 +65,83 @@ public class BenchmarkOperationTest {
         BenchmarkOperation op = new BenchmarkOperation(RuntimeEnvironment.application,
                 KeyWritableRepository.create(RuntimeEnvironment.application), null);
 
-        op.execute(BenchmarkInputParcel.newInstance(), null);
+        BenchmarkResult result = op.execute(BenchmarkInputParcel.newInstance(), null);
+
+        assertTrue(result.success());
+        assertEquals(1, result.getCells().size());
+        assertEquals(BenchmarkKeyType.SYMMETRIC, result.getCells().get(0).getKeyType());
+        assertTrue(result.getLog().containsType(LogType.MSG_BENCH_S2K_100MS_ITS));
+        assertTrue(result.getLog().containsType(LogType.MSG_BENCH_S2K_100MS_BYTES));
+        assertFalse(result.getLog().containsType(LogType.MSG_BENCH_COMPRESS_ALWAYS_TIME));
+        assertFalse(result.getLog().containsType(LogType.MSG_BENCH_RECIPIENTS_TIME));
+    }
+
+    @Test
+    public void testBenchmarkMatrix_symmetricAndEd25519() throws Exception {
+        BenchmarkOperation op = new BenchmarkOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null);
+
+        BenchmarkInputParcel input = BenchmarkInputParcel.builder()
+                .setHashAlgorithms(Arrays.asList(HashAlgorithmTags.SHA256, HashAlgorithmTags.SHA512))
+                .setKeyTypes(Arrays.asList(BenchmarkKeyType.SYMMETRIC, BenchmarkKeyType.ED25519))
+                .setPayloadSizes(Collections.singletonList(1024))
+                .setMeasuredIterations(1)
+                .build();
+        BenchmarkResult result = op.execute(input, null);
+
+        assertTrue(result.success());
+        // the symmetric cell doesn't sign, so it is not repeated for each hash
+        assertEquals(3, input.getCellCount());
+        assertEquals(3, result.getCells().size());
+        assertEquals(BenchmarkKeyType.SYMMETRIC, result.getCells().get(0).getKeyType());
+        assertEquals(BenchmarkKeyType.ED25519, result.getCells().get(1).getKeyType());
+        assertEquals(HashAlgorithmTags.SHA256, result.getCells().get(1).getHashAlgorithm());
+        assertEquals(HashAlgorithmTags.SHA512, result.getCells().get(2).getHashAlgorithm());
+    }
+
+    @Test
+    public void testBenchmark_cancelled() throws Exception {
+        BenchmarkOperation op = new BenchmarkOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null, new AtomicBoolean(true));
+
+        BenchmarkResult result = op.execute(BenchmarkInputParcel.newInstance(), null);
+
+        assertTrue(result.cancelled());
+        assertTrue(result.getCells().isEmpty());
+        assertTrue(result.getLog().containsType(LogType.MSG_OPERATION_CANCELLED));
+    }
+
+    @Test
+    public void testBenchmarkMatrix() throws Exception {
+        BenchmarkOperation op = new BenchmarkOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null);
+
+        BenchmarkInputParcel input = BenchmarkInputParcel.builder()
+                .setSymmetricAlgorithms(Arrays.asList(SymmetricKeyAlgorithmTags.AES_128,
+                        SymmetricKeyAlgorithmTags.AES_256))
+                .setCompressionAlgorithms(Arrays.asList(CompressionAlgorithmTags.UNCOMPRESSED,
+                        CompressionAlgorithmTags.ZLIB))
+                .setKeyTypes(Collections.singletonList(BenchmarkKeyType.NIST_P256))
+                .setPayloadSizes(Collections.singletonList(1024))
+                .setWarmupIterations(1)
+                .setMeasuredIterations(3)
+                .build();
+        BenchmarkResult result = op.execute(input, null);
+
+        assertTrue(result.success());
+        assertEquals(4, result.getCells().size());
+        for (BenchmarkCellResult cell : result.getCells()) {
+            BenchmarkStatistics statistics = cell.getSignEncryptStatistics();
+            assertEquals(3, statistics.getIterations());
+            assertTrue(statistics.getMinNanos() <= statistics.getMedianNanos());
+            assertTrue(statistics.getMedianNanos() <= statistics.getP95Nanos());
+            assertTrue(statistics.getMegabytesPerSecond() > 0);
+        }
+        assertTrue(result.getS2kBytesFor100ms() > 0);
+
+        // one header line, and two lines per cell
+        assertEquals(9, result.toCsv().split("\n").length);
+        assertEquals(4, new JSONObject(result.toJson()).getJSONArray("cells").length());
     }
 
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.pgp;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.bouncycastle.openpgp.PGPSignature;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyByte;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+
+/**
+ * Checks that CleartextLineScanner produces exactly the same cleartext and signed data as the
+ * byte-wise readInputLine/readPastEOL implementation it replaced, which is kept here for reference.
+ */
+@RunWith(KeychainTestRunner.class)
+public class CleartextLineScannerTest {
+
+    private static final byte[] LINE_SEPARATOR = "\n".getBytes();
+
+    private static final String[] EDGE_CASES = {
+            "", "\n", "\r", "\r\n", "\n\n", "\r\r\n", "\n\r",
+            "a", "a\n", "a\r\n", "a\nb", "a\r\nb\r\n", "a\rb\r", "a\n\n", "a\r\n\r\n",
+            "trailing space  \nand tab\t\n", " \t \n\t", "  leading", "mixed \r\n line\rendings\n \n",
+    };
+
+    @Test
+    public void testEdgeCases() throws Exception {
+        for (String input : EDGE_CASES) {
+            assertEquivalent(input.getBytes());
+        }
+    }
+
+    @Test
+    public void testRandomInputs() throws Exception {
+        byte[] alphabet = { 'a', 'b', ' ', '\t', '\r', '\n' };
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2000; i++) {
+            byte[] input = new byte[random.nextInt(64)];
+            for (int j = 0; j < input.length; j++) {
+                input[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertEquivalent(input);
+        }
+    }
+
+    @Test
+    public void testLongLines() throws Exception {
+        byte[] input = new byte[100 * 1024];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) (i % 5000 == 4999 ? '\n' : 'x');
+        }
+        assertEquivalent(input);
+    }
+
+    private static void assertEquivalent(byte[] input) throws Exception {
+        byte[] expectedClearText = readClearTextLegacy(new ByteArrayInputStream(input));
+        byte[] clearText = readClearText(new ByteArrayInputStream(input));
+        assertArrayEquals(expectedClearText, clearText);
+
+        byte[] expectedSignedData = getSignedDataLegacy(clearText);
+        byte[] signedData = getSignedData(clearText);
+        assertArrayEquals(expectedSignedData, signedData);
+    }
+
+    private static byte[] readClearText(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CleartextLineScanner lineScanner = new CleartextLineScanner(in);
+
+        lineScanner.readLine();
+        out.write(lineScanner.getLineBuffer(), 0, lineScanner.getLineLength());
+        out.write(LINE_SEPARATOR);
+
+        while (lineScanner.hasNextLine()) {
+            lineScanner.readLine();
+            out.write(lineScanner.getLineBuffer(), 0, lineScanner.getLineLength());
+            out.write(LINE_SEPARATOR);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] getSignedData(byte[] clearText) throws Exception {
+        final ByteArrayOutputStream signedData = new ByteArrayOutputStream();
+        PGPSignature signature = mock(PGPSignature.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                Object[] args = invocation.getArguments();
+                signedData.write((byte[]) args[0], (int) args[1], (int) args[2]);
+                return null;
+            }
+        }).when(signature).update(any(byte[].class), anyInt(), anyInt());
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                signedData.write((byte) invocation.getArguments()[0]);
+                return null;
+            }
+        }).when(signature).update(anyByte());
+
+        CleartextLineScanner.updateSignature(signature, clearText, clearText.length);
+        return signedData.toByteArray();
+    }
+
+    // legacy implementation, as in PgpDecryptVerifyOperation and PgpSignatureChecker before
+
+    private static byte[] readClearTextLegacy(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ByteArrayOutputStream lineOut = new ByteArrayOutputStream();
+        int lookAhead = readInputLine(lineOut, in);
+
+        byte[] line = lineOut.toByteArray();
+        out.write(line, 0, getLengthWithoutWhiteSpace(line, false));
+        out.write(LINE_SEPARATOR);
+
+        while (lookAhead != -1) {
+            lookAhead = readInputLine(lineOut, lookAhead, in);
+            line = lineOut.toByteArray();
+            out.write(line, 0, getLengthWithoutWhiteSpace(line, false));
+            out.write(LINE_SEPARATOR);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] getSignedDataLegacy(byte[] clearText) throws IOException {
+        ByteArrayOutputStream signedData = new ByteArrayOutputStream();
+        InputStream sigIn = new ByteArrayInputStream(clearText);
+        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+
+        int lookAhead = readInputLine(outputBuffer, sigIn);
+        byte[] line = outputBuffer.toByteArray();
+        signedData.write(line, 0, getLengthWithoutWhiteSpace(line, true));
+
+        while (lookAhead != -1) {
+            lookAhead = readInputLine(outputBuffer, lookAhead, sigIn);
+
+            signedData.write('\r');
+            signedData.write('\n');
+
+            line = outputBuffer.toByteArray();
+            signedData.write(line, 0, getLengthWithoutWhiteSpace(line, true));
+        }
+        return signedData.toByteArray();
+    }
+
+    private static int readInputLine(ByteArrayOutputStream bOut, InputStream fIn) throws IOException {
+        bOut.reset();
+
+        int lookAhead = -1;
+        int ch;
+
+        while ((ch = fIn.read()) >= 0) {
+            bOut.write(ch);
+            if (ch == '\r' || ch == '\n') {
+                lookAhead = readPastEOL(bOut, ch, fIn);
+                break;
+            }
+        }
+
+        return lookAhead;
+    }
+
+    private static int readInputLine(ByteArrayOutputStream bOut, int lookAhead, InputStream fIn)
+            throws IOException {
+        bOut.reset();
+
+        int ch = lookAhead;
+
+        do {
+            bOut.write(ch);
+            if (ch == '\r' || ch == '\n') {
+                lookAhead = readPastEOL(bOut, ch, fIn);
+                break;
+            }
+        } while ((ch = fIn.read()) >= 0);
+
+        if (ch < 0) {
+            lookAhead = -1;
+        }
+
+        return lookAhead;
+    }
+
+    private static int readPastEOL(ByteArrayOutputStream bOut, int lastCh, InputStream fIn) throws IOException {
+        int lookAhead = fIn.read();
+
+        if (lastCh == '\r' && lookAhead == '\n') {
+            bOut.write(lookAhead);
+            lookAhead = fIn.read();
+        }
+
+        return lookAhead;
+    }
+
+    private static int getLengthWithoutWhiteSpace(byte[] line, boolean stripSpaces) {
+        int end = line.length - 1;
+
+        while (end >= 0 && (line[end] == '\r' || line[end] == '\n'
+                || (stripSpaces && (line[end] == '\t' || line[end] == ' ')))) {
+            end--;
+        }
+
+        return end + 1;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.pgp;
+
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.pgp.CompressionHeuristic.CompressionDecision;
+
+
+@RunWith(KeychainTestRunner.class)
+public class CompressionHeuristicTest {
+
+    @Test
+    public void decideByType_shouldSkipCompressedTypes() throws Exception {
+        Assert.assertEquals(CompressionDecision.SKIP_MIME_TYPE,
+                CompressionHeuristic.decideByType("image/jpeg", null));
+        Assert.assertEquals(CompressionDecision.SKIP_MIME_TYPE,
+                CompressionHeuristic.decideByType("video/mp4", "movie"));
+        Assert.assertEquals(CompressionDecision.SKIP_MIME_TYPE,
+                CompressionHeuristic.decideByType(null, "app-release.APK"));
+    }
+
+    @Test
+    public void decideByType_shouldCompressOtherTypes() throws Exception {
+        Assert.assertEquals(CompressionDecision.COMPRESS,
+                CompressionHeuristic.decideByType("text/plain", "notes.txt"));
+        Assert.assertEquals(CompressionDecision.COMPRESS,
+                CompressionHeuristic.decideByType("audio/x-wav", null));
+        Assert.assertEquals(CompressionDecision.COMPRESS,
+                CompressionHeuristic.decideByType(null, "no_extension."));
+        Assert.assertEquals(CompressionDecision.COMPRESS,
+                CompressionHeuristic.decideByType(null, null));
+    }
+
+    @Test
+    public void decideBySample_shouldSkipRandomData() throws Exception {
+        byte[] data = new byte[100 * 1024];
+        new Random(42).nextBytes(data);
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+        Assert.assertEquals(CompressionDecision.SKIP_HIGH_ENTROPY, CompressionHeuristic.decideBySample(in));
+
+        byte[] readBack = new byte[data.length];
+        int read = 0, length;
+        while ((length = in.read(readBack, read, readBack.length - read)) > 0) {
+            read += length;
+        }
+        Assert.assertTrue("stream must be reset after sampling", Arrays.equals(data, readBack));
+    }
+
+    @Test
+    public void decideBySample_shouldCompressText() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < 100 * 1024) {
+            builder.append("The quick brown fox jumps over the lazy dog. ");
+        }
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(builder.toString().getBytes()));
+        Assert.assertEquals(CompressionDecision.COMPRESS, CompressionHeuristic.decideBySample(in));
+    }
+
+    @Test
+    public void decideBySample_shouldCompressShortInput() throws Exception {
+        byte[] data = new byte[100];
+        new Random(42).nextBytes(data);
+
+        InputStream in = new BufferedInputStream(new ByteArrayInputStream(data));
+        Assert.assertEquals(CompressionDecision.COMPRESS, CompressionHeuristic.decideBySample(in));
+    }
+
+}
@@ -36,6 +36,7 @@ import org.bouncycastle.bcpg.PublicKeyEncSessionPacket;
 import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
 import org.bouncycastle.bcpg.sig.KeyFlags;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Arrays;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -49,6 +50,8 @@ import org.robolectric.shadows.ShadowLog;
 import org.sufficientlysecure.keychain.KeychainTestRunner;
 import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
 import org.sufficientlysecure.keychain.operations.results.OperationResult.LogType;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings;
+import org.sufficientlysecure.keychain.operations.results.OperationTimings.Phase;
 import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
 import org.sufficientlysecure.keychain.pgp.SecurityProblem.InsecureBitStrength;
 import org.sufficientlysecure.keychain.pgp.SecurityProblem.InsecureEncryptionAlgorithm;
@@ -461,6 +464,78 @@ public class PgpEncryptDecryptTest {
 
     }
 
+    @Test
+    public void testAsymmetricSignDetached_multipleSignatures() {
+
+        String plaintext = "dies ist ein plaintext ☭";
+
+        byte[] signature1 = signDetached(mStaticRing1, mKeyPhrase1, plaintext.getBytes());
+        byte[] signature2 = signDetached(mStaticRing2, mKeyPhrase2, plaintext.getBytes());
+        byte[] badSignature = signDetached(mStaticRing2, mKeyPhrase2, "some other text".getBytes());
+        byte[] insecureSignature = signDetached(mStaticRingInsecure, new Passphrase(""), plaintext.getBytes());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayInputStream in = new ByteArrayInputStream(plaintext.getBytes());
+        InputData data = new InputData(in, in.available());
+
+        // two signature packets in one signature file, like a .sig from several maintainers
+        ArrayList<byte[]> detachedSignatures = new ArrayList<>();
+        detachedSignatures.add(Arrays.concatenate(signature1, signature2));
+        detachedSignatures.add(badSignature);
+        detachedSignatures.add(insecureSignature);
+
+        PgpDecryptVerifyOperation op = operationWithFakePassphraseCache(null, null, null);
+        PgpDecryptVerifyInputParcel input = PgpDecryptVerifyInputParcel.builder()
+                .setDetachedSignatures(detachedSignatures)
+                .build();
+        DecryptVerifyResult result = op.execute(input, CryptoInputParcel.createCryptoInputParcel(), data, out);
+
+        Assert.assertTrue("verification must succeed", result.success());
+        Assert.assertArrayEquals("data must be passed through", plaintext.getBytes(), out.toByteArray());
+
+        ArrayList<OpenPgpSignatureResult> signatureResults = result.getSignatureResults();
+        Assert.assertEquals("one result per signature packet", 4, signatureResults.size());
+        Assert.assertEquals(OpenPgpSignatureResult.RESULT_VALID_KEY_CONFIRMED, signatureResults.get(0).getResult());
+        Assert.assertEquals(mStaticRing1.getMasterKeyId(), signatureResults.get(0).getKeyId());
+        Assert.assertEquals(OpenPgpSignatureResult.RESULT_VALID_KEY_CONFIRMED, signatureResults.get(1).getResult());
+        Assert.assertEquals(mStaticRing2.getMasterKeyId(), signatureResults.get(1).getKeyId());
+        Assert.assertEquals("signature over other data must be invalid",
+                OpenPgpSignatureResult.RESULT_INVALID_SIGNATURE, signatureResults.get(2).getResult());
+        Assert.assertEquals(OpenPgpSignatureResult.RESULT_INVALID_KEY_INSECURE, signatureResults.get(3).getResult());
+
+        ArrayList<DecryptVerifySecurityProblem> securityProblems = result.getSignatureSecurityProblems();
+        Assert.assertEquals(4, securityProblems.size());
+        Assert.assertNull("secure signatures must not inherit problems of others", securityProblems.get(0));
+        Assert.assertNull(securityProblems.get(1));
+        Assert.assertNull(securityProblems.get(2));
+        InsecureBitStrength signingKeySecurityProblem =
+                (InsecureBitStrength) securityProblems.get(3).signingKeySecurityProblem;
+        Assert.assertEquals(mStaticRingInsecure.getMasterKeyId(), signingKeySecurityProblem.masterKeyId);
+
+        Assert.assertEquals("first signature stands in for single-result callers",
+                signatureResults.get(0).getResult(), result.getSignatureResult().getResult());
+        Assert.assertNull(result.getSecurityProblem());
+    }
+
+    private byte[] signDetached(UncachedKeyRing ring, Passphrase passphrase, byte[] data) {
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+
+        PgpSignEncryptOperation op = new PgpSignEncryptOperation(RuntimeEnvironment.application,
+                KeyWritableRepository.create(RuntimeEnvironment.application), null);
+
+        PgpSignEncryptData.Builder pgpData = PgpSignEncryptData.builder();
+        pgpData.setSignatureMasterKeyId(ring.getMasterKeyId());
+        pgpData.setSignatureSubKeyId(KeyringTestingHelper.getSubkeyId(ring, 1));
+        pgpData.setDetachedSignature(true);
+
+        PgpSignEncryptResult result = op.execute(pgpData.build(),
+                CryptoInputParcel.createCryptoInputParcel(passphrase), new InputData(in, in.available()),
+                new ByteArrayOutputStream());
+        Assert.assertTrue("signing must succeed", result.success());
+
+        return result.getDetachedSignature();
+    }
+
     @Test
     public void testAsymmetricEncryptDecrypt() {
 
@@ -485,6 +560,8 @@ public class PgpEncryptDecryptTest {
                     CryptoInputParcel.createCryptoInputParcel(new Date()),
                     data, out);
             Assert.assertTrue("encryption must succeed", result.success());
+            Assert.assertTrue("session key encryption must be timed",
+                    result.getTimings().getNanos(Phase.SESSION_KEY) > 0);
 
             ciphertext = out.toByteArray();
         }
@@ -507,6 +584,13 @@ public class PgpEncryptDecryptTest {
             Assert.assertEquals("signatureResult should be RESULT_NO_SIGNATURE",
                     OpenPgpSignatureResult.RESULT_NO_SIGNATURE, result.getSignatureResult().getResult());
 
+            OperationTimings timings = result.getTimings();
+            Assert.assertTrue("key lookup must be timed", timings.getNanos(Phase.KEY_LOOKUP) > 0);
+            Assert.assertTrue("key unlock must be timed", timings.getNanos(Phase.KEY_UNLOCK) > 0);
+            Assert.assertTrue("bulk decryption must be timed", timings.getNanos(Phase.BULK_CRYPTO) > 0);
+            Assert.assertEquals("no passphrase cache lookup with provided passphrase",
+                    0, timings.getNanos(Phase.PASSPHRASE_CACHE));
+
             CryptoInputParcel cryptoInput = result.getCachedCryptoInputParcel();
             Assert.assertEquals("must have one cached session key",
                     1, cryptoInput.getCryptoData().size());
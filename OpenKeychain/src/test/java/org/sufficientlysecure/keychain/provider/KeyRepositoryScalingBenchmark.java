@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.provider;
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.ApiAppDao;
+import org.sufficientlysecure.keychain.daos.AutocryptPeerDao;
+import org.sufficientlysecure.keychain.daos.KeyRepository;
+import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.daos.UserIdDao;
+import org.sufficientlysecure.keychain.model.ApiApp;
+import org.sufficientlysecure.keychain.model.AutocryptPeer.AutocryptKeyStatus;
+import org.sufficientlysecure.keychain.model.UserPacket.UidStatus;
+import org.sufficientlysecure.keychain.operations.results.OperationResult;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+import org.sufficientlysecure.keychain.support.KeyringCorpusGenerator;
+import org.sufficientlysecure.keychain.util.Preferences;
+import org.sufficientlysecure.keychain.util.ProgressScaler;
+
+
+/**
+ * Measures how the key database scales with the number of keys: import throughput,
+ * loading the key list, looking up the status of email addresses and autocrypt peers,
+ * recomputing trust after a certifier changed, and deleting keys.
+ * <p/>
+ * This takes hours at the largest scale, so it only runs when asked for:
+ * <pre>
+ * ./gradlew :OpenKeychain:testDebugUnitTest --tests '*KeyRepositoryScalingBenchmark' \
+ *         -PscalingBenchmark=10000,50000
+ * </pre>
+ * The database grows from one scale to the next, so each scale only imports the
+ * difference. Results are written as csv lines of scale, metric and value.
+ */
+@RunWith(KeychainTestRunner.class)
+public class KeyRepositoryScalingBenchmark {
+    private static final String PROPERTY_SCALES = "keychain.scalingBenchmark";
+    private static final String PROPERTY_REPORT = "keychain.scalingBenchmark.report";
+    private static final String DEFAULT_SCALES = "10000,50000,100000,200000";
+    private static final String DEFAULT_REPORT = "build/reports/scaling-benchmark.csv";
+
+    private static final long CORPUS_SEED = 1;
+    private static final int SAMPLE_COUNT = 100;
+    // about the number of recipients of a large mail, looked up on every change of the recipient list
+    private static final int RECIPIENT_COUNT = 50;
+    private static final String PACKAGE_NAME = "org.example.benchmark";
+
+    private KeyWritableRepository databaseInteractor;
+    private KeyringCorpusGenerator corpusGenerator;
+    private List<Long> masterKeyIds;
+    private PrintWriter report;
+
+    @Before
+    public void setUp() throws Exception {
+        String scales = System.getProperty(PROPERTY_SCALES);
+        Assume.assumeTrue("scaling benchmark not requested", scales != null);
+
+        databaseInteractor = KeyWritableRepository.create(RuntimeEnvironment.application);
+        corpusGenerator = new KeyringCorpusGenerator(CORPUS_SEED);
+        masterKeyIds = new ArrayList<>();
+
+        ApiAppDao.getInstance(RuntimeEnvironment.application)
+                .insertApiApp(ApiApp.create(PACKAGE_NAME, new byte[] { 1, 2, 3 }));
+    }
+
+    @Test
+    public void benchmarkScaling() throws Exception {
+        File reportFile = new File(System.getProperty(PROPERTY_REPORT, DEFAULT_REPORT));
+        reportFile.getParentFile().mkdirs();
+        report = new PrintWriter(new FileWriter(reportFile));
+        try {
+            report("scale", "metric", "value");
+            for (int scale : parseScales(System.getProperty(PROPERTY_SCALES))) {
+                benchmarkImport(scale);
+                benchmarkKeyList(scale);
+                benchmarkEmailStatus(scale);
+                benchmarkRecipientStatus(scale);
+                benchmarkTrustRecompute(scale);
+                benchmarkDelete(scale);
+            }
+        } finally {
+            report.close();
+        }
+    }
+
+    private void benchmarkImport(int scale) {
+        int first = masterKeyIds.size();
+        long elapsed = 0;
+        for (int i = first; i < scale; i++) {
+            // generating keys takes longer than saving them, so only the saving is timed
+            UncachedKeyRing keyRing = corpusGenerator.createKeyRing(i);
+            long start = System.nanoTime();
+            saveKeyRing(i, keyRing);
+            elapsed += System.nanoTime() - start;
+            masterKeyIds.add(keyRing.getMasterKeyId());
+        }
+
+        int imported = scale - first;
+        report(scale, "import_keys", imported);
+        report(scale, "import_keys_per_s", imported * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed));
+    }
+
+    private void benchmarkKeyList(int scale) {
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+
+        long start = System.nanoTime();
+        int count = keyRepository.getAllUnifiedKeyInfo().size();
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertEquals(scale, count);
+        report(scale, "key_list_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    private void benchmarkEmailStatus(int scale) {
+        UserIdDao userIdDao = UserIdDao.getInstance(RuntimeEnvironment.application);
+        String[] emails = new String[SAMPLE_COUNT];
+        for (int i = 0; i < emails.length; i++) {
+            emails[i] = KeyringCorpusGenerator.getEmails(sampleIndex(scale, i, emails.length)).get(0);
+        }
+
+        long start = System.nanoTime();
+        for (String email : emails) {
+            userIdDao.getUidStatusByEmail(email);
+        }
+        long elapsedSingle = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<String, UidStatus> statuses = userIdDao.getUidStatusByEmail(emails);
+        long elapsedBatch = System.nanoTime() - start;
+
+        Assert.assertFalse(statuses.isEmpty());
+        report(scale, "email_status_single_us", TimeUnit.NANOSECONDS.toMicros(elapsedSingle) / emails.length);
+        report(scale, "email_status_batch_" + emails.length + "_ms", TimeUnit.NANOSECONDS.toMillis(elapsedBatch));
+    }
+
+    /** Looks up uid and autocrypt status of one mail's recipients at once, like the autocrypt status provider. */
+    private void benchmarkRecipientStatus(int scale) {
+        UserIdDao userIdDao = UserIdDao.getInstance(RuntimeEnvironment.application);
+        AutocryptPeerDao autocryptPeerDao = AutocryptPeerDao.getInstance(RuntimeEnvironment.application);
+
+        String[] recipients = new String[RECIPIENT_COUNT];
+        for (int i = 0; i < recipients.length; i++) {
+            int index = sampleIndex(scale, i, recipients.length);
+            recipients[i] = KeyringCorpusGenerator.getEmails(index).get(0);
+            autocryptPeerDao.updateKey(PACKAGE_NAME, recipients[i], new Date(), masterKeyIds.get(index), false);
+        }
+
+        long start = System.nanoTime();
+        Map<String, UidStatus> uidStatuses = userIdDao.getUidStatusByEmail(recipients);
+        List<AutocryptKeyStatus> autocryptStatuses = autocryptPeerDao.getAutocryptKeyStatus(PACKAGE_NAME, recipients);
+        long elapsed = System.nanoTime() - start;
+
+        Assert.assertFalse(uidStatuses.isEmpty());
+        Assert.assertEquals(recipients.length, autocryptStatuses.size());
+        report(scale, "recipient_status_" + recipients.length + "_us", TimeUnit.NANOSECONDS.toMicros(elapsed));
+    }
+
+    /** Recomputes trust for all keys certified by any certifier, like after importing a certifier's key. */
+    private void benchmarkTrustRecompute(int scale) {
+        Preferences.getPreferences(RuntimeEnvironment.application).setKeySignaturesTableInitialized();
+        List<Long> certifierMasterKeyIds =
+                masterKeyIds.subList(0, Math.min(KeyringCorpusGenerator.CERTIFIER_COUNT, masterKeyIds.size()));
+
+        long start = System.nanoTime();
+        OperationResult result = databaseInteractor.updateTrustDb(certifierMasterKeyIds, new ProgressScaler());
+        long elapsed = System.nanoTime() - start;
+        databaseInteractor.clearLog();
+
+        Assert.assertTrue(result.success());
+        report(scale, "trust_recompute_ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+    }
+
+    /** Deletes some keys, then puts them back untimed so the next scale starts from a complete corpus. */
+    private void benchmarkDelete(int scale) {
+        int[] indexes = new int[SAMPLE_COUNT];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = sampleIndex(scale, i, indexes.length);
+        }
+
+        long start = System.nanoTime();
+        for (int index : indexes) {
+            Assert.assertTrue(databaseInteractor.deleteKeyRing(masterKeyIds.get(index)));
+        }
+        long elapsed = System.nanoTime() - start;
+
+        for (int index : indexes) {
+            saveKeyRing(index, corpusGenerator.createKeyRing(index));
+        }
+        report(scale, "delete_single_us", TimeUnit.NANOSECONDS.toMicros(elapsed) / indexes.length);
+    }
+
+    private void saveKeyRing(int index, UncachedKeyRing keyRing) {
+        OperationResult result = KeyringCorpusGenerator.isSecret(index)
+                ? databaseInteractor.saveSecretKeyRing(keyRing)
+                : databaseInteractor.savePublicKeyRing(keyRing);
+        // the repository collects log entries of all operations, which adds up at this scale
+        databaseInteractor.clearLog();
+
+        Assert.assertTrue("key " + index + " must be saved", result.success());
+    }
+
+    /** Spreads sampleCount samples over the corpus, skipping the certifiers so trust data stays intact. */
+    private static int sampleIndex(int scale, int sample, int sampleCount) {
+        int range = scale - KeyringCorpusGenerator.CERTIFIER_COUNT;
+        return KeyringCorpusGenerator.CERTIFIER_COUNT + (int) ((long) sample * range / sampleCount);
+    }
+
+    private static List<Integer> parseScales(String scales) {
+        if (scales.isEmpty() || "true".equals(scales)) {
+            scales = DEFAULT_SCALES;
+        }
+        List<Integer> result = new ArrayList<>();
+        for (String scale : scales.split(",")) {
+            result.add(Integer.parseInt(scale.trim()));
+        }
+        return result;
+    }
+
+    private void report(Object scale, String metric, Object value) {
+        String line = scale + "," + metric + "," + value;
+        System.out.println(line);
+        report.println(line);
+        report.flush();
+    }
+
+}
@@ -20,6 +20,7 @@ package org.sufficientlysecure.keychain.provider;
 
 
 import java.util.List;
+import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -29,6 +30,7 @@ import org.robolectric.RuntimeEnvironment;
 import org.sufficientlysecure.keychain.KeychainTestRunner;
 import org.sufficientlysecure.keychain.daos.KeyRepository;
 import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedPublicKeyRing;
 import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
 import org.sufficientlysecure.keychain.support.KeyringTestingHelper;
 import org.sufficientlysecure.keychain.ui.util.KeyFormattingUtils;
@@ -68,4 +70,24 @@ public class KeyRepositoryTest {
         Assert.assertEquals(expectedEncryptSubKeyId, (long) publicEncryptionIds.get(0));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBatchedEncryptionKeySelection() throws Exception {
+        long expectedEncryptSubKeyId = KeyFormattingUtils.convertKeyIdHexToKeyId("0xDA7207E385A44339");
+        long unknownMasterKeyId = 0x1234L;
+
+        KeyRepository keyRepository = KeyRepository.create(RuntimeEnvironment.application);
+
+        long masterKeyId = testKeyring.getMasterKeyId();
+        Map<Long, CanonicalizedPublicKeyRing> keyRings =
+                keyRepository.getCanonicalizedPublicKeyRings(masterKeyId, unknownMasterKeyId);
+        Map<Long, List<Long>> publicEncryptionIds =
+                keyRepository.getPublicEncryptionIdsByMasterKeyIds(masterKeyId, unknownMasterKeyId);
+
+        Assert.assertEquals(1, keyRings.size());
+        Assert.assertEquals(masterKeyId, keyRings.get(masterKeyId).getMasterKeyId());
+        Assert.assertEquals(1, publicEncryptionIds.size());
+        Assert.assertEquals(keyRepository.getPublicEncryptionIds(masterKeyId), publicEncryptionIds.get(masterKeyId));
+        Assert.assertEquals(expectedEncryptSubKeyId, (long) publicEncryptionIds.get(masterKeyId).get(0));
+    }
+
+}
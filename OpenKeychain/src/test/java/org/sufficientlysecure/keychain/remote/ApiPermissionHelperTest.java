@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.Signature;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainDatabase;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.ApiAppDao;
+import org.sufficientlysecure.keychain.model.ApiApp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+
+@RunWith(KeychainTestRunner.class)
+public class ApiPermissionHelperTest {
+    private static final int CALLER_UID = 10123;
+    private static final String PACKAGE_NAME = "org.example.mail";
+    private static final byte[] PACKAGE_CERTIFICATE = { 1, 2, 3, 4 };
+
+    private PackageInfo packageInfo;
+    private PackageManager packageManager;
+    private ApiAppDao apiAppDao;
+    private ApiPermissionHelper apiPermissionHelper;
+
+    @Before
+    public void setUp() throws Exception {
+        ApiPermissionHelper.invalidateVerifiedCallers();
+
+        packageInfo = new PackageInfo();
+        packageInfo.packageName = PACKAGE_NAME;
+        packageInfo.signatures = new Signature[] { new Signature(PACKAGE_CERTIFICATE) };
+
+        packageManager = mock(PackageManager.class);
+        when(packageManager.getPackagesForUid(CALLER_UID)).thenReturn(new String[] { PACKAGE_NAME });
+        when(packageManager.getPackageInfo(PACKAGE_NAME, PackageManager.GET_SIGNATURES)).thenReturn(packageInfo);
+
+        apiAppDao = ApiAppDao.getInstance(RuntimeEnvironment.application);
+        apiAppDao.insertApiApp(ApiApp.create(PACKAGE_NAME, PACKAGE_CERTIFICATE));
+        apiPermissionHelper = new ApiPermissionHelper(RuntimeEnvironment.application, apiAppDao, packageManager);
+    }
+
+    @Test
+    public void isUidAllowed_shouldOnlyQueryPackageManagerOnce() throws Exception {
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        verify(packageManager, times(1)).getPackagesForUid(anyInt());
+        verify(packageManager, times(1)).getPackageInfo(anyString(), anyInt());
+    }
+
+    @Test
+    public void isUidAllowed_shouldBeInvalidatedByApiAppChange() throws Exception {
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        apiAppDao.deleteApiApp(PACKAGE_NAME);
+
+        assertFalse(apiPermissionHelper.isUidAllowed(CALLER_UID));
+    }
+
+    @Test
+    public void isUidAllowed_shouldSeeRevocationFromOtherProcess() throws Exception {
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        // another process deletes the app without going through any dao in this process
+        KeychainDatabase.getInstance(RuntimeEnvironment.application).getWritableDatabase()
+                .execSQL("DELETE FROM api_apps WHERE package_name = ?", new Object[] { PACKAGE_NAME });
+
+        assertFalse(apiPermissionHelper.isUidAllowed(CALLER_UID));
+    }
+
+    @Test
+    public void isUidAllowed_withInvalidationDuringCheck_shouldNotKeepResult() throws Exception {
+        AtomicBoolean isFirstCall = new AtomicBoolean(true);
+        when(packageManager.getPackageInfo(PACKAGE_NAME, PackageManager.GET_SIGNATURES)).thenAnswer(invocation -> {
+            if (isFirstCall.getAndSet(false)) {
+                ApiPermissionHelper.invalidateVerifiedCallers();
+            }
+            return packageInfo;
+        });
+
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        verify(packageManager, times(2)).getPackagesForUid(anyInt());
+    }
+
+    @Test
+    public void isUidAllowed_shouldBeInvalidatedByPackageChange() throws Exception {
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        ApiPermissionHelper.invalidateVerifiedCallers();
+        assertTrue(apiPermissionHelper.isUidAllowed(CALLER_UID));
+
+        verify(packageManager, times(2)).getPackageInfo(anyString(), anyInt());
+    }
+
+    @Test
+    public void getAllowedKeyIdsForApp_shouldReflectChanges() throws Exception {
+        assertTrue(apiAppDao.getAllowedKeyIdsForApp(PACKAGE_NAME).isEmpty());
+
+        apiAppDao.addAllowedKeyIdForApp(PACKAGE_NAME, 123L);
+        assertEquals(Collections.singleton(123L), apiAppDao.getAllowedKeyIdsForApp(PACKAGE_NAME));
+
+        // another process changes the allowed keys without going through any dao in this process
+        KeychainDatabase.getInstance(RuntimeEnvironment.application).getWritableDatabase()
+                .execSQL("DELETE FROM api_allowed_keys WHERE package_name = ?", new Object[] { PACKAGE_NAME });
+        assertTrue(apiAppDao.getAllowedKeyIdsForApp(PACKAGE_NAME).isEmpty());
+
+        apiAppDao.saveAllowedKeyIdsForApp(PACKAGE_NAME, Collections.singleton(456L));
+        assertEquals(Collections.singleton(456L), apiAppDao.getAllowedKeyIdsForApp(PACKAGE_NAME));
+    }
+}
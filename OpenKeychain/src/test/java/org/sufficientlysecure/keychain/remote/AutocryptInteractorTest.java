@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openintents.openpgp.AutocryptPeerUpdate;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.daos.ApiAppDao;
+import org.sufficientlysecure.keychain.daos.AutocryptPeerDao;
+import org.sufficientlysecure.keychain.daos.KeyWritableRepository;
+import org.sufficientlysecure.keychain.model.ApiApp;
+import org.sufficientlysecure.keychain.model.AutocryptPeer;
+import org.sufficientlysecure.keychain.model.AutocryptPeer.GossipOrigin;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+import org.sufficientlysecure.keychain.provider.KeyRepositorySaveTest;
+import org.sufficientlysecure.keychain.remote.AutocryptInteractor.BatchUpdate;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+
+@RunWith(KeychainTestRunner.class)
+public class AutocryptInteractorTest {
+    private static final String PACKAGE_NAME_SINGLE = "test.package.single";
+    private static final String PACKAGE_NAME_BATCH = "test.package.batch";
+    private static final String PEER_ALICE = "alice@example.org";
+    private static final String PEER_BOB = "bob@example.org";
+
+    private AutocryptPeerDao autocryptPeerDao;
+    private UncachedKeyRing keyA;
+    private UncachedKeyRing keyB;
+
+    @Before
+    public void setUp() throws Exception {
+        ApiAppDao apiAppDao = ApiAppDao.getInstance(RuntimeEnvironment.application);
+        apiAppDao.insertApiApp(ApiApp.create(PACKAGE_NAME_SINGLE, new byte[] { 1, 2, 3 }));
+        apiAppDao.insertApiApp(ApiApp.create(PACKAGE_NAME_BATCH, new byte[] { 1, 2, 3 }));
+
+        autocryptPeerDao = AutocryptPeerDao.getInstance(RuntimeEnvironment.application);
+        keyA = readRingFromResource("/test-keys/testring.pub");
+        keyB = readRingFromResource("/test-keys/eddsa-subkey.pub.asc");
+    }
+
+    @Test
+    public void updateAutocryptPeerStates_shouldMatchUpdatesOneByOne() throws Exception {
+        List<BatchUpdate> updates = new ArrayList<>();
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyA, 1000, true), false));
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyB, 3000, false), false));
+        // older than the key seen before, must be skipped
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyA, 2000, true), false));
+        updates.add(new BatchUpdate(PEER_ALICE, AutocryptPeerUpdate.create(null, new Date(4000), false), false));
+        updates.add(new BatchUpdate(PEER_BOB, update(keyA, 2000, false), true));
+        // older than the gossip seen before, must be skipped
+        updates.add(new BatchUpdate(PEER_BOB, update(keyB, 1500, false), true));
+        updates.add(new BatchUpdate(PEER_BOB, update(keyB, 2500, true), false));
+
+        AutocryptInteractor singleInteractor = createInteractor(PACKAGE_NAME_SINGLE, createKeyRepository());
+        for (BatchUpdate update : updates) {
+            if (update.isGossip) {
+                singleInteractor.updateAutocryptPeerGossipState(update.autocryptPeerId, update.autocryptPeerUpdate);
+            } else {
+                singleInteractor.updateAutocryptPeerState(update.autocryptPeerId, update.autocryptPeerUpdate);
+            }
+        }
+
+        KeyWritableRepository batchKeyRepository = createKeyRepository();
+        createInteractor(PACKAGE_NAME_BATCH, batchKeyRepository).updateAutocryptPeerStates(updates);
+
+        // each distinct keydata is imported only once per batch
+        verify(batchKeyRepository, times(2)).savePublicKeyRing(any(UncachedKeyRing.class));
+
+        AutocryptPeer alice = autocryptPeerDao.getAutocryptPeer(PACKAGE_NAME_BATCH, PEER_ALICE);
+        assertEquals(new Date(4000), alice.last_seen());
+        assertEquals(new Date(3000), alice.last_seen_key());
+        assertEquals(keyB.getMasterKeyId(), (long) alice.master_key_id());
+        assertFalse(alice.is_mutual());
+
+        AutocryptPeer bob = autocryptPeerDao.getAutocryptPeer(PACKAGE_NAME_BATCH, PEER_BOB);
+        assertEquals(new Date(2000), bob.gossip_last_seen_key());
+        assertEquals(keyA.getMasterKeyId(), (long) bob.gossip_master_key_id());
+        assertEquals(GossipOrigin.GOSSIP_HEADER, bob.gossip_origin());
+        assertEquals(keyB.getMasterKeyId(), (long) bob.master_key_id());
+        assertTrue(bob.is_mutual());
+
+        assertSamePeerState(PEER_ALICE);
+        assertSamePeerState(PEER_BOB);
+    }
+
+    @Test
+    public void updateAutocryptPeerStates_withOlderUpdateFirstInBatch_shouldApplyBoth() throws Exception {
+        List<BatchUpdate> updates = new ArrayList<>();
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyA, 1000, false), false));
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyA, 2000, true), false));
+
+        AutocryptInteractor singleInteractor = createInteractor(PACKAGE_NAME_SINGLE, createKeyRepository());
+        for (BatchUpdate update : updates) {
+            singleInteractor.updateAutocryptPeerState(update.autocryptPeerId, update.autocryptPeerUpdate);
+        }
+
+        KeyWritableRepository batchKeyRepository = createKeyRepository();
+        createInteractor(PACKAGE_NAME_BATCH, batchKeyRepository).updateAutocryptPeerStates(updates);
+
+        verify(batchKeyRepository, times(1)).savePublicKeyRing(any(UncachedKeyRing.class));
+
+        AutocryptPeer alice = autocryptPeerDao.getAutocryptPeer(PACKAGE_NAME_BATCH, PEER_ALICE);
+        assertEquals(new Date(2000), alice.last_seen_key());
+        assertTrue(alice.is_mutual());
+        assertSamePeerState(PEER_ALICE);
+    }
+
+    @Test
+    public void updateAutocryptPeerStates_withSkippedUpdates_shouldNotImportTheirKeys() throws Exception {
+        List<BatchUpdate> updates = new ArrayList<>();
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyA, 2000, false), false));
+        // older than the key seen before, must be skipped
+        updates.add(new BatchUpdate(PEER_ALICE, update(keyB, 1000, false), false));
+        updates.add(new BatchUpdate(PEER_BOB, update(keyA, 2000, false), true));
+        // older than the gossip seen before, must be skipped
+        updates.add(new BatchUpdate(PEER_BOB, update(keyB, 1500, false), true));
+
+        KeyWritableRepository batchKeyRepository = createKeyRepository();
+        createInteractor(PACKAGE_NAME_BATCH, batchKeyRepository).updateAutocryptPeerStates(updates);
+
+        verify(batchKeyRepository, times(1)).savePublicKeyRing(any(UncachedKeyRing.class));
+        assertNotNull(batchKeyRepository.getUnifiedKeyInfo(keyA.getMasterKeyId()));
+        assertNull(batchKeyRepository.getUnifiedKeyInfo(keyB.getMasterKeyId()));
+    }
+
+    private void assertSamePeerState(String autocryptPeerId) {
+        AutocryptPeer single = autocryptPeerDao.getAutocryptPeer(PACKAGE_NAME_SINGLE, autocryptPeerId);
+        AutocryptPeer batch = autocryptPeerDao.getAutocryptPeer(PACKAGE_NAME_BATCH, autocryptPeerId);
+
+        assertEquals(single.last_seen(), batch.last_seen());
+        assertEquals(single.last_seen_key(), batch.last_seen_key());
+        assertEquals(single.is_mutual(), batch.is_mutual());
+        assertEquals(single.master_key_id(), batch.master_key_id());
+        assertEquals(single.gossip_master_key_id(), batch.gossip_master_key_id());
+        assertEquals(single.gossip_last_seen_key(), batch.gossip_last_seen_key());
+        assertEquals(single.gossip_origin(), batch.gossip_origin());
+    }
+
+    private AutocryptInteractor createInteractor(String packageName, KeyWritableRepository keyRepository) {
+        return new AutocryptInteractor(autocryptPeerDao, keyRepository, packageName);
+    }
+
+    private static KeyWritableRepository createKeyRepository() {
+        return spy(KeyWritableRepository.create(RuntimeEnvironment.application));
+    }
+
+    private static AutocryptPeerUpdate update(UncachedKeyRing keyRing, long effectiveDate, boolean isMutual)
+            throws Exception {
+        return AutocryptPeerUpdate.create(keyRing.getEncoded(), new Date(effectiveDate), isMutual);
+    }
+
+    private static UncachedKeyRing readRingFromResource(String name) throws Exception {
+        return UncachedKeyRing.fromStream(KeyRepositorySaveTest.class.getResourceAsStream(name)).next();
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openintents.openpgp.OpenPgpMetadata;
+import org.openintents.openpgp.util.OpenPgpApi;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.remote.BatchDecryptor.MessageDecryptor;
+import org.sufficientlysecure.keychain.util.InputData;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+
+@RunWith(KeychainTestRunner.class)
+public class BatchDecryptorTest {
+    @Test
+    public void run_shouldRoundTripMessagesInOrder() throws Exception {
+        byte[][] messages = { randomBytes(200 * 1024 + 3), new byte[0], randomBytes(17) };
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecryptor batchDecryptor = new BatchDecryptor(new CopyingDecryptor());
+        batchDecryptor.run(framedInput(messages), output);
+
+        assertEquals(messages.length, batchDecryptor.getMessageCount());
+        assertNull(batchDecryptor.getFirstPendingIntent());
+
+        DataInputStream framedOutput = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        for (byte[] message : messages) {
+            assertArrayEquals(message, readContent(framedOutput));
+            JSONObject result = readResult(framedOutput);
+            assertEquals(OpenPgpApi.RESULT_CODE_SUCCESS, result.getInt(OpenPgpBatchApi.RESULT_FIELD_CODE));
+            assertEquals(message.length, result.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_METADATA)
+                    .getLong(OpenPgpBatchApi.FIELD_METADATA_ORIGINAL_SIZE));
+        }
+        assertEquals(-1, framedOutput.read());
+    }
+
+    @Test
+    public void run_withPartiallyReadMessage_shouldSkipToNextMessage() throws Exception {
+        byte[][] messages = { randomBytes(5000), randomBytes(300) };
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecryptor batchDecryptor = new BatchDecryptor((index, inputData, outputStream) -> {
+            try {
+                // reads only the first byte, and closes its output like the operation does
+                outputStream.write(inputData.getInputStream().read());
+                outputStream.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return successResult(inputData);
+        });
+        batchDecryptor.run(framedInput(messages), output);
+
+        assertEquals(2, batchDecryptor.getMessageCount());
+        DataInputStream framedOutput = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        for (byte[] message : messages) {
+            assertArrayEquals(new byte[] { message[0] }, readContent(framedOutput));
+            readResult(framedOutput);
+        }
+        assertEquals(-1, framedOutput.read());
+    }
+
+    @Test
+    public void run_withPendingMessage_shouldContinueAndExposeFirstPendingIntent() throws Exception {
+        byte[][] messages = { randomBytes(10), randomBytes(20), randomBytes(30) };
+        PendingIntent pendingIntent = PendingIntent.getActivity(RuntimeEnvironment.application, 0, new Intent(), 0);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecryptor batchDecryptor = new BatchDecryptor((index, inputData, outputStream) -> {
+            if (index == 0) {
+                return successResult(inputData);
+            }
+            Intent result = new Intent();
+            result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED);
+            result.putExtra(OpenPgpApi.RESULT_INTENT, pendingIntent);
+            return result;
+        });
+        batchDecryptor.run(framedInput(messages), output);
+
+        assertEquals(3, batchDecryptor.getMessageCount());
+        assertSame(pendingIntent, batchDecryptor.getFirstPendingIntent());
+
+        DataInputStream framedOutput = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        int[] expectedResultCodes = { OpenPgpApi.RESULT_CODE_SUCCESS,
+                OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED, OpenPgpApi.RESULT_CODE_USER_INTERACTION_REQUIRED };
+        for (int expectedResultCode : expectedResultCodes) {
+            readContent(framedOutput);
+            JSONObject result = readResult(framedOutput);
+            assertEquals(expectedResultCode, result.getInt(OpenPgpBatchApi.RESULT_FIELD_CODE));
+            assertFalse(result.has(OpenPgpApi.RESULT_INTENT));
+        }
+    }
+
+    @Test
+    public void run_withMoreThanMaxMessages_shouldStopAtMax() throws Exception {
+        byte[][] messages = new byte[BatchDecryptor.MAX_BATCH_MESSAGES + 5][];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = randomBytes(8);
+        }
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchDecryptor batchDecryptor = new BatchDecryptor(new CopyingDecryptor());
+        batchDecryptor.run(framedInput(messages), output);
+
+        assertEquals(BatchDecryptor.MAX_BATCH_MESSAGES, batchDecryptor.getMessageCount());
+        DataInputStream framedOutput = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+        for (int i = 0; i < BatchDecryptor.MAX_BATCH_MESSAGES; i++) {
+            assertArrayEquals(messages[i], readContent(framedOutput));
+            readResult(framedOutput);
+        }
+        assertEquals(-1, framedOutput.read());
+    }
+
+    @Test(expected = IOException.class)
+    public void run_withTruncatedMessage_shouldFail() throws Exception {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        DataOutputStream framedInput = new DataOutputStream(input);
+        framedInput.writeInt(100);
+        framedInput.write(new byte[10]);
+
+        // the operation doesn't read the message, so it fails while skipping it
+        new BatchDecryptor((index, inputData, outputStream) -> successResult(inputData))
+                .run(new ByteArrayInputStream(input.toByteArray()), new ByteArrayOutputStream());
+    }
+
+    private static class CopyingDecryptor implements MessageDecryptor {
+        @Override
+        public Intent decryptAndVerify(int index, InputData inputData, OutputStream outputStream) {
+            try {
+                InputStream in = inputData.getInputStream();
+                byte[] buffer = new byte[4096];
+                int length;
+                while ((length = in.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, length);
+                }
+                outputStream.close();
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            return successResult(inputData);
+        }
+    }
+
+    private static Intent successResult(InputData inputData) {
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+        result.putExtra(OpenPgpApi.RESULT_METADATA, new OpenPgpMetadata(null, null, 0, inputData.getSize(), null));
+        return result;
+    }
+
+    private static InputStream framedInput(byte[]... messages) throws IOException {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        DataOutputStream framedInput = new DataOutputStream(input);
+        for (byte[] message : messages) {
+            framedInput.writeInt(message.length);
+            framedInput.write(message);
+        }
+        return new ByteArrayInputStream(input.toByteArray());
+    }
+
+    private static byte[] readContent(DataInputStream framedOutput) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        int length;
+        while ((length = framedOutput.readInt()) != 0) {
+            byte[] chunk = new byte[length];
+            framedOutput.readFully(chunk);
+            content.write(chunk);
+        }
+        return content.toByteArray();
+    }
+
+    private static JSONObject readResult(DataInputStream framedOutput) throws IOException, JSONException {
+        byte[] encoded = new byte[framedOutput.readInt()];
+        framedOutput.readFully(encoded);
+        return new JSONObject(new String(encoded, "UTF-8"));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
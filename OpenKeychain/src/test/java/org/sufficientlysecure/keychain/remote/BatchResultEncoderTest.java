@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import android.app.PendingIntent;
+import android.content.Intent;
+import android.os.Bundle;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.openintents.openpgp.OpenPgpDecryptionResult;
+import org.openintents.openpgp.OpenPgpError;
+import org.openintents.openpgp.OpenPgpMetadata;
+import org.openintents.openpgp.OpenPgpSignatureResult;
+import org.openintents.openpgp.OpenPgpSignatureResult.SenderStatusResult;
+import org.openintents.openpgp.util.OpenPgpApi;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class BatchResultEncoderTest {
+    @Test
+    public void encode_withError_shouldEncodeErrorIdAndMessage() throws Exception {
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_ERROR);
+        result.putExtra(OpenPgpApi.RESULT_ERROR, new OpenPgpError(OpenPgpError.NO_OR_WRONG_PASSPHRASE, "bad"));
+
+        JSONObject json = decode(BatchResultEncoder.encode(result));
+
+        assertEquals(OpenPgpApi.RESULT_CODE_ERROR, json.getInt(OpenPgpBatchApi.RESULT_FIELD_CODE));
+        JSONObject error = json.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_ERROR);
+        assertEquals(OpenPgpError.NO_OR_WRONG_PASSPHRASE, error.getInt(OpenPgpBatchApi.FIELD_ERROR_ID));
+        assertEquals("bad", error.getString(OpenPgpBatchApi.FIELD_ERROR_MESSAGE));
+        assertFalse(json.has(OpenPgpBatchApi.RESULT_FIELD_DECRYPTION));
+        assertFalse(json.has(OpenPgpBatchApi.RESULT_FIELD_SIGNATURE));
+    }
+
+    @Test
+    public void encode_withDecryptionAndMetadata_shouldEncodeAllFields() throws Exception {
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+        result.putExtra(OpenPgpApi.RESULT_DECRYPTION, new OpenPgpDecryptionResult(
+                OpenPgpDecryptionResult.RESULT_ENCRYPTED, new byte[] { 1, 2 }, new byte[] { (byte) 0xab }));
+        result.putExtra(OpenPgpApi.RESULT_METADATA,
+                new OpenPgpMetadata("file.txt", "text/plain", 1234L, 56L, "utf-8"));
+
+        JSONObject json = BatchResultEncoder.toJson(result);
+
+        JSONObject decryption = json.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_DECRYPTION);
+        assertEquals(OpenPgpDecryptionResult.RESULT_ENCRYPTED,
+                decryption.getInt(OpenPgpBatchApi.FIELD_DECRYPTION_RESULT));
+        assertEquals("0102", decryption.getString(OpenPgpBatchApi.FIELD_DECRYPTION_SESSION_KEY));
+        assertEquals("ab", decryption.getString(OpenPgpBatchApi.FIELD_DECRYPTION_DECRYPTED_SESSION_KEY));
+
+        JSONObject metadata = json.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_METADATA);
+        assertEquals("file.txt", metadata.getString(OpenPgpBatchApi.FIELD_METADATA_FILENAME));
+        assertEquals("text/plain", metadata.getString(OpenPgpBatchApi.FIELD_METADATA_MIME_TYPE));
+        assertEquals("utf-8", metadata.getString(OpenPgpBatchApi.FIELD_METADATA_CHARSET));
+        assertEquals(1234L, metadata.getLong(OpenPgpBatchApi.FIELD_METADATA_MODIFICATION_TIME));
+        assertEquals(56L, metadata.getLong(OpenPgpBatchApi.FIELD_METADATA_ORIGINAL_SIZE));
+    }
+
+    @Test
+    public void encode_withUnencryptedMessage_shouldLeaveOutSessionKey() throws Exception {
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+        result.putExtra(OpenPgpApi.RESULT_DECRYPTION,
+                new OpenPgpDecryptionResult(OpenPgpDecryptionResult.RESULT_NOT_ENCRYPTED));
+
+        JSONObject decryption = BatchResultEncoder.toJson(result)
+                .getJSONObject(OpenPgpBatchApi.RESULT_FIELD_DECRYPTION);
+
+        assertEquals(OpenPgpDecryptionResult.RESULT_NOT_ENCRYPTED,
+                decryption.getInt(OpenPgpBatchApi.FIELD_DECRYPTION_RESULT));
+        assertFalse(decryption.has(OpenPgpBatchApi.FIELD_DECRYPTION_SESSION_KEY));
+    }
+
+    @Test
+    public void encode_withSignatures_shouldEncodeSignatureFields() throws Exception {
+        OpenPgpSignatureResult signatureResult = OpenPgpSignatureResult.createWithValidSignature(
+                OpenPgpSignatureResult.RESULT_VALID_KEY_CONFIRMED, "A <a@example.com>", 0x1234L,
+                Arrays.asList("A <a@example.com>", "B <b@example.com>"), Collections.singletonList("A <a@example.com>"),
+                SenderStatusResult.USER_ID_CONFIRMED, new Date(5000L));
+        ArrayList<OpenPgpSignatureResult> signatureResults = new ArrayList<>();
+        signatureResults.add(signatureResult);
+        signatureResults.add(OpenPgpSignatureResult.createWithInvalidSignature());
+
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+        result.putExtra(OpenPgpApi.RESULT_SIGNATURE, signatureResult);
+        result.putParcelableArrayListExtra(OpenPgpService.RESULT_SIGNATURES, signatureResults);
+
+        JSONObject json = BatchResultEncoder.toJson(result);
+
+        JSONObject signature = json.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_SIGNATURE);
+        assertEquals(OpenPgpSignatureResult.RESULT_VALID_KEY_CONFIRMED,
+                signature.getInt(OpenPgpBatchApi.FIELD_SIGNATURE_RESULT));
+        assertEquals(0x1234L, signature.getLong(OpenPgpBatchApi.FIELD_SIGNATURE_KEY_ID));
+        assertEquals("A <a@example.com>", signature.getString(OpenPgpBatchApi.FIELD_SIGNATURE_PRIMARY_USER_ID));
+        assertEquals(2, signature.getJSONArray(OpenPgpBatchApi.FIELD_SIGNATURE_USER_IDS).length());
+        assertEquals("A <a@example.com>",
+                signature.getJSONArray(OpenPgpBatchApi.FIELD_SIGNATURE_CONFIRMED_USER_IDS).getString(0));
+        assertEquals(SenderStatusResult.USER_ID_CONFIRMED.name(),
+                signature.getString(OpenPgpBatchApi.FIELD_SIGNATURE_SENDER_STATUS));
+        assertEquals(5000L, signature.getLong(OpenPgpBatchApi.FIELD_SIGNATURE_TIMESTAMP));
+
+        JSONArray signatures = json.getJSONArray(OpenPgpBatchApi.RESULT_FIELD_SIGNATURES);
+        assertEquals(2, signatures.length());
+        assertEquals(OpenPgpSignatureResult.RESULT_INVALID_SIGNATURE,
+                signatures.getJSONObject(1).getInt(OpenPgpBatchApi.FIELD_SIGNATURE_RESULT));
+    }
+
+    @Test
+    public void encode_withPendingIntentsAndTimings_shouldOnlyEncodeWhatIsDocumented() throws Exception {
+        PendingIntent pendingIntent = PendingIntent.getActivity(RuntimeEnvironment.application, 0, new Intent(), 0);
+        Bundle timings = new Bundle();
+        timings.putLong("decrypt", 12L);
+
+        Intent result = new Intent();
+        result.putExtra(OpenPgpApi.RESULT_CODE, OpenPgpApi.RESULT_CODE_SUCCESS);
+        result.putExtra(OpenPgpApi.RESULT_INTENT, pendingIntent);
+        result.putExtra(OpenPgpApi.RESULT_INSECURE_DETAIL_INTENT, pendingIntent);
+        result.putExtra(OpenPgpApi.RESULT_OVERRIDE_CRYPTO_WARNING, true);
+        result.putExtra(OpenPgpService.RESULT_TIMINGS, timings);
+
+        JSONObject json = BatchResultEncoder.toJson(result);
+
+        assertTrue(json.getBoolean(OpenPgpBatchApi.RESULT_FIELD_HAS_INSECURE_DETAIL));
+        assertTrue(json.getBoolean(OpenPgpBatchApi.RESULT_FIELD_OVERRIDE_CRYPTO_WARNING));
+        assertEquals(12L, json.getJSONObject(OpenPgpBatchApi.RESULT_FIELD_TIMINGS).getLong("decrypt"));
+        assertFalse(json.has(OpenPgpApi.RESULT_INTENT));
+        assertFalse(json.has(OpenPgpApi.RESULT_INSECURE_DETAIL_INTENT));
+    }
+
+    private static JSONObject decode(byte[] encoded) throws Exception {
+        return new JSONObject(new String(encoded, "UTF-8"));
+    }
+}
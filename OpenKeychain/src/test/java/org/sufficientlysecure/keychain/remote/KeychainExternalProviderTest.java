@@ -309,6 +309,28 @@ public class KeychainExternalProviderTest {
         assertFalse(cursor.moveToNext());
     }
 
+    @Test
+    public void testAutocryptStatus_uidStatusAfterDelete() throws Exception {
+        insertSecretKeyringFrom("/test-keys/testring.sec");
+        insertPublicKeyringFrom("/test-keys/testring.pub");
+        certifyKey(KEY_ID_SECRET, KEY_ID_PUBLIC, USER_ID_1);
+
+        databaseInteractor.deleteKeyRing(KEY_ID_PUBLIC);
+
+        Cursor cursor = contentResolver.query(
+                AutocryptStatus.CONTENT_URI, new String[] {
+                        AutocryptStatus.ADDRESS, AutocryptStatus.UID_KEY_STATUS, AutocryptStatus.UID_ADDRESS },
+                null, new String [] { MAIL_ADDRESS_1 }, null
+        );
+
+        assertNotNull(cursor);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(MAIL_ADDRESS_1, cursor.getString(0));
+        assertTrue(cursor.isNull(1));
+        assertTrue(cursor.isNull(2));
+        assertFalse(cursor.moveToNext());
+    }
+
 
     @Test(expected = AccessControlException.class)
     public void testPermission__withExplicitPackage() throws Exception {
@@ -3,12 +3,11 @@ package org.sufficientlysecure.keychain.remote;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
 import android.app.PendingIntent;
-import android.content.ContentResolver;
 import android.content.Intent;
-import android.database.MatrixCursor;
-import android.net.Uri;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -18,6 +17,7 @@ import org.sufficientlysecure.keychain.BuildConfig;
 import org.sufficientlysecure.keychain.KeychainTestRunner;
 import org.sufficientlysecure.keychain.remote.OpenPgpServiceKeyIdExtractor.KeyIdResult;
 import org.sufficientlysecure.keychain.remote.OpenPgpServiceKeyIdExtractor.KeyIdResultStatus;
+import org.sufficientlysecure.keychain.remote.RecipientStatusInteractor.RecipientStatus;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -25,6 +25,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -35,15 +37,15 @@ public class OpenPgpServiceKeyIdExtractorTest {
     private static final long[] KEY_IDS = new long[] { 123L, 234L };
     private static final String[] USER_IDS = new String[] { "user1@example.org", "User 2 <user2@example.org>" };
     private OpenPgpServiceKeyIdExtractor openPgpServiceKeyIdExtractor;
-    private ContentResolver contentResolver;
+    private RecipientStatusInteractor recipientStatusInteractor;
     private ApiPendingIntentFactory apiPendingIntentFactory;
 
     @Before
     public void setUp() throws Exception {
-        contentResolver = mock(ContentResolver.class);
+        recipientStatusInteractor = mock(RecipientStatusInteractor.class);
         apiPendingIntentFactory = mock(ApiPendingIntentFactory.class);
 
-        openPgpServiceKeyIdExtractor = OpenPgpServiceKeyIdExtractor.getInstance(contentResolver,
+        openPgpServiceKeyIdExtractor = OpenPgpServiceKeyIdExtractor.getInstance(recipientStatusInteractor,
                 apiPendingIntentFactory);
     }
 
@@ -79,7 +81,7 @@ public class OpenPgpServiceKeyIdExtractorTest {
         Intent intent = new Intent();
         intent.putExtra(OpenPgpApi.EXTRA_USER_IDS, USER_IDS);
 
-        setupContentResolverResult();
+        setupRecipientStatusResult();
 
         PendingIntent pendingIntent = mock(PendingIntent.class);
         setupSelectPubkeyPendingIntentFactoryResult(pendingIntent);
@@ -127,7 +129,7 @@ public class OpenPgpServiceKeyIdExtractorTest {
     public void returnKeyIdsFromIntent__withNoData__askIfNoData() throws Exception {
         Intent intent = new Intent();
 
-        setupContentResolverResult();
+        setupRecipientStatusResult();
 
         PendingIntent pendingIntent = mock(PendingIntent.class);
         setupSelectPubkeyPendingIntentFactoryResult(pendingIntent);
@@ -147,7 +149,7 @@ public class OpenPgpServiceKeyIdExtractorTest {
         Intent intent = new Intent();
         intent.putExtra(OpenPgpApi.EXTRA_USER_IDS, USER_IDS);
 
-        setupContentResolverResult(USER_IDS, new Long[] { 123L, 234L }, new int[] { 0, 0 }, new int[] { 1, 1, 1 });
+        setupRecipientStatusResult(USER_IDS, new Long[] { 123L, 234L }, new int[] { 0, 0 }, new int[] { 1, 1, 1 });
 
 
         KeyIdResult keyIdResult = openPgpServiceKeyIdExtractor.returnKeyIdsFromIntent(intent, false,
@@ -164,7 +166,7 @@ public class OpenPgpServiceKeyIdExtractorTest {
         Intent intent = new Intent();
         intent.putExtra(OpenPgpApi.EXTRA_USER_IDS, USER_IDS);
 
-        setupContentResolverResult(new String[] {
+        setupRecipientStatusResult(new String[] {
                 USER_IDS[0], USER_IDS[1]
         }, new Long[] { 123L, 234L }, new int[] { 0, 0 }, new int[] { 2, 1 });
 
@@ -185,7 +187,7 @@ public class OpenPgpServiceKeyIdExtractorTest {
         Intent intent = new Intent();
         intent.putExtra(OpenPgpApi.EXTRA_USER_IDS, USER_IDS);
 
-        setupContentResolverResult(USER_IDS, new Long[] { null, 234L }, new int[] { 0, 0 }, new int[] { 0, 1 });
+        setupRecipientStatusResult(USER_IDS, new Long[] { null, 234L }, new int[] { 0, 0 }, new int[] { 0, 1 });
 
         PendingIntent pendingIntent = mock(PendingIntent.class);
         setupSelectPubkeyPendingIntentFactoryResult(pendingIntent);
@@ -199,22 +201,23 @@ public class OpenPgpServiceKeyIdExtractorTest {
         assertTrue(keyIdResult.hasKeySelectionPendingIntent());
     }
 
-    private void setupContentResolverResult() {
-        MatrixCursor resultCursor = new MatrixCursor(OpenPgpServiceKeyIdExtractor.PROJECTION_MAIL_STATUS);
-        when(contentResolver.query(
-                any(Uri.class), any(String[].class), any(String.class), any(String[].class), any(String.class)))
-                .thenReturn(resultCursor);
+    private void setupRecipientStatusResult() {
+        when(recipientStatusInteractor.getRecipientStatus(
+                anyString(), any(String[].class), anyBoolean(), anyBoolean()))
+                .thenReturn(new HashMap<>());
     }
 
-    private void setupContentResolverResult(String[] userIds, Long[] resultKeyIds, int[] verified, int[] candidates) {
-        MatrixCursor resultCursor = new MatrixCursor(OpenPgpServiceKeyIdExtractor.PROJECTION_MAIL_STATUS);
+    private void setupRecipientStatusResult(String[] userIds, Long[] resultKeyIds, int[] verified, int[] candidates) {
+        Map<String, RecipientStatus> result = new HashMap<>();
         for (int i = 0; i < userIds.length; i++) {
-            resultCursor.addRow(new Object[] { userIds[i], resultKeyIds[i], verified[i], candidates[i], null, null, null });
+            boolean hasUidStatus = resultKeyIds[i] != null;
+            result.put(userIds[i], new RecipientStatus(userIds[i], hasUidStatus, hasUidStatus ? resultKeyIds[i] : 0,
+                    null, verified[i], candidates[i], false, null, 0, 0));
         }
 
-        when(contentResolver.query(
-                any(Uri.class), any(String[].class), any(String.class), any(String[].class), any(String.class)))
-                .thenReturn(resultCursor);
+        when(recipientStatusInteractor.getRecipientStatus(
+                anyString(), any(String[].class), anyBoolean(), anyBoolean()))
+                .thenReturn(result);
     }
 
     private void setupSelectPubkeyPendingIntentFactoryResult(PendingIntent pendingIntent) {
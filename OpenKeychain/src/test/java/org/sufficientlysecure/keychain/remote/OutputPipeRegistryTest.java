@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.remote;
+
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class OutputPipeRegistryTest {
+    private static final int THREAD_COUNT = 16;
+    private static final int CALLS_PER_THREAD = 500;
+
+    @Test
+    public void createKey_shouldKeepFullPipeId() throws Exception {
+        assertNotEquals(OpenPgpService2.createKey(1, 0x10000000), OpenPgpService2.createKey(1, 0));
+        assertNotEquals(OpenPgpService2.createKey(1, -1), OpenPgpService2.createKey(2, -1));
+    }
+
+    @Test
+    public void concurrentCalls_shouldEachGetTheirOwnPipe() throws Exception {
+        OutputPipeRegistry<FakePipe> registry = new OutputPipeRegistry<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CountDownLatch startLatch = new CountDownLatch(1);
+
+        List<Future<Integer>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            int callingPid = 1000 + thread;
+            futures.add(executor.submit((Callable<Integer>) () -> {
+                startLatch.await();
+                int failures = 0;
+                for (int pipeId = 0; pipeId < CALLS_PER_THREAD; pipeId++) {
+                    long key = OpenPgpService2.createKey(callingPid, pipeId);
+                    FakePipe pipe = new FakePipe();
+                    registry.put(key, pipe, 0);
+                    FakePipe takenPipe = registry.take(key);
+                    if (takenPipe != pipe || pipe.closeCount.get() != 0) {
+                        failures++;
+                    }
+                }
+                return failures;
+            }));
+        }
+        startLatch.countDown();
+
+        for (Future<Integer> future : futures) {
+            assertEquals(0, (int) future.get(30, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+        assertEquals(0, registry.size());
+    }
+
+    @Test
+    public void concurrentExpiry_shouldNeitherLeakNorCloseTakenPipes() throws Exception {
+        OutputPipeRegistry<FakePipe> registry = new OutputPipeRegistry<>();
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT + 1);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean(false);
+
+        List<FakePipe> allPipes = Collections.synchronizedList(new ArrayList<>());
+        List<Future<List<FakePipe>>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            int callingPid = 1000 + thread;
+            futures.add(executor.submit(() -> {
+                startLatch.await();
+                List<FakePipe> takenPipes = new ArrayList<>();
+                for (int pipeId = 0; pipeId < CALLS_PER_THREAD; pipeId++) {
+                    long key = OpenPgpService2.createKey(callingPid, pipeId);
+                    FakePipe pipe = new FakePipe();
+                    allPipes.add(pipe);
+                    // every pipe is already old enough to be expired
+                    registry.put(key, pipe, 0);
+                    FakePipe takenPipe = registry.take(key);
+                    if (takenPipe != null) {
+                        takenPipes.add(takenPipe);
+                    }
+                }
+                return takenPipes;
+            }));
+        }
+        Future<?> expiry = executor.submit(() -> {
+            while (!done.get()) {
+                registry.expireOrphans(OutputPipeRegistry.ORPHAN_TIMEOUT_MILLIS);
+            }
+        });
+        startLatch.countDown();
+
+        int takenCount = 0;
+        for (Future<List<FakePipe>> future : futures) {
+            for (FakePipe takenPipe : future.get(30, TimeUnit.SECONDS)) {
+                assertEquals(0, takenPipe.closeCount.get());
+                takenCount++;
+            }
+        }
+        done.set(true);
+        expiry.get(30, TimeUnit.SECONDS);
+        executor.shutdown();
+
+        int closedCount = 0;
+        for (FakePipe pipe : allPipes) {
+            assertTrue(pipe.closeCount.get() <= 1);
+            closedCount += pipe.closeCount.get();
+        }
+        assertEquals(0, registry.size());
+        assertEquals(THREAD_COUNT * CALLS_PER_THREAD, takenCount + closedCount);
+    }
+
+    @Test
+    public void expireOrphans_shouldCloseOnlyOldPipes() throws Exception {
+        OutputPipeRegistry<FakePipe> registry = new OutputPipeRegistry<>();
+        FakePipe orphanedPipe = new FakePipe();
+        FakePipe recentPipe = new FakePipe();
+
+        registry.put(1, orphanedPipe, 0);
+        registry.put(2, recentPipe, OutputPipeRegistry.ORPHAN_TIMEOUT_MILLIS);
+        registry.expireOrphans(OutputPipeRegistry.ORPHAN_TIMEOUT_MILLIS);
+
+        assertEquals(1, orphanedPipe.closeCount.get());
+        assertNull(registry.take(1));
+        assertSame(recentPipe, registry.take(2));
+        assertEquals(0, recentPipe.closeCount.get());
+    }
+
+    @Test
+    public void put_shouldCloseReplacedPipe() throws Exception {
+        OutputPipeRegistry<FakePipe> registry = new OutputPipeRegistry<>();
+        FakePipe firstPipe = new FakePipe();
+        FakePipe secondPipe = new FakePipe();
+
+        registry.put(1, firstPipe, 0);
+        registry.put(1, secondPipe, 0);
+
+        assertEquals(1, firstPipe.closeCount.get());
+        assertSame(secondPipe, registry.take(1));
+        assertEquals(0, secondPipe.closeCount.get());
+    }
+
+    private static class FakePipe implements Closeable {
+        final AtomicInteger closeCount = new AtomicInteger();
+
+        @Override
+        public void close() {
+            closeCount.incrementAndGet();
+        }
+    }
+}
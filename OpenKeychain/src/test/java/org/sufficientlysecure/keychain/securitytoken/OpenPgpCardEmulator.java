@@ -0,0 +1,1166 @@
+/*
+ * Copyright (C) 2018 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.securitytoken;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.RSAKeyGenParameterSpec;
+import java.security.spec.RSAPrivateCrtKeySpec;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.HashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.nist.NISTNamedCurves;
+import org.bouncycastle.jce.ECNamedCurveTable;
+import org.bouncycastle.jce.interfaces.ECPrivateKey;
+import org.bouncycastle.jce.interfaces.ECPublicKey;
+import org.bouncycastle.jce.spec.ECNamedCurveParameterSpec;
+import org.bouncycastle.jce.spec.ECParameterSpec;
+import org.bouncycastle.jce.spec.ECPrivateKeySpec;
+import org.bouncycastle.jce.spec.ECPublicKeySpec;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo.TokenType;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenInfo.TransportType;
+
+
+/**
+ * In-process emulation of an OpenPGP card v3.3 behind the {@link Transport} interface, for
+ * end-to-end tests of the security token code and for counting APDU round trips.
+ *
+ * It covers the three key slots (RSA and NIST curves, generated on card or imported), the PW1
+ * and PW3 state machine with retry counters, command and response chaining, extended lengths,
+ * TERMINATE DF / ACTIVATE FILE, and optionally SCP11b secure messaging as implemented by
+ * SmartPGP. The resetting code, the cardholder certificate and Curve25519 keys are not emulated.
+ *
+ * See https://www.g10code.com/docs/openpgp-card-3.3.pdf
+ */
+public class OpenPgpCardEmulator implements Transport {
+    public static final String DEFAULT_PW1 = "123456";
+    public static final String DEFAULT_PW3 = "12345678";
+
+    private static final byte[] AID_OPENPGP = Hex.decode("D27600012401");
+    private static final byte[] DEFAULT_AID = Hex.decode("D276000124010304FFFE123456780000");
+    private static final byte[] DEFAULT_RSA_2048_ATTRIBUTES = Hex.decode("010800001103");
+    private static final byte[] SM_KEY_ATTRIBUTES = Arrays.concatenate(
+            new byte[] { ECKeyFormat.ECAlgorithmFormat.ECDH.getValue() }, Hex.decode("2A8648CE3D030107"));
+
+    private static final int MAX_PW_TRIES = 3;
+    private static final int MAX_SHORT_NE = 256;
+    private static final int MAX_SHORT_NC = 255;
+
+    private static final int CLA_CHAINING = 0x10;
+    private static final int CLA_SECURE_MESSAGING = 0x04;
+
+    private static final int INS_SELECT_FILE = 0xA4;
+    private static final int INS_SELECT_DATA = 0xA5;
+    private static final int INS_GET_DATA = 0xCA;
+    private static final int INS_PUT_DATA = 0xDA;
+    private static final int INS_PUT_DATA_ODD = 0xDB;
+    private static final int INS_VERIFY = 0x20;
+    private static final int INS_CHANGE_REFERENCE_DATA = 0x24;
+    private static final int INS_RESET_RETRY_COUNTER = 0x2C;
+    private static final int INS_PERFORM_SECURITY_OPERATION = 0x2A;
+    private static final int INS_INTERNAL_AUTHENTICATE = 0x88;
+    private static final int INS_GENERATE_ASYMMETRIC_KEY_PAIR = 0x47;
+    private static final int INS_GET_RESPONSE = 0xC0;
+    private static final int INS_TERMINATE_DF = 0xE6;
+    private static final int INS_ACTIVATE_FILE = 0x44;
+
+    private static final int SW_SUCCESS = 0x9000;
+    private static final int SW_TERMINATED = 0x6285;
+    private static final int SW_WRONG_LENGTH = 0x6700;
+    private static final int SW_SM_NOT_SUPPORTED = 0x6882;
+    private static final int SW_CHAINING_NOT_SUPPORTED = 0x6884;
+    private static final int SW_SECURITY_STATUS_NOT_SATISFIED = 0x6982;
+    private static final int SW_AUTHENTICATION_BLOCKED = 0x6983;
+    private static final int SW_CONDITIONS_NOT_SATISFIED = 0x6985;
+    private static final int SW_SM_DATA_INCORRECT = 0x6988;
+    private static final int SW_WRONG_DATA = 0x6A80;
+    private static final int SW_FUNCTION_NOT_SUPPORTED = 0x6A81;
+    private static final int SW_FILE_NOT_FOUND = 0x6A82;
+    private static final int SW_REFERENCED_DATA_NOT_FOUND = 0x6A88;
+    private static final int SW_WRONG_P1_P2 = 0x6B00;
+    private static final int SW_INS_NOT_SUPPORTED = 0x6D00;
+    private static final int SW_CLA_NOT_SUPPORTED = 0x6E00;
+    private static final int SW_UNKNOWN = 0x6F00;
+    private static final int SW1_RESPONSE_AVAILABLE = 0x61;
+
+    private static final int AES_BLOCK_SIZE = 16;
+    private static final int SCP11_MAC_LENGTH = 8;
+    private static final String PROVIDER = "BC";
+
+    // configuration
+    private boolean extendedLengthSupported = true;
+    private boolean commandChainingSupported = true;
+    private long apduLatencyMillis;
+    private TokenType tokenType;
+    private KeyPair smKeyPair;
+
+    // persistent card state
+    private final HashMap<Integer, byte[]> dataObjects = new HashMap<>();
+    private final KeyPair[] keyPairs = new KeyPair[KeyType.values().length];
+    private String pw1;
+    private String pw3;
+    private int pw1TriesLeft;
+    private int pw3TriesLeft;
+    private boolean pw1ValidForMultipleSignatures;
+    private boolean isTerminated;
+
+    // session state
+    private boolean isConnected;
+    private boolean isPw1VerifiedForSignature;
+    private boolean isPw1VerifiedForOther;
+    private boolean isPw3Verified;
+    private ByteArrayOutputStream chainedCommandData;
+    private byte[] pendingResponse;
+    private int pendingResponseOffset;
+    private int pendingResponseSw;
+    private SecureMessagingSession smSession;
+
+    private int transceivedApduCount;
+
+
+    public OpenPgpCardEmulator() {
+        resetToFactoryState();
+    }
+
+    private void resetToFactoryState() {
+        dataObjects.clear();
+        for (KeyType keyType : KeyType.values()) {
+            dataObjects.put(keyType.getAlgoAttributeSlot(), DEFAULT_RSA_2048_ATTRIBUTES);
+            dataObjects.put(keyType.getFingerprintObjectId(), new byte[20]);
+            dataObjects.put(keyType.getTimestampObjectId(), new byte[4]);
+            keyPairs[keyType.getIdx()] = null;
+        }
+        pw1 = DEFAULT_PW1;
+        pw3 = DEFAULT_PW3;
+        pw1TriesLeft = MAX_PW_TRIES;
+        pw3TriesLeft = MAX_PW_TRIES;
+        isTerminated = false;
+        resetSecurityStatus();
+    }
+
+    private void resetSecurityStatus() {
+        isPw1VerifiedForSignature = false;
+        isPw1VerifiedForOther = false;
+        isPw3Verified = false;
+        chainedCommandData = null;
+        pendingResponse = null;
+        smSession = null;
+    }
+
+    // region configuration
+
+    public OpenPgpCardEmulator setExtendedLengthSupported(boolean extendedLengthSupported) {
+        this.extendedLengthSupported = extendedLengthSupported;
+        return this;
+    }
+
+    public OpenPgpCardEmulator setCommandChainingSupported(boolean commandChainingSupported) {
+        this.commandChainingSupported = commandChainingSupported;
+        return this;
+    }
+
+    public OpenPgpCardEmulator setPw1ValidForMultipleSignatures(boolean pw1ValidForMultipleSignatures) {
+        this.pw1ValidForMultipleSignatures = pw1ValidForMultipleSignatures;
+        return this;
+    }
+
+    /** Delays every APDU by the given time, to simulate the round trip to a real token. */
+    public OpenPgpCardEmulator setApduLatencyMillis(long apduLatencyMillis) {
+        this.apduLatencyMillis = apduLatencyMillis;
+        return this;
+    }
+
+    public OpenPgpCardEmulator setTokenType(TokenType tokenType) {
+        this.tokenType = tokenType;
+        return this;
+    }
+
+    public OpenPgpCardEmulator setKeyAttributes(KeyType keyType, byte[] attributes) {
+        dataObjects.put(keyType.getAlgoAttributeSlot(), attributes);
+        return this;
+    }
+
+    /** Enables SCP11b secure messaging with a fresh NIST P-256 card key. */
+    public OpenPgpCardEmulator enableSecureMessaging() throws GeneralSecurityException {
+        smKeyPair = generateEcKeyPair(NISTNamedCurves.getOID("P-256"));
+        return this;
+    }
+
+    public int getTransceivedApduCount() {
+        return transceivedApduCount;
+    }
+
+    public PublicKey getPublicKey(KeyType keyType) {
+        KeyPair keyPair = keyPairs[keyType.getIdx()];
+        return keyPair != null ? keyPair.getPublic() : null;
+    }
+
+    public boolean isSecureMessagingEstablished() {
+        return smSession != null;
+    }
+
+    // endregion
+
+    // region transport
+
+    @Override
+    public ResponseApdu transceive(CommandApdu command) throws IOException {
+        if (!isConnected) {
+            throw new IOException("Emulated card is not connected");
+        }
+
+        transceivedApduCount++;
+        if (apduLatencyMillis > 0) {
+            try {
+                Thread.sleep(apduLatencyMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+        }
+
+        if (command.getINS() == INS_GET_RESPONSE && pendingResponse != null) {
+            return continueResponse(command);
+        }
+        pendingResponse = null;
+
+        return respond(command, process(command));
+    }
+
+    @Override
+    public void release() {
+        isConnected = false;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return isConnected;
+    }
+
+    @Override
+    public boolean isPersistentConnectionAllowed() {
+        return true;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        // like a power cycle
+        resetSecurityStatus();
+        isConnected = true;
+    }
+
+    @Override
+    public TransportType getTransportType() {
+        return TransportType.USB;
+    }
+
+    @Override
+    public TokenType getTokenTypeIfAvailable() {
+        return tokenType;
+    }
+
+    // endregion
+
+    // region apdu level
+
+    private ResponseApdu process(CommandApdu command) {
+        boolean isExtended = command.getData().length > MAX_SHORT_NC || command.getNe() > MAX_SHORT_NE;
+        if (isExtended && !extendedLengthSupported) {
+            return status(SW_WRONG_LENGTH);
+        }
+
+        int cla = command.getCLA();
+        if ((cla & ~(CLA_CHAINING | CLA_SECURE_MESSAGING)) != 0) {
+            return status(SW_CLA_NOT_SUPPORTED);
+        }
+
+        if ((cla & CLA_CHAINING) != 0) {
+            if (!commandChainingSupported) {
+                return status(SW_CHAINING_NOT_SUPPORTED);
+            }
+            if (chainedCommandData == null) {
+                chainedCommandData = new ByteArrayOutputStream();
+            }
+            chainedCommandData.write(command.getData(), 0, command.getData().length);
+            return status(SW_SUCCESS);
+        }
+        if (chainedCommandData != null) {
+            chainedCommandData.write(command.getData(), 0, command.getData().length);
+            command = CommandApdu.create(cla, command.getINS(), command.getP1(), command.getP2(),
+                    chainedCommandData.toByteArray(), command.getNe());
+            chainedCommandData = null;
+        }
+
+        if ((cla & CLA_SECURE_MESSAGING) == 0) {
+            // a plain command ends the secure messaging session
+            smSession = null;
+            return dispatch(command);
+        }
+
+        if (smSession == null) {
+            return status(SW_SM_NOT_SUPPORTED);
+        }
+        CommandApdu plainCommand;
+        try {
+            plainCommand = smSession.verifyAndDecrypt(command);
+        } catch (GeneralSecurityException | IOException e) {
+            smSession = null;
+            return status(SW_SM_DATA_INCORRECT);
+        }
+        if (plainCommand == null) {
+            smSession = null;
+            return status(SW_SM_DATA_INCORRECT);
+        }
+
+        SecureMessagingSession session = smSession;
+        ResponseApdu response = dispatch(plainCommand);
+        try {
+            return session.encryptAndSign(response);
+        } catch (GeneralSecurityException e) {
+            return status(SW_UNKNOWN);
+        }
+    }
+
+    /** Sends as much of the response as the command allows, the rest is left for GET RESPONSE. */
+    private ResponseApdu respond(CommandApdu command, ResponseApdu response) {
+        int maxLength = getMaxResponseLength(command);
+        byte[] data = response.getData();
+        if (data.length <= maxLength) {
+            return response;
+        }
+
+        pendingResponse = data;
+        pendingResponseOffset = 0;
+        pendingResponseSw = response.getSw();
+        return continueResponse(command);
+    }
+
+    private ResponseApdu continueResponse(CommandApdu command) {
+        int length = Math.min(getMaxResponseLength(command), pendingResponse.length - pendingResponseOffset);
+        byte[] chunk = Arrays.copyOfRange(pendingResponse, pendingResponseOffset, pendingResponseOffset + length);
+        pendingResponseOffset += length;
+
+        int remaining = pendingResponse.length - pendingResponseOffset;
+        if (remaining == 0) {
+            pendingResponse = null;
+            return response(chunk, pendingResponseSw);
+        }
+        return response(chunk, (SW1_RESPONSE_AVAILABLE << 8) | (remaining > 0xff ? 0 : remaining));
+    }
+
+    private int getMaxResponseLength(CommandApdu command) {
+        int ne = command.getNe() == 0 ? MAX_SHORT_NE : command.getNe();
+        return extendedLengthSupported ? ne : Math.min(ne, MAX_SHORT_NE);
+    }
+
+    private ResponseApdu dispatch(CommandApdu command) {
+        int ins = command.getINS();
+        if (isTerminated && ins != INS_ACTIVATE_FILE) {
+            return status(SW_TERMINATED);
+        }
+
+        try {
+            switch (ins) {
+                case INS_SELECT_FILE:
+                    return selectFile(command);
+                case INS_SELECT_DATA:
+                    return status(SW_REFERENCED_DATA_NOT_FOUND);
+                case INS_GET_DATA:
+                    return getData(command);
+                case INS_PUT_DATA:
+                    return putData(command);
+                case INS_PUT_DATA_ODD:
+                    return importKey(command);
+                case INS_VERIFY:
+                    return verify(command);
+                case INS_CHANGE_REFERENCE_DATA:
+                    return changeReferenceData(command);
+                case INS_RESET_RETRY_COUNTER:
+                    return resetRetryCounter(command);
+                case INS_PERFORM_SECURITY_OPERATION:
+                    return performSecurityOperation(command);
+                case INS_INTERNAL_AUTHENTICATE:
+                    return internalAuthenticate(command);
+                case INS_GENERATE_ASYMMETRIC_KEY_PAIR:
+                    return generateAsymmetricKeyPair(command);
+                case INS_TERMINATE_DF:
+                    return terminateDf();
+                case INS_ACTIVATE_FILE:
+                    return activateFile();
+                default:
+                    return status(SW_INS_NOT_SUPPORTED);
+            }
+        } catch (IOException | RuntimeException e) {
+            return status(SW_WRONG_DATA);
+        } catch (GeneralSecurityException e) {
+            return status(SW_UNKNOWN);
+        }
+    }
+
+    // endregion
+
+    // region commands
+
+    private ResponseApdu selectFile(CommandApdu command) {
+        if (!Arrays.areEqual(AID_OPENPGP, command.getData())) {
+            return status(SW_FILE_NOT_FOUND);
+        }
+        resetSecurityStatus();
+        return status(SW_SUCCESS);
+    }
+
+    private ResponseApdu getData(CommandApdu command) {
+        int tag = (command.getP1() << 8) | command.getP2();
+        switch (tag) {
+            case 0x004F:
+                return success(DEFAULT_AID);
+            case 0x5F52:
+                return success(getHistoricalBytes());
+            case 0x006E:
+                return success(getApplicationRelatedData());
+            case 0x0065:
+                return success(tlv(0x65, tlv(0x5B, getDataObject(0x5B)), tlv(0x5F2D, getDataObject(0x5F2D)),
+                        tlv(0x5F35, getDataObject(0x5F35))));
+            case 0x00C4:
+                return success(getPwStatusBytes());
+            case 0x00D4:
+                if (smKeyPair == null) {
+                    return status(SW_REFERENCED_DATA_NOT_FOUND);
+                }
+                return success(tlv(0xD4, SM_KEY_ATTRIBUTES));
+            case 0x5F50:
+            case 0x0101:
+            case 0x0102:
+                return success(getDataObject(tag));
+            case 0x0103:
+            case 0x0104:
+                if (!(tag == 0x0103 ? isPw1VerifiedForOther : isPw3Verified)) {
+                    return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+                }
+                return success(getDataObject(tag));
+            default:
+                return status(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+    }
+
+    private ResponseApdu putData(CommandApdu command) {
+        int tag = (command.getP1() << 8) | command.getP2();
+        boolean isPw1Object = tag == 0x0101 || tag == 0x0103;
+        if (!(isPw1Object ? isPw1VerifiedForOther : isPw3Verified)) {
+            return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+
+        byte[] data = command.getData();
+        switch (tag) {
+            case 0x00C4:
+                pw1ValidForMultipleSignatures = data[0] == 1;
+                return status(SW_SUCCESS);
+            case 0x00C1:
+            case 0x00C2:
+            case 0x00C3:
+                KeyFormat.fromBytes(data);
+                dataObjects.put(tag, data);
+                keyPairs[getKeyTypeForAttributesTag(tag).getIdx()] = null;
+                return status(SW_SUCCESS);
+            case 0x005B:
+            case 0x5F2D:
+            case 0x5F35:
+            case 0x5F50:
+            case 0x0101:
+            case 0x0102:
+            case 0x0103:
+            case 0x0104:
+            case 0x00C7:
+            case 0x00C8:
+            case 0x00C9:
+            case 0x00CA:
+            case 0x00CB:
+            case 0x00CC:
+            case 0x00CE:
+            case 0x00CF:
+            case 0x00D0:
+                dataObjects.put(tag, data);
+                return status(SW_SUCCESS);
+            default:
+                return status(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+    }
+
+    private ResponseApdu verify(CommandApdu command) {
+        int p2 = command.getP2();
+        if (p2 != 0x81 && p2 != 0x82 && p2 != 0x83) {
+            return status(SW_WRONG_P1_P2);
+        }
+        boolean isPw3 = p2 == 0x83;
+
+        if (command.getP1() == 0xFF) {
+            setVerified(p2, false);
+            return status(SW_SUCCESS);
+        }
+        if (command.getData().length == 0) {
+            boolean isVerified = p2 == 0x81 ? isPw1VerifiedForSignature
+                    : p2 == 0x82 ? isPw1VerifiedForOther : isPw3Verified;
+            return isVerified ? status(SW_SUCCESS) : status(0x63C0 | (isPw3 ? pw3TriesLeft : pw1TriesLeft));
+        }
+
+        int sw = checkPin(isPw3, command.getData());
+        setVerified(p2, sw == SW_SUCCESS);
+        return status(sw);
+    }
+
+    private ResponseApdu changeReferenceData(CommandApdu command) {
+        int p2 = command.getP2();
+        if (p2 != 0x81 && p2 != 0x83) {
+            return status(SW_WRONG_P1_P2);
+        }
+        boolean isPw3 = p2 == 0x83;
+
+        byte[] data = command.getData();
+        int oldPinLength = (isPw3 ? pw3 : pw1).length();
+        if (data.length <= oldPinLength) {
+            return status(SW_WRONG_LENGTH);
+        }
+
+        int sw = checkPin(isPw3, Arrays.copyOfRange(data, 0, oldPinLength));
+        if (sw != SW_SUCCESS) {
+            return status(sw);
+        }
+
+        String newPin = new String(data, oldPinLength, data.length - oldPinLength);
+        if (isPw3) {
+            pw3 = newPin;
+            isPw3Verified = false;
+        } else {
+            pw1 = newPin;
+            isPw1VerifiedForSignature = false;
+            isPw1VerifiedForOther = false;
+        }
+        return status(SW_SUCCESS);
+    }
+
+    private ResponseApdu resetRetryCounter(CommandApdu command) {
+        if (command.getP1() != 0x02 || command.getP2() != 0x81) {
+            // resetting code is not emulated
+            return status(SW_FUNCTION_NOT_SUPPORTED);
+        }
+        if (!isPw3Verified) {
+            return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+
+        pw1 = new String(command.getData());
+        pw1TriesLeft = MAX_PW_TRIES;
+        return status(SW_SUCCESS);
+    }
+
+    private ResponseApdu performSecurityOperation(CommandApdu command) throws GeneralSecurityException, IOException {
+        int p1p2 = (command.getP1() << 8) | command.getP2();
+        if (p1p2 == 0x9E9A) {
+            if (!isPw1VerifiedForSignature) {
+                return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+            }
+            if (!pw1ValidForMultipleSignatures) {
+                isPw1VerifiedForSignature = false;
+            }
+            return sign(KeyType.SIGN, command.getData());
+        } else if (p1p2 == 0x8086) {
+            if (!isPw1VerifiedForOther) {
+                return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+            }
+            return decipher(command.getData());
+        }
+        return status(SW_WRONG_P1_P2);
+    }
+
+    private ResponseApdu internalAuthenticate(CommandApdu command) throws GeneralSecurityException, IOException {
+        if (command.getP1() == 0x01) {
+            if (smKeyPair == null) {
+                return status(SW_FUNCTION_NOT_SUPPORTED);
+            }
+            return establishSecureMessaging(command.getData());
+        }
+
+        if (!isPw1VerifiedForOther) {
+            return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+        return sign(KeyType.AUTH, command.getData());
+    }
+
+    private ResponseApdu generateAsymmetricKeyPair(CommandApdu command) throws GeneralSecurityException {
+        int crt = command.getData().length > 0 ? command.getData()[0] & 0xff : 0;
+        if (crt == 0xA6 && command.getP1() == 0x81 && smKeyPair != null) {
+            return success(tlv(0x7F49, tlv(0x86, encodePoint((ECPublicKey) smKeyPair.getPublic()))));
+        }
+
+        KeyType keyType = getKeyTypeForCrt(crt);
+        if (keyType == null) {
+            return status(SW_WRONG_DATA);
+        }
+
+        if (command.getP1() == 0x80) {
+            if (!isPw3Verified) {
+                return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+            }
+            keyPairs[keyType.getIdx()] = generateKeyPair(getKeyFormat(keyType));
+        } else if (command.getP1() != 0x81) {
+            return status(SW_WRONG_P1_P2);
+        }
+
+        KeyPair keyPair = keyPairs[keyType.getIdx()];
+        if (keyPair == null) {
+            return status(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+        return success(encodePublicKeyTemplate(keyPair.getPublic()));
+    }
+
+    private ResponseApdu importKey(CommandApdu command) throws GeneralSecurityException, IOException {
+        if (command.getP1() != 0x3F || command.getP2() != 0xFF) {
+            return status(SW_WRONG_P1_P2);
+        }
+        if (!isPw3Verified) {
+            return status(SW_SECURITY_STATUS_NOT_SATISFIED);
+        }
+
+        Iso7816TLV extendedHeaderList = Iso7816TLV.readSingle(command.getData(), false);
+        if (extendedHeaderList.mT != 0x4D) {
+            return status(SW_WRONG_DATA);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(extendedHeaderList.mV);
+        Iso7816TLV crt = Iso7816TLV.readSingle(buf, false);
+        Iso7816TLV template = Iso7816TLV.readSingle(buf, false);
+        Iso7816TLV keyData = Iso7816TLV.readSingle(buf, false);
+        if (template.mT != 0x7F48 || keyData.mT != 0x5F48) {
+            return status(SW_WRONG_DATA);
+        }
+
+        KeyType keyType = getKeyTypeForCrt(crt.mT);
+        if (keyType == null) {
+            return status(SW_WRONG_DATA);
+        }
+
+        HashMap<Integer, BigInteger> keyParts = new HashMap<>();
+        ByteBuffer templateBuf = ByteBuffer.wrap(template.mV);
+        int offset = 0;
+        while (templateBuf.hasRemaining()) {
+            int tag = templateBuf.get() & 0xff;
+            int length = readBerLength(templateBuf);
+            keyParts.put(tag, new BigInteger(1, Arrays.copyOfRange(keyData.mV, offset, offset + length)));
+            offset += length;
+        }
+
+        KeyFormat keyFormat = getKeyFormat(keyType);
+        if (keyFormat instanceof RSAKeyFormat) {
+            keyPairs[keyType.getIdx()] = createRsaKeyPair(keyParts.get(0x91), keyParts.get(0x92), keyParts.get(0x93));
+        } else if (keyFormat instanceof ECKeyFormat) {
+            keyPairs[keyType.getIdx()] = createEcKeyPair(((ECKeyFormat) keyFormat).getCurveOID(), keyParts.get(0x92));
+        } else {
+            return status(SW_FUNCTION_NOT_SUPPORTED);
+        }
+        return status(SW_SUCCESS);
+    }
+
+    private ResponseApdu terminateDf() {
+        if (!isPw3Verified && pw3TriesLeft > 0) {
+            return status(SW_CONDITIONS_NOT_SATISFIED);
+        }
+        isTerminated = true;
+        resetSecurityStatus();
+        return status(SW_SUCCESS);
+    }
+
+    private ResponseApdu activateFile() {
+        if (isTerminated) {
+            resetToFactoryState();
+        }
+        return status(SW_SUCCESS);
+    }
+
+    // endregion
+
+    // region pin handling
+
+    private int checkPin(boolean isPw3, byte[] pin) {
+        int triesLeft = isPw3 ? pw3TriesLeft : pw1TriesLeft;
+        if (triesLeft == 0) {
+            return SW_AUTHENTICATION_BLOCKED;
+        }
+
+        boolean isCorrect = Arrays.constantTimeAreEqual((isPw3 ? pw3 : pw1).getBytes(), pin);
+        triesLeft = isCorrect ? MAX_PW_TRIES : triesLeft - 1;
+        if (isPw3) {
+            pw3TriesLeft = triesLeft;
+        } else {
+            pw1TriesLeft = triesLeft;
+        }
+        return isCorrect ? SW_SUCCESS : 0x63C0 | triesLeft;
+    }
+
+    private void setVerified(int p2, boolean isVerified) {
+        switch (p2) {
+            case 0x81:
+                isPw1VerifiedForSignature = isVerified;
+                break;
+            case 0x82:
+                isPw1VerifiedForOther = isVerified;
+                break;
+            case 0x83:
+                isPw3Verified = isVerified;
+                break;
+        }
+    }
+
+    // endregion
+
+    // region card data
+
+    private byte[] getHistoricalBytes() {
+        int capabilities = (commandChainingSupported ? 0x80 : 0) | (extendedLengthSupported ? 0x40 : 0);
+        // category indicator, card capabilities, status indicator "operational" and 9000
+        return new byte[] { 0x00, 0x73, 0x00, 0x00, (byte) capabilities, 0x05, (byte) 0x90, 0x00 };
+    }
+
+    private byte[] getExtendedCapabilities() {
+        // secure messaging, key import, pw status changeable, algorithm attributes changeable
+        int flags = (smKeyPair != null ? 0x80 : 0) | 0x20 | 0x10 | 0x04;
+        int smAlgorithm = smKeyPair != null ? 0x03 : 0x00;
+        return new byte[] { (byte) flags, (byte) smAlgorithm, 0x00, 0x00, 0x00, 0x00, 0x07, 0x00, 0x07, 0x00 };
+    }
+
+    private byte[] getPwStatusBytes() {
+        return new byte[] {
+                (byte) (pw1ValidForMultipleSignatures ? 0x01 : 0x00),
+                0x7F, 0x7F, 0x7F,
+                (byte) pw1TriesLeft, 0x00, (byte) pw3TriesLeft
+        };
+    }
+
+    private byte[] getApplicationRelatedData() {
+        byte[] fingerprints = Arrays.concatenate(getDataObject(0xC7), getDataObject(0xC8), getDataObject(0xC9));
+        byte[] caFingerprints = Arrays.concatenate(getDataObject(0xCA), getDataObject(0xCB), getDataObject(0xCC));
+        byte[] timestamps = Arrays.concatenate(getDataObject(0xCE), getDataObject(0xCF), getDataObject(0xD0));
+
+        byte[] discretionaryData = concatenate(
+                tlv(0xC0, getExtendedCapabilities()),
+                tlv(0xC1, getDataObject(0xC1)),
+                tlv(0xC2, getDataObject(0xC2)),
+                tlv(0xC3, getDataObject(0xC3)),
+                tlv(0xC4, getPwStatusBytes()),
+                tlv(0xC5, fingerprints),
+                tlv(0xC6, caFingerprints.length == 60 ? caFingerprints : new byte[60]),
+                tlv(0xCD, timestamps));
+
+        return tlv(0x6E, tlv(0x4F, DEFAULT_AID), tlv(0x5F52, getHistoricalBytes()), tlv(0x73, discretionaryData));
+    }
+
+    private byte[] getDataObject(int tag) {
+        byte[] data = dataObjects.get(tag);
+        return data != null ? data : new byte[0];
+    }
+
+    private KeyFormat getKeyFormat(KeyType keyType) {
+        return KeyFormat.fromBytes(getDataObject(keyType.getAlgoAttributeSlot()));
+    }
+
+    private static KeyType getKeyTypeForCrt(int crt) {
+        for (KeyType keyType : KeyType.values()) {
+            if (keyType.getSlot() == crt) {
+                return keyType;
+            }
+        }
+        return null;
+    }
+
+    private static KeyType getKeyTypeForAttributesTag(int tag) {
+        for (KeyType keyType : KeyType.values()) {
+            if (keyType.getAlgoAttributeSlot() == tag) {
+                return keyType;
+            }
+        }
+        throw new IllegalArgumentException("No key slot for " + tag);
+    }
+
+    // endregion
+
+    // region cryptography
+
+    private ResponseApdu sign(KeyType keyType, byte[] data) throws GeneralSecurityException, IOException {
+        KeyPair keyPair = keyPairs[keyType.getIdx()];
+        if (keyPair == null) {
+            return status(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+
+        PrivateKey privateKey = keyPair.getPrivate();
+        if (privateKey instanceof ECPrivateKey) {
+            Signature signature = Signature.getInstance("NONEwithECDSA", PROVIDER);
+            signature.initSign(privateKey);
+            signature.update(data);
+            ASN1Sequence rs = ASN1Sequence.getInstance(signature.sign());
+            int fieldSize = getFieldSizeBytes((ECPrivateKey) privateKey);
+            return success(Arrays.concatenate(
+                    toFixedLength(ASN1Integer.getInstance(rs.getObjectAt(0)).getValue(), fieldSize),
+                    toFixedLength(ASN1Integer.getInstance(rs.getObjectAt(1)).getValue(), fieldSize)));
+        }
+
+        // PKCS#1 v1.5 signature of the DigestInfo sent by the host
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", PROVIDER);
+        cipher.init(Cipher.ENCRYPT_MODE, privateKey);
+        return success(cipher.doFinal(data));
+    }
+
+    private ResponseApdu decipher(byte[] data) throws GeneralSecurityException, IOException {
+        KeyPair keyPair = keyPairs[KeyType.ENCRYPT.getIdx()];
+        if (keyPair == null) {
+            return status(SW_REFERENCED_DATA_NOT_FOUND);
+        }
+
+        PrivateKey privateKey = keyPair.getPrivate();
+        if (privateKey instanceof ECPrivateKey) {
+            // A6 { 7F49 { 86 <ephemeral public point> } }
+            Iso7816TLV crt = Iso7816TLV.readSingle(data, true);
+            Iso7816TLV publicKeyTemplate = ((Iso7816TLV.Iso7816CompositeTLV) crt).mSubs[0];
+            Iso7816TLV point = ((Iso7816TLV.Iso7816CompositeTLV) publicKeyTemplate).mSubs[0];
+
+            ECParameterSpec spec = ((ECPrivateKey) privateKey).getParameters();
+            return success(computeEcdhSecret(privateKey, decodePoint(spec, point.mV)));
+        }
+
+        if (data.length == 0 || data[0] != 0x00) {
+            return status(SW_WRONG_DATA);
+        }
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding", PROVIDER);
+        cipher.init(Cipher.DECRYPT_MODE, privateKey);
+        return success(cipher.doFinal(data, 1, data.length - 1));
+    }
+
+    private static KeyPair generateKeyPair(KeyFormat keyFormat) throws GeneralSecurityException {
+        if (keyFormat instanceof ECKeyFormat) {
+            return generateEcKeyPair(((ECKeyFormat) keyFormat).getCurveOID());
+        } else if (keyFormat instanceof RSAKeyFormat) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA", PROVIDER);
+            generator.initialize(new RSAKeyGenParameterSpec(
+                    ((RSAKeyFormat) keyFormat).getModulusLength(), RSAKeyGenParameterSpec.F4));
+            return generator.generateKeyPair();
+        }
+        throw new GeneralSecurityException("Unsupported key format");
+    }
+
+    private static KeyPair generateEcKeyPair(ASN1ObjectIdentifier curveOid) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC", PROVIDER);
+        generator.initialize(getCurveSpec(curveOid));
+        return generator.generateKeyPair();
+    }
+
+    private static KeyPair createRsaKeyPair(BigInteger e, BigInteger p, BigInteger q)
+            throws GeneralSecurityException {
+        BigInteger n = p.multiply(q);
+        BigInteger d = e.modInverse(p.subtract(BigInteger.ONE).multiply(q.subtract(BigInteger.ONE)));
+        RSAPrivateCrtKeySpec privateKeySpec = new RSAPrivateCrtKeySpec(n, e, d, p, q,
+                d.mod(p.subtract(BigInteger.ONE)), d.mod(q.subtract(BigInteger.ONE)), q.modInverse(p));
+
+        KeyFactory keyFactory = KeyFactory.getInstance("RSA", PROVIDER);
+        return new KeyPair(keyFactory.generatePublic(new RSAPublicKeySpec(n, e)),
+                keyFactory.generatePrivate(privateKeySpec));
+    }
+
+    private static KeyPair createEcKeyPair(ASN1ObjectIdentifier curveOid, BigInteger s)
+            throws GeneralSecurityException {
+        ECNamedCurveParameterSpec spec = getCurveSpec(curveOid);
+        KeyFactory keyFactory = KeyFactory.getInstance("EC", PROVIDER);
+        return new KeyPair(keyFactory.generatePublic(new ECPublicKeySpec(spec.getG().multiply(s).normalize(), spec)),
+                keyFactory.generatePrivate(new ECPrivateKeySpec(s, spec)));
+    }
+
+    private static ECNamedCurveParameterSpec getCurveSpec(ASN1ObjectIdentifier curveOid) {
+        return ECNamedCurveTable.getParameterSpec(org.bouncycastle.asn1.x9.ECNamedCurveTable.getName(curveOid));
+    }
+
+    private static PublicKey decodePoint(ECParameterSpec spec, byte[] encodedPoint)
+            throws GeneralSecurityException {
+        KeyFactory keyFactory = KeyFactory.getInstance("EC", PROVIDER);
+        return keyFactory.generatePublic(new ECPublicKeySpec(spec.getCurve().decodePoint(encodedPoint), spec));
+    }
+
+    private static byte[] computeEcdhSecret(PrivateKey privateKey, PublicKey publicKey)
+            throws GeneralSecurityException {
+        KeyAgreement keyAgreement = KeyAgreement.getInstance("ECDH", PROVIDER);
+        keyAgreement.init(privateKey);
+        keyAgreement.doPhase(publicKey, true);
+        return keyAgreement.generateSecret();
+    }
+
+    private static byte[] encodePoint(ECPublicKey publicKey) {
+        return publicKey.getQ().getEncoded(false);
+    }
+
+    private static byte[] encodePublicKeyTemplate(PublicKey publicKey) {
+        if (publicKey instanceof ECPublicKey) {
+            return tlv(0x7F49, tlv(0x86, encodePoint((ECPublicKey) publicKey)));
+        }
+        RSAPublicKey rsaPublicKey = (RSAPublicKey) publicKey;
+        return tlv(0x7F49, tlv(0x81, toUnsigned(rsaPublicKey.getModulus())),
+                tlv(0x82, toUnsigned(rsaPublicKey.getPublicExponent())));
+    }
+
+    private static int getFieldSizeBytes(ECPrivateKey privateKey) {
+        return (privateKey.getParameters().getCurve().getFieldSize() + 7) / 8;
+    }
+
+    private static byte[] toUnsigned(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        return bytes[0] == 0 ? Arrays.copyOfRange(bytes, 1, bytes.length) : bytes;
+    }
+
+    private static byte[] toFixedLength(BigInteger value, int length) {
+        byte[] bytes = toUnsigned(value);
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, 0, result, length - bytes.length, bytes.length);
+        return result;
+    }
+
+    // endregion
+
+    // region secure messaging
+
+    /**
+     * Card side of the SCP11b key agreement, see
+     * https://github.com/ANSSI-FR/SmartPGP/blob/master/secure_messaging/smartpgp_sm.pdf
+     */
+    private ResponseApdu establishSecureMessaging(byte[] data) throws GeneralSecurityException, IOException {
+        smSession = null;
+
+        Iso7816TLV[] tlvs = Iso7816TLV.readList(data, true);
+        if (tlvs.length != 2 || tlvs[0].mT != 0xA6 || tlvs[1].mT != 0x5F49) {
+            return status(SW_WRONG_DATA);
+        }
+        int keySize = 0;
+        for (Iso7816TLV tlv : ((Iso7816TLV.Iso7816CompositeTLV) tlvs[0]).mSubs) {
+            if (tlv.mT == 0x81) {
+                keySize = tlv.mV[0] & 0xff;
+            }
+        }
+
+        ECPublicKey smPublicKey = (ECPublicKey) smKeyPair.getPublic();
+        ECParameterSpec spec = smPublicKey.getParameters();
+        PublicKey hostEphemeralKey = decodePoint(spec, tlvs[1].mV);
+        KeyPair cardEphemeralKeyPair = generateEcKeyPair(NISTNamedCurves.getOID("P-256"));
+
+        ByteArrayOutputStream sharedSecrets = new ByteArrayOutputStream();
+        sharedSecrets.write(computeEcdhSecret(cardEphemeralKeyPair.getPrivate(), hostEphemeralKey));
+        sharedSecrets.write(computeEcdhSecret(smKeyPair.getPrivate(), hostEphemeralKey));
+        int counterOffset = sharedSecrets.size() + 3;
+        sharedSecrets.write(new byte[] { 0, 0, 0, 0, 0x3C, (byte) 0x88, (byte) keySize });
+        byte[] kdfInput = sharedSecrets.toByteArray();
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA256", PROVIDER);
+        ByteArrayOutputStream keyMaterial = new ByteArrayOutputStream();
+        while (keyMaterial.size() < 4 * keySize) {
+            ++kdfInput[counterOffset];
+            keyMaterial.write(sha256.digest(kdfInput));
+        }
+        byte[] keys = keyMaterial.toByteArray();
+
+        byte[] responseWithoutReceipt = tlv(0x5F49, encodePoint((ECPublicKey) cardEphemeralKeyPair.getPublic()));
+        Mac mac = Mac.getInstance("AESCMAC", PROVIDER);
+        mac.init(new SecretKeySpec(keys, 0, keySize, "AES"));
+        mac.update(data);
+        mac.update(responseWithoutReceipt);
+        byte[] receipt = mac.doFinal();
+
+        smSession = new SecureMessagingSession(
+                new SecretKeySpec(keys, keySize, keySize, "AES"),
+                new SecretKeySpec(keys, 2 * keySize, keySize, "AES"),
+                new SecretKeySpec(keys, 3 * keySize, keySize, "AES"),
+                receipt);
+
+        return success(concatenate(responseWithoutReceipt, tlv(0x86, receipt)));
+    }
+
+    private static class SecureMessagingSession {
+        private final SecretKeySpec sEnc;
+        private final SecretKeySpec sMac;
+        private final SecretKeySpec sRmac;
+        private byte[] macChaining;
+        private int encryptionCounter;
+
+        SecureMessagingSession(SecretKeySpec sEnc, SecretKeySpec sMac, SecretKeySpec sRmac, byte[] receipt) {
+            this.sEnc = sEnc;
+            this.sMac = sMac;
+            this.sRmac = sRmac;
+            this.macChaining = receipt;
+        }
+
+        /** Returns the plain command, or null if its MAC is wrong. */
+        CommandApdu verifyAndDecrypt(CommandApdu command) throws GeneralSecurityException, IOException {
+            encryptionCounter++;
+
+            byte[] data = command.getData();
+            if (data.length < SCP11_MAC_LENGTH) {
+                return null;
+            }
+            int encryptedLength = data.length - SCP11_MAC_LENGTH;
+
+            ByteArrayOutputStream header = new ByteArrayOutputStream();
+            header.write(new byte[] {
+                    (byte) command.getCLA(), (byte) command.getINS(), (byte) command.getP1(), (byte) command.getP2() });
+            if (data.length > 0xff) {
+                header.write(new byte[] { 0, (byte) (data.length >> 8) });
+            }
+            header.write(data.length & 0xff);
+
+            Mac mac = Mac.getInstance("AESCMAC", PROVIDER);
+            mac.init(sMac);
+            mac.update(macChaining);
+            mac.update(header.toByteArray());
+            mac.update(data, 0, encryptedLength);
+            macChaining = mac.doFinal();
+            if (!Arrays.constantTimeAreEqual(
+                    Arrays.copyOf(macChaining, SCP11_MAC_LENGTH), Arrays.copyOfRange(data, encryptedLength, data.length))) {
+                return null;
+            }
+
+            byte[] plainData = new byte[0];
+            if (encryptedLength > 0) {
+                Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, sEnc, new IvParameterSpec(computeIv(false)));
+                byte[] paddedData = cipher.doFinal(data, 0, encryptedLength);
+                int end = paddedData.length - 1;
+                while (end > 0 && paddedData[end] == 0) {
+                    end--;
+                }
+                if (paddedData[end] != (byte) 0x80) {
+                    return null;
+                }
+                plainData = Arrays.copyOfRange(paddedData, 0, end);
+            }
+
+            return CommandApdu.create(command.getCLA() & ~CLA_SECURE_MESSAGING, command.getINS(),
+                    command.getP1(), command.getP2(), plainData, command.getNe());
+        }
+
+        ResponseApdu encryptAndSign(ResponseApdu response) throws GeneralSecurityException {
+            byte[] data = response.getData();
+            if (data.length == 0 && !response.isSuccess() && response.getSw1() != 0x62 && response.getSw1() != 0x63) {
+                return response;
+            }
+
+            byte[] encryptedData = new byte[0];
+            if (data.length > 0) {
+                byte[] paddedData = new byte[data.length + AES_BLOCK_SIZE - (data.length % AES_BLOCK_SIZE)];
+                System.arraycopy(data, 0, paddedData, 0, data.length);
+                paddedData[data.length] = (byte) 0x80;
+
+                Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+                cipher.init(Cipher.ENCRYPT_MODE, sEnc, new IvParameterSpec(computeIv(true)));
+                encryptedData = cipher.doFinal(paddedData);
+            }
+
+            Mac mac = Mac.getInstance("AESCMAC", PROVIDER);
+            mac.init(sRmac);
+            mac.update(macChaining);
+            mac.update(encryptedData);
+            mac.update((byte) response.getSw1());
+            mac.update((byte) response.getSw2());
+            byte[] rmac = Arrays.copyOf(mac.doFinal(), SCP11_MAC_LENGTH);
+
+            return response(Arrays.concatenate(encryptedData, rmac), response.getSw());
+        }
+
+        private byte[] computeIv(boolean isResponse) throws GeneralSecurityException {
+            byte[] counterBlock = new byte[AES_BLOCK_SIZE];
+            if (isResponse) {
+                counterBlock[0] = (byte) 0x80;
+            }
+            counterBlock[AES_BLOCK_SIZE - 2] = (byte) (encryptionCounter >> 8);
+            counterBlock[AES_BLOCK_SIZE - 1] = (byte) encryptionCounter;
+
+            Cipher cipher = Cipher.getInstance("AES/ECB/NoPadding");
+            cipher.init(Cipher.ENCRYPT_MODE, sEnc);
+            return cipher.doFinal(counterBlock);
+        }
+    }
+
+    // endregion
+
+    // region encoding
+
+    private static ResponseApdu status(int sw) {
+        return response(new byte[0], sw);
+    }
+
+    private static ResponseApdu success(byte[] data) {
+        return response(data, SW_SUCCESS);
+    }
+
+    private static ResponseApdu response(byte[] data, int sw) {
+        return ResponseApdu.fromBytes(Arrays.concatenate(data, new byte[] { (byte) (sw >> 8), (byte) sw }));
+    }
+
+    private static byte[] tlv(int tag, byte[]... values) {
+        byte[] value = concatenate(values);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (tag > 0xff) {
+            out.write(tag >> 8);
+        }
+        out.write(tag & 0xff);
+        byte[] length = SecurityTokenUtils.encodeLength(value.length);
+        out.write(length, 0, length.length);
+        out.write(value, 0, value.length);
+        return out.toByteArray();
+    }
+
+    private static byte[] concatenate(byte[]... values) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] value : values) {
+            out.write(value, 0, value.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static int readBerLength(ByteBuffer buf) {
+        int length = buf.get() & 0xff;
+        if (length == 0x81) {
+            length = buf.get() & 0xff;
+        } else if (length == 0x82) {
+            length = ((buf.get() & 0xff) << 8) | (buf.get() & 0xff);
+        }
+        return length;
+    }
+
+    // endregion
+}
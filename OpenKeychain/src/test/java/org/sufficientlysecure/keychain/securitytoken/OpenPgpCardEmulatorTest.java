@@ -0,0 +1,260 @@
+package org.sufficientlysecure.keychain.securitytoken;
+
+
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.securitytoken.operations.GenerateKeyTokenOp;
+import org.sufficientlysecure.keychain.securitytoken.operations.PsoDecryptTokenOp;
+import org.sufficientlysecure.keychain.securitytoken.operations.SecurityTokenPsoSignTokenOp;
+import org.sufficientlysecure.keychain.util.Passphrase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(KeychainTestRunner.class)
+public class OpenPgpCardEmulatorTest {
+    private static final byte[] ECDSA_P256_ATTRIBUTES = Hex.decode("132A8648CE3D030107");
+    private static final byte[] MESSAGE = "hello world".getBytes();
+
+    private OpenPgpCardEmulator emulator;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        emulator = new OpenPgpCardEmulator();
+        SecurityTokenCapabilityCache.create(RuntimeEnvironment.application).clear();
+    }
+
+    @Test
+    public void testConnect_readsTokenInfo() throws Exception {
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        SecurityTokenInfo tokenInfo = connection.readTokenInfo();
+
+        assertTrue(tokenInfo.isEmpty());
+        assertEquals(3, tokenInfo.getVerifyRetries());
+        assertEquals(3, tokenInfo.getVerifyAdminRetries());
+        assertTrue(tokenInfo.hasLifeCycleManagement());
+        // SELECT, GET DATA 6E, and the SELECT that determines the token type
+        assertEquals(3, connection.getTransceivedApduCount());
+    }
+
+    @Test
+    public void testConnect_knownToken_shouldSkipTokenTypeSelect() throws Exception {
+        connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        // SELECT and GET DATA 6E, the token type is cached
+        assertEquals(2, connection.getTransceivedApduCount());
+    }
+
+    @Test
+    public void testConnect_withSecureMessaging_unknownToken() throws Exception {
+        emulator.enableSecureMessaging();
+
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        assertTrue(emulator.isSecureMessagingEstablished());
+        // SELECT, GET DATA 6E, token type SELECT, GET DATA D4, read sm public key, INTERNAL AUTHENTICATE
+        assertEquals(6, connection.getTransceivedApduCount());
+        assertNotNull(getCachedSmCardKey(connection));
+    }
+
+    @Test
+    public void testConnect_withSecureMessaging_knownToken() throws Exception {
+        emulator.enableSecureMessaging();
+        connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        assertTrue(emulator.isSecureMessagingEstablished());
+        // SELECT, GET DATA 6E, INTERNAL AUTHENTICATE with the cached card key
+        assertEquals(3, connection.getTransceivedApduCount());
+    }
+
+    @Test
+    public void testConnect_withSecureMessaging_changedCardKey_shouldRetrieveKeyAgain() throws Exception {
+        emulator.enableSecureMessaging();
+        byte[] oldCardKey = getCachedSmCardKey(connect(OpenPgpCardEmulator.DEFAULT_PW1)).encodedPublicKey;
+        emulator.enableSecureMessaging();
+
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        assertTrue(emulator.isSecureMessagingEstablished());
+        // SELECT, GET DATA 6E, INTERNAL AUTHENTICATE with the cached card key, which fails the
+        // receipt check, then GET DATA D4, read sm public key, INTERNAL AUTHENTICATE
+        assertEquals(6, connection.getTransceivedApduCount());
+        assertFalse(Arrays.areEqual(oldCardKey, getCachedSmCardKey(connection).encodedPublicKey));
+
+        SecurityTokenConnection reconnectedConnection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        assertTrue(emulator.isSecureMessagingEstablished());
+        assertEquals(3, reconnectedConnection.getTransceivedApduCount());
+    }
+
+    @Test
+    public void testSign_rsa() throws Exception {
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB6);
+
+        byte[] signature = SecurityTokenPsoSignTokenOp.create(connection)
+                .calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+
+        assertTrue(verify("SHA256withRSA", emulator.getPublicKey(KeyType.SIGN), MESSAGE, signature));
+    }
+
+    @Test
+    public void testSign_ecdsa() throws Exception {
+        emulator.setKeyAttributes(KeyType.SIGN, ECDSA_P256_ATTRIBUTES);
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB6);
+
+        byte[] hash = sha256(MESSAGE);
+        byte[] signature = SecurityTokenPsoSignTokenOp.create(connection)
+                .calculateSignature(hash, HashAlgorithmTags.SHA256);
+
+        assertTrue(verify("NONEwithECDSA", emulator.getPublicKey(KeyType.SIGN), hash, signature));
+    }
+
+    @Test
+    public void testSign_singleUsePw1_shouldVerifyForEachSignature() throws Exception {
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB6);
+        SecurityTokenPsoSignTokenOp signTokenOp = SecurityTokenPsoSignTokenOp.create(connection);
+
+        int apduCountBefore = emulator.getTransceivedApduCount();
+        signTokenOp.calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+        signTokenOp.calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+
+        assertEquals(4, emulator.getTransceivedApduCount() - apduCountBefore);
+    }
+
+    @Test
+    public void testSign_multipleSignaturesPw1_shouldVerifyOnce() throws Exception {
+        emulator.setPw1ValidForMultipleSignatures(true);
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB6);
+        SecurityTokenPsoSignTokenOp signTokenOp = SecurityTokenPsoSignTokenOp.create(connection);
+
+        int apduCountBefore = emulator.getTransceivedApduCount();
+        signTokenOp.calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+        signTokenOp.calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+
+        assertEquals(3, emulator.getTransceivedApduCount() - apduCountBefore);
+    }
+
+    @Test
+    public void testDecrypt_rsa() throws Exception {
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB8);
+        byte[] sessionKey = Hex.decode("0900112233445566778899aabbccddeeff0011223344556677889900aabbccddeeff1234");
+
+        byte[] decrypted = PsoDecryptTokenOp.create(connection)
+                .verifyAndDecryptSessionKey(encryptSessionKey(KeyType.ENCRYPT, sessionKey), null);
+
+        assertArrayEquals(sessionKey, decrypted);
+    }
+
+    @Test
+    public void testDecrypt_withoutExtendedLength_shouldChainCommandAndResponse() throws Exception {
+        emulator.setExtendedLengthSupported(false);
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+
+        // the rsa public key template doesn't fit into a short response
+        byte[] publicKeyTemplate = GenerateKeyTokenOp.create(connection)
+                .generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB8);
+        Iso7816TLV modulus = Iso7816TLV.findRecursive(Iso7816TLV.readSingle(publicKeyTemplate, true), 0x81);
+        RSAPublicKey publicKey = (RSAPublicKey) emulator.getPublicKey(KeyType.ENCRYPT);
+        assertArrayEquals(Arrays.copyOfRange(publicKey.getModulus().toByteArray(), 1, 257), modulus.mV);
+
+        // the pso:decipher command doesn't fit into a short command
+        byte[] sessionKey = Hex.decode("0900112233445566778899aabbccddeeff");
+        byte[] decrypted = PsoDecryptTokenOp.create(connection)
+                .verifyAndDecryptSessionKey(encryptSessionKey(KeyType.ENCRYPT, sessionKey), null);
+
+        assertArrayEquals(sessionKey, decrypted);
+    }
+
+    @Test
+    public void testVerify_wrongPin_shouldDecrementRetries() throws Exception {
+        SecurityTokenConnection connection = connect("654321");
+
+        try {
+            connection.verifyPinForOther();
+            fail("verify should have failed");
+        } catch (CardException e) {
+            assertEquals(0x63C2, e.getResponseCode());
+        }
+
+        assertEquals(2, connection.readTokenInfo().getVerifyRetries());
+    }
+
+    @Test
+    public void testSign_withSecureMessaging() throws Exception {
+        emulator.enableSecureMessaging();
+        SecurityTokenConnection connection = connect(OpenPgpCardEmulator.DEFAULT_PW1);
+        assertTrue(emulator.isSecureMessagingEstablished());
+
+        GenerateKeyTokenOp.create(connection).generateKey(new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3), 0xB6);
+        byte[] signature = SecurityTokenPsoSignTokenOp.create(connection)
+                .calculateSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+
+        assertTrue(emulator.isSecureMessagingEstablished());
+        assertTrue(verify("SHA256withRSA", emulator.getPublicKey(KeyType.SIGN), MESSAGE, signature));
+    }
+
+    private SecurityTokenConnection connect(String pin) throws Exception {
+        SecurityTokenConnection connection =
+                new SecurityTokenConnection(emulator, new Passphrase(pin), new OpenPgpCommandApduFactory());
+        connection.connectToDevice(RuntimeEnvironment.application);
+        return connection;
+    }
+
+    private static SecurityTokenCapabilityCache.SmCardKey getCachedSmCardKey(SecurityTokenConnection connection) {
+        return SecurityTokenCapabilityCache.create(RuntimeEnvironment.application)
+                .getSmCardKey(connection.getOpenPgpCapabilities().getAid(), false);
+    }
+
+    private byte[] encryptSessionKey(KeyType keyType, byte[] sessionKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, emulator.getPublicKey(keyType));
+        byte[] encrypted = cipher.doFinal(sessionKey);
+
+        // the mpi bit length is always given for the full modulus here, which the token op accepts
+        int bitLength = encrypted.length * 8;
+        return Arrays.concatenate(new byte[] { (byte) (bitLength >> 8), (byte) bitLength }, encrypted);
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static boolean verify(String algorithm, PublicKey publicKey, byte[] data, byte[] signature)
+            throws Exception {
+        Signature verifier = Signature.getInstance(algorithm);
+        verifier.initVerify(publicKey);
+        verifier.update(data);
+        return verifier.verify(signature);
+    }
+}
@@ -27,6 +27,14 @@ import static org.mockito.Mockito.when;
 @RunWith(KeychainTestRunner.class)
 public class SecurityTokenConnectionTest {
 
+    private static final String APPLICATION_RELATED_DATA =
+            "6e81de4f10d27600012401020000060364311500005f520f0073000080000000000000000000007381b7c00af" +
+                    "00000ff04c000ff00ffc106010800001103c206010800001103c306010800001103c407007f7f7f03030" +
+                    "3c53c4ec5fee25c4e89654d58cad8492510a89d3c3d8468da7b24e15bfc624c6a792794f15b7599915f7" +
+                    "03aab55ed25424d60b17026b7b06c6ad4b9be30a3c63c000000000000000000000000000000000000000" +
+                    "000000000000000000000000000000000000000000000000000000000000000000000000000000000cd0" +
+                    "c59cd0f2a59cd0af059cd0c95";
+
     private Transport transport;
 
     LinkedList<CommandApdu> expectCommands;
@@ -106,6 +114,56 @@ public class SecurityTokenConnectionTest {
         verifyDialog();
     }
 
+    @Test
+    public void test_connectToDevice_withUnknownTokenType_shouldCacheTokenType() throws Exception {
+        when(transport.getTokenTypeIfAvailable()).thenReturn(null);
+
+        SecurityTokenConnection securityTokenConnection =
+                new SecurityTokenConnection(transport, new Passphrase("123456"), new OpenPgpCommandApduFactory());
+        expect("00a4040006d27600012401", "9000"); // select openpgp applet
+        expect("00ca006e00", APPLICATION_RELATED_DATA + "9000"); // get application related data
+        expect("00a4040005a000000617", "6a82"); // select fidesmo applet
+
+        securityTokenConnection.connectToDevice(RuntimeEnvironment.application);
+
+        verifyDialog();
+        assertEquals(TokenType.UNKNOWN, securityTokenConnection.getTokenType());
+
+        SecurityTokenConnection reconnectedSecurityTokenConnection =
+                new SecurityTokenConnection(transport, new Passphrase("123456"), new OpenPgpCommandApduFactory());
+        expect("00a4040006d27600012401", "9000"); // select openpgp applet
+        expect("00ca006e00", APPLICATION_RELATED_DATA + "9000"); // get application related data
+
+        reconnectedSecurityTokenConnection.connectToDevice(RuntimeEnvironment.application);
+
+        verifyDialog();
+        assertEquals(TokenType.UNKNOWN, reconnectedSecurityTokenConnection.getTokenType());
+        assertEquals(2, reconnectedSecurityTokenConnection.getTransceivedApduCount());
+    }
+
+    @Test
+    public void test_getTokenInfo_afterReconnect_shouldRefreshPwStatus() throws Exception {
+        SecurityTokenConnection securityTokenConnection =
+                new SecurityTokenConnection(transport, new Passphrase("123456"), new OpenPgpCommandApduFactory());
+        securityTokenConnection.determineTokenType();
+        securityTokenConnection.setConnectionCapabilities(
+                OpenPgpCapabilities.fromBytes(Hex.decode(APPLICATION_RELATED_DATA)));
+        assertEquals(3, securityTokenConnection.getOpenPgpCapabilities().getPw1TriesLeft());
+
+        when(transport.isConnected()).thenReturn(true);
+        securityTokenConnection.connectIfNecessary(RuntimeEnvironment.application);
+
+        expect("00ca006500", "65095b005f2d005f3501399000");
+        expect("00ca5f5000", "9000");
+        expect("00ca00c400", "007f7f7f0203039000"); // pw status bytes
+
+        SecurityTokenInfo tokenInfo = securityTokenConnection.readTokenInfo();
+
+        verifyDialog();
+        assertEquals(2, tokenInfo.getVerifyRetries());
+        assertEquals(3, tokenInfo.getVerifyAdminRetries());
+    }
+
     private void expect(String commandApdu, String responseApdu) {
         expect(CommandApdu.fromBytes(Hex.decode(commandApdu)), ResponseApdu.fromBytes(Hex.decode(responseApdu)));
     }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.securitytoken.operations;
+
+
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.Signature;
+import java.util.List;
+
+import javax.crypto.Cipher;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.securitytoken.CardException;
+import org.sufficientlysecure.keychain.securitytoken.KeyType;
+import org.sufficientlysecure.keychain.securitytoken.OpenPgpCardEmulator;
+import org.sufficientlysecure.keychain.securitytoken.SecurityTokenConnection;
+import org.sufficientlysecure.keychain.util.Passphrase;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+@RunWith(KeychainTestRunner.class)
+public class SecurityTokenBatchTokenOpTest {
+    private static final byte[] MESSAGE = "hello world".getBytes();
+    private static final byte[] SESSION_KEY = Hex.decode("0900112233445566778899aabbccddeeff1234");
+
+    private OpenPgpCardEmulator emulator;
+
+    @Before
+    public void setUp() throws Exception {
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+        SecurityTokenConnection.clearCachedConnections();
+        emulator = new OpenPgpCardEmulator();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        SecurityTokenConnection.clearCachedConnections();
+    }
+
+    @Test
+    public void testExecute_shouldVerifyPw1OncePerModeForWholeQueue() throws Exception {
+        emulator.setPw1ValidForMultipleSignatures(true);
+        SecurityTokenConnection connection = connectWithKeys(OpenPgpCardEmulator.DEFAULT_PW1);
+        SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(connection);
+        byte[] hash = sha256(MESSAGE);
+        byte[] encryptedSessionKey = encryptSessionKey(SESSION_KEY);
+        for (int i = 0; i < 2; i++) {
+            batchTokenOp.addSignature(hash, HashAlgorithmTags.SHA256);
+            batchTokenOp.addDecryptSessionKey(encryptedSessionKey, null);
+            batchTokenOp.addAuthenticationSignature(hash, HashAlgorithmTags.SHA256);
+        }
+
+        int apduCountBefore = emulator.getTransceivedApduCount();
+        List<byte[]> results = batchTokenOp.execute();
+
+        // VERIFY in mode 82 and 81, then two each of PSO:CDS, PSO:DECIPHER and INTERNAL AUTHENTICATE
+        assertEquals(8, emulator.getTransceivedApduCount() - apduCountBefore);
+        assertEquals(6, results.size());
+        for (int i = 0; i < 6; i += 3) {
+            assertTrue(verify(emulator.getPublicKey(KeyType.SIGN), results.get(i)));
+            assertArrayEquals(SESSION_KEY, results.get(i + 1));
+            assertTrue(verify(emulator.getPublicKey(KeyType.AUTH), results.get(i + 2)));
+        }
+        assertTrue(batchTokenOp.isEmpty());
+    }
+
+    @Test
+    public void testExecute_singleUsePw1_shouldVerifyAgainForEachSignature() throws Exception {
+        SecurityTokenConnection connection = connectWithKeys(OpenPgpCardEmulator.DEFAULT_PW1);
+        SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(connection);
+        byte[] hash = sha256(MESSAGE);
+        byte[] encryptedSessionKey = encryptSessionKey(SESSION_KEY);
+        for (int i = 0; i < 2; i++) {
+            batchTokenOp.addSignature(hash, HashAlgorithmTags.SHA256);
+            batchTokenOp.addDecryptSessionKey(encryptedSessionKey, null);
+            batchTokenOp.addAuthenticationSignature(hash, HashAlgorithmTags.SHA256);
+        }
+
+        int apduCountBefore = emulator.getTransceivedApduCount();
+        List<byte[]> results = batchTokenOp.execute();
+
+        // as above, plus a VERIFY in mode 81 before the second signature
+        assertEquals(9, emulator.getTransceivedApduCount() - apduCountBefore);
+        assertTrue(verify(emulator.getPublicKey(KeyType.SIGN), results.get(3)));
+    }
+
+    @Test
+    public void testExecute_wrongPin_shouldFailBeforeAnyRequest() throws Exception {
+        SecurityTokenConnection connection = connectWithKeys("654321");
+        SecurityTokenBatchTokenOp batchTokenOp = SecurityTokenBatchTokenOp.create(connection);
+        batchTokenOp.addSignature(sha256(MESSAGE), HashAlgorithmTags.SHA256);
+        batchTokenOp.addDecryptSessionKey(encryptSessionKey(SESSION_KEY), null);
+
+        int apduCountBefore = emulator.getTransceivedApduCount();
+        try {
+            batchTokenOp.execute();
+            fail("execute should have failed");
+        } catch (CardException e) {
+            assertEquals(0x63C2, e.getResponseCode());
+        }
+
+        // only the failed VERIFY in mode 82
+        assertEquals(1, emulator.getTransceivedApduCount() - apduCountBefore);
+    }
+
+    private SecurityTokenConnection connectWithKeys(String pin) throws Exception {
+        SecurityTokenConnection connection =
+                SecurityTokenConnection.getInstanceForTransport(emulator, new Passphrase(pin));
+        connection.connectIfNecessary(RuntimeEnvironment.application);
+
+        GenerateKeyTokenOp generateKeyTokenOp = GenerateKeyTokenOp.create(connection);
+        Passphrase adminPin = new Passphrase(OpenPgpCardEmulator.DEFAULT_PW3);
+        generateKeyTokenOp.generateKey(adminPin, 0xB6);
+        generateKeyTokenOp.generateKey(adminPin, 0xB8);
+        generateKeyTokenOp.generateKey(adminPin, 0xA4);
+        return connection;
+    }
+
+    private byte[] encryptSessionKey(byte[] sessionKey) throws Exception {
+        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        cipher.init(Cipher.ENCRYPT_MODE, emulator.getPublicKey(KeyType.ENCRYPT));
+        byte[] encrypted = cipher.doFinal(sessionKey);
+
+        int bitLength = encrypted.length * 8;
+        return Arrays.concatenate(new byte[] { (byte) (bitLength >> 8), (byte) bitLength }, encrypted);
+    }
+
+    private static byte[] sha256(byte[] data) throws Exception {
+        return MessageDigest.getInstance("SHA-256").digest(data);
+    }
+
+    private static boolean verify(PublicKey publicKey, byte[] signature) throws Exception {
+        Signature verifier = Signature.getInstance("SHA256withRSA");
+        verifier.initVerify(publicKey);
+        verifier.update(MESSAGE);
+        return verifier.verify(signature);
+    }
+}
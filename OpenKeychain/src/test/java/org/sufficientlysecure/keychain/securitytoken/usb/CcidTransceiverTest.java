@@ -160,6 +160,22 @@ public class CcidTransceiverTest {
         assertArrayEquals(Hex.decode(responseData), ccidDataBlock.getData());
     }
 
+    @Test
+    public void testXfer_payloadSlice() throws Exception {
+        CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, null);
+
+        String commandData = "010203";
+        byte[] command = Hex.decode("6F030000000000000000" + commandData);
+        String responseData = "0304";
+        byte[] response = Hex.decode("80020000000000000000" + responseData);
+        expect(command, response);
+
+        CcidDataBlock ccidDataBlock = ccidTransceiver.sendXfrBlock(Hex.decode("ff" + commandData + "ffff"), 1, 3);
+
+        verifyDialog();
+        assertArrayEquals(Hex.decode(responseData), ccidDataBlock.getData());
+    }
+
     @Test
     public void testXfer_IncrementalSeqNums() throws Exception {
         CcidTransceiver ccidTransceiver = new CcidTransceiver(usbConnection, usbBulkIn, usbBulkOut, null);
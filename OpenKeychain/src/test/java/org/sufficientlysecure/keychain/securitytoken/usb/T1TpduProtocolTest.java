@@ -0,0 +1,208 @@
+package org.sufficientlysecure.keychain.securitytoken.usb;
+
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.bouncycastle.util.Arrays;
+import org.bouncycastle.util.encoders.Hex;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.securitytoken.usb.CcidTransceiver.CcidDataBlock;
+import org.sufficientlysecure.keychain.securitytoken.usb.tpdu.T1TpduProtocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+
+@SuppressWarnings("WeakerAccess")
+@RunWith(KeychainTestRunner.class)
+public class T1TpduProtocolTest {
+    static final String ATR_IFSC_254 = "3bda11ff81b1fe551f0300318473800180009000e4";
+    static final String ATR_IFSC_32 = "3bda11ff81b120551f0300318473800180009000e4";
+    static final int MAX_XFR_BLOCK_PAYLOAD_LENGTH = 261;
+    static final int RESPONSE_LENGTH = 602;
+
+    CcidTransceiver ccidTransceiver;
+    ScriptedT1Card card;
+    T1TpduProtocol protocol;
+
+    @Before
+    public void setUp() throws Exception {
+        ccidTransceiver = mock(CcidTransceiver.class);
+        when(ccidTransceiver.hasAutomaticPps()).thenReturn(true);
+        when(ccidTransceiver.getMaxXfrBlockPayloadLength()).thenReturn(MAX_XFR_BLOCK_PAYLOAD_LENGTH);
+
+        card = new ScriptedT1Card(RESPONSE_LENGTH);
+        when(ccidTransceiver.sendXfrBlock(any(byte[].class), anyInt(), anyInt())).thenAnswer(card);
+
+        protocol = new T1TpduProtocol();
+    }
+
+    @Test
+    public void testTransceive_negotiatesIfsd() throws Exception {
+        connectWithAtr(ATR_IFSC_254);
+
+        byte[] response = protocol.transceive(Hex.decode("00ca006e00"));
+
+        assertEquals(254, card.ifsd);
+        assertArrayEquals(card.response, response);
+        // S(IFS request), the command, and two R-blocks to fetch the rest of the 254, 254, 94 byte response
+        assertEquals(4, card.receivedBlocks.size());
+    }
+
+    @Test
+    public void testTransceive_ifsdLimitedByMaxCcidMessageLength() throws Exception {
+        when(ccidTransceiver.getMaxXfrBlockPayloadLength()).thenReturn(100);
+        connectWithAtr(ATR_IFSC_254);
+
+        byte[] response = protocol.transceive(Hex.decode("00ca006e00"));
+
+        assertEquals(96, card.ifsd);
+        assertArrayEquals(card.response, response);
+    }
+
+    @Test
+    public void testTransceive_ifsdLimitedByReader() throws Exception {
+        when(ccidTransceiver.getMaxIfsd()).thenReturn(128);
+        connectWithAtr(ATR_IFSC_254);
+
+        protocol.transceive(Hex.decode("00ca006e00"));
+
+        assertEquals(128, card.ifsd);
+    }
+
+    @Test
+    public void testTransceive_automaticIfsd_shouldNotSendSBlock() throws Exception {
+        when(ccidTransceiver.hasAutomaticIfsd()).thenReturn(true);
+        connectWithAtr(ATR_IFSC_254);
+
+        byte[] response = protocol.transceive(Hex.decode("00ca006e00"));
+
+        assertArrayEquals(card.response, response);
+        for (byte[] block : card.receivedBlocks) {
+            assertFalse(isSBlock(block));
+        }
+    }
+
+    @Test
+    public void testTransceive_commandChainedByIfsc() throws Exception {
+        connectWithAtr(ATR_IFSC_254);
+        byte[] command = new byte[300];
+        card.receivedBlocks.clear();
+
+        protocol.transceive(command);
+
+        assertArrayEquals(command, card.receivedCommand);
+        assertEquals(254, card.receivedBlocks.get(0)[2] & 0xff);
+        assertEquals(46, card.receivedBlocks.get(1)[2] & 0xff);
+    }
+
+    @Test
+    public void testTransceive_commandChainedByIfscFromAtr() throws Exception {
+        connectWithAtr(ATR_IFSC_32);
+        byte[] command = new byte[100];
+        card.receivedBlocks.clear();
+
+        protocol.transceive(command);
+
+        assertArrayEquals(command, card.receivedCommand);
+        assertEquals(32, card.receivedBlocks.get(0)[2] & 0xff);
+        assertEquals(32, card.receivedBlocks.get(1)[2] & 0xff);
+        assertEquals(32, card.receivedBlocks.get(2)[2] & 0xff);
+        assertEquals(4, card.receivedBlocks.get(3)[2] & 0xff);
+    }
+
+    private void connectWithAtr(String atr) throws Exception {
+        when(ccidTransceiver.iccPowerOn()).thenReturn(dataBlock(Hex.decode(atr)));
+        protocol.connect(ccidTransceiver);
+    }
+
+    private static boolean isSBlock(byte[] block) {
+        return (block[1] & 0xc0) == 0xc0;
+    }
+
+    private static CcidDataBlock dataBlock(byte[] data) {
+        byte[] header = Hex.decode("80000000000000000000");
+        header[1] = (byte) data.length;
+        header[2] = (byte) (data.length >> 8);
+        return CcidDataBlock.parseHeaderFromBytes(header).withData(data);
+    }
+
+    private static byte[] block(int pcb, byte[] data, int offset, int length) {
+        byte[] block = new byte[length + 4];
+        block[1] = (byte) pcb;
+        block[2] = (byte) length;
+        System.arraycopy(data, offset, block, 3, length);
+        byte lrc = 0;
+        for (int i = 0; i < block.length - 1; i++) {
+            lrc ^= block[i];
+        }
+        block[block.length - 1] = lrc;
+        return block;
+    }
+
+    /** Stand-in for a T=1 card, which sends its response in blocks of the negotiated IFSD. */
+    static class ScriptedT1Card implements Answer<CcidDataBlock> {
+        final byte[] response;
+        final List<byte[]> receivedBlocks = new ArrayList<>();
+        final ByteArrayOutputStream commandBuffer = new ByteArrayOutputStream();
+
+        int ifsd = 32;
+        byte[] receivedCommand;
+        int sentResponseLength;
+        int sequenceCounter;
+
+        ScriptedT1Card(int responseLength) {
+            response = new byte[responseLength];
+            for (int i = 0; i < responseLength - 2; i++) {
+                response[i] = (byte) i;
+            }
+            response[responseLength - 2] = (byte) 0x90;
+        }
+
+        @Override
+        public CcidDataBlock answer(InvocationOnMock invocation) throws Throwable {
+            byte[] frame = invocation.getArgumentAt(0, byte[].class);
+            int offset = invocation.getArgumentAt(1, Integer.class);
+            int length = invocation.getArgumentAt(2, Integer.class);
+            byte[] block = Arrays.copyOfRange(frame, offset, offset + length);
+            receivedBlocks.add(block);
+
+            int pcb = block[1] & 0xff;
+            if (pcb == 0xc1) { // S(IFS request)
+                ifsd = block[3] & 0xff;
+                return dataBlock(block(0xe1, block, 3, 1));
+            }
+            if ((pcb & 0x80) == 0) { // I-block
+                commandBuffer.write(block, 3, block[2] & 0xff);
+                boolean chaining = (pcb & 0x20) != 0;
+                if (chaining) {
+                    return dataBlock(block(0x80 | ((~pcb >> 2) & 0x10), new byte[0], 0, 0));
+                }
+                receivedCommand = commandBuffer.toByteArray();
+                commandBuffer.reset();
+                sentResponseLength = 0;
+            }
+            assertTrue("unexpected R-block", (pcb & 0x80) == 0 || sentResponseLength > 0);
+
+            int len = Math.min(ifsd, response.length - sentResponseLength);
+            boolean hasMore = sentResponseLength + len < response.length;
+            int responsePcb = ((sequenceCounter++ & 1) << 6) | (hasMore ? 0x20 : 0);
+            byte[] responseBlock = block(responsePcb, response, sentResponseLength, len);
+            sentResponseLength += len;
+            return dataBlock(responseBlock);
+        }
+    }
+}
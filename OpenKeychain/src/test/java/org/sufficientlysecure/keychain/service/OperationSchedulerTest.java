@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.service;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.sufficientlysecure.keychain.KeychainTestRunner;
+import org.sufficientlysecure.keychain.service.OperationScheduler.Lane;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+@RunWith(KeychainTestRunner.class)
+public class OperationSchedulerTest {
+    private List<Runnable> startedWorkers;
+    private List<String> executionOrder;
+    private OperationScheduler scheduler;
+
+    @Before
+    public void setUp() throws Exception {
+        startedWorkers = new ArrayList<>();
+        executionOrder = new ArrayList<>();
+        scheduler = new OperationScheduler(2, startedWorkers::add);
+    }
+
+    @Test
+    public void background_shouldNotTakeLastWorker() throws Exception {
+        submit(Lane.BACKGROUND, false, null, "bg1");
+        submit(Lane.BACKGROUND, false, null, "bg2");
+
+        assertEquals(1, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueDepth(Lane.BACKGROUND));
+
+        submit(Lane.INTERACTIVE, false, null, "fg1");
+        assertEquals(2, scheduler.getRunningCount());
+
+        finishWorker(1);
+        finishWorker(0);
+        finishWorker(0);
+        assertEquals(0, scheduler.getRunningCount());
+        assertEquals(0, scheduler.getQueueDepth(Lane.BACKGROUND));
+        assertEquals("[fg1, bg1, bg2]", executionOrder.toString());
+    }
+
+    @Test
+    public void interactive_shouldRunBeforeQueuedBackground() throws Exception {
+        submit(Lane.INTERACTIVE, false, null, "fg1");
+        submit(Lane.INTERACTIVE, false, null, "fg2");
+        submit(Lane.BACKGROUND, false, null, "bg1");
+        submit(Lane.INTERACTIVE, false, null, "fg3");
+
+        finishWorker(0);
+        finishWorker(0);
+        finishWorker(0);
+        finishWorker(0);
+
+        assertEquals("[fg1, fg2, fg3, bg1]", executionOrder.toString());
+    }
+
+    @Test
+    public void writers_shouldRunExclusively() throws Exception {
+        submit(Lane.INTERACTIVE, true, null, "write1");
+        submit(Lane.INTERACTIVE, true, null, "write2");
+        submit(Lane.INTERACTIVE, false, null, "read1");
+
+        assertEquals(2, scheduler.getRunningCount());
+        assertEquals(1, scheduler.getQueueDepth(Lane.INTERACTIVE));
+
+        finishWorker(1);
+        assertEquals(1, scheduler.getQueueDepth(Lane.INTERACTIVE));
+        finishWorker(0);
+        finishWorker(0);
+
+        assertEquals("[read1, write1, write2]", executionOrder.toString());
+    }
+
+    @Test
+    public void interactiveWriter_shouldPreemptBackgroundWriter() throws Exception {
+        AtomicBoolean syncCancelled = new AtomicBoolean(false);
+        submit(Lane.BACKGROUND, true, syncCancelled, "sync");
+        assertFalse(syncCancelled.get());
+
+        submit(Lane.INTERACTIVE, false, null, "read1");
+        assertFalse(syncCancelled.get());
+
+        submit(Lane.INTERACTIVE, true, null, "write1");
+        assertTrue(syncCancelled.get());
+    }
+
+    private void submit(Lane lane, boolean exclusiveWriter, AtomicBoolean preemptionFlag, String name) {
+        Executor executor = scheduler.getExecutor(lane, exclusiveWriter, preemptionFlag);
+        executor.execute(() -> executionOrder.add(name));
+    }
+
+    private void finishWorker(int index) {
+        startedWorkers.remove(index).run();
+    }
+}
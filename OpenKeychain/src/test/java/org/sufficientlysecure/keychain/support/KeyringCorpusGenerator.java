@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.support;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+
+
+/**
+ * Generates large, realistic corpora of key rings for database scaling tests.
+ * <p/>
+ * KeyringBuilder creates exact packet sequences of a single fixed key, which
+ * is what the canonicalization tests need. This creates as many distinct keys
+ * as needed instead, with properly signed packets so they survive
+ * canonicalization. Keys use P-256, which is quick to generate and sign with.
+ * <p/>
+ * The corpus is deterministic: key number i is always the same for a given
+ * seed, so keys can be created one at a time and recreated later. It has:
+ * <ul>
+ * <li>one to three user ids per key, with some email addresses used by more than one key</li>
+ * <li>an encryption subkey for each key, plus expired and revoked encryption subkeys on some keys</li>
+ * <li>certifications of some keys by the first CERTIFIER_COUNT keys</li>
+ * <li>secret keys for the certifiers and for one key in a hundred</li>
+ * </ul>
+ */
+public class KeyringCorpusGenerator {
+    public static final int CERTIFIER_COUNT = 16;
+
+    private static final long BASE_TIME = 1420070400000L; // 2015-01-01
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    private final long mSeed;
+    private final PGPKeyPair[] mCertifiers = new PGPKeyPair[CERTIFIER_COUNT];
+    private final PGPDigestCalculator mSha1Calculator;
+
+    public KeyringCorpusGenerator(long seed) {
+        mSeed = seed;
+        try {
+            mSha1Calculator = new JcaPGPDigestCalculatorProviderBuilder()
+                    .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME).build().get(HashAlgorithmTags.SHA1);
+        } catch (PGPException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static boolean isSecret(int index) {
+        return index < CERTIFIER_COUNT || index % 100 == 0;
+    }
+
+    /** Returns the email addresses of key number index, in user id order. */
+    public static List<String> getEmails(int index) {
+        List<String> emails = new ArrayList<>();
+        for (int i = 0; i <= index % 3; i++) {
+            // every fiftieth key shares its primary email address with the key before
+            int owner = i == 0 && index % 50 == 49 ? index - 1 : index;
+            emails.add("user" + owner + "." + i + "@example" + (owner % 100) + ".org");
+        }
+        return emails;
+    }
+
+    /** Creates key number index of the corpus, a secret key ring if isSecret(index). */
+    public UncachedKeyRing createKeyRing(int index) {
+        try {
+            return UncachedKeyRing.decodeFromData(createEncodedKeyRing(index));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private byte[] createEncodedKeyRing(int index) throws GeneralSecurityException, PGPException, IOException {
+        SecureRandom random = createRandom(index);
+        Date keyCreation = new Date(BASE_TIME + index * 1000L);
+        Date signatureCreation = new Date(keyCreation.getTime() + HOUR);
+
+        PGPKeyPair masterKeyPair = createKeyPair(PublicKeyAlgorithmTags.ECDSA, "ECDSA", keyCreation, random);
+        PGPPublicKey masterKey = masterKeyPair.getPublicKey();
+        PGPSignatureGenerator selfSigner = createSignatureGenerator(masterKeyPair, random);
+
+        List<String> emails = getEmails(index);
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < emails.size(); i++) {
+            String userId = "Corpus User " + index + "." + i + " <" + emails.get(i) + ">";
+            userIds.add(userId);
+
+            PGPSignatureSubpacketGenerator hashed = new PGPSignatureSubpacketGenerator();
+            hashed.setSignatureCreationTime(false, signatureCreation);
+            hashed.setKeyFlags(false, KeyFlags.CERTIFY_OTHER | KeyFlags.SIGN_DATA);
+            hashed.setPrimaryUserID(false, i == 0);
+            selfSigner.setHashedSubpackets(hashed.generate());
+            selfSigner.init(PGPSignature.POSITIVE_CERTIFICATION, masterKeyPair.getPrivateKey());
+            masterKey = PGPPublicKey.addCertification(masterKey, userId,
+                    selfSigner.generateCertification(userId, masterKey));
+        }
+
+        // cross certifications, on the primary user id
+        if (index >= CERTIFIER_COUNT && index % 4 == 0) {
+            masterKey = certify(masterKey, userIds.get(0), index, (index / 4) % CERTIFIER_COUNT, signatureCreation);
+        }
+        if (index >= CERTIFIER_COUNT && index % 12 == 0) {
+            masterKey = certify(masterKey, userIds.get(0), index, (index / 12 + 1) % CERTIFIER_COUNT,
+                    signatureCreation);
+        }
+
+        List<PGPKeyPair> subKeyPairs = new ArrayList<>();
+        List<PGPPublicKey> subKeys = new ArrayList<>();
+
+        PGPKeyPair encryptionKeyPair = createKeyPair(PublicKeyAlgorithmTags.ECDH, "ECDH", keyCreation, random);
+        subKeyPairs.add(encryptionKeyPair);
+        subKeys.add(bindSubKey(selfSigner, masterKeyPair, masterKey, encryptionKeyPair.getPublicKey(),
+                signatureCreation, 0));
+
+        if (index % 10 == 3) {
+            PGPKeyPair expiredKeyPair = createKeyPair(PublicKeyAlgorithmTags.ECDH, "ECDH", keyCreation, random);
+            subKeyPairs.add(expiredKeyPair);
+            subKeys.add(bindSubKey(selfSigner, masterKeyPair, masterKey, expiredKeyPair.getPublicKey(),
+                    signatureCreation, TimeUnit.DAYS.toSeconds(1)));
+        }
+
+        if (index % 20 == 7) {
+            PGPKeyPair revokedKeyPair = createKeyPair(PublicKeyAlgorithmTags.ECDH, "ECDH", keyCreation, random);
+            subKeyPairs.add(revokedKeyPair);
+            PGPPublicKey revokedKey = bindSubKey(selfSigner, masterKeyPair, masterKey,
+                    revokedKeyPair.getPublicKey(), signatureCreation, 0);
+
+            PGPSignatureSubpacketGenerator hashed = new PGPSignatureSubpacketGenerator();
+            hashed.setSignatureCreationTime(false, new Date(signatureCreation.getTime() + HOUR));
+            selfSigner.setHashedSubpackets(hashed.generate());
+            selfSigner.init(PGPSignature.SUBKEY_REVOCATION, masterKeyPair.getPrivateKey());
+            subKeys.add(PGPPublicKey.addCertification(revokedKey,
+                    selfSigner.generateCertification(masterKey, revokedKey)));
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (isSecret(index)) {
+            new PGPSecretKey(masterKeyPair.getPrivateKey(), masterKey, mSha1Calculator, true, null).encode(out);
+            for (int i = 0; i < subKeys.size(); i++) {
+                new PGPSecretKey(subKeyPairs.get(i).getPrivateKey(), subKeys.get(i), mSha1Calculator, false, null)
+                        .encode(out);
+            }
+        } else {
+            masterKey.encode(out);
+            for (PGPPublicKey subKey : subKeys) {
+                subKey.encode(out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private PGPPublicKey bindSubKey(PGPSignatureGenerator selfSigner, PGPKeyPair masterKeyPair,
+            PGPPublicKey masterKey, PGPPublicKey subKey, Date signatureCreation, long expirySeconds)
+            throws PGPException {
+        PGPSignatureSubpacketGenerator hashed = new PGPSignatureSubpacketGenerator();
+        hashed.setSignatureCreationTime(false, signatureCreation);
+        hashed.setKeyFlags(false, KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE);
+        if (expirySeconds > 0) {
+            hashed.setKeyExpirationTime(false, expirySeconds);
+        }
+        selfSigner.setHashedSubpackets(hashed.generate());
+        selfSigner.init(PGPSignature.SUBKEY_BINDING, masterKeyPair.getPrivateKey());
+        return PGPPublicKey.addCertification(subKey, selfSigner.generateCertification(masterKey, subKey));
+    }
+
+    private PGPPublicKey certify(PGPPublicKey masterKey, String userId, int index, int certifierIndex,
+            Date signatureCreation) throws GeneralSecurityException, PGPException {
+        PGPKeyPair certifier = getCertifier(certifierIndex);
+        // negative seeds, so this doesn't repeat the random of any key in the corpus
+        SecureRandom random = createRandom(-1 - (index * CERTIFIER_COUNT + certifierIndex));
+
+        PGPSignatureSubpacketGenerator hashed = new PGPSignatureSubpacketGenerator();
+        hashed.setSignatureCreationTime(false, new Date(signatureCreation.getTime() + HOUR));
+        PGPSignatureGenerator certifierSigner = createSignatureGenerator(certifier, random);
+        certifierSigner.setHashedSubpackets(hashed.generate());
+        certifierSigner.init(PGPSignature.DEFAULT_CERTIFICATION, certifier.getPrivateKey());
+        return PGPPublicKey.addCertification(masterKey, userId,
+                certifierSigner.generateCertification(userId, masterKey));
+    }
+
+    /** The master key of a certifier is the master key of the corpus key with the same index. */
+    private PGPKeyPair getCertifier(int certifierIndex) throws GeneralSecurityException, PGPException {
+        if (mCertifiers[certifierIndex] == null) {
+            Date keyCreation = new Date(BASE_TIME + certifierIndex * 1000L);
+            mCertifiers[certifierIndex] = createKeyPair(PublicKeyAlgorithmTags.ECDSA, "ECDSA", keyCreation,
+                    createRandom(certifierIndex));
+        }
+        return mCertifiers[certifierIndex];
+    }
+
+    private SecureRandom createRandom(int index) throws GeneralSecurityException {
+        // SHA1PRNG is deterministic if seeded before first use
+        SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+        random.setSeed(mSeed * 1000003L + index);
+        return random;
+    }
+
+    private static PGPKeyPair createKeyPair(int algorithm, String jcaAlgorithm, Date creation, SecureRandom random)
+            throws GeneralSecurityException, PGPException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(jcaAlgorithm, Constants.BOUNCY_CASTLE_PROVIDER_NAME);
+        keyGen.initialize(new ECGenParameterSpec("P-256"), random);
+        return new JcaPGPKeyPair(algorithm, keyGen.generateKeyPair(), creation);
+    }
+
+    private static PGPSignatureGenerator createSignatureGenerator(PGPKeyPair keyPair, SecureRandom random) {
+        return new PGPSignatureGenerator(new JcaPGPContentSignerBuilder(
+                keyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256)
+                .setProvider(Constants.BOUNCY_CASTLE_PROVIDER_NAME)
+                .setSecureRandom(random));
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class InMemoryPipeTest {
+
+    @Test
+    public void read_shouldReturnWrittenDataLargerThanBuffer() throws Exception {
+        byte[] data = new byte[5 * IoBufferPool.SMALL_BUFFER_SIZE + 17];
+        new Random(42).nextBytes(data);
+        InMemoryPipe pipe = new InMemoryPipe(IoBufferPool.SMALL_BUFFER_SIZE);
+
+        FutureTask<Void> writer = startWriter(() -> {
+            OutputStream out = pipe.getOutputStream();
+            for (int offset = 0; offset < data.length; offset += 1000) {
+                out.write(data, offset, Math.min(1000, data.length - offset));
+            }
+            out.close();
+            return null;
+        });
+
+        assertArrayEquals(data, readFully(pipe.getInputStream()));
+        writer.get();
+    }
+
+    @Test
+    public void read_afterAbort_shouldFail() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe(IoBufferPool.SMALL_BUFFER_SIZE);
+        pipe.getOutputStream().write(new byte[] { 1, 2, 3 });
+        pipe.abort(new IOException("export failed"));
+
+        try {
+            readFully(pipe.getInputStream());
+            fail("read from an aborted pipe must fail");
+        } catch (IOException e) {
+            assertEquals("export failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void write_afterReaderClosed_shouldFailInsteadOfBlocking() throws Exception {
+        InMemoryPipe pipe = new InMemoryPipe(IoBufferPool.SMALL_BUFFER_SIZE);
+
+        FutureTask<Void> writer = startWriter(() -> {
+            OutputStream out = pipe.getOutputStream();
+            byte[] chunk = new byte[1000];
+            while (true) {
+                out.write(chunk);
+            }
+        });
+        pipe.getInputStream().read(new byte[10]);
+        pipe.getInputStream().close();
+
+        try {
+            writer.get();
+            fail("write to a pipe closed by the reader must fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    private static FutureTask<Void> startWriter(Callable<Void> callable) {
+        FutureTask<Void> task = new FutureTask<>(callable);
+        new Thread(task).start();
+        return task;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int length;
+        while ((length = in.read(buffer)) != -1) {
+            out.write(buffer, 0, length);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.util;
+
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+
+public class IoBufferPoolTest {
+
+    @Test
+    public void acquire_shouldReuseReleasedBuffer() throws Exception {
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+        IoBufferPool.release(buffer, false);
+
+        long allocatedBytes = IoBufferPool.getAllocatedBytes();
+        byte[] reacquired = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+
+        assertEquals(IoBufferPool.LARGE_BUFFER_SIZE, reacquired.length);
+        assertEquals(allocatedBytes, IoBufferPool.getAllocatedBytes());
+        IoBufferPool.release(reacquired, false);
+    }
+
+    @Test
+    public void acquire_shouldRoundUpToSizeClass() throws Exception {
+        byte[] small = IoBufferPool.acquire(1024);
+        byte[] large = IoBufferPool.acquire(IoBufferPool.SMALL_BUFFER_SIZE + 1);
+
+        assertEquals(IoBufferPool.SMALL_BUFFER_SIZE, small.length);
+        assertEquals(IoBufferPool.LARGE_BUFFER_SIZE, large.length);
+
+        IoBufferPool.release(small, false);
+        IoBufferPool.release(large, false);
+    }
+
+    @Test
+    public void release_withWipe_shouldZeroBuffer() throws Exception {
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.SMALL_BUFFER_SIZE);
+        Arrays.fill(buffer, (byte) 0x42);
+        IoBufferPool.release(buffer, true);
+
+        assertArrayEquals(new byte[IoBufferPool.SMALL_BUFFER_SIZE], buffer);
+    }
+
+    @Test
+    public void release_oversizedBuffer_shouldNotBePooled() throws Exception {
+        byte[] oversized = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE * 2);
+        IoBufferPool.release(oversized, false);
+
+        byte[] buffer = IoBufferPool.acquire(IoBufferPool.LARGE_BUFFER_SIZE);
+        assertNotSame(oversized, buffer);
+        IoBufferPool.release(buffer, false);
+    }
+
+    @Test
+    public void pooledBufferedOutputStream_shouldWriteAllData() throws Exception {
+        byte[] data = new byte[3 * IoBufferPool.SMALL_BUFFER_SIZE + 17];
+        new Random(42).nextBytes(data);
+
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        PooledBufferedOutputStream out =
+                new PooledBufferedOutputStream(byteOut, IoBufferPool.SMALL_BUFFER_SIZE, true);
+        out.write(data, 0, 100);
+        out.write(data[100]);
+        out.write(data, 101, IoBufferPool.SMALL_BUFFER_SIZE);
+        out.write(data, 101 + IoBufferPool.SMALL_BUFFER_SIZE, data.length - 101 - IoBufferPool.SMALL_BUFFER_SIZE);
+        out.close();
+        // a second close must be harmless
+        out.close();
+
+        assertTrue(Arrays.equals(data, byteOut.toByteArray()));
+    }
+
+    @Test
+    public void pooledBufferedOutputStream_release_shouldDiscardAndReturnBuffer() throws Exception {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        PooledBufferedOutputStream out =
+                new PooledBufferedOutputStream(byteOut, IoBufferPool.SMALL_BUFFER_SIZE, true);
+        out.write(new byte[] { 1, 2, 3 });
+        out.release();
+
+        long allocatedBytes = IoBufferPool.getAllocatedBytes();
+        byte[] reacquired = IoBufferPool.acquire(IoBufferPool.SMALL_BUFFER_SIZE);
+
+        assertEquals(0, byteOut.size());
+        assertEquals(allocatedBytes, IoBufferPool.getAllocatedBytes());
+        assertArrayEquals(new byte[IoBufferPool.SMALL_BUFFER_SIZE], reacquired);
+        IoBufferPool.release(reacquired, false);
+
+        // closing after a release must neither write nor release again
+        out.close();
+        assertEquals(0, byteOut.size());
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.benchmark;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Security;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Collections;
+import java.util.Date;
+
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.sufficientlysecure.keychain.Constants;
+import org.sufficientlysecure.keychain.daos.InMemoryKeyRepository;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.operations.results.PgpEditKeyResult;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedSecretKeyRing;
+import org.sufficientlysecure.keychain.pgp.PgpKeyOperation;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+import org.sufficientlysecure.keychain.pgp.exception.PgpGeneralException;
+import org.sufficientlysecure.keychain.service.ChangeUnlockParcel;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.Algorithm;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.Curve;
+import org.sufficientlysecure.keychain.service.SaveKeyringParcel.SubkeyAdd;
+import org.sufficientlysecure.keychain.util.Passphrase;
+
+
+/**
+ * A secret key ring of one of the key types OpenKeychain can use, with a signing and an
+ * encryption subkey, and a KeyRepository that holds only this key ring.
+ * <p/>
+ * RSA and NIST keys are created by PgpKeyOperation, without a passphrase so the operations
+ * don't need the passphrase cache. Cv25519 keys can't be created by OpenKeychain, so the
+ * Ed25519/Cv25519 key is the unprotected test key that Cv25519Test uses.
+ */
+class BenchmarkKeys {
+    static final String PROVIDER = Constants.BOUNCY_CASTLE_PROVIDER_NAME;
+
+    static {
+        // same as in KeychainApplication
+        Security.insertProviderAt(new BouncyCastleProvider(), 1);
+    }
+
+    enum KeyType {
+        RSA_2048, RSA_4096, ED25519_CV25519, NIST_P256, NIST_P384, NIST_P521
+    }
+
+    private final CanonicalizedSecretKeyRing mSecretKeyRing;
+    private final InMemoryKeyRepository mKeyRepository;
+
+    private BenchmarkKeys(CanonicalizedSecretKeyRing secretKeyRing) throws IOException {
+        mSecretKeyRing = secretKeyRing;
+        mKeyRepository = new InMemoryKeyRepository(Collections.singletonList(secretKeyRing));
+    }
+
+    static BenchmarkKeys create(KeyType keyType) throws IOException, PgpGeneralException {
+        switch (keyType) {
+            case RSA_2048:
+                return createKeyRing(Algorithm.RSA, Algorithm.RSA, 2048, null);
+            case RSA_4096:
+                return createKeyRing(Algorithm.RSA, Algorithm.RSA, 4096, null);
+            case ED25519_CV25519:
+                return loadCv25519();
+            case NIST_P256:
+                return createKeyRing(Algorithm.ECDSA, Algorithm.ECDH, null, Curve.NIST_P256);
+            case NIST_P384:
+                return createKeyRing(Algorithm.ECDSA, Algorithm.ECDH, null, Curve.NIST_P384);
+            case NIST_P521:
+                return createKeyRing(Algorithm.ECDSA, Algorithm.ECDH, null, Curve.NIST_P521);
+        }
+        throw new IllegalArgumentException("unknown key type " + keyType);
+    }
+
+    /** A bare key pair, for key rings that are built by hand rather than by PgpKeyOperation. */
+    static PGPKeyPair createKeyPair(int algorithm, String jcaAlgorithm, Object parameter)
+            throws GeneralSecurityException, PGPException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(jcaAlgorithm, PROVIDER);
+        if (parameter instanceof Integer) {
+            keyGen.initialize((Integer) parameter, new SecureRandom());
+        } else {
+            keyGen.initialize(new ECGenParameterSpec((String) parameter), new SecureRandom());
+        }
+        return new JcaPGPKeyPair(algorithm, keyGen.generateKeyPair(), new Date());
+    }
+
+    private static BenchmarkKeys createKeyRing(Algorithm signAlgorithm, Algorithm encryptAlgorithm,
+            Integer keySize, Curve curve) throws IOException {
+        SaveKeyringParcel.Builder builder = SaveKeyringParcel.buildNewKeyringParcel();
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(signAlgorithm, keySize, curve, KeyFlags.CERTIFY_OTHER, 0L));
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(signAlgorithm, keySize, curve, KeyFlags.SIGN_DATA, 0L));
+        builder.addSubkeyAdd(SubkeyAdd.createSubkeyAdd(encryptAlgorithm, keySize, curve,
+                KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE, 0L));
+        builder.addUserId("Benchmark <benchmark@example.com>");
+        builder.setNewUnlock(ChangeUnlockParcel.createUnLockParcelForNewKey(new Passphrase()));
+
+        PgpEditKeyResult result = new PgpKeyOperation(null).createSecretKeyRing(builder.build());
+        if (!result.success()) {
+            throw new IllegalStateException("key creation failed");
+        }
+        return new BenchmarkKeys(canonicalize(result.getRing()));
+    }
+
+    private static BenchmarkKeys loadCv25519() throws IOException, PgpGeneralException {
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        try (InputStream in = BenchmarkKeys.class.getResourceAsStream("/cv25519-key.sec.asc")) {
+            byte[] buffer = new byte[4096];
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                data.write(buffer, 0, length);
+            }
+        }
+        return new BenchmarkKeys(canonicalize(UncachedKeyRing.decodeFromData(data.toByteArray())));
+    }
+
+    private static CanonicalizedSecretKeyRing canonicalize(UncachedKeyRing ring) {
+        CanonicalizedSecretKeyRing secretKeyRing =
+                (CanonicalizedSecretKeyRing) ring.canonicalize(new OperationLog(), 0);
+        if (secretKeyRing == null) {
+            throw new IllegalStateException("key ring failed canonicalization");
+        }
+        return secretKeyRing;
+    }
+
+    long getMasterKeyId() {
+        return mSecretKeyRing.getMasterKeyId();
+    }
+
+    InMemoryKeyRepository getKeyRepository() {
+        return mKeyRepository;
+    }
+
+}
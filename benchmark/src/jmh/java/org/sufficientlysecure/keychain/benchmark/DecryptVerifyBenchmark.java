@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.benchmark;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sufficientlysecure.keychain.benchmark.BenchmarkKeys.KeyType;
+import org.sufficientlysecure.keychain.benchmark.SignEncryptBenchmark.CountingNullOutputStream;
+import org.sufficientlysecure.keychain.operations.results.DecryptVerifyResult;
+import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyInputParcel;
+import org.sufficientlysecure.keychain.pgp.PgpDecryptVerifyOperation;
+import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
+import org.sufficientlysecure.keychain.util.InputData;
+
+
+/** Decrypts and verifies messages with PgpDecryptVerifyOperation. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecryptVerifyBenchmark {
+
+    @Param({ "RSA_2048", "RSA_4096", "ED25519_CV25519", "NIST_P256", "NIST_P384", "NIST_P521" })
+    public KeyType keyType;
+
+    @Param({ "1024", "1048576", "104857600" })
+    public int messageSize;
+
+    @Param({ "true", "false" })
+    public boolean armor;
+
+    @Param({ "true", "false" })
+    public boolean compress;
+
+    private BenchmarkKeys keys;
+    private PgpDecryptVerifyInputParcel input;
+    private byte[] encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.create(keyType);
+        input = PgpDecryptVerifyInputParcel.builder().build();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SignEncryptBenchmark.signAndEncrypt(keys, SignEncryptBenchmark.createMessage(messageSize), armor, compress, out);
+        encrypted = out.toByteArray();
+    }
+
+    @Benchmark
+    public long decryptVerify() throws Exception {
+        CountingNullOutputStream out = new CountingNullOutputStream();
+        PgpDecryptVerifyOperation op = new PgpDecryptVerifyOperation(null, keys.getKeyRepository(), null);
+        DecryptVerifyResult result = op.execute(input, CryptoInputParcel.createCryptoInputParcel(),
+                new InputData(new ByteArrayInputStream(encrypted), encrypted.length), out);
+        if (!result.success()) {
+            throw new IllegalStateException("decrypt/verify failed");
+        }
+        return out.getCount();
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.benchmark;
+
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.sig.KeyFlags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.PGPSignatureSubpacketGenerator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sufficientlysecure.keychain.operations.results.OperationResult.OperationLog;
+import org.sufficientlysecure.keychain.pgp.CanonicalizedKeyRing;
+import org.sufficientlysecure.keychain.pgp.UncachedKeyRing;
+
+
+/**
+ * Parses, canonicalizes and merges public key rings with UncachedKeyRing.decodeFromData,
+ * canonicalize and merge, as on every key import and keyserver refresh.
+ * <p/>
+ * A realistic key has a few user ids, two subkeys and a few dozen third party
+ * certifications. A flooded key has ten thousand third party certifications,
+ * like the keys that were spammed on the SKS keyservers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class KeyRingBenchmark {
+    private static final int USER_IDS = 3;
+    private static final int SUBKEYS = 2;
+    private static final int CERTIFIERS = 8;
+
+    public enum KeyRingKind {
+        REALISTIC(30), FLOODED(10000);
+
+        final int mThirdPartyCertifications;
+
+        KeyRingKind(int thirdPartyCertifications) {
+            mThirdPartyCertifications = thirdPartyCertifications;
+        }
+    }
+
+    @Param({ "REALISTIC", "FLOODED" })
+    public KeyRingKind kind;
+
+    private byte[] encodedKeyRing;
+    private UncachedKeyRing keyRing;
+    private UncachedKeyRing updatedKeyRing;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        PGPKeyPair masterKeyPair = BenchmarkKeys.createKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL, "RSA", 2048);
+        PGPKeyPair[] subKeyPairs = new PGPKeyPair[SUBKEYS];
+        for (int i = 0; i < subKeyPairs.length; i++) {
+            subKeyPairs[i] = BenchmarkKeys.createKeyPair(PublicKeyAlgorithmTags.RSA_GENERAL, "RSA", 2048);
+        }
+        PGPKeyPair[] certifiers = new PGPKeyPair[CERTIFIERS];
+        for (int i = 0; i < certifiers.length; i++) {
+            certifiers[i] = BenchmarkKeys.createKeyPair(PublicKeyAlgorithmTags.ECDSA, "ECDSA", "P-256");
+        }
+
+        PGPPublicKey masterKey = masterKeyPair.getPublicKey();
+        PGPSignatureGenerator selfSigner = createSignatureGenerator(masterKeyPair);
+        for (int i = 0; i < USER_IDS; i++) {
+            selfSigner.init(PGPSignature.POSITIVE_CERTIFICATION, masterKeyPair.getPrivateKey());
+            String userId = getUserId(i);
+            masterKey = PGPPublicKey.addCertification(masterKey, userId,
+                    selfSigner.generateCertification(userId, masterKey));
+        }
+
+        // encryption subkeys, so canonicalize keeps them without a primary key binding
+        PGPSignatureSubpacketGenerator subKeyFlags = new PGPSignatureSubpacketGenerator();
+        subKeyFlags.setKeyFlags(false, KeyFlags.ENCRYPT_COMMS | KeyFlags.ENCRYPT_STORAGE);
+        PGPPublicKey[] subKeys = new PGPPublicKey[SUBKEYS];
+        for (int i = 0; i < subKeys.length; i++) {
+            selfSigner.init(PGPSignature.SUBKEY_BINDING, masterKeyPair.getPrivateKey());
+            selfSigner.setHashedSubpackets(subKeyFlags.generate());
+            PGPPublicKey subKey = subKeyPairs[i].getPublicKey();
+            subKeys[i] = PGPPublicKey.addCertification(subKey,
+                    selfSigner.generateCertification(masterKey, subKey));
+        }
+
+        PGPPublicKey certifiedMasterKey =
+                addThirdPartyCertifications(masterKey, certifiers, 0, kind.mThirdPartyCertifications);
+        encodedKeyRing = encodeKeyRing(certifiedMasterKey, subKeys);
+        keyRing = UncachedKeyRing.decodeFromData(encodedKeyRing);
+
+        // the same key as fetched again later, with some more certifications
+        int newCertifications = Math.max(1, kind.mThirdPartyCertifications / 10);
+        PGPPublicKey updatedMasterKey = addThirdPartyCertifications(certifiedMasterKey, certifiers,
+                kind.mThirdPartyCertifications, newCertifications);
+        updatedKeyRing = UncachedKeyRing.decodeFromData(encodeKeyRing(updatedMasterKey, subKeys));
+    }
+
+    @Benchmark
+    public UncachedKeyRing decode() throws Exception {
+        return UncachedKeyRing.decodeFromData(encodedKeyRing);
+    }
+
+    @Benchmark
+    public CanonicalizedKeyRing canonicalize() {
+        return keyRing.canonicalize(new OperationLog(), 0);
+    }
+
+    /** Merges an updated copy of the key ring, as when a key is refreshed from a keyserver. */
+    @Benchmark
+    public UncachedKeyRing merge() {
+        return keyRing.merge(updatedKeyRing, new OperationLog(), 0);
+    }
+
+    private static PGPSignatureGenerator createSignatureGenerator(PGPKeyPair keyPair) {
+        return new PGPSignatureGenerator(new JcaPGPContentSignerBuilder(
+                keyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256)
+                .setProvider(BenchmarkKeys.PROVIDER));
+    }
+
+    private static PGPPublicKey addThirdPartyCertifications(PGPPublicKey masterKey, PGPKeyPair[] certifiers,
+            int first, int count) throws PGPException {
+        PGPSignatureGenerator[] signers = new PGPSignatureGenerator[certifiers.length];
+        for (int i = 0; i < certifiers.length; i++) {
+            signers[i] = createSignatureGenerator(certifiers[i]);
+        }
+
+        PGPPublicKey certifiedKey = masterKey;
+        for (int i = first; i < first + count; i++) {
+            int certifier = i % certifiers.length;
+            signers[certifier].init(PGPSignature.DEFAULT_CERTIFICATION, certifiers[certifier].getPrivateKey());
+            String userId = getUserId(i % USER_IDS);
+            certifiedKey = PGPPublicKey.addCertification(certifiedKey, userId,
+                    signers[certifier].generateCertification(userId, masterKey));
+        }
+        return certifiedKey;
+    }
+
+    private static byte[] encodeKeyRing(PGPPublicKey masterKey, PGPPublicKey[] subKeys) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        masterKey.encode(out);
+        for (PGPPublicKey subKey : subKeys) {
+            subKey.encode(out);
+        }
+        return out.toByteArray();
+    }
+
+    private static String getUserId(int i) {
+        return "Benchmark User " + i + " <user" + i + "@example.com>";
+    }
+
+}
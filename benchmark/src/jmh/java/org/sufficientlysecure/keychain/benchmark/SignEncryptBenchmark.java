@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Schürmann & Breitmoser GbR
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.sufficientlysecure.keychain.benchmark;
+
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bouncycastle.bcpg.CompressionAlgorithmTags;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.sufficientlysecure.keychain.benchmark.BenchmarkKeys.KeyType;
+import org.sufficientlysecure.keychain.operations.results.PgpSignEncryptResult;
+import org.sufficientlysecure.keychain.pgp.PgpSecurityConstants.OpenKeychainCompressionAlgorithmTags;
+import org.sufficientlysecure.keychain.pgp.PgpSignEncryptData;
+import org.sufficientlysecure.keychain.pgp.PgpSignEncryptOperation;
+import org.sufficientlysecure.keychain.service.input.CryptoInputParcel;
+import org.sufficientlysecure.keychain.util.InputData;
+
+
+/** Signs and encrypts messages with PgpSignEncryptOperation. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SignEncryptBenchmark {
+
+    @Param({ "RSA_2048", "RSA_4096", "ED25519_CV25519", "NIST_P256", "NIST_P384", "NIST_P521" })
+    public KeyType keyType;
+
+    @Param({ "1024", "1048576", "104857600" })
+    public int messageSize;
+
+    @Param({ "true", "false" })
+    public boolean armor;
+
+    @Param({ "true", "false" })
+    public boolean compress;
+
+    private BenchmarkKeys keys;
+    private byte[] message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        keys = BenchmarkKeys.create(keyType);
+        message = createMessage(messageSize);
+    }
+
+    @Benchmark
+    public long signEncrypt() throws Exception {
+        CountingNullOutputStream out = new CountingNullOutputStream();
+        signAndEncrypt(keys, message, armor, compress, out);
+        return out.getCount();
+    }
+
+    /** Signs and encrypts to the key itself, with the algorithms the app uses by default. */
+    static void signAndEncrypt(BenchmarkKeys keys, byte[] message, boolean armor, boolean compress,
+            OutputStream out) {
+        PgpSignEncryptData data = PgpSignEncryptData.builder()
+                .setSignatureMasterKeyId(keys.getMasterKeyId())
+                .setEncryptionMasterKeyIds(new long[] { keys.getMasterKeyId() })
+                .setEnableAsciiArmorOutput(armor)
+                .setCompressionAlgorithm(compress
+                        ? OpenKeychainCompressionAlgorithmTags.USE_DEFAULT
+                        : CompressionAlgorithmTags.UNCOMPRESSED)
+                .build();
+
+        PgpSignEncryptOperation op = new PgpSignEncryptOperation(null, keys.getKeyRepository(), null);
+        PgpSignEncryptResult result = op.execute(data, CryptoInputParcel.createCryptoInputParcel(new Date()),
+                new InputData(new ByteArrayInputStream(message), message.length), out);
+        if (!result.success()) {
+            throw new IllegalStateException("sign/encrypt failed");
+        }
+    }
+
+    /**
+     * Half random, half text. All random data would make compression look worse, all text would
+     * make it look better than for typical mail content with attachments.
+     */
+    static byte[] createMessage(int size) {
+        byte[] message = new byte[size];
+        new Random(42).nextBytes(message);
+
+        byte[] line = "The quick brown fox jumps over the lazy dog, again and again.\n".getBytes();
+        for (int i = size / 2; i < size; i++) {
+            message[i] = line[i % line.length];
+        }
+        return message;
+    }
+
+    /** Discards the output, so only the operation itself is measured. */
+    static class CountingNullOutputStream extends OutputStream {
+        private long mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+
+}
@@ -28,11 +28,17 @@ public class InputData {
     private PositionAwareInputStream mInputStream;
     private long mSize;
     String mOriginalFilename;
+    String mMimeType;
 
-    public InputData(InputStream inputStream, long size, String originalFilename) {
+    public InputData(InputStream inputStream, long size, String originalFilename, String mimeType) {
         mInputStream = new PositionAwareInputStream(inputStream);
         mSize = size;
         mOriginalFilename = originalFilename;
+        mMimeType = mimeType;
+    }
+
+    public InputData(InputStream inputStream, long size, String originalFilename) {
+        this(inputStream, size, originalFilename, null);
     }
 
     public InputData(InputStream inputStream, long size) {
@@ -49,6 +55,11 @@ public class InputData {
         return mOriginalFilename;
     }
 
+    /** Returns the MIME type of the input, or null if it is not known. */
+    public String getMimeType() {
+        return mMimeType;
+    }
+
     public long getSize() {
         return mSize;
     }